@@ -2,13 +2,19 @@ package de.eldecker.dhbw.spring.bildergallerie;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 
 /**
  * Einstiegspunkt der Spring Boot Anwendung, kann für Debugging
  * mit Eclipse auch im Debug-Modus gestartet werden.
+ * <br><br>
+ *
+ * {@code @EnableScheduling} wird für die regelmäßige Abfrage der wartenden
+ * Upload-Aufträge benötigt.
  */
 @SpringBootApplication
+@EnableScheduling
 public class BildergallerieApplication {
 
 	public static void main( String[] args ) {
@@ -0,0 +1,34 @@
+package de.eldecker.dhbw.spring.bildergallerie.db;
+
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildDatenEntity;
+
+
+/**
+ * Zur Laufzeit wird von <i>Spring Data JPA</i> automatisch eine Implementierung
+ * dieses Interface erzeugt.
+ * <br><br>
+ *
+ * Anders als die anderen Repositories wird dieses Repository nicht über
+ * <i>Spring Data REST</i> veröffentlicht, da es die Binärdaten der Bilder enthält.
+ */
+@RepositoryRestResource(exported = false)
+public interface BildDatenRepository extends JpaRepository<BildDatenEntity, String> {
+
+    /**
+     * Größe der Binärdaten abfragen, ohne den BLOB zu laden.
+     *
+     * @param schluessel Speicher-Schlüssel
+     *
+     * @return Optional mit Anzahl Bytes, leer wenn keine Daten unter {@code schluessel}
+     */
+    @Query("SELECT d.groesseBytes FROM BildDatenEntity d WHERE d.schluessel = :schluessel")
+    Optional<Long> findGroesseBytes( @Param("schluessel") String schluessel );
+
+}
@@ -0,0 +1,13 @@
+package de.eldecker.dhbw.spring.bildergallerie.db;
+
+
+/**
+ * Projektion mit ID und perzeptuellem Hash-Wert eines Bildes, siehe 
+ * {@link BildRepository#streamAllePerzeptuellenHashes()}.
+ * 
+ * @param id ID des Bildes
+ * 
+ * @param perzeptuellerHash 64-Bit-Hash-Wert (dHash) des Bildes
+ */
+public record BildPerzeptuellerHash( Long id, Long perzeptuellerHash ) {
+}
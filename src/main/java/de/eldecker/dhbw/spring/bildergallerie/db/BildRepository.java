@@ -1,11 +1,25 @@
 package de.eldecker.dhbw.spring.bildergallerie.db;
 
+import static org.hibernate.jpa.HibernateHints.HINT_CACHEABLE;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
 
+import jakarta.persistence.QueryHint;
+
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 
 /**
@@ -20,13 +34,185 @@ import java.util.Optional;
  * {@code spring-boot-starter-data-rest} hinzugefügt werden. 
  * <br><br>
  * 
- * In Klasse {@link BildEntity} wurden das Attribut {@code bild} und die
- * Methode {@link BildEntity#getBildBytes()} mit der Annotation 
- * {@code JsonIgnore} versehen.
+ * In Klasse {@link BildEntity} wurde das Attribut {@code speicherSchluessel}
+ * mit der Annotation {@code JsonIgnore} versehen.
+ * <br><br>
+ * 
+ * Methoden, die nur intern verwendet werden (z.B. Abfragen über alle Bilder für den
+ * Aufbau von Indizes), sind mit {@code @RestResource(exported = false)} annotiert,
+ * damit sie nicht unter {@code /bilder/search} veröffentlicht werden.
  */
 @RepositoryRestResource(path = "bilder")
 public interface BildRepository extends JpaRepository<BildEntity, Long> {
 
+    /**
+     * Alle Bilder sortiert laden; überschrieben, damit das Ergebnis (nur die IDs,
+     * die Entitäten selbst kommen aus dem Second-Level-Cache) im Query-Cache von
+     * Hibernate gehalten wird, bis die Tabelle {@code BILDER} geändert wird.
+     * 
+     * @param sort Sortierung
+     * 
+     * @return Sortierte Liste aller Bilder
+     */
+    @Override
+    @QueryHints( @QueryHint( name = HINT_CACHEABLE, value = "true" ) )
+    List<BildEntity> findAll( Sort sort );
+    
+    
+    /**
+     * Eine Seite von sortierten Bildern laden ("Keyset Pagination"): Anstatt mit
+     * {@code OFFSET} die Bilder der vorherigen Seiten zu überspringen, wird mit einer
+     * {@code WHERE}-Bedingung direkt hinter dem letzten Bild der vorherigen Seite
+     * aufgesetzt. Mit einem passenden Index kostet deshalb jede Seite gleich viel,
+     * egal wie weit "hinten" sie liegt.
+     * <br><br>
+     * 
+     * Damit die Position eindeutig ist, muss {@code sort} als letztes Kriterium
+     * die ID enthalten.
+     * 
+     * @param position {@code ScrollPosition.keyset()} für erste Seite, sonst
+     *                 Werte der Sortier-Attribute des letzten Bilds der vorherigen Seite
+     * 
+     * @param sort Sortierung, z.B. nach {@code zeitpunktErzeugung} und {@code id}
+     * 
+     * @param limit Maximale Anzahl Bilder auf der Seite
+     * 
+     * @return Seite mit Bildern; {@code hasNext()} ist {@code true}, wenn es weitere
+     *         Bilder gibt
+     */
+    Window<BildEntity> findAllBy( ScrollPosition position, Sort sort, Limit limit );
+    
+    
+    /**
+     * Wie {@link #findAllBy(ScrollPosition, Sort, Limit)}, aber nur Bilder, denen der Tag
+     * mit {@code tagId} zugeordnet ist (Join über Tabelle {@code TAG_ZU_BILD}).
+     * 
+     * @param tagId ID des Tags
+     * 
+     * @param position {@code ScrollPosition.keyset()} für erste Seite, sonst Werte der
+     *                 Sortier-Attribute des letzten Bilds der vorherigen Seite
+     * 
+     * @param sort Sortierung, muss als letztes Kriterium die ID enthalten
+     * 
+     * @param limit Maximale Anzahl Bilder auf der Seite
+     * 
+     * @return Seite mit Bildern, die den Tag haben
+     */
+    Window<BildEntity> findByTagsId( Long tagId, ScrollPosition position, Sort sort, Limit limit );
+    
+    
+    /**
+     * Anzahl der Bilder, denen der Tag mit {@code tagId} zugeordnet ist, mit einer
+     * {@code COUNT}-Query bestimmen (ohne die Bilder zu laden).
+     * 
+     * @param tagId ID des Tags
+     * 
+     * @return Anzahl Bilder mit dem Tag
+     */
+    long countByTagsId( Long tagId );
+    
+    
+    /**
+     * Tags für mehrere Bilder mit einer einzigen Query laden, z.B. für alle Bilder einer
+     * Seite der Bilderliste. Wenn stattdessen für jedes Bild {@link BildEntity#getTags()}
+     * aufgerufen wird, dann wird für jedes Bild eine eigene Query ausgeführt ("N+1-Problem").
+     * 
+     * @param bildIds IDs der Bilder, darf nicht leer sein
+     * 
+     * @return Zuordnungen von Tags zu Bildern, pro Bild alphabetisch nach Tag-Name
+     *         sortiert; Bilder ohne Tags kommen nicht vor
+     */
+    @RestResource(exported = false)
+    @Query( """
+            SELECT new de.eldecker.dhbw.spring.bildergallerie.db.BildTagZuordnung( b.id, t.id, t.name )
+              FROM BildEntity b JOIN b.tags t
+             WHERE b.id IN :bildIds
+             ORDER BY b.id, LOWER( t.name )
+            """ )
+    List<BildTagZuordnung> findTagsFuerBilder( Collection<Long> bildIds );
+    
+    
+    /**
+     * Alle Zuordnungen von Tags zu Bildern als Stream lesen, z.B. für den Aufbau eines
+     * Index im Speicher; muss innerhalb einer Transaktion aufgerufen werden, der Stream
+     * muss geschlossen werden.
+     * 
+     * @return Stream mit allen Zeilen der Join-Tabelle {@code TAG_ZU_BILD}
+     */
+    @RestResource(exported = false)
+    @Query( "SELECT new de.eldecker.dhbw.spring.bildergallerie.db.BildTagZuordnung( b.id, t.id, t.name ) FROM BildEntity b JOIN b.tags t" )
+    Stream<BildTagZuordnung> streamAlleTagZuordnungen();
+    
+    
+    /**
+     * IDs aller Bilder als Stream lesen; muss innerhalb einer Transaktion aufgerufen 
+     * werden, der Stream muss geschlossen werden.
+     * 
+     * @return Stream mit allen IDs
+     */
+    @RestResource(exported = false)
+    @Query( "SELECT b.id FROM BildEntity b" )
+    Stream<Long> streamAlleIds();
+    
+    
+    /**
+     * Hash-Werte aller Bilder als Stream lesen, z.B. für das Füllen eines Bloom-Filters;
+     * muss innerhalb einer Transaktion aufgerufen werden, der Stream muss geschlossen
+     * werden.
+     * 
+     * @return Stream mit allen Hash-Werten
+     */
+    @RestResource(exported = false)
+    @Query( "SELECT b.hash FROM BildEntity b WHERE b.hash IS NOT NULL" )
+    Stream<String> streamAlleHashes();
+    
+    
+    /**
+     * ID und Titel aller Bilder als Stream lesen, z.B. für den Aufbau des Suchindex für
+     * Titel; muss innerhalb einer Transaktion aufgerufen werden, der Stream muss 
+     * geschlossen werden.
+     * 
+     * @return Stream mit ID und Titel aller Bilder
+     */
+    @RestResource(exported = false)
+    @Query( "SELECT new de.eldecker.dhbw.spring.bildergallerie.db.BildTitel( b.id, b.titel ) FROM BildEntity b" )
+    Stream<BildTitel> streamAlleTitel();
+    
+    
+    /**
+     * ID und perzeptueller Hash-Wert aller Bilder, für die dieser Wert vorhanden ist, 
+     * als Stream lesen, z.B. für den Aufbau des Index für ähnliche Bilder; muss innerhalb
+     * einer Transaktion aufgerufen werden, der Stream muss geschlossen werden.
+     * 
+     * @return Stream mit ID und perzeptuellem Hash-Wert
+     */
+    @RestResource(exported = false)
+    @Query( """
+            SELECT new de.eldecker.dhbw.spring.bildergallerie.db.BildPerzeptuellerHash( b.id, b.perzeptuellerHash )
+              FROM BildEntity b
+             WHERE b.perzeptuellerHash IS NOT NULL
+            """ )
+    Stream<BildPerzeptuellerHash> streamAllePerzeptuellenHashes();
+    
+    
+    /**
+     * IDs aller Rasterbilder suchen, für die noch kein perzeptueller Hash-Wert gespeichert
+     * ist (Datensätze aus älteren Versionen der Anwendung oder Bilder, die nicht dekodiert
+     * werden konnten).
+     * 
+     * @return Liste der IDs, kann leer sein
+     */
+    @RestResource(exported = false)
+    @Query( """
+            SELECT b.id FROM BildEntity b
+             WHERE b.perzeptuellerHash IS NULL
+               AND b.speicherSchluessel IS NOT NULL
+               AND b.mimeTyp <> 'image/svg+xml'
+             ORDER BY b.id
+            """ )
+    List<Long> findIdsOhnePerzeptuellenHash();
+    
+
     /**
      * Bild anhand Hash-Wert suchen (Attribut "Hash" für die Tabelle hat deshalb
      * einen Index). "Spring Data JPA" erkennt anhand dem Methodennamen was
@@ -38,5 +224,16 @@ public interface BildRepository extends JpaRepository<BildEntity, Long> {
      *         in der Datenbank existiert, sonst leeres Optional
      */
     Optional<BildEntity> findByHash( String hash );
+    
+    
+    /**
+     * Alle Bilder suchen, für die die Größe noch nicht in der DB gespeichert ist
+     * (Datensätze aus älteren Versionen der Anwendung), die aber schon Daten im
+     * Bildspeicher haben.
+     * 
+     * @return Liste der Bilder ohne Größe, kann leer sein
+     */
+    @RestResource(exported = false)
+    List<BildEntity> findByBildGroesseBytesIsNullAndSpeicherSchluesselIsNotNull();
 
 }
\ No newline at end of file
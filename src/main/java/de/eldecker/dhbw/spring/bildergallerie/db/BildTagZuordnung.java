@@ -0,0 +1,15 @@
+package de.eldecker.dhbw.spring.bildergallerie.db;
+
+
+/**
+ * Projektion für eine Zeile der Join-Tabelle {@code TAG_ZU_BILD} zusammen mit dem
+ * Namen des Tags, siehe {@link BildRepository#findTagsFuerBilder(java.util.Collection)}.
+ * 
+ * @param bildId ID des Bildes
+ * 
+ * @param tagId ID des Tags
+ * 
+ * @param tagName Name des Tags, z.B. "Hund"
+ */
+public record BildTagZuordnung( Long bildId, Long tagId, String tagName ) {
+}
@@ -0,0 +1,12 @@
+package de.eldecker.dhbw.spring.bildergallerie.db;
+
+
+/**
+ * Projektion mit ID und Titel eines Bildes, siehe {@link BildRepository#streamAlleTitel()}.
+ * 
+ * @param id ID des Bildes
+ * 
+ * @param titel Titel des Bildes, z.B. "Röhrender Hirsch"
+ */
+public record BildTitel( Long id, String titel ) {
+}
@@ -1,14 +1,21 @@
 package de.eldecker.dhbw.spring.bildergallerie.db;
 
+import static org.hibernate.jpa.HibernateHints.HINT_CACHEABLE;
+
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 import de.eldecker.dhbw.spring.bildergallerie.db.entities.TagEntity;
 
+import jakarta.persistence.QueryHint;
+
 
 /**
  * Zur Laufzeit wird von <i>Spring Data JPA</i> automatisch eine Implementierung
@@ -45,10 +52,15 @@ public interface TagRepository extends JpaRepository<TagEntity, Long> {
      * Eigene Sortiermethode mit JPQL, um bei alphabetischer Sortierung nach
      * Name Groß-/Kleinschreibung zu ignorieren.
      * <br><br>
+     * 
+     * Das Ergebnis wird im Query-Cache von Hibernate gehalten, bis die Tabelle
+     * {@code TAGS} geändert wird.
+     * 
      * @return Liste aller {@link TagEntity}-Objekte, alphabetisch aufsteigend 
      *         sortiert
      */
     @Query("SELECT t FROM TagEntity t ORDER BY LOWER(t.name)")
+    @QueryHints( @QueryHint( name = HINT_CACHEABLE, value = "true" ) )
     List<TagEntity> findAllSortiertNachNameCaseInsensitive();
             
     
@@ -57,13 +69,32 @@ public interface TagRepository extends JpaRepository<TagEntity, Long> {
      * <br><br>
      * 
      * Implementierung dieser Methode wird anhand Namen zur Laufzeit automatisch
-     * erzeugt.
+     * erzeugt. Das Ergebnis wird im Query-Cache gehalten.
      * 
      * @param name Anzeigename des Tags, z.B. "Hund"
      * 
      * @return Optional mit {@link TagEntity}-Objekt wenn Tag mit {@code name}
      *         gefunden, sonst leer
      */
+    @QueryHints( @QueryHint( name = HINT_CACHEABLE, value = "true" ) )
     Optional<TagEntity> findByName( String name );
+    
+    
+    /**
+     * Alle {@link TagEntity}-Objekte mit einem der Namen aus {@code namen} mit
+     * einer einzigen Query ({@code WHERE name IN (...)}) suchen, z.B. für die beim
+     * Upload ausgewählten Tags.
+     * <br><br>
+     * 
+     * Implementierung dieser Methode wird anhand Namen zur Laufzeit automatisch
+     * erzeugt.
+     * 
+     * @param namen Anzeigenamen der gesuchten Tags, darf nicht leer sein
+     * 
+     * @return Gefundene Tags (in keiner bestimmten Reihenfolge); unbekannte Namen
+     *         werden ignoriert, die Liste kann also kürzer als {@code namen} sein
+     */
+    @RestResource(exported = false)
+    List<TagEntity> findByNameIn( Collection<String> namen );
 
 }
@@ -0,0 +1,111 @@
+package de.eldecker.dhbw.spring.bildergallerie.db;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.transaction.annotation.Transactional;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.UploadAuftragEntity;
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.UploadAuftragStatusEnum;
+
+
+/**
+ * Zur Laufzeit wird von <i>Spring Data JPA</i> automatisch eine Implementierung
+ * dieses Interface erzeugt.
+ * <br><br>
+ *
+ * Das Repository wird nicht über <i>Spring Data REST</i> veröffentlicht; der Status
+ * eines Auftrags kann über einen eigenen Endpunkt abgefragt werden, für den man die
+ * (zufällige) ID des Auftrags kennen muss.
+ */
+@RepositoryRestResource(exported = false)
+public interface UploadAuftragRepository extends JpaRepository<UploadAuftragEntity, String> {
+
+    /**
+     * Älteste Aufträge mit einem bestimmten Status suchen, deren nächster Versuch fällig
+     * ist; Aufträge ohne Zeitpunkt für den nächsten Versuch sind immer fällig.
+     *
+     * @param status Gesuchter Status, z.B. {@code WARTEND}
+     *
+     * @param zeitpunkt Aktueller Zeitpunkt
+     *
+     * @param limit Maximale Anzahl Aufträge
+     *
+     * @return Aufträge, sortiert nach Zeitpunkt des Uploads
+     */
+    @Query( "SELECT a FROM UploadAuftragEntity a WHERE a.status = :status " +
+            "AND ( a.naechsterVersuch IS NULL OR a.naechsterVersuch <= :zeitpunkt ) " +
+            "ORDER BY a.zeitpunktErzeugung" )
+    List<UploadAuftragEntity> findeFaellige( @Param("status"   ) UploadAuftragStatusEnum status,
+                                             @Param("zeitpunkt") LocalDateTime           zeitpunkt,
+                                             Limit limit );
+
+
+    /**
+     * Status eines Auftrags nur dann ändern, wenn er noch den erwarteten Status hat;
+     * damit übernimmt bei mehreren gleichzeitigen Versuchen nur einer den Auftrag.
+     *
+     * @param id ID des Auftrags
+     *
+     * @param alterStatus Erwarteter bisheriger Status
+     *
+     * @param neuerStatus Neuer Status
+     *
+     * @param zeitpunkt Zeitpunkt der Änderung
+     *
+     * @return {@code 1} wenn der Status geändert wurde, sonst {@code 0}
+     */
+    @Transactional
+    @Modifying
+    @Query( "UPDATE UploadAuftragEntity a SET a.status = :neuerStatus, a.zeitpunktAenderung = :zeitpunkt " +
+            "WHERE a.id = :id AND a.status = :alterStatus" )
+    int statusAendern( @Param("id"         ) String                  id,
+                       @Param("alterStatus") UploadAuftragStatusEnum alterStatus,
+                       @Param("neuerStatus") UploadAuftragStatusEnum neuerStatus,
+                       @Param("zeitpunkt"  ) LocalDateTime           zeitpunkt );
+
+
+    /**
+     * Status aller Aufträge ändern, die einen bestimmten Status haben, z.B. beim Start
+     * der Anwendung alle Aufträge mit {@code IN_ARBEIT} wieder auf {@code WARTEND}.
+     *
+     * @param alterStatus Bisheriger Status
+     *
+     * @param neuerStatus Neuer Status
+     *
+     * @param zeitpunkt Zeitpunkt der Änderung
+     *
+     * @return Anzahl geänderter Aufträge
+     */
+    @Transactional
+    @Modifying
+    @Query( "UPDATE UploadAuftragEntity a SET a.status = :neuerStatus, a.zeitpunktAenderung = :zeitpunkt " +
+            "WHERE a.status = :alterStatus" )
+    int alleStatusAendern( @Param("alterStatus") UploadAuftragStatusEnum alterStatus,
+                           @Param("neuerStatus") UploadAuftragStatusEnum neuerStatus,
+                           @Param("zeitpunkt"  ) LocalDateTime           zeitpunkt );
+
+
+    /**
+     * Abgeschlossene Aufträge löschen, deren Status sich vor einem Zeitpunkt zuletzt
+     * geändert hat.
+     *
+     * @param status Status der zu löschenden Aufträge (Endzustände)
+     *
+     * @param grenze Aufträge mit älterer letzter Änderung werden gelöscht
+     *
+     * @return Anzahl gelöschter Aufträge
+     */
+    @Transactional
+    @Modifying
+    @Query( "DELETE FROM UploadAuftragEntity a WHERE a.status IN :status AND a.zeitpunktAenderung < :grenze" )
+    int alteLoeschen( @Param("status") List<UploadAuftragStatusEnum> status,
+                      @Param("grenze") LocalDateTime                 grenze );
+
+}
@@ -0,0 +1,112 @@
+package de.eldecker.dhbw.spring.bildergallerie.db.entities;
+
+import static jakarta.persistence.FetchType.LAZY;
+
+import java.sql.Blob;
+
+import jakarta.persistence.Basic;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
+
+
+/**
+ * Datenbank-Entität für die Binärdaten eines Bildes, wird nur vom
+ * {@code DatenbankBildSpeicher} verwendet.
+ * <br><br>
+ *
+ * Die Binärdaten liegen in einer eigenen Tabelle {@code BILD_DATEN}, damit die Tabelle
+ * {@code BILDER} mit den Metadaten klein bleibt. Primärschlüssel ist der Speicher-Schlüssel
+ * (abgeleitet vom MD5-Hash), der auch in {@link BildEntity} gespeichert ist. Es gibt
+ * bewusst keine JPA-Relation zwischen den beiden Entitäten, damit Abfragen auf
+ * {@code BILDER} nie die Tabelle {@code BILD_DATEN} joinen.
+ */
+@Entity
+@Table( name = "BILD_DATEN" )
+public class BildDatenEntity {
+
+    /** Primärschlüssel: Speicher-Schlüssel, siehe {@link BildEntity#getSpeicherSchluessel()}. */
+    @Id
+    private String schluessel;
+
+    /** Größe der Binärdaten in Bytes, damit für die Abfrage der Größe nicht der BLOB gelesen werden muss. */
+    private long groesseBytes;
+
+    /** Binärdaten des Bildes als "Binary Large Object" (BLOB), wird erst bei Zugriff geladen. */
+    @Lob
+    @Basic( fetch = LAZY )
+    private Blob daten;
+
+
+    /**
+     * Default-Konstruktor, wird von JPA benötigt.
+     */
+    public BildDatenEntity() {
+
+        schluessel = "";
+    }
+
+
+    /**
+     * Konstruktor für neue Bilddaten.
+     *
+     * @param schluessel Speicher-Schlüssel
+     *
+     * @param groesseBytes Größe der Binärdaten in Bytes
+     *
+     * @param daten Binärdaten; müssen mit {@code BlobProxy.generateProxy()} erzeugt worden sein
+     */
+    public BildDatenEntity( String schluessel, long groesseBytes, Blob daten ) {
+
+        this.schluessel   = schluessel;
+        this.groesseBytes = groesseBytes;
+        this.daten        = daten;
+    }
+
+
+    /**
+     * Getter für Primärschlüssel.
+     *
+     * @return Speicher-Schlüssel
+     */
+    public String getSchluessel() {
+
+        return schluessel;
+    }
+
+
+    /**
+     * Getter für Größe der Binärdaten.
+     *
+     * @return Anzahl Bytes
+     */
+    public long getGroesseBytes() {
+
+        return groesseBytes;
+    }
+
+
+    /**
+     * Getter für Binärdaten.
+     *
+     * @return Binärdaten als BLOB
+     */
+    public Blob getDaten() {
+
+        return daten;
+    }
+
+
+    /**
+     * String-Repräsentation des Objekts.
+     *
+     * @return String mit Schlüssel und Größe
+     */
+    @Override
+    public String toString() {
+
+        return "Bilddaten \"" + schluessel + "\", " + groesseBytes + " Bytes";
+    }
+
+}
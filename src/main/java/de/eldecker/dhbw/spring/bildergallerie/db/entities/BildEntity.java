@@ -1,19 +1,19 @@
 package de.eldecker.dhbw.spring.bildergallerie.db.entities;
 
-import static jakarta.persistence.GenerationType.IDENTITY;
+import static jakarta.persistence.GenerationType.SEQUENCE;
 import static java.time.LocalDateTime.now;
 
-import java.sql.Blob;
-import java.sql.SQLException;
+import static org.hibernate.annotations.CacheConcurrencyStrategy.READ_WRITE;
 
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.Lob;
 import jakarta.persistence.ManyToMany;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.JoinTable;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 
 import java.time.LocalDateTime;
@@ -21,12 +21,12 @@ import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.hibernate.annotations.Cache;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import de.eldecker.dhbw.spring.bildergallerie.db.BildRepository;
+import de.eldecker.dhbw.spring.bildergallerie.speicher.BildSpeicher;
 
 
 /**
@@ -41,23 +41,42 @@ import de.eldecker.dhbw.spring.bildergallerie.db.BildRepository;
  * also nicht Getter für persistierte Attribute sind.
  * <br><br>
  * 
- * Siehe auch 
- * <a href="https://thorben-janssen.com/mapping-blobs-and-clobs-with-hibernate-and-jpa/">diese Seite</a>
- * für Verwendung von BLOB-Spalten bei JPA.
+ * Die eigentlichen Bilddaten (Binärdaten) werden nicht in der Datenbank, sondern in einem
+ * {@link BildSpeicher} abgelegt; in der Tabelle steht nur der Schlüssel für den Zugriff
+ * auf diesen Speicher.
+ * <br><br>
+ * 
+ * Die Entität und ihre Tag-Menge werden im Second-Level-Cache von Hibernate gehalten
+ * (Konfiguration siehe Datei {@code ehcache.xml}).
  */
 @Entity
-@Table(name = "BILDER", indexes = {@Index(name = "index_hash", columnList = "hash")})
+@Cacheable
+@Cache( usage = READ_WRITE )
+@Table(name = "BILDER", indexes = { @Index(name = "index_hash_eindeutig", columnList = "hash", unique = true   ),
+                                    @Index(name = "index_bild_groesse"  , columnList = "bildGroesseBytes"       ),
+                                    @Index(name = "index_zeit_id"       , columnList = "zeitpunktErzeugung, id" ),
+                                    @Index(name = "index_mime_typ_id"   , columnList = "mimeTyp, id"            ),
+                                    @Index(name = "index_titel_id"      , columnList = "titel, id"              ) })
 public class BildEntity {
 
-    private final static Logger LOG = LoggerFactory.getLogger( BildEntity.class );
-    
+    /**
+     * Anzahl IDs, die Hibernate auf einmal von einer Sequenz holt (Optimizer "pooled");
+     * muss mit dem Inkrement der Sequenz in der Datenbank übereinstimmen.
+     */
+    public static final int ID_BLOCK_GROESSE = 50;
 
     /**
      * Primärschlüssel, muss von uns nicht selbst befüllt werden, deshalb
      * gibt es auch keinen Setter für dieses Attribut.
+     * <br><br>
+     * 
+     * Die IDs kommen aus einer Sequenz (und nicht aus einer Identity-Spalte), damit
+     * Hibernate die ID schon vor dem {@code INSERT} kennt und mehrere {@code INSERT}s
+     * als JDBC-Batch senden kann, z.B. beim Massen-Upload.
      */
     @Id
-    @GeneratedValue(strategy = IDENTITY)
+    @GeneratedValue(strategy = SEQUENCE, generator = "bilder_id")
+    @SequenceGenerator(name = "bilder_id", sequenceName = "bilder_seq", allocationSize = ID_BLOCK_GROESSE)
     private Long id;
 
     /** Titel/Name des Bildes, z.B. "Katze im Garten". */
@@ -67,25 +86,40 @@ public class BildEntity {
     private LocalDateTime zeitpunktErzeugung;
 
     /** 
-     * Bild als "Binary Large Object" (BLOB).
+     * Schlüssel, unter dem die Binärdaten des Bildes im {@link BildSpeicher} abgelegt sind.
      * <br><br>
      * 
      * Dieses Attribut ist wegen der Annotation {@code RepositoryRestResource}
      * in der Klasse {@link BildRepository} mit {@code JsonIgnore} annotiert.
      */
-    @Lob
     @JsonIgnore
-    private Blob bild;
+    private String speicherSchluessel;
+    
+    /** 
+     * Größe der Binärdaten des Bildes in Bytes; wird beim Upload einmal bestimmt,
+     * damit für die Anzeige der Größe (z.B. in der Bilderliste) nie auf den
+     * {@link BildSpeicher} zugegriffen werden muss. Für dieses Attribut gibt
+     * es einen DB-Index.
+     */
+    private Long bildGroesseBytes;
     
     /** 
      * Hashwert des Bildes (z.B. MD5-Hash), damit man schnell bereits vorhandene Bilder erkennen kann;
-     * für dieses Attribut gibt es einen DB-Index. 
+     * für dieses Attribut gibt es einen eindeutigen DB-Index, so dass die Datenbank
+     * kein Bild doppelt speichert. 
      */
     private String hash;
     
     /** MIME-Typ des Bildes, z.B. "image/jpeg". Wird benötigt, damit Browser das Bild richtig darstellt. */
     private String mimeTyp;
     
+    /**
+     * Perzeptueller Hash-Wert (dHash) des Bildes, mit dem ähnliche Bilder gefunden werden
+     * (z.B. verkleinerte Kopien); {@code null} für SVG-Bilder und für Bilder, für die der
+     * Wert noch nicht berechnet wurde.
+     */
+    private Long perzeptuellerHash;
+    
 
     /**
      * Ein Bild kann keine, ein oder mehrere Tags zugeordnet bekommen.
@@ -96,11 +130,17 @@ public class BildEntity {
      * 
      * Doku zu Many-to-Many-Relation mit JAP: 
      * <a href="https://www.baeldung.com/jpa-many-to-many">siehe hier auf baeldung.com</a>
+     * <br><br>
+     * 
+     * Der Index auf {@code tag_id} wird für die Suche der Bilder zu einem Tag benötigt
+     * (Tag-Detailseite).
      */
     @ManyToMany 
+    @Cache( usage = READ_WRITE )
     @JoinTable( name               = "tag_zu_bild",      
                 joinColumns        = @JoinColumn(name = "bild_id"),
-                inverseJoinColumns = @JoinColumn(name = "tag_id" ) )
+                inverseJoinColumns = @JoinColumn(name = "tag_id" ),
+                indexes            = @Index(name = "index_tag_zu_bild_tag", columnList = "tag_id, bild_id") )
     private Set<TagEntity> tags;
 
 
@@ -110,7 +150,7 @@ public class BildEntity {
     public BildEntity() {
 
         titel              = "";
-        hash               = "";
+        hash               = null; // nicht "", sonst verletzt schon das zweite Bild ohne Hash den eindeutigen Index
         mimeTyp            = "";
         zeitpunktErzeugung = now();
     }
@@ -122,19 +162,22 @@ public class BildEntity {
      * 
      * @param titel Names des Bild (von Nutzer eingegeben)
      * 
-     * @param bild Bild (Binärdaten); muss mit {@code BlobProxy.generateProxy()}
-     *             erzeugt worden sein
+     * @param speicherSchluessel Schlüssel der Binärdaten im {@link BildSpeicher}
      * 
-     * @param hash Hashwert von {@code bild}
+     * @param bildGroesseBytes Größe der Binärdaten in Bytes
+     * 
+     * @param hash Hashwert der Binärdaten
      * 
      * @param mimeTyp MIME-Typ, z.B. "image/jpeg"
      */
-    public BildEntity( String titel, Blob bild, String hash, String mimeTyp ) {
+    public BildEntity( String titel, String speicherSchluessel, long bildGroesseBytes, 
+                       String hash, String mimeTyp ) {
     
-        this.titel   = titel;
-        this.bild    = bild;
-        this.hash    = hash;
-        this.mimeTyp = mimeTyp;
+        this.titel              = titel;
+        this.speicherSchluessel = speicherSchluessel;
+        this.bildGroesseBytes   = bildGroesseBytes;
+        this.hash               = hash;
+        this.mimeTyp            = mimeTyp;
         
         zeitpunktErzeugung = now();
     }
@@ -174,114 +217,61 @@ public class BildEntity {
 
 
     /**
-     * Setter für eigentliches Bild (Binärdaten als BLOB).
+     * Getter für Schlüssel der Binärdaten im {@link BildSpeicher}.
      * 
-     * @param bild Bild ; muss mit {@code BlobProxy.generateProxy()}
-     *             erzeugt worden sein
+     * @return Schlüssel, {@code null} wenn Bild noch nicht gespeichert
      */
-    public void setBild( Blob bild ) {
+    public String getSpeicherSchluessel() {
         
-        this.bild = bild;
+        return speicherSchluessel;
     }
-
+    
     
     /**
-     * Getter für eigentliches Bild (Binärdaten als BLOB).
+     * Setter für Schlüssel der Binärdaten im {@link BildSpeicher}.
      * 
-     * @return Bild 
+     * @param speicherSchluessel Schlüssel, unter dem die Binärdaten abgelegt sind
      */
-    public Blob getBild() {
+    public void setSpeicherSchluessel( String speicherSchluessel ) {
         
-        return bild;
+        this.speicherSchluessel = speicherSchluessel;
     }
     
     
     /**
-     * Hilfsmethode: Größe Bild in Bytes abfagen.
+     * Setter für Größe des Bilds in Bytes.
      * 
-     * @return Größe des Bilds in Byte, {@code 0} wenn Bild noch nicht vorhanden,
-     *         {@code -1} wenn {@code SQLException} bei Zugriff auf Bild.
-     *             
+     * @param bildGroesseBytes Größe der Binärdaten in Bytes
      */
-    public int getBildGroesseBytes() {
-    	
-    	if ( getBild() == null ) {
-    		
-    		LOG.warn( "Zugriff auf Bildgröße von Bild mit ID={}, aber Bild noch nicht vorhanden", 
-    				  getId() );
-    		return 0;
-    	}
-    	
-    	try {
-    		
-    		return (int) getBild().length(); // length() throws SQLException
-    	}
-    	catch ( SQLException ex ) {
-    	
-    		LOG.error( "Exception beim Auslesen von Bildgröße für Bild mit ID={}.", 
-    				   getId(), ex ) ;
-    		return -1;
-    	}
+    public void setBildGroesseBytes( long bildGroesseBytes ) {
+        
+        this.bildGroesseBytes = bildGroesseBytes;
     }
     
     
     /**
-     * Hilfsmethode: Größe Bild in kBytes abfagen.
-     * <br><br>
+     * Getter für Größe des Bilds in Bytes.
      * 
-     * Intern wird die Methode {@link #getBildGroesseBytes()} verwendet.
-     * 
-     * @return Größe des Bildes in kByte oder {@code -1} wenn die Größe des
-     *         Bildes wegen {@code SQLException} nicht ausgelesen werden kann.
-     *         Wenn das Bild nicht vorhanden ist, dann wird {@code 0}
-     *         zurückgegeben.
+     * @return Größe des Bilds in Byte, {@code 0} wenn Größe noch nicht bekannt.
      */
-    public int getBildGroesseKBytes() {
-     
-    	final int anzahlBytes = getBildGroesseBytes();
-    	if ( anzahlBytes <= 0 ) {
-    		
-    		return anzahlBytes;
-    		
-    	} else {
-    		
-    		return anzahlBytes / 1024;
-    	}
+    public long getBildGroesseBytes() {
+    	
+    	return bildGroesseBytes == null ? 0 : bildGroesseBytes;
     }
     
     
     /**
-     * Hilfsmethode: Bild als Byte-Array zurückgeben.
+     * Hilfsmethode: Größe Bild in kBytes abfagen.
      * <br><br>
      * 
-     * Diese Methode ist wegen der Annotation {@code RepositoryRestResource}
-     * in der Klasse {@link BildRepository} mit {@code JsonIgnore} annotiert.
+     * Intern wird die Methode {@link #getBildGroesseBytes()} verwendet.
      * 
-     * @return Byte-Array mit Binärdaten von Bild, oder leerer Array
-     *         wenn Fehler aufgetreten (aber nicht {@code null}).
+     * @return Größe des Bildes in kByte; wenn die Größe des Bildes noch nicht 
+     *         bekannt ist, dann wird {@code 0} zurückgegeben.
      */
-    @JsonIgnore
-    public byte[] getBildBytes() {
-    	
-    	final int anzahlBytes = getBildGroesseBytes();
-    	if ( anzahlBytes <= 0 ) {
-    		
-    		return new byte[0];
-    	}
-    	
-    	try {
-    	
-    		final Blob blob = getBild();
-    		byte[] blobAsBytes = blob.getBytes( 1, anzahlBytes );
-    		
-    		return blobAsBytes;
-    	}
-    	catch ( SQLException ex ) {
-    		
-    		LOG.error( "DB-Fehler bei Zugriff auf Byte-Array von Bild mit ID={}.", 
-    				   getId(), ex );
-    		return new byte[0];
-    	}
+    public long getBildGroesseKBytes() {
+     
+    	return getBildGroesseBytes() / 1024;
     }
     
     
@@ -351,6 +341,28 @@ public class BildEntity {
     }
 
     
+    /**
+     * Getter für perzeptuellen Hash-Wert von Bild.
+     * 
+     * @return 64-Bit-Hash-Wert (dHash) oder {@code null}, wenn nicht vorhanden
+     */
+    public Long getPerzeptuellerHash() {
+        
+        return perzeptuellerHash;
+    }
+    
+    
+    /**
+     * Setter für perzeptuellen Hash-Wert von Bild.
+     * 
+     * @param perzeptuellerHash 64-Bit-Hash-Wert (dHash)
+     */
+    public void setPerzeptuellerHash( Long perzeptuellerHash ) {
+        
+        this.perzeptuellerHash = perzeptuellerHash;
+    }
+
+    
     /**
      * Hilfsmethode: Gibt String mit Bildtyp statt MIME-Typ zurück,
      * also z.B. "jpeg" statt "image/jpeg".
@@ -414,7 +426,7 @@ public class BildEntity {
     @Override
     public String toString() {
 
-        final int bildGroesseKB = getBildGroesseKBytes();
+        final long bildGroesseKB = getBildGroesseKBytes();
 
         return String.format( "Bild \"%s\", %d kByte, MIME-Type=%s.", 
                               titel, bildGroesseKB, mimeTyp );
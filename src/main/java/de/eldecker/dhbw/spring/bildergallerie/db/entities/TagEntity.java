@@ -1,32 +1,45 @@
 package de.eldecker.dhbw.spring.bildergallerie.db.entities;
 
-import static jakarta.persistence.GenerationType.IDENTITY;
+import static jakarta.persistence.GenerationType.SEQUENCE;
+import static org.hibernate.annotations.CacheConcurrencyStrategy.READ_WRITE;
 
 import java.util.Objects;
 import java.util.Set;
 
+import org.hibernate.annotations.Cache;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
 import jakarta.persistence.Index;
 import jakarta.persistence.ManyToMany;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 
 
 /**
  * Tabelle für Tags (Schildchen, Etikett, Label) mit denen die Bilder zur Kategorisierung
  * versehen werden können. Ein Bild kann kein, ein oder mehrere Tags haben.
+ * <br><br>
+ *
+ * Da Tags sich fast nie ändern, aber für jedes Upload-Formular und jede Liste gelesen
+ * werden, werden sie im Second-Level-Cache von Hibernate gehalten.
  */
 @Entity
+@Cacheable
+@Cache( usage = READ_WRITE )
 @Table( name = "TAGS", indexes = {@Index(name = "index_name", columnList = "name")} )
 public class TagEntity {
 
   /**
     * Primärschlüssel, muss von uns nicht selbst befüllt werden, deshalb
-    * gibt es auch keinen Setter für dieses Attribut.
+    * gibt es auch keinen Setter für dieses Attribut. Die IDs kommen wie bei
+    * {@link BildEntity} aus einer Sequenz.
     */
    @Id
-   @GeneratedValue(strategy = IDENTITY)
+   @GeneratedValue(strategy = SEQUENCE, generator = "tags_id")
+   @SequenceGenerator(name = "tags_id", sequenceName = "tags_seq", allocationSize = BildEntity.ID_BLOCK_GROESSE)
    private Long id;
 
    /**
@@ -36,7 +49,9 @@ public class TagEntity {
 
 
    /**
-    * Siehe Attribut "tags" in {@link BildEntity}.
+    * Siehe Attribut "tags" in {@link BildEntity}. Diese Seite der Beziehung wird nicht
+    * im Second-Level-Cache gehalten: Uploads ändern nur {@code BildEntity.tags}, ein
+    * Cache-Eintrag für diese Menge würde also veraltete (bzw. gelöschte) Bilder liefern.
     */
    @ManyToMany (mappedBy = "tags")
    private Set<BildEntity> bilder;
@@ -0,0 +1,302 @@
+package de.eldecker.dhbw.spring.bildergallerie.db.entities;
+
+import static de.eldecker.dhbw.spring.bildergallerie.db.entities.UploadAuftragStatusEnum.WARTEND;
+import static jakarta.persistence.EnumType.STRING;
+import static java.time.LocalDateTime.now;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+
+/**
+ * Tabelle mit den Aufträgen für asynchrone Uploads ("Outbox"): Die hochgeladene Datei
+ * liegt im Staging-Verzeichnis unter der ID des Auftrags, der Auftrag wird im
+ * Hintergrund bearbeitet. Da die Aufträge in der Datenbank stehen, gehen sie bei einem
+ * Neustart der Anwendung nicht verloren.
+ * <br><br>
+ *
+ * Die ID ist eine zufällige UUID (und keine fortlaufende Nummer), weil sie dem Client
+ * für die Abfrage des Status mitgeteilt wird.
+ */
+@Entity
+@Table( name = "UPLOAD_AUFTRAEGE", indexes = {@Index(name = "index_status_zeitpunkt", columnList = "status, zeitpunktErzeugung")} )
+public class UploadAuftragEntity {
+
+    /** Maximale Länge von {@link #meldung}. */
+    private static final int MAX_MELDUNG_LAENGE = 1000;
+
+    /** Trennzeichen für die Tag-Namen in {@link #tagWerte}. */
+    private static final String TAG_TRENNER = "\n";
+
+    /** Primärschlüssel, zufällige UUID. */
+    @Id
+    private String id;
+
+    /** Titel des Bildes. */
+    private String titel;
+
+    /** Name der hochgeladenen Datei laut Client. */
+    private String dateiName;
+
+    /** Namen der Tags für das Bild, getrennt durch Zeilenumbruch; kann leer sein. */
+    @Column( length = 1000 )
+    private String tagWerte;
+
+    /** Status des Auftrags. */
+    @Enumerated( STRING )
+    private UploadAuftragStatusEnum status;
+
+    /** Anzahl der gescheiterten Versuche, den Auftrag zu bearbeiten. */
+    private int anzahlVersuche;
+
+    /** ID des gespeicherten bzw. schon vorhandenen Bildes, sonst {@code null}. */
+    private Long bildId;
+
+    /** Fehlermeldung, {@code null} wenn Bild gespeichert wurde. */
+    @Column( length = MAX_MELDUNG_LAENGE )
+    private String meldung;
+
+    /** Zeitpunkt des Uploads. */
+    private LocalDateTime zeitpunktErzeugung;
+
+    /** Zeitpunkt der letzten Änderung des Status. */
+    private LocalDateTime zeitpunktAenderung;
+
+    /**
+     * Frühester Zeitpunkt, zu dem ein wartender Auftrag gestartet wird (nach einem
+     * gescheiterten Versuch später als der Upload); {@code null} bei Aufträgen, die vor
+     * Einführung der Spalte angelegt wurden.
+     */
+    private LocalDateTime naechsterVersuch;
+
+
+    /**
+     * Default-Konstruktor, wird von JPA benötigt.
+     */
+    public UploadAuftragEntity() {
+
+        id       = "";
+        titel    = "";
+        tagWerte = "";
+        status   = WARTEND;
+    }
+
+
+    /**
+     * Neuen Auftrag mit Status {@code WARTEND} erzeugen.
+     *
+     * @param id ID des Auftrags, zugleich Name der Datei im Staging-Verzeichnis
+     *
+     * @param titel Titel des Bildes
+     *
+     * @param dateiName Name der hochgeladenen Datei laut Client
+     *
+     * @param tagListe Namen der Tags für das Bild, darf {@code null} sein
+     */
+    public UploadAuftragEntity( String id, String titel, String dateiName, List<String> tagListe ) {
+
+        this.id        = id;
+        this.titel     = titel;
+        this.dateiName = dateiName;
+        this.tagWerte  = tagListe == null ? "" : String.join( TAG_TRENNER, tagListe );
+        this.status    = WARTEND;
+
+        zeitpunktErzeugung = now();
+        zeitpunktAenderung = zeitpunktErzeugung;
+        naechsterVersuch   = zeitpunktErzeugung;
+    }
+
+
+    /**
+     * Getter für Primärschlüssel.
+     *
+     * @return ID des Auftrags (UUID)
+     */
+    public String getId() {
+
+        return id;
+    }
+
+
+    /**
+     * Getter für Titel des Bildes.
+     *
+     * @return Titel
+     */
+    public String getTitel() {
+
+        return titel;
+    }
+
+
+    /**
+     * Getter für Name der hochgeladenen Datei.
+     *
+     * @return Dateiname laut Client
+     */
+    public String getDateiName() {
+
+        return dateiName;
+    }
+
+
+    /**
+     * Getter für Namen der Tags.
+     *
+     * @return Liste der Tag-Namen, kann leer sein
+     */
+    public List<String> getTagListe() {
+
+        return tagWerte.isEmpty() ? List.of() : Arrays.asList( tagWerte.split( TAG_TRENNER ) );
+    }
+
+
+    /**
+     * Getter für Status.
+     *
+     * @return Status des Auftrags
+     */
+    public UploadAuftragStatusEnum getStatus() {
+
+        return status;
+    }
+
+
+    /**
+     * Status setzen, der Zeitpunkt der Änderung wird aktualisiert.
+     *
+     * @param status Neuer Status
+     */
+    public void setStatus( UploadAuftragStatusEnum status ) {
+
+        this.status = status;
+
+        zeitpunktAenderung = now();
+    }
+
+
+    /**
+     * Getter für Anzahl gescheiterter Versuche.
+     *
+     * @return Anzahl Versuche
+     */
+    public int getAnzahlVersuche() {
+
+        return anzahlVersuche;
+    }
+
+
+    /**
+     * Anzahl gescheiterter Versuche um eins erhöhen.
+     *
+     * @param naechsterVersuch Frühester Zeitpunkt für den nächsten Versuch
+     */
+    public void versuchGescheitert( LocalDateTime naechsterVersuch ) {
+
+        anzahlVersuche++;
+        this.naechsterVersuch = naechsterVersuch;
+    }
+
+
+    /**
+     * Getter für frühesten Zeitpunkt des nächsten Versuchs.
+     *
+     * @return Zeitpunkt, ab dem ein wartender Auftrag gestartet wird; {@code null} bei
+     *         alten Aufträgen
+     */
+    public LocalDateTime getNaechsterVersuch() {
+
+        return naechsterVersuch;
+    }
+
+
+    /**
+     * Getter für ID des Bildes.
+     *
+     * @return ID des gespeicherten bzw. schon vorhandenen Bildes, sonst {@code null}
+     */
+    public Long getBildId() {
+
+        return bildId;
+    }
+
+
+    /**
+     * Setter für ID des Bildes.
+     *
+     * @param bildId ID des gespeicherten bzw. schon vorhandenen Bildes
+     */
+    public void setBildId( Long bildId ) {
+
+        this.bildId = bildId;
+    }
+
+
+    /**
+     * Getter für Fehlermeldung.
+     *
+     * @return Fehlermeldung, {@code null} wenn Bild gespeichert wurde
+     */
+    public String getMeldung() {
+
+        return meldung;
+    }
+
+
+    /**
+     * Setter für Fehlermeldung; zu lange Meldungen werden abgeschnitten.
+     *
+     * @param meldung Fehlermeldung
+     */
+    public void setMeldung( String meldung ) {
+
+        if ( meldung != null && meldung.length() > MAX_MELDUNG_LAENGE ) {
+
+            meldung = meldung.substring( 0, MAX_MELDUNG_LAENGE );
+        }
+        this.meldung = meldung;
+    }
+
+
+    /**
+     * Getter für Zeitpunkt des Uploads.
+     *
+     * @return Zeitpunkt der Erzeugung des Auftrags
+     */
+    public LocalDateTime getZeitpunktErzeugung() {
+
+        return zeitpunktErzeugung;
+    }
+
+
+    /**
+     * Getter für Zeitpunkt der letzten Änderung.
+     *
+     * @return Zeitpunkt der letzten Änderung des Status
+     */
+    public LocalDateTime getZeitpunktAenderung() {
+
+        return zeitpunktAenderung;
+    }
+
+
+    /**
+     * String-Repräsentation des Objekts.
+     *
+     * @return String mit ID, Dateiname und Status
+     */
+    @Override
+    public String toString() {
+
+        return "Upload-Auftrag " + id + " für Datei \"" + dateiName + "\": " + status;
+    }
+
+}
@@ -0,0 +1,38 @@
+package de.eldecker.dhbw.spring.bildergallerie.db.entities;
+
+
+/**
+ * Eigener Enum-Typ für den Status eines asynchronen Uploads, siehe 
+ * {@link UploadAuftragEntity}. Die letzten vier Werte sind Endzustände.
+ */
+public enum UploadAuftragStatusEnum {
+
+    /** Datei liegt im Staging-Verzeichnis und wartet auf Bearbeitung. */
+    WARTEND,
+    
+    /** Auftrag wird gerade bearbeitet. */
+    IN_ARBEIT,
+    
+    /** Bild wurde gespeichert. */
+    GESPEICHERT,
+    
+    /** Bild (oder im Modus {@code ABLEHNEN} ein sehr ähnliches Bild) ist schon vorhanden. */
+    SCHON_VORHANDEN,
+    
+    /** Datei ist kein Bild mit unterstütztem MIME-Typ. */
+    NICHT_UNTERSTUETZT,
+    
+    /** Bearbeitung ist (auch nach Wiederholung) gescheitert. */
+    FEHLER;
+    
+    
+    /**
+     * Ist der Auftrag abgeschlossen?
+     * 
+     * @return {@code true} für alle Werte außer {@code WARTEND} und {@code IN_ARBEIT}
+     */
+    public boolean istEndzustand() {
+        
+        return this != WARTEND && this != IN_ARBEIT;
+    }
+}
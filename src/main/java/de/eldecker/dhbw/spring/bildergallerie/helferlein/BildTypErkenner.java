@@ -0,0 +1,297 @@
+package de.eldecker.dhbw.spring.bildergallerie.helferlein;
+
+import java.util.Arrays;
+
+import org.apache.tika.Tika;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+
+/**
+ * Bean, die den MIME-Typ eines Bildes anhand der ersten Bytes ("Kopf") bestimmt.
+ * <br><br>
+ *
+ * Für JPEG, PNG und GIF genügt ein Vergleich der ersten Bytes mit der jeweiligen
+ * Signatur ("Magic Number"). Für SVG wird der Anfang des XML-Dokuments bis zum ersten
+ * Element untersucht, dabei werden XML-Deklaration, Kommentare und DOCTYPE übersprungen.
+ * Nur wenn keiner dieser Fälle eindeutig erkannt wird, dann wird der Kopf an die
+ * (deutlich aufwändigere) Erkennung von Apache Tika übergeben.
+ * <br><br>
+ *
+ * Da nur der Kopf benötigt wird, muss ein hochgeladenes Bild für die Erkennung nicht
+ * vollständig im Speicher gehalten werden.
+ */
+@Component
+public class BildTypErkenner {
+
+    private final static Logger LOG = LoggerFactory.getLogger( BildTypErkenner.class );
+
+    /** Signatur einer JPEG-Datei (SOI-Marker gefolgt vom Beginn des nächsten Markers). */
+    private static final byte[] SIGNATUR_JPEG = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF };
+
+    /** Signatur einer PNG-Datei. */
+    private static final byte[] SIGNATUR_PNG = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    /** Signatur einer GIF-Datei, Version 87a. */
+    private static final byte[] SIGNATUR_GIF87 = { 'G', 'I', 'F', '8', '7', 'a' };
+
+    /** Signatur einer GIF-Datei, Version 89a. */
+    private static final byte[] SIGNATUR_GIF89 = { 'G', 'I', 'F', '8', '9', 'a' };
+
+    /** Byte Order Mark von UTF-8, darf vor einem XML-Dokument stehen. */
+    private static final byte[] BOM_UTF8 = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+    /** Objekt für Bestimmung MIME-Type, wenn Signaturvergleich kein Ergebnis liefert. */
+    private final Tika _tika = new Tika();
+
+    /** Maximale Anzahl Bytes, die vom Anfang eines Bildes untersucht werden. */
+    private final int _kopfGroesse;
+
+
+    /**
+     * Konstruktor mit Konfigurationswert.
+     *
+     * @param kopfGroesse Anzahl Bytes, die höchstens vom Anfang eines Bildes gelesen
+     *                    werden, aus Konfiguration {@code bildergallerie.bildtyp.kopf-groesse}
+     */
+    public BildTypErkenner( @Value( "${bildergallerie.bildtyp.kopf-groesse:8KB}" ) DataSize kopfGroesse ) {
+
+        _kopfGroesse = (int) kopfGroesse.toBytes();
+
+        LOG.info( "Für Bestimmung des Bildtyps werden höchstens {} Bytes gelesen.", _kopfGroesse );
+    }
+
+
+    /**
+     * Anzahl Bytes, die der Aufrufer vom Anfang des Bildes lesen und an
+     * {@link #mimeTypBestimmen(byte[])} übergeben sollte.
+     *
+     * @return Maximale Größe des Kopfs in Bytes
+     */
+    public int getKopfGroesse() {
+
+        return _kopfGroesse;
+    }
+
+
+    /**
+     * MIME-Typ eines Bildes bestimmen.
+     *
+     * @param kopf Erste Bytes des Bildes; es werden höchstens {@link #getKopfGroesse()}
+     *             Bytes ausgewertet, es dürfen aber weniger sein (kurze Datei)
+     *
+     * @return MIME-Typ, für unterstützte Bilder einer der Werte "image/jpeg", "image/png",
+     *         "image/gif" oder "image/svg+xml"; sonst der von Tika bestimmte Typ,
+     *         z.B. "text/plain" oder "application/octet-stream"
+     */
+    public String mimeTypBestimmen( byte[] kopf ) {
+
+        final int laenge = Math.min( kopf.length, _kopfGroesse );
+
+        if ( beginntMit( kopf, laenge, 0, SIGNATUR_JPEG ) ) { return "image/jpeg"; }
+        if ( beginntMit( kopf, laenge, 0, SIGNATUR_PNG  ) ) { return "image/png";  }
+
+        if ( beginntMit( kopf, laenge, 0, SIGNATUR_GIF89 ) ||
+             beginntMit( kopf, laenge, 0, SIGNATUR_GIF87 ) ) {
+
+            return "image/gif";
+        }
+
+        if ( istSvg( kopf, laenge ) ) { return "image/svg+xml"; }
+
+        LOG.debug( "Bildtyp nicht anhand Signatur erkannt, verwende Apache Tika." );
+
+        return _tika.detect( laenge == kopf.length ? kopf : Arrays.copyOf( kopf, laenge ) );
+    }
+
+
+    /**
+     * Überprüfen, ob der Kopf mit dem Start-Tag eines {@code svg}-Elements beginnt;
+     * davor dürfen nur Leerraum, BOM, XML-Deklaration bzw. Processing Instructions,
+     * Kommentare und eine DOCTYPE-Deklaration (ohne internes Subset) stehen.
+     * <br><br>
+     *
+     * Es wird nur UTF-8 bzw. ASCII berücksichtigt; für andere Kodierungen (z.B. UTF-16)
+     * wird {@code false} zurückgegeben, so dass Tika entscheidet.
+     *
+     * @param kopf Erste Bytes des Bildes
+     *
+     * @param laenge Anzahl der auszuwertenden Bytes in {@code kopf}
+     *
+     * @return {@code true} gdw. das erste Element ein {@code svg}-Element ist
+     */
+    private static boolean istSvg( byte[] kopf, int laenge ) {
+
+        int pos = beginntMit( kopf, laenge, 0, BOM_UTF8 ) ? BOM_UTF8.length : 0;
+
+        while ( true ) {
+
+            pos = leerraumUeberspringen( kopf, laenge, pos );
+            if ( pos >= laenge || kopf[ pos ] != '<' ) {
+
+                return false;
+            }
+
+            if ( beginntMit( kopf, laenge, pos, "<?" ) ) {
+
+                pos = hinterEnde( kopf, laenge, pos + 2, "?>" );
+
+            } else if ( beginntMit( kopf, laenge, pos, "<!--" ) ) {
+
+                pos = hinterEnde( kopf, laenge, pos + 4, "-->" );
+
+            } else if ( beginntMit( kopf, laenge, pos, "<!DOCTYPE" ) ) {
+
+                final int ende = hinterEnde( kopf, laenge, pos, ">" );
+                if ( ende < 0 || indexVon( kopf, pos, ende, '[' ) >= 0 ) {
+
+                    return false; // internes Subset kann ">" enthalten, Tika entscheiden lassen
+                }
+                pos = ende;
+
+            } else {
+
+                return istSvgStartTag( kopf, laenge, pos );
+            }
+
+            if ( pos < 0 ) {
+
+                return false; // Ende von Deklaration/Kommentar nicht im Kopf gefunden
+            }
+        }
+    }
+
+
+    /**
+     * Überprüfen, ob an {@code pos} das Start-Tag {@code <svg} bzw. {@code <svg:svg}
+     * steht, gefolgt von Leerraum, {@code >} oder {@code /}.
+     */
+    private static boolean istSvgStartTag( byte[] kopf, int laenge, int pos ) {
+
+        final int nachName;
+        if ( beginntMit( kopf, laenge, pos, "<svg:svg" ) ) {
+
+            nachName = pos + 8;
+
+        } else if ( beginntMit( kopf, laenge, pos, "<svg" ) ) {
+
+            nachName = pos + 4;
+
+        } else {
+
+            return false;
+        }
+
+        if ( nachName >= laenge ) {
+
+            return false;
+        }
+
+        final byte b = kopf[ nachName ];
+
+        return b == '>' || b == '/' || istLeerraum( b );
+    }
+
+
+    /**
+     * Leerraum (Leerzeichen, Tab, Zeilenumbruch) ab {@code pos} überspringen.
+     *
+     * @return Position des ersten Zeichens, das kein Leerraum ist (ggf. {@code laenge})
+     */
+    private static int leerraumUeberspringen( byte[] kopf, int laenge, int pos ) {
+
+        while ( pos < laenge && istLeerraum( kopf[ pos ] ) ) {
+
+            pos++;
+        }
+
+        return pos;
+    }
+
+
+    /**
+     * Leerraum gemäß XML-Spezifikation.
+     */
+    private static boolean istLeerraum( byte b ) {
+
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+
+    /**
+     * Position hinter dem ersten Vorkommen von {@code ende} ab {@code pos} bestimmen.
+     *
+     * @return Position direkt hinter {@code ende} oder {@code -1}, wenn nicht gefunden
+     */
+    private static int hinterEnde( byte[] kopf, int laenge, int pos, String ende ) {
+
+        for ( int i = pos; i <= laenge - ende.length(); i++ ) {
+
+            if ( beginntMit( kopf, laenge, i, ende ) ) {
+
+                return i + ende.length();
+            }
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Position des ersten Vorkommens von {@code zeichen} im Bereich {@code [von, bis)}.
+     *
+     * @return Position oder {@code -1}, wenn nicht gefunden
+     */
+    private static int indexVon( byte[] kopf, int von, int bis, char zeichen ) {
+
+        for ( int i = von; i < bis; i++ ) {
+
+            if ( kopf[ i ] == zeichen ) {
+
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Überprüfen, ob ab {@code pos} die ASCII-Zeichenkette {@code text} steht.
+     */
+    private static boolean beginntMit( byte[] kopf, int laenge, int pos, String text ) {
+
+        if ( pos + text.length() > laenge ) {
+
+            return false;
+        }
+
+        for ( int i = 0; i < text.length(); i++ ) {
+
+            if ( kopf[ pos + i ] != text.charAt( i ) ) {
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Überprüfen, ob ab {@code pos} die Bytes {@code signatur} stehen.
+     */
+    private static boolean beginntMit( byte[] kopf, int laenge, int pos, byte[] signatur ) {
+
+        if ( pos + signatur.length > laenge ) {
+
+            return false;
+        }
+
+        return Arrays.equals( kopf, pos, pos + signatur.length, signatur, 0, signatur.length );
+    }
+
+}
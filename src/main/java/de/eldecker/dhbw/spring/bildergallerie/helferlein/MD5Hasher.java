@@ -1,7 +1,11 @@
 package de.eldecker.dhbw.spring.bildergallerie.helferlein;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,85 +13,155 @@ import org.springframework.stereotype.Component;
 
 
 /**
- * Bean, mit der für ein Bild in Form eines Byte-Array der MD5-Hash berechnet werden
- * kann. Damit sollen bereits in der DB gespeicherte Bilder gefunden werden.
+ * Bean, mit der für ein Bild der MD5-Hash berechnet werden kann. Damit sollen bereits
+ * in der DB gespeicherte Bilder gefunden werden.
  * <br><br>
- * 
+ *
+ * Die Bean ist thread-safe: Da ein {@code MessageDigest}-Objekt einen internen Zustand
+ * hat, bekommt jeder Upload mit {@link #neuerMessageDigest()} sein eigenes Objekt.
+ * Würden parallele Uploads sich ein Objekt teilen, dann würden sich die Daten der
+ * Uploads vermischen und falsche Hash-Werte berechnet.
+ * <br><br>
+ *
  * Achtung: Der MD5-Hash-Algorithmus ist nicht mehr für kryptografische Anwendungen
  * geeignet, da er gebrochen wurde.
  */
 @Component
 public class MD5Hasher {
-    
+
     private final static Logger LOG = LoggerFactory.getLogger( MD5Hasher.class );
-    
-    /** Objekt zur Hash-Berechnung mit dem MD5-Algorithmus. */
-    private MessageDigest _messageDigest = null;
-    
+
+    /** Name des Hash-Algorithmus für {@code MessageDigest.getInstance()}. */
+    private static final String ALGORITHMUS = "MD5";
+
+    /** Objekt für Umwandlung in Hex-String (Kleinbuchstaben, ohne Trennzeichen). */
+    private static final HexFormat HEX_FORMAT = HexFormat.of();
+
+    /** Größe des Puffers für das Lesen aus einem Channel in Bytes. */
+    private static final int PUFFER_GROESSE = 64 * 1024;
+
     /**
-     * Konstruktor, erzeugt das {@code MessageDigest}-Objekt mit dem MD5-Algorithmus.
+     * Konstruktor, überprüft, ob der MD5-Algorithmus zur Verfügung steht.
+     *
+     * @throws IllegalStateException MD5-Algorithmus steht nicht zur Verfügung
      */
     public MD5Hasher() {
-        
+
+        final MessageDigest messageDigest = messageDigestErzeugen();
+
+        LOG.info( "Hash-Algorithmus gefunden: {}", messageDigest );
+    }
+
+
+    /**
+     * Neues {@code MessageDigest}-Objekt für den MD5-Algorithmus erzeugen, z.B. für
+     * die Hash-Berechnung während des Lesens eines Streams mit {@code DigestInputStream}.
+     * Das Objekt darf nur von einem Thread verwendet werden.
+     *
+     * @return Neues Objekt für Hash-Berechnung
+     *
+     * @throws IllegalStateException MD5-Algorithmus steht nicht zur Verfügung
+     */
+    public MessageDigest neuerMessageDigest() {
+
+        return messageDigestErzeugen();
+    }
+
+
+    /**
+     * Eigentliche Erzeugung des {@code MessageDigest}-Objekts; statisch, damit der
+     * Konstruktor keine überschreibbare Methode aufruft.
+     *
+     * @return Neues Objekt für Hash-Berechnung
+     *
+     * @throws IllegalStateException MD5-Algorithmus steht nicht zur Verfügung
+     */
+    private static MessageDigest messageDigestErzeugen() {
+
         try {
-        
-            _messageDigest = MessageDigest.getInstance( "MD5" ); // throws NoSuchAlgorithmException
-            
-            LOG.info( "Hash-Algorithmus gefunden: " + _messageDigest );
+
+            return MessageDigest.getInstance( ALGORITHMUS ); // throws NoSuchAlgorithmException
         }
         catch ( NoSuchAlgorithmException ex ) {
-            
-            LOG.error( "MD5-Algorithmus steht nicht zur Verfügung.", ex );
+
+            throw new IllegalStateException( "MD5-Algorithmus steht nicht zur Verfügung.", ex );
         }
     }
 
 
     /**
-     * Hashwert für Byte-Array berechnen.
-     * 
-     * @param byteArray Zu verhashende Daten (Binärdaten von Bild)
-     * 
-     * @return Hash-Wert (128 Bit) als Hex-String oder leerer String, wenn Hash-Algo 
-     *         nicht zur Verfügung steht.
-     *         Beispiel für MD5-Hash: {@code 158ef3b2b0d2392bd7552cd773323c27}
+     * Hashwert für die verbleibenden Bytes in einem Puffer berechnen, z.B. für einen
+     * Puffer, in den mit NIO gelesen wurde, oder für einen Direct Buffer außerhalb
+     * des Heaps (die Daten werden nicht in ein Byte-Array kopiert).
+     *
+     * @param puffer Zu verhashende Daten von {@code position()} bis {@code limit()};
+     *               nach dem Aufruf steht {@code position()} auf {@code limit()}
+     *
+     * @return Hash-Wert (128 Bit) als Hex-String
      */
-    public String getHash( byte[] byteArray ) {
-    
-        if ( _messageDigest != null ) {
-            
-            _messageDigest.reset();
-            
-            _messageDigest.update( byteArray );
-            
-            byte[] hashByteArray = _messageDigest.digest();
-            
-            return bytesToHex( hashByteArray );
-            
-        } else {
-            
-            LOG.warn( "Hash-Wert kann nicht berechnet werden weil Hash-Algo nicht gefunden.", 
-                      byteArray.length );  
-            return "";
+    public String getHash( ByteBuffer puffer ) {
+
+        final MessageDigest messageDigest = neuerMessageDigest();
+        messageDigest.update( puffer );
+
+        return getHash( messageDigest );
+    }
+
+
+    /**
+     * Hashwert für alle Bytes aus einem Channel (z.B. {@code FileChannel}) berechnen;
+     * die Daten werden blockweise in einen Puffer gelesen und mit
+     * {@code update(ByteBuffer)} übergeben, es wird also nie die ganze Datei im
+     * Speicher gehalten.
+     *
+     * @param kanal Channel, aus dem bis zum Ende gelesen wird; wird nicht geschlossen
+     *
+     * @return Hash-Wert (128 Bit) als Hex-String
+     *
+     * @throws IOException Fehler beim Lesen aus {@code kanal}
+     */
+    public String getHash( ReadableByteChannel kanal ) throws IOException {
+
+        final MessageDigest messageDigest = neuerMessageDigest();
+        final ByteBuffer    puffer        = ByteBuffer.allocate( PUFFER_GROESSE );
+
+        while ( kanal.read( puffer ) >= 0 ) { // throws IOException
+
+            puffer.flip();
+            messageDigest.update( puffer );
+            puffer.clear();
         }
+
+        return getHash( messageDigest );
     }
-    
-    
+
+
     /**
-     * Byte-Array in Hexadezimaldarstellung umwandeln.
-     * 
+     * Hash-Wert aus {@code messageDigest} auslesen, nachdem alle Daten mit {@code update()}
+     * übergeben wurden; {@code messageDigest} wird dabei zurückgesetzt.
+     *
+     * @param messageDigest Objekt, das mit {@link #neuerMessageDigest()} erzeugt wurde
+     *
+     * @return Hash-Wert (128 Bit) als Hex-String
+     */
+    public String getHash( MessageDigest messageDigest ) {
+
+        return bytesToHex( messageDigest.digest() );
+    }
+
+
+    /**
+     * Byte-Array in Hexadezimaldarstellung umwandeln; {@code HexFormat} verwendet
+     * intern eine Lookup-Tabelle, anstatt für jedes Byte einen Format-String
+     * auszuwerten.
+     *
      * @param bytes Byte-Array, der in Hex-Darstellung umgewandelt werden soll
-     * 
+     *
      * @return Hex-Darstellung von {@code bytes}, z.B. {@code 158ef3b2b0d2392bd7552cd773323c27}
      */
     private static String bytesToHex( byte[] bytes ) {
-        
-        final StringBuilder sb = new StringBuilder();
-        for ( byte b : bytes ) {
-            
-            sb.append( String.format("%02x", b) );
-        }
-        
-        return sb.toString();
+
+        return HEX_FORMAT.formatHex( bytes );
     }
-    
+
 }
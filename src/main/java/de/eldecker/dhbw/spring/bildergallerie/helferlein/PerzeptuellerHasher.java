@@ -0,0 +1,214 @@
+package de.eldecker.dhbw.spring.bildergallerie.helferlein;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.OptionalLong;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * Bean für die Berechnung eines perzeptuellen Hash-Werts ("Difference Hash", dHash)
+ * eines Bildes. Anders als beim MD5-Hash (siehe {@link MD5Hasher}) haben Bilder, die
+ * für das Auge gleich aussehen, auch dann (fast) denselben Hash-Wert, wenn sie z.B.
+ * verkleinert oder mit anderer JPEG-Qualität neu gespeichert wurden. Die Ähnlichkeit
+ * zweier Bilder ist die Anzahl unterschiedlicher Bits ("Hamming-Abstand") ihrer
+ * Hash-Werte, siehe {@link #abstand(long, long)}.
+ * <br><br>
+ *
+ * Berechnung: Das Bild wird in Graustufen auf 9x8 Pixel verkleinert, dann wird für
+ * jede Zeile verglichen, ob ein Pixel heller als sein rechter Nachbar ist; die
+ * 8x8 Vergleiche ergeben die 64 Bit des Hash-Werts.
+ * <br><br>
+ *
+ * Es werden nur Rastergrafiken (JPEG, PNG, GIF) unterstützt, für SVG gibt es keinen
+ * Hash-Wert. Bei GIFs wird nur das erste Bild ausgewertet.
+ */
+@Component
+public class PerzeptuellerHasher {
+
+    private final static Logger LOG = LoggerFactory.getLogger( PerzeptuellerHasher.class );
+
+    /** Breite des verkleinerten Bildes, eine Spalte mehr als Bits pro Zeile. */
+    private static final int BREITE = 9;
+
+    /** Höhe des verkleinerten Bildes = Anzahl Zeilen mit je 8 Bit. */
+    private static final int HOEHE = 8;
+
+    /**
+     * Mindestgröße in Pixel der längeren Seite beim Dekodieren; größere Bilder werden
+     * schon beim Lesen mit Subsampling verkleinert, weil für 9x8 Pixel nicht alle Pixel
+     * benötigt werden. Da sich der Faktor nach der längeren Seite richtet, bleibt auch
+     * bei extremen Seitenverhältnissen (z.B. Panoramen) das dekodierte Bild klein.
+     */
+    private static final int MIN_DEKODIER_GROESSE = 64;
+
+
+    /**
+     * Überprüfen, ob für Bilder mit MIME-Typ {@code mimeTyp} ein Hash-Wert berechnet
+     * werden kann.
+     *
+     * @param mimeTyp MIME-Typ, z.B. "image/jpeg"
+     *
+     * @return {@code true} für Rastergrafiken (JPEG, PNG, GIF)
+     */
+    public static boolean istUnterstuetzt( String mimeTyp ) {
+
+        return switch ( mimeTyp ) {
+
+            case "image/jpeg", "image/png", "image/gif" -> true;
+            default                                     -> false;
+        };
+    }
+
+
+    /**
+     * Perzeptuellen Hash-Wert eines Bildes berechnen.
+     *
+     * @param inputStream Binärdaten des Bildes, wird von dieser Methode nicht geschlossen
+     *
+     * @return Hash-Wert; leeres Optional, wenn das Bild nicht dekodiert werden kann
+     *         (dann wird auch kein Hash-Wert gespeichert)
+     *
+     * @throws IOException Fehler beim Lesen von {@code inputStream}
+     */
+    public OptionalLong hashBerechnen( InputStream inputStream ) throws IOException {
+
+        final BufferedImage dekodiert;
+        try ( ImageInputStream imageInputStream = ImageIO.createImageInputStream( inputStream ) ) {
+
+            final Iterator<ImageReader> readerIterator = ImageIO.getImageReaders( imageInputStream );
+            if ( !readerIterator.hasNext() ) {
+
+                return OptionalLong.empty();
+            }
+
+            final ImageReader reader = readerIterator.next();
+            try {
+
+                reader.setInput( imageInputStream, true, true );
+
+                final ImageReadParam param = reader.getDefaultReadParam();
+                final int faktor = Math.max( reader.getWidth( 0 ), reader.getHeight( 0 ) ) / MIN_DEKODIER_GROESSE;
+                if ( faktor > 1 ) {
+
+                    param.setSourceSubsampling( faktor, faktor, 0, 0 );
+                }
+
+                dekodiert = reader.read( 0, param );
+            }
+            catch ( IIOException | RuntimeException ex ) {
+
+                // RuntimeException: manche Decoder werfen z.B. IllegalArgumentException bei defekten Dateien
+                LOG.warn( "Fehler beim Dekodieren von Bild für perzeptuellen Hash: {}", ex.getMessage() );
+                return OptionalLong.empty();
+            }
+            finally {
+
+                reader.dispose();
+            }
+        }
+
+        return OptionalLong.of( dHash( dekodiert ) );
+    }
+
+
+    /**
+     * Hamming-Abstand zweier Hash-Werte.
+     *
+     * @param hash1 Erster Hash-Wert
+     *
+     * @param hash2 Zweiter Hash-Wert
+     *
+     * @return Anzahl der unterschiedlichen Bits, zwischen 0 (gleich) und 64
+     */
+    public static int abstand( long hash1, long hash2 ) {
+
+        return Long.bitCount( hash1 ^ hash2 );
+    }
+
+
+    /**
+     * Eigentliche Berechnung des dHash (siehe Klassenbeschreibung). Für das Verkleinern
+     * wird der Mittelwert der Helligkeit aller Pixel einer Zelle gebildet, damit das
+     * Ergebnis nicht (wie bei bilinearer Interpolation in einem Schritt) von einzelnen
+     * Pixeln abhängt.
+     *
+     * @param bild Dekodiertes Bild
+     *
+     * @return 64-Bit-Hash-Wert
+     */
+    private static long dHash( BufferedImage bild ) {
+
+        final int breite = bild.getWidth();
+        final int hoehe  = bild.getHeight();
+
+        final double[] summe  = new double[ BREITE * HOEHE ];
+        final int[]    anzahl = new int[ BREITE * HOEHE ];
+
+        final int[] zeile = new int[ breite ];
+        for ( int y = 0; y < hoehe; y++ ) {
+
+            bild.getRGB( 0, y, breite, 1, zeile, 0, breite );
+
+            final int zelleY = y * HOEHE / hoehe;
+            for ( int x = 0; x < breite; x++ ) {
+
+                final int zelle = zelleY * BREITE + x * BREITE / breite;
+
+                summe[ zelle ]  += helligkeit( zeile[ x ] );
+                anzahl[ zelle ] += 1;
+            }
+        }
+
+        long hash = 0;
+        for ( int y = 0; y < HOEHE; y++ ) {
+
+            for ( int x = 0; x < BREITE - 1; x++ ) {
+
+                final int links  = y * BREITE + x;
+                final int rechts = links + 1;
+
+                hash <<= 1;
+                if ( summe[ links ] * anzahl[ rechts ] > summe[ rechts ] * anzahl[ links ] ) {
+
+                    hash |= 1;
+                }
+            }
+        }
+
+        return hash;
+    }
+
+
+    /**
+     * Helligkeit eines Pixels; transparente Pixel werden wie auf der Webseite vor
+     * weißem Hintergrund gewertet.
+     *
+     * @param argb Pixel im Format {@code TYPE_INT_ARGB}
+     *
+     * @return Helligkeit zwischen 0 (schwarz) und 255 (weiß)
+     */
+    private static double helligkeit( int argb ) {
+
+        final double alpha = ( ( argb >>> 24 ) & 0xFF ) / 255.0;
+        final int    rot   = ( argb >>> 16 ) & 0xFF;
+        final int    gruen = ( argb >>>  8 ) & 0xFF;
+        final int    blau  =   argb          & 0xFF;
+
+        final double helligkeit = 0.299 * rot + 0.587 * gruen + 0.114 * blau;
+
+        return alpha * helligkeit + ( 1 - alpha ) * 255;
+    }
+
+}
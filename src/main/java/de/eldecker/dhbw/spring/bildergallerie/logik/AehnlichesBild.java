@@ -0,0 +1,16 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+
+/**
+ * Ein Bild, das einem anderen Bild ähnlich ist, siehe 
+ * {@link BildService#aehnlicheBilder(long, int)}.
+ * 
+ * @param id ID des ähnlichen Bildes
+ * 
+ * @param titel Titel des ähnlichen Bildes
+ * 
+ * @param abstand Anzahl der unterschiedlichen Bits der perzeptuellen Hash-Werte;
+ *                {@code 0} bedeutet, dass die Bilder (fast) gleich aussehen
+ */
+public record AehnlichesBild( long id, String titel, int abstand ) {
+}
@@ -0,0 +1,424 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import static de.eldecker.dhbw.spring.bildergallerie.helferlein.PerzeptuellerHasher.abstand;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.BildPerzeptuellerHash;
+import de.eldecker.dhbw.spring.bildergallerie.db.BildRepository;
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
+import de.eldecker.dhbw.spring.bildergallerie.helferlein.PerzeptuellerHasher;
+import de.eldecker.dhbw.spring.bildergallerie.speicher.BildSpeicher;
+
+
+/**
+ * Index im Speicher für die Suche nach ähnlichen Bildern: Die perzeptuellen Hash-Werte
+ * (siehe {@link PerzeptuellerHasher}) aller Bilder stehen in einem BK-Baum
+ * ("Burkhard-Keller-Baum"). In einem BK-Baum hat jeder Knoten für jeden Hamming-Abstand
+ * höchstens ein Kind; bei der Suche mit maximalem Abstand {@code r} muss wegen der
+ * Dreiecksungleichung für einen Knoten mit Abstand {@code d} zum gesuchten Hash-Wert nur
+ * in den Kindern mit Abstand {@code d-r} bis {@code d+r} weitergesucht werden. Für kleine
+ * {@code r} wird deshalb nur ein Bruchteil der Knoten besucht.
+ * <br><br>
+ *
+ * Der Index wird beim Start der Anwendung aus der Tabelle {@code BILDER} aufgebaut;
+ * danach werden im Hintergrund die Hash-Werte der Bilder berechnet, für die noch keiner
+ * gespeichert ist (Bilder aus älteren Versionen der Anwendung). Neue Bilder werden von
+ * {@link BildService} beim Hochladen aufgenommen; wird ein Bild über Spring Data REST
+ * gelöscht, dann wird es auch aus dem Index entfernt (der Knoten bleibt ggf. ohne Bilder
+ * im Baum, weil ein BK-Baum kein effizientes Entfernen von Knoten erlaubt).
+ */
+@Component
+@RepositoryEventHandler
+public class AehnlichkeitsIndex implements ApplicationRunner {
+
+    private final static Logger LOG = LoggerFactory.getLogger( AehnlichkeitsIndex.class );
+
+    /**
+     * Größter erlaubter Abstand für eine Suche; bei größeren Abständen müssten große
+     * Teile des Baums durchsucht werden, und die Bilder sind sich auch nicht mehr ähnlich.
+     */
+    public static final int MAX_ABSTAND = 16;
+
+    /** Repo-Bean für Zugriff auf Datenbanktabelle mit Bildern. */
+    private final BildRepository _bildRepo;
+
+    /** Speicher für die Binärdaten der Bilder, für Berechnung fehlender Hash-Werte. */
+    private final BildSpeicher _bildSpeicher;
+
+    /** Bean für Berechnung der perzeptuellen Hash-Werte. */
+    private final PerzeptuellerHasher _perzeptuellerHasher;
+
+    /** Bean für Transaktion, in der beim Aufbau des Index der Stream gelesen wird. */
+    private final TransactionTemplate _transactionTemplate;
+
+    /** Sperre: Suchen mit Lese-Sperre, Aktualisieren und Neuaufbau mit Schreib-Sperre. */
+    private final ReadWriteLock _sperre = new ReentrantReadWriteLock();
+
+    /** Wurzel des BK-Baums, {@code null} solange der Index leer ist. */
+    private Knoten _wurzel = null;
+
+    /** Anzahl Knoten (verschiedene Hash-Werte) im Baum. */
+    private int _anzahlKnoten = 0;
+
+
+    /**
+     * Treffer einer Suche nach ähnlichen Bildern.
+     *
+     * @param bildId ID des Bildes
+     *
+     * @param abstand Hamming-Abstand des perzeptuellen Hash-Werts zum gesuchten Hash-Wert
+     */
+    public record Treffer( long bildId, int abstand ) {}
+
+
+    /**
+     * Knoten des BK-Baums: Hash-Wert, IDs der Bilder mit genau diesem Hash-Wert und
+     * Kinder mit ihrem Abstand zu diesem Knoten. Die Kinder stehen in zwei kleinen
+     * Arrays (höchstens 64 Einträge), damit ein Knoten auch bei Millionen Bildern
+     * wenig Speicher belegt.
+     */
+    private static final class Knoten {
+
+        private final long hash;
+
+        private final RoaringBitmap bildIds = new RoaringBitmap();
+
+        private byte[] kindAbstaende = new byte[ 0 ];
+
+        private Knoten[] kinder = new Knoten[ 0 ];
+
+        private Knoten( long hash ) {
+
+            this.hash = hash;
+        }
+
+        private Knoten kind( int abstand ) {
+
+            for ( int i = 0; i < kindAbstaende.length; i++ ) {
+
+                if ( kindAbstaende[ i ] == abstand ) {
+
+                    return kinder[ i ];
+                }
+            }
+
+            return null;
+        }
+
+        private void kindHinzufuegen( int abstand, Knoten kind ) {
+
+            final int anzahl = kinder.length;
+
+            kindAbstaende = Arrays.copyOf( kindAbstaende, anzahl + 1 );
+            kinder        = Arrays.copyOf( kinder       , anzahl + 1 );
+
+            kindAbstaende[ anzahl ] = (byte) abstand;
+            kinder[ anzahl ]        = kind;
+        }
+    }
+
+
+    /**
+     * Konstruktor für Dependency Injection.
+     */
+    @Autowired
+    public AehnlichkeitsIndex( BildRepository bildRepo,
+                               BildSpeicher bildSpeicher,
+                               PerzeptuellerHasher perzeptuellerHasher,
+                               TransactionTemplate transactionTemplate ) {
+
+        _bildRepo            = bildRepo;
+        _bildSpeicher        = bildSpeicher;
+        _perzeptuellerHasher = perzeptuellerHasher;
+        _transactionTemplate = transactionTemplate;
+    }
+
+
+    /**
+     * Index beim Start der Anwendung aufbauen und danach in einem eigenen Thread die
+     * fehlenden Hash-Werte berechnen.
+     *
+     * @param args CmdLine-Argumente, werden nicht ausgewertet
+     */
+    @Override
+    public void run( ApplicationArguments args ) {
+
+        neuAufbauen();
+
+        Thread.ofVirtual().name( "aehnlichkeits-index-nachtragen" ).start( this::fehlendeHashesNachtragen );
+    }
+
+
+    /**
+     * Index komplett neu aus der Datenbank aufbauen.
+     */
+    public void neuAufbauen() {
+
+        final long startZeit = System.nanoTime();
+
+        _sperre.writeLock().lock();
+        try {
+
+            _wurzel       = null;
+            _anzahlKnoten = 0;
+
+            _transactionTemplate.executeWithoutResult( status -> {
+
+                try ( Stream<BildPerzeptuellerHash> hashes = _bildRepo.streamAllePerzeptuellenHashes() ) {
+
+                    hashes.forEach( eintrag -> einfuegen( eintrag.id(), eintrag.perzeptuellerHash() ) );
+                }
+            });
+        }
+        finally {
+
+            _sperre.writeLock().unlock();
+        }
+
+        LOG.info( "Index für ähnliche Bilder aufgebaut: {} verschiedene Hash-Werte, {} ms.",
+                  _anzahlKnoten, ( System.nanoTime() - startZeit ) / 1_000_000 );
+    }
+
+
+    /**
+     * Perzeptuelle Hash-Werte für alle Rasterbilder berechnen und speichern, für die noch
+     * keiner in der Datenbank steht, und die Bilder in den Index aufnehmen. Bilder, die
+     * nicht dekodiert werden können, werden übersprungen (und beim nächsten Start erneut
+     * versucht).
+     */
+    private void fehlendeHashesNachtragen() {
+
+        final List<Long> bildIds = _bildRepo.findIdsOhnePerzeptuellenHash();
+        if ( bildIds.isEmpty() ) {
+
+            return;
+        }
+
+        LOG.info( "Perzeptuelle Hash-Werte für {} Bilder werden im Hintergrund berechnet.", bildIds.size() );
+
+        int anzahlBerechnet = 0;
+        for ( Long bildId : bildIds ) {
+
+            final Optional<BildEntity> bildOptional = _bildRepo.findById( bildId );
+            if ( bildOptional.isEmpty() ) {
+
+                continue; // inzwischen gelöscht
+            }
+
+            final OptionalLong hashOptional;
+            try ( InputStream inputStream = _bildSpeicher.oeffnen( bildOptional.get().getSpeicherSchluessel() ) ) {
+
+                hashOptional = _perzeptuellerHasher.hashBerechnen( inputStream );
+            }
+            catch ( IOException | RuntimeException ex ) {
+
+                LOG.warn( "Perzeptueller Hash-Wert für Bild mit ID={} konnte nicht berechnet werden: {}",
+                          bildId, ex.getMessage() );
+                continue;
+            }
+
+            if ( hashOptional.isEmpty() ) {
+
+                continue;
+            }
+
+            final long hash = hashOptional.getAsLong();
+
+            final boolean gespeichert = _transactionTemplate.execute( status -> {
+
+                final Optional<BildEntity> managed = _bildRepo.findById( bildId );
+                managed.ifPresent( bild -> bild.setPerzeptuellerHash( hash ) );
+
+                return managed.isPresent();
+            });
+
+            if ( gespeichert ) {
+
+                bildIndexieren( bildId, hash );
+                anzahlBerechnet++;
+            }
+        }
+
+        LOG.info( "Perzeptuelle Hash-Werte für {} von {} Bildern nachgetragen.", anzahlBerechnet, bildIds.size() );
+    }
+
+
+    /**
+     * Bild in den Index aufnehmen.
+     *
+     * @param bildId ID des (gespeicherten) Bildes
+     *
+     * @param hash Perzeptueller Hash-Wert des Bildes
+     */
+    public void bildIndexieren( long bildId, long hash ) {
+
+        _sperre.writeLock().lock();
+        try {
+
+            einfuegen( bildId, hash );
+        }
+        finally {
+
+            _sperre.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Bild aus dem Index entfernen, nachdem es über Spring Data REST gelöscht wurde,
+     * z.B. mit {@code DELETE /bilder/42}.
+     *
+     * @param bild Gelöschtes Bild
+     */
+    @HandleAfterDelete
+    public void bildGeloescht( BildEntity bild ) {
+
+        final Long hash = bild.getPerzeptuellerHash();
+        if ( hash == null ) {
+
+            return;
+        }
+
+        _sperre.writeLock().lock();
+        try {
+
+            Knoten knoten = _wurzel;
+            while ( knoten != null ) {
+
+                final int d = abstand( knoten.hash, hash );
+                if ( d == 0 ) {
+
+                    knoten.bildIds.remove( Math.toIntExact( bild.getId() ) );
+                    return;
+                }
+                knoten = knoten.kind( d );
+            }
+        }
+        finally {
+
+            _sperre.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Alle Bilder suchen, deren perzeptueller Hash-Wert höchstens {@code maxAbstand}
+     * Bits von {@code hash} abweicht.
+     *
+     * @param hash Gesuchter Hash-Wert
+     *
+     * @param maxAbstand Maximaler Hamming-Abstand, wird auf den Bereich 0 bis
+     *                   {@link #MAX_ABSTAND} begrenzt
+     *
+     * @return Treffer, aufsteigend sortiert nach Abstand und ID; kann leer sein
+     */
+    public List<Treffer> suchen( long hash, int maxAbstand ) {
+
+        final int radius = Math.clamp( maxAbstand, 0, MAX_ABSTAND );
+
+        final List<Treffer> ergebnis = new ArrayList<>();
+
+        _sperre.readLock().lock();
+        try {
+
+            if ( _wurzel == null ) {
+
+                return ergebnis;
+            }
+
+            final Deque<Knoten> offen = new ArrayDeque<>();
+            offen.push( _wurzel );
+            while ( !offen.isEmpty() ) {
+
+                final Knoten knoten = offen.pop();
+
+                final int d = abstand( knoten.hash, hash );
+                if ( d <= radius ) {
+
+                    knoten.bildIds.forEach( (int bildId) -> ergebnis.add( new Treffer( bildId, d ) ) );
+                }
+
+                for ( int i = 0; i < knoten.kinder.length; i++ ) {
+
+                    final int kindAbstand = knoten.kindAbstaende[ i ];
+                    if ( kindAbstand >= d - radius && kindAbstand <= d + radius ) {
+
+                        offen.push( knoten.kinder[ i ] );
+                    }
+                }
+            }
+        }
+        finally {
+
+            _sperre.readLock().unlock();
+        }
+
+        ergebnis.sort( Comparator.comparingInt( Treffer::abstand ).thenComparingLong( Treffer::bildId ) );
+
+        return ergebnis;
+    }
+
+
+    /**
+     * Bild in den BK-Baum einfügen; der Aufrufer muss die Schreib-Sperre halten.
+     */
+    private void einfuegen( long bildId, long hash ) {
+
+        final int id = Math.toIntExact( bildId );
+
+        if ( _wurzel == null ) {
+
+            _wurzel = new Knoten( hash );
+            _wurzel.bildIds.add( id );
+            _anzahlKnoten++;
+            return;
+        }
+
+        Knoten knoten = _wurzel;
+        while ( true ) {
+
+            final int d = abstand( knoten.hash, hash );
+            if ( d == 0 ) {
+
+                knoten.bildIds.add( id );
+                return;
+            }
+
+            final Knoten kind = knoten.kind( d );
+            if ( kind == null ) {
+
+                final Knoten neu = new Knoten( hash );
+                neu.bildIds.add( id );
+                knoten.kindHinzufuegen( d, neu );
+                _anzahlKnoten++;
+                return;
+            }
+            knoten = kind;
+        }
+    }
+
+}
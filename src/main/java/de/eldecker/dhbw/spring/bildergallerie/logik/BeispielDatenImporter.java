@@ -1,6 +1,7 @@
 package de.eldecker.dhbw.spring.bildergallerie.logik;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -121,11 +122,9 @@ public class BeispielDatenImporter implements ApplicationRunner {
      */
     private BildEntity ladeDemoBild( String titel, String dateiname ) {
     	
-        try {
+        try ( InputStream inputStream = ladeBildRessource( dateiname ) ) { // throws IOException
             
-            final byte[] byteArray = ladeBildRessource( dateiname ); // throws IOException
-            
-            final BildEntity bild = _bildService.bildHochladen( titel, byteArray ); // throws BildSchonVorhandenException
+            final BildEntity bild = _bildService.bildHochladen( titel, inputStream ); // throws BildSchonVorhandenException
             
             LOG.info( "Demo-Bild \"{}\" unter ID={} abgespeichert.", dateiname, bild.getId() );   
             
@@ -145,17 +144,17 @@ public class BeispielDatenImporter implements ApplicationRunner {
      * 
      * @param dateiname Dateiname, z.B. {@code dog-5883275_1280.jpg}.
      * 
-     * @return Byte-Array mit Binärdaten von Bild
+     * @return Stream mit Binärdaten von Bild, muss vom Aufrufer geschlossen werden
      * 
      * @throws IOException Ein-/Ausgabefehler
      */
-    private byte[] ladeBildRessource( String dateiname ) throws IOException {
+    private InputStream ladeBildRessource( String dateiname ) throws IOException {
         
         final String resourceLocation = "classpath:demo-bilder/" + dateiname;
         
         final Resource resource = _resourceLoader.getResource( resourceLocation );
         
-        return resource.getContentAsByteArray();
+        return resource.getInputStream();
     }
     
     
@@ -0,0 +1,66 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+
+/**
+ * Metadaten eines Bildes für die Anzeige in der Bilderliste, zusammen mit den Tags.
+ * <br><br>
+ * 
+ * Anders als bei {@code BildEntity} werden die Tags nicht beim ersten Zugriff einzeln
+ * für jedes Bild nachgeladen, sondern für alle Bilder einer Seite mit einer einzigen
+ * Query (siehe {@link BildService#getBildSeite(SortierAttributEnum, String, int)}).
+ * 
+ * @param id ID des Bildes
+ * 
+ * @param titel Titel des Bildes
+ * 
+ * @param bildGroesseBytes Größe der Binärdaten in Bytes, {@code 0} wenn nicht bekannt
+ * 
+ * @param mimeTyp MIME-Typ, z.B. "image/jpeg"
+ * 
+ * @param zeitpunktErzeugung Zeitpunkt des Uploads
+ * 
+ * @param tags Tags des Bildes, alphabetisch sortiert; kann leer sein
+ */
+public record BildListenEintrag( long id, 
+                                 String titel, 
+                                 long bildGroesseBytes, 
+                                 String mimeTyp,
+                                 LocalDateTime zeitpunktErzeugung, 
+                                 List<TagKurz> tags ) {
+
+    /**
+     * ID und Name eines Tags.
+     * 
+     * @param id ID des Tags
+     * 
+     * @param name Name des Tags, z.B. "Hund"
+     */
+    public record TagKurz( long id, String name ) {
+    }
+    
+    
+    /**
+     * Größe des Bildes in kBytes.
+     * 
+     * @return Größe in kByte, {@code 0} wenn Größe nicht bekannt
+     */
+    public long bildGroesseKBytes() {
+        
+        return bildGroesseBytes / 1024;
+    }
+    
+    
+    /**
+     * Bildtyp statt MIME-Typ, also z.B. "jpeg" statt "image/jpeg".
+     * 
+     * @return Typ des Bildes für Anzeige: "jpeg", "png", "gif" oder "svg"
+     */
+    public String bildTyp() {
+        
+        return mimeTyp.replaceFirst( "image/", "" );
+    }
+    
+}
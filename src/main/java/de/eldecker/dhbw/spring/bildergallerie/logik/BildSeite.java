@@ -0,0 +1,27 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import java.util.List;
+
+
+/**
+ * Eine Seite der sortierten Bilderliste, siehe 
+ * {@link BildService#getBildSeite(SortierAttributEnum, String, int)}.
+ * 
+ * @param bilder Bilder (mit Tags) auf dieser Seite, kann leer sein
+ * 
+ * @param naechsterCursor Cursor für die nächste Seite (URL-sicherer String),
+ *                        {@code null} wenn dies die letzte Seite ist
+ */
+public record BildSeite( List<BildListenEintrag> bilder, String naechsterCursor ) {
+
+    /**
+     * Gibt es nach dieser Seite noch weitere Bilder?
+     * 
+     * @return {@code true} gdw. {@link #naechsterCursor()} nicht {@code null} ist
+     */
+    public boolean hatNaechsteSeite() {
+        
+        return naechsterCursor != null;
+    }
+    
+}
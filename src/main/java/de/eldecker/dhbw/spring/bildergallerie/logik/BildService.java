@@ -1,28 +1,56 @@
 package de.eldecker.dhbw.spring.bildergallerie.logik;
 
+import static de.eldecker.dhbw.spring.bildergallerie.logik.SortierAttributEnum.ZEIT;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.util.Collections.emptyList;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.sql.Blob;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
 
-import org.apache.tika.Tika;
-import org.hibernate.engine.jdbc.BlobProxy;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import de.eldecker.dhbw.spring.bildergallerie.db.BildRepository;
+import de.eldecker.dhbw.spring.bildergallerie.db.BildTagZuordnung;
 import de.eldecker.dhbw.spring.bildergallerie.db.TagRepository;
 import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
 import de.eldecker.dhbw.spring.bildergallerie.db.entities.TagEntity;
+import de.eldecker.dhbw.spring.bildergallerie.helferlein.BildTypErkenner;
 import de.eldecker.dhbw.spring.bildergallerie.helferlein.MD5Hasher;
+import de.eldecker.dhbw.spring.bildergallerie.helferlein.PerzeptuellerHasher;
+import de.eldecker.dhbw.spring.bildergallerie.logik.AehnlichkeitsIndex.Treffer;
+import de.eldecker.dhbw.spring.bildergallerie.logik.BildListenEintrag.TagKurz;
+import de.eldecker.dhbw.spring.bildergallerie.logik.HashReservierungen.Reservierung;
 import de.eldecker.dhbw.spring.bildergallerie.logik.exceptions.BildSchonVorhandenException;
 import de.eldecker.dhbw.spring.bildergallerie.logik.exceptions.MimeTypeException;
+import de.eldecker.dhbw.spring.bildergallerie.speicher.BildSpeicher;
 
 
 /**
@@ -34,6 +62,8 @@ public class BildService {
     
     private final static Logger LOG = LoggerFactory.getLogger( BildService.class );
     
+    /** Maximale Anzahl Bilder pro Seite, die ein Client anfordern darf. */
+    public static final int MAX_SEITEN_GROESSE = 100;
     
     /** Repo-Bean für Zugriff auf Datenbanktabelle mit Bildern. */
     private final BildRepository _bildRepo;
@@ -44,8 +74,44 @@ public class BildService {
     /** Hilfs-Bean für MD5-Berechnung. */
     private final MD5Hasher _md5hasher;
     
-    /** Objekt für Bestimmung MIME-Type von Grafikdatei (Apache Tika). */
-    private final Tika _tika = new Tika();
+    /** Speicher für die Binärdaten der Bilder. */
+    private final BildSpeicher _bildSpeicher;
+    
+    /** Bean für Bestimmung MIME-Type von Grafikdatei. */
+    private final BildTypErkenner _bildTypErkenner;
+    
+    /** Service-Bean für Erzeugung der Vorschaubilder. */
+    private final VorschauService _vorschauService;
+    
+    /** Bean für programmatische Transaktionssteuerung beim Speichern der Metadaten. */
+    private final TransactionTemplate _transactionTemplate;
+    
+    /** Invertierter Index für Suche nach Tags, wird bei Änderungen aktualisiert. */
+    private final TagIndex _tagIndex;
+    
+    /** Suchindex für Titel, wird beim Hochladen aktualisiert. */
+    private final TitelIndex _titelIndex;
+    
+    /** Bean für Berechnung des perzeptuellen Hash-Werts für die Suche nach ähnlichen Bildern. */
+    private final PerzeptuellerHasher _perzeptuellerHasher;
+    
+    /** Bloom-Filter mit den Hash-Werten aller Bilder, erspart meistens die Query nach dem Hash-Wert. */
+    private final HashFilter _hashFilter;
+    
+    /** Reservierung der Hash-Werte von Bildern, die gerade hochgeladen werden. */
+    private final HashReservierungen _hashReservierungen;
+    
+    /** Index (BK-Baum) der perzeptuellen Hash-Werte, wird beim Hochladen aktualisiert. */
+    private final AehnlichkeitsIndex _aehnlichkeitsIndex;
+    
+    /** Verhalten beim Hochladen eines Bildes, das einem vorhandenen Bild ähnlich ist. */
+    private final DuplikatModusEnum _duplikatModus;
+    
+    /** Maximaler Abstand der perzeptuellen Hash-Werte, bis zu dem zwei Bilder als ähnlich gelten. */
+    private final int _duplikatMaxAbstand;
+    
+    /** Anzahl Bilder pro Seite, wenn der Client keine Anzahl angibt. */
+    private final int _seitenGroesse;
     
     
     /**
@@ -54,59 +120,521 @@ public class BildService {
     @Autowired
     public BildService( BildRepository bildRepo,
                         MD5Hasher md5hasher,
-                        TagRepository tagRepo) {
+                        TagRepository tagRepo,
+                        BildSpeicher bildSpeicher,
+                        BildTypErkenner bildTypErkenner,
+                        VorschauService vorschauService,
+                        TransactionTemplate transactionTemplate,
+                        TagIndex tagIndex,
+                        TitelIndex titelIndex,
+                        PerzeptuellerHasher perzeptuellerHasher,
+                        HashFilter hashFilter,
+                        HashReservierungen hashReservierungen,
+                        AehnlichkeitsIndex aehnlichkeitsIndex,
+                        @Value( "${bildergallerie.duplikate.modus:warnen}" ) DuplikatModusEnum duplikatModus,
+                        @Value( "${bildergallerie.duplikate.max-abstand:6}" ) int duplikatMaxAbstand,
+                        @Value( "${bildergallerie.liste.seiten-groesse:20}" ) int seitenGroesse ) {
         
-        _bildRepo  = bildRepo;
-        _md5hasher = md5hasher;
-        _tagRepo   = tagRepo;
+        _bildRepo            = bildRepo;
+        _md5hasher           = md5hasher;
+        _tagRepo             = tagRepo;
+        _bildSpeicher        = bildSpeicher;
+        _bildTypErkenner     = bildTypErkenner;
+        _vorschauService     = vorschauService;
+        _transactionTemplate = transactionTemplate;
+        _tagIndex            = tagIndex;
+        _titelIndex          = titelIndex;
+        _perzeptuellerHasher = perzeptuellerHasher;
+        _hashFilter          = hashFilter;
+        _hashReservierungen  = hashReservierungen;
+        _aehnlichkeitsIndex  = aehnlichkeitsIndex;
+        _duplikatModus       = duplikatModus;
+        _duplikatMaxAbstand  = Math.clamp( duplikatMaxAbstand, 0, AehnlichkeitsIndex.MAX_ABSTAND );
+        _seitenGroesse       = Math.clamp( seitenGroesse, 1, MAX_SEITEN_GROESSE );
     }
     
     
     /**
-     * Von Nutzer über Webseite hochgeladenes Bild in Datenbank speichern. Es wird zuerst
-     * überprüft, ob schon ein Bild mit demselben Hash-Wert in der Datenbank gespeichert
-     * ist.
+     * Von Nutzer über Webseite hochgeladenes Bild speichern: Die Binärdaten werden im
+     * {@link BildSpeicher} abgelegt, die Metadaten in der Datenbank. Wenn schon ein
+     * Bild mit demselben Hash-Wert in der Datenbank gespeichert ist, dann wird das
+     * neue Bild nicht gespeichert.
+     * <br><br>
+     * 
+     * Für Rasterbilder wird außerdem ein perzeptueller Hash-Wert berechnet und gespeichert,
+     * mit dem im {@link AehnlichkeitsIndex} nach ähnlichen Bildern (z.B. verkleinerte Kopie)
+     * gesucht wird; je nach Konfiguration {@code bildergallerie.duplikate.modus} wird ein
+     * ähnliches Bild trotzdem gespeichert (mit Warnung im Log) oder abgelehnt.
+     * <br><br>
+     * 
+     * Gleichzeitige Uploads derselben Datei werden mit {@link HashReservierungen} zu einem
+     * einzigen Speichervorgang zusammengefasst, die anderen Uploads bekommen eine
+     * {@link BildSchonVorhandenException}.
+     * <br><br>
+     * 
+     * Ob es schon ein Bild mit demselben Hash-Wert gibt, wird zuerst mit dem {@link HashFilter}
+     * geprüft; nur wenn dieser ein vorhandenes Bild nicht ausschließen kann, wird die
+     * Datenbank abgefragt.
+     * <br><br>
+     * 
+     * Das Bild wird in einem einzigen Durchlauf verarbeitet, ohne es als Ganzes in den
+     * Heap zu laden: Aus dem gepufferten Anfang wird der MIME-Typ bestimmt, danach
+     * wird der Stream in eine temporäre Datei kopiert und dabei der MD5-Hash berechnet.
+     * Das Bild wird zusammen mit seinen Tags in einer einzigen Transaktion gespeichert,
+     * dabei werden alle Tags mit einer einzigen Query gesucht (siehe 
+     * {@link #tagsZuordnen(BildEntity, List)}); die Anzahl der DB-Zugriffe hängt also
+     * nicht von der Anzahl der ausgewählten Tags ab.
+     * Die Vorschaubilder werden danach im Hintergrund erzeugt (siehe {@link VorschauService}).
      * 
      * @param titel Titel des Bildes (vom Nutzer eingegeben), sollte schon getrimmt sein              
      * 
-     * @param byteArray Byte-Array mit Bilddaten (Binärdaten)
+     * @param daten Stream mit Bilddaten (Binärdaten); wird von dieser Methode nicht
+     *              geschlossen
      * 
      * @param tagListe Tags, die dem Bild zugeordnet werden sollen; unbekannte
      *                 Tags werden einfach ignoriert; darf leer sein
      * 
      * @return Neu erzeugtes Bild
      * 
-     * @throws BildSchonVorhandenException Bild mit selbem Hash-Wert ist schon in DB vorhanden
+     * @throws BildSchonVorhandenException Bild mit selbem Hash-Wert ist schon in DB vorhanden,
+     *                                     oder (Modus {@code ABLEHNEN}) ähnliches Bild
+     * 
+     * @throws MimeTypeException MIME-Typ nicht unterstützt
+     * 
+     * @throws IOException Fehler beim Lesen von {@code daten} oder beim Ablegen der 
+     *                     Binärdaten im Bildspeicher
      */
-    public BildEntity bildHochladen( String titel, byte[] byteArray, List<String> tagListe ) 
-                      throws BildSchonVorhandenException, MimeTypeException {
+    public BildEntity bildHochladen( String titel, InputStream daten, List<String> tagListe ) 
+                      throws BildSchonVorhandenException, MimeTypeException, IOException {
         
-        final String md5hash = _md5hasher.getHash( byteArray );
+        final int kopfGroesse = _bildTypErkenner.getKopfGroesse();
         
-        final Optional<BildEntity> bildByHash = _bildRepo.findByHash( md5hash );        
-        if ( bildByHash.isPresent() ) {
+        final BufferedInputStream gepuffert = new BufferedInputStream( daten, kopfGroesse );
+        gepuffert.mark( kopfGroesse );
+        final byte[] kopf = gepuffert.readNBytes( kopfGroesse ); // throws IOException
+        gepuffert.reset();
+        
+        final String mimeTyp = mimeTypeBestimmen( kopf, titel ); // throws MimeTypeException
+        
+        final MessageDigest messageDigest = _md5hasher.neuerMessageDigest();
+        
+        final Path tmpDatei = Files.createTempFile( "bild-upload-", ".tmp" );
+        try {
+            
+            // DigestInputStream nicht schließen, da sonst auch "daten" geschlossen würde
+            final DigestInputStream digestInputStream = new DigestInputStream( gepuffert, messageDigest );
+            final long anzahlBytes = Files.copy( digestInputStream, tmpDatei, REPLACE_EXISTING );
+            
+            final String md5hash = _md5hasher.getHash( messageDigest );
             
-            final BildEntity altesBild = bildByHash.get(); 
-            throw new BildSchonVorhandenException( altesBild );
+            // gleichzeitige Uploads derselben Datei warten hier auf den ersten Upload
+            try ( Reservierung reservierung = _hashReservierungen.reservieren( md5hash ) ) { // throws BildSchonVorhandenException
+                
+                final BildEntity bild = bildVorbereiten( titel, tmpDatei, anzahlBytes, md5hash, mimeTyp );
+                
+                final BildEntity savedEntity = speichernMitTags( bild, tagListe ); // throws BildSchonVorhandenException
+                
+                nachSpeichern( savedEntity, reservierung );
+                
+                return savedEntity;
+            }
         }
+        finally {
             
-
-        final String mimeTyp = mimeTypeBestimmen( byteArray, titel ); // throws MimeTypeException        
+            Files.deleteIfExists( tmpDatei );
+        }
+    }
+    
+    
+    /**
+     * Ein Bild für den Massen-Upload vorbereiten: MIME-Typ bestimmen, Hash-Wert berechnen,
+     * auf vorhandene bzw. ähnliche Bilder prüfen und die Binärdaten im {@link BildSpeicher}
+     * ablegen. Die Metadaten werden noch nicht gespeichert, das geschieht für viele Bilder
+     * auf einmal mit {@link #bilderSpeichern(List, List)}.
+     * <br><br>
+     * 
+     * Anders als bei {@link #bildHochladen(String, InputStream, List)} wird der Hash-Wert
+     * hier nicht reserviert, weil zwischen Vorbereitung und Speichern viel Zeit vergehen
+     * kann (ein Massen-Upload wird erst komplett gelesen); gleichzeitige einzelne Uploads
+     * derselben Datei würden sonst so lange warten. Der Hash-Wert wird erst beim Speichern
+     * reserviert. Da die Binärdaten unter dem Hash-Wert abgelegt werden, schadet es nicht,
+     * wenn eine Datei gleichzeitig von einem anderen Upload abgelegt wird.
+     * 
+     * @param titel Titel des Bildes
+     * 
+     * @param datei Datei mit den Binärdaten; wird von dieser Methode nicht gelöscht
+     * 
+     * @return Neues Bild, noch nicht in der Datenbank gespeichert
+     * 
+     * @throws BildSchonVorhandenException Bild mit selbem Hash-Wert ist schon vorhanden,
+     *                                     oder (Modus {@code ABLEHNEN}) ähnliches Bild
+     * 
+     * @throws MimeTypeException MIME-Typ nicht unterstützt
+     * 
+     * @throws IOException Fehler beim Lesen der Datei oder beim Ablegen im Bildspeicher
+     */
+    public BildEntity bildVorbereiten( String titel, Path datei ) 
+                      throws BildSchonVorhandenException, MimeTypeException, IOException {
+        
+        final byte[] kopf;
+        try ( InputStream inputStream = Files.newInputStream( datei ) ) {
+            
+            kopf = inputStream.readNBytes( _bildTypErkenner.getKopfGroesse() );
+        }
+        
+        final String mimeTyp = mimeTypeBestimmen( kopf, titel ); // throws MimeTypeException
+        
+        final String md5hash;
+        try ( FileChannel kanal = FileChannel.open( datei ) ) {
+            
+            md5hash = _md5hasher.getHash( kanal ); // throws IOException
+        }
+        
+        return bildVorbereiten( titel, datei, Files.size( datei ), md5hash, mimeTyp );
+    }
+    
+    
+    /**
+     * Mehrere mit {@link #bildVorbereiten(String, Path)} vorbereitete Bilder in einer
+     * einzigen Transaktion speichern; da die IDs aus einer Sequenz kommen, sendet Hibernate
+     * die {@code INSERT}s als JDBC-Batches (Konfiguration {@code hibernate.jdbc.batch_size}).
+     * Die Tags werden für alle Bilder mit einer einzigen Query gesucht.
+     * <br><br>
+     * 
+     * Die Hash-Werte werden nur für die Dauer der Transaktion reserviert (ohne zu warten),
+     * so dass gleichzeitige einzelne Uploads derselben Datei kurz warten und dann eine
+     * {@link BildSchonVorhandenException} bekommen. Ist ein Hash-Wert schon reserviert
+     * (anderer Upload, oder dieselbe Datei zweimal im Block), dann wird das Bild trotzdem
+     * gespeichert; doppelte Bilder verhindert dann der eindeutige Index.
+     * 
+     * @param bilder Vorbereitete Bilder, darf nicht leer sein
+     * 
+     * @param tagListe Namen der Tags, die allen Bildern zugeordnet werden sollen; darf
+     *                 {@code null} oder leer sein
+     * 
+     * @return Gespeicherte Bilder in derselben Reihenfolge wie {@code bilder}
+     * 
+     * @throws DataIntegrityViolationException Ein Bild wurde inzwischen von einem anderen
+     *                                         Upload gespeichert oder ist doppelt im Block;
+     *                                         es wurde kein Bild gespeichert, die Bilder
+     *                                         können mit {@link #bildSpeichern(BildEntity, List)}
+     *                                         einzeln gespeichert werden
+     */
+    public List<BildEntity> bilderSpeichern( List<BildEntity> bilder, List<String> tagListe ) {
+        
+        final List<Optional<Reservierung>> reservierungen = new ArrayList<>( bilder.size() );
+        try {
+            
+            for ( BildEntity bild : bilder ) {
+                
+                reservierungen.add( _hashReservierungen.versuchen( bild.getHash() ) );
+            }
+            
+            final List<BildEntity> savedEntities = _transactionTemplate.execute( status -> {
+                
+                final List<TagEntity> tags = tagListe == null || tagListe.isEmpty() 
+                                             ? List.of() 
+                                             : _tagRepo.findByNameIn( new LinkedHashSet<>( tagListe ) );
+                
+                tags.forEach( tag -> bilder.forEach( bild -> bild.addTag( tag ) ) );
+                
+                return _bildRepo.saveAll( bilder );
+            });
+            
+            for ( int i = 0; i < savedEntities.size(); i++ ) {
+                
+                nachSpeichern( savedEntities.get( i ), reservierungen.get( i ).orElse( null ) );
+            }
+            
+            LOG.info( "{} Bilder mit einer Transaktion gespeichert.", savedEntities.size() );
+            
+            return savedEntities;
+        }
+        finally {
+            
+            reservierungen.forEach( reservierung -> reservierung.ifPresent( Reservierung::close ) );
+        }
+    }
+    
+    
+    /**
+     * Ein mit {@link #bildVorbereiten(String, Path)} vorbereitetes Bild einzeln speichern,
+     * z.B. wenn {@link #bilderSpeichern(List, List)} wegen eines doppelten Bildes
+     * gescheitert ist. Es wird eine Kopie der Entity gespeichert, weil Hibernate der
+     * Entity bei der gescheiterten Transaktion schon eine ID zugewiesen hat (sie würde
+     * sonst als vorhandene Entity behandelt). Wie bei {@link #bilderSpeichern(List, List)}
+     * wird der Hash-Wert nur während des Speicherns reserviert.
+     * 
+     * @param vorbereitet Vorbereitetes Bild
+     * 
+     * @param tagListe Namen der Tags, die dem Bild zugeordnet werden sollen
+     * 
+     * @return Gespeichertes Bild
+     * 
+     * @throws BildSchonVorhandenException Bild mit selbem Hash-Wert wurde inzwischen gespeichert
+     */
+    public BildEntity bildSpeichern( BildEntity vorbereitet, List<String> tagListe ) 
+                      throws BildSchonVorhandenException {
+        
+        final BildEntity bild = new BildEntity( vorbereitet.getTitel(), vorbereitet.getSpeicherSchluessel(),
+                                                vorbereitet.getBildGroesseBytes(), vorbereitet.getHash(), 
+                                                vorbereitet.getMimeTyp() );
+        bild.setPerzeptuellerHash( vorbereitet.getPerzeptuellerHash() );
+        
+        final Optional<Reservierung> reservierung = _hashReservierungen.versuchen( bild.getHash() );
+        try {
+            
+            final BildEntity savedEntity = speichernMitTags( bild, tagListe ); // throws BildSchonVorhandenException
+            
+            nachSpeichern( savedEntity, reservierung.orElse( null ) );
+            
+            return savedEntity;
+        }
+        finally {
+            
+            reservierung.ifPresent( Reservierung::close );
+        }
+    }
+    
+    
+    /**
+     * Gemeinsamer Teil von Upload und Massen-Upload für ein Bild (beim einzelnen Upload
+     * ist der Hash-Wert schon reserviert): auf vorhandenes bzw. ähnliches Bild prüfen,
+     * Binärdaten im {@link BildSpeicher} ablegen und (noch nicht gespeicherte) Entity erzeugen.
+     * 
+     * @param titel Titel des Bildes
+     * 
+     * @param datei Datei mit den Binärdaten
+     * 
+     * @param anzahlBytes Größe der Datei
+     * 
+     * @param md5hash MD5-Hash der Datei
+     * 
+     * @param mimeTyp MIME-Typ des Bildes
+     * 
+     * @return Neues Bild, noch nicht in der Datenbank gespeichert
+     * 
+     * @throws BildSchonVorhandenException Bild mit selbem Hash-Wert ist schon in DB vorhanden,
+     *                                     oder (Modus {@code ABLEHNEN}) ähnliches Bild
+     * 
+     * @throws IOException Fehler beim Lesen der Datei oder beim Ablegen im Bildspeicher
+     */
+    private BildEntity bildVorbereiten( String titel, Path datei, long anzahlBytes, String md5hash, String mimeTyp ) 
+                       throws BildSchonVorhandenException, IOException {
+        
+        if ( _hashFilter.vielleichtVorhanden( md5hash ) ) { // sonst sicher kein Bild mit diesem Hash-Wert
+            
+            final Optional<BildEntity> bildByHash = _bildRepo.findByHash( md5hash );        
+            if ( bildByHash.isPresent() ) {
+            
+                final BildEntity altesBild = bildByHash.get(); 
+                throw new BildSchonVorhandenException( altesBild );
+            }
+            _hashFilter.falschPositivMelden();
+        }
+        
+        final Long perzeptuellerHash = perzeptuellenHashBerechnen( datei, mimeTyp ); // throws IOException
+        if ( perzeptuellerHash != null ) {
+            
+            aehnlicheBilderPruefen( perzeptuellerHash, titel ); // throws BildSchonVorhandenException
+        }
+        
+        final String speicherSchluessel = _bildSpeicher.speichern( md5hash, datei ); // throws IOException
+        
+        final BildEntity bild = new BildEntity( titel, speicherSchluessel, anzahlBytes, md5hash, mimeTyp );
+        bild.setPerzeptuellerHash( perzeptuellerHash );
+        
+        return bild;
+    }
+    
+    
+    /**
+     * Nach dem Speichern eines neuen Bildes Filter und Indexe im Speicher aktualisieren,
+     * wartende Uploads mit demselben Hash-Wert benachrichtigen und die Erzeugung der
+     * Vorschaubilder anstoßen.
+     * 
+     * @param savedEntity Gespeichertes Bild
+     * 
+     * @param reservierung Reservierung des Hash-Werts; {@code null}, wenn der Hash-Wert
+     *                     beim Massen-Upload nicht reserviert werden konnte
+     */
+    private void nachSpeichern( BildEntity savedEntity, Reservierung reservierung ) {
+        
+        _hashFilter.hinzufuegen( savedEntity.getHash() ); // vor Freigabe der Reservierung
+        if ( reservierung != null ) {
+            
+            reservierung.erledigt( savedEntity );
+        }
+        
+        _tagIndex.bildIndexieren( savedEntity.getId(), savedEntity.getTags() );
+        _titelIndex.bildIndexieren( savedEntity.getId(), savedEntity.getTitel() );
+        if ( savedEntity.getPerzeptuellerHash() != null ) {
+            
+            _aehnlichkeitsIndex.bildIndexieren( savedEntity.getId(), savedEntity.getPerzeptuellerHash() );
+        }
+        
+        _vorschauService.vorschauenErzeugenAsync( savedEntity );
+    }
+    
+    
+    /**
+     * Neues Bild zusammen mit seinen Tags in einer Transaktion speichern. Der eindeutige
+     * Index auf dem Hash-Wert verhindert doppelte Bilder auch dann, wenn eine andere
+     * Instanz der Anwendung gleichzeitig dasselbe Bild speichert (dagegen hilft
+     * {@link HashReservierungen} nicht).
+     * 
+     * @param bild Neues Bild
+     * 
+     * @param tagListe Namen der Tags, die dem Bild zugeordnet werden sollen
+     * 
+     * @return Gespeichertes Bild
+     * 
+     * @throws BildSchonVorhandenException Bild mit selbem Hash-Wert wurde inzwischen gespeichert
+     */
+    private BildEntity speichernMitTags( BildEntity bild, List<String> tagListe ) throws BildSchonVorhandenException {
+        
+        try {
+            
+            return _transactionTemplate.execute( status -> {
+                
+                tagsZuordnen( bild, tagListe );
+                
+                return _bildRepo.save( bild ); // eigentliches Speichern in DB, Tags inklusive
+            });
+        }
+        catch ( DataIntegrityViolationException ex ) {
+            
+            final Optional<BildEntity> bildByHash = _bildRepo.findByHash( bild.getHash() );
+            if ( bildByHash.isPresent() ) {
+                
+                throw new BildSchonVorhandenException( bildByHash.get() );
+            }
+            throw ex;
+        }
+    }
+    
+    
+    /**
+     * Perzeptuellen Hash-Wert für ein hochgeladenes Bild berechnen.
+     * 
+     * @param datei Temporäre Datei mit den Binärdaten des Bildes
+     * 
+     * @param mimeTyp MIME-Typ des Bildes
+     * 
+     * @return Hash-Wert oder {@code null}, wenn das Bild kein Rasterbild ist oder nicht
+     *         dekodiert werden kann
+     * 
+     * @throws IOException Fehler beim Lesen der Datei
+     */
+    private Long perzeptuellenHashBerechnen( Path datei, String mimeTyp ) throws IOException {
+        
+        if ( !PerzeptuellerHasher.istUnterstuetzt( mimeTyp ) ) {
+            
+            return null;
+        }
+        
+        try ( InputStream inputStream = Files.newInputStream( datei ) ) {
+            
+            final OptionalLong hash = _perzeptuellerHasher.hashBerechnen( inputStream );
+            
+            return hash.isPresent() ? hash.getAsLong() : null;
+        }
+    }
+    
+    
+    /**
+     * Im {@link AehnlichkeitsIndex} nach Bildern suchen, die dem hochzuladenden Bild
+     * ähnlich sind, und je nach konfiguriertem {@link DuplikatModusEnum} reagieren.
+     * 
+     * @param perzeptuellerHash Hash-Wert des hochzuladenden Bildes
+     * 
+     * @param titel Titel des hochzuladenden Bildes, für Log und Exception
+     * 
+     * @throws BildSchonVorhandenException Ähnliches Bild gefunden und Modus {@code ABLEHNEN}
+     */
+    private void aehnlicheBilderPruefen( long perzeptuellerHash, String titel ) throws BildSchonVorhandenException {
+        
+        if ( _duplikatModus == DuplikatModusEnum.AUS ) {
+            
+            return;
+        }
+        
+        for ( Treffer treffer : _aehnlichkeitsIndex.suchen( perzeptuellerHash, _duplikatMaxAbstand ) ) {
+            
+            final Optional<BildEntity> aehnlichesBild = _bildRepo.findById( treffer.bildId() );
+            if ( aehnlichesBild.isEmpty() ) {
+                
+                continue; // inzwischen gelöscht
+            }
+            
+            if ( _duplikatModus == DuplikatModusEnum.ABLEHNEN ) {
+                
+                throw new BildSchonVorhandenException( "Sehr ähnliches Bild schon in DB gespeichert (Abstand " + 
+                                                       treffer.abstand() + ")", aehnlichesBild.get() );
+            }
+            
+            LOG.warn( "Bild \"{}\" ist dem vorhandenen Bild \"{}\" mit ID={} sehr ähnlich (Abstand {}).", 
+                      titel, aehnlichesBild.get().getTitel(), treffer.bildId(), treffer.abstand() );
+            return;
+        }
+    }
+    
+    
+    /**
+     * Bilder suchen, die dem Bild mit {@code bildId} ähnlich sehen (z.B. verkleinerte oder
+     * neu kodierte Kopien), mit dem {@link AehnlichkeitsIndex}.
+     * 
+     * @param bildId ID des Bildes, zu dem ähnliche Bilder gesucht werden
+     * 
+     * @param maxAbstand Maximaler Abstand der perzeptuellen Hash-Werte, wird auf den
+     *                   Bereich 0 bis {@link AehnlichkeitsIndex#MAX_ABSTAND} begrenzt
+     * 
+     * @return Leeres Optional, wenn es kein Bild mit {@code bildId} gibt; sonst ähnliche
+     *         Bilder (ohne das Bild selbst), aufsteigend sortiert nach Abstand; die Liste
+     *         ist leer, wenn es für das Bild keinen Hash-Wert gibt (z.B. SVG)
+     */
+    public Optional<List<AehnlichesBild>> aehnlicheBilder( long bildId, int maxAbstand ) {
+        
+        final Optional<BildEntity> bildOptional = _bildRepo.findById( bildId );
+        if ( bildOptional.isEmpty() ) {
+            
+            return Optional.empty();
+        }
+        
+        final Long perzeptuellerHash = bildOptional.get().getPerzeptuellerHash();
+        if ( perzeptuellerHash == null ) {
+            
+            return Optional.of( List.of() );
+        }
         
-        final Blob blob = BlobProxy.generateProxy( byteArray );
-                        
-        final BildEntity bild = new BildEntity( titel , blob, md5hash, mimeTyp );
+        final List<Treffer> trefferListe = _aehnlichkeitsIndex.suchen( perzeptuellerHash, maxAbstand )
+                                                              .stream()
+                                                              .filter( treffer -> treffer.bildId() != bildId )
+                                                              .limit( MAX_SEITEN_GROESSE )
+                                                              .toList();
         
-        final BildEntity savedEntity = _bildRepo.save( bild ); // eigentliches Speichern in DB
+        final Map<Long, BildEntity> bilderProId = new HashMap<>( trefferListe.size() * 2 );
+        for ( BildEntity bild : _bildRepo.findAllById( trefferListe.stream().map( Treffer::bildId ).toList() ) ) {
+            
+            bilderProId.put( bild.getId(), bild );
+        }
         
-        final BildEntity ergebnisEntity = tagsHinzufuegen( savedEntity, tagListe );
+        final List<AehnlichesBild> ergebnis = new ArrayList<>( trefferListe.size() );
+        for ( Treffer treffer : trefferListe ) {
+            
+            final BildEntity bild = bilderProId.get( treffer.bildId() );
+            if ( bild != null ) {
+                
+                ergebnis.add( new AehnlichesBild( bild.getId(), bild.getTitel(), treffer.abstand() ) );
+            }
+        }
         
-        return ergebnisEntity;                
+        return Optional.of( ergebnis );
     }
     
     
     /**
-     * Tags mit Namen aus {@code tagListe} der {@code bildEntity} zuzuordnen
+     * Tags mit Namen aus {@code tagListe} der {@code bildEntity} zuordnen und Bild speichern.
      * 
      * @param bildEntity Bild, dem Tags zugeordnet werden sollen.
      * 
@@ -123,45 +651,73 @@ public class BildService {
     		return bildEntity;
     	}
     	
-    	int tagsZugeordnetZaehler = 0;
+    	final BildEntity savedEntity = _transactionTemplate.execute( status -> {
+    	    
+    	    tagsZuordnen( bildEntity, tagListe );
+    	    
+    	    return _bildRepo.save( bildEntity );
+    	});
     	
-    	for ( String tagName : tagListe ) {
-    		
-    		final Optional<TagEntity> tagEntityOptional = _tagRepo.findByName( tagName );
-    		if ( tagEntityOptional.isEmpty() ) {
-    			
-    			LOG.warn( "Versuch Tag \"{}\" dem Bild mit ID={} zuzuordnen, aber kein Tag mit diesem Namen gefunden.", 
-    					  tagName, bildEntity.getId() );    			
-    		} else {
-    			
-    			final TagEntity tag = tagEntityOptional.get();
-    			bildEntity.addTag( tag );
-    			tagsZugeordnetZaehler++;
-    		}
-    	}
-    	
-    	LOG.info( "Anzahl Tags zu Bild mit ID={} zugeordnet: {}", bildEntity.getId(), tagsZugeordnetZaehler );
+    	_tagIndex.bildIndexieren( savedEntity.getId(), savedEntity.getTags() );
     	
-    	return _bildRepo.save( bildEntity );
+    	return savedEntity;
+    }
+    
+    
+    /**
+     * Tags mit Namen aus {@code tagListe} der {@code bildEntity} zuordnen, ohne zu speichern.
+     * Alle Tags werden mit einer einzigen Query gesucht (und nicht mit einer Query pro
+     * Tag-Name).
+     * 
+     * @param bildEntity Bild, dem Tags zugeordnet werden sollen.
+     * 
+     * @param tagListe Liste der Namen von Tags, darf {@code null} oder leer sein;
+     *                 unbekannte Tags werden ignoriert (es wird aber eine Warnung ins Log
+     *                 geschrieben)
+     */
+    private void tagsZuordnen( BildEntity bildEntity, List<String> tagListe ) {
+        
+        if ( tagListe == null || tagListe.isEmpty() ) {
+            
+            return;
+        }
+        
+        final Set<String> gesuchteNamen = new LinkedHashSet<>( tagListe );
+        
+        final List<TagEntity> gefundeneTags = _tagRepo.findByNameIn( gesuchteNamen );
+        for ( TagEntity tag : gefundeneTags ) {
+            
+            bildEntity.addTag( tag );
+            gesuchteNamen.remove( tag.getName() );
+        }
+        
+        for ( String tagName : gesuchteNamen ) {
+            
+            LOG.warn( "Versuch Tag \"{}\" dem Bild \"{}\" zuzuordnen, aber kein Tag mit diesem Namen gefunden.", 
+                      tagName, bildEntity.getTitel() );
+        }
+        
+        LOG.info( "Anzahl Tags zu Bild \"{}\" zugeordnet: {}", bildEntity.getTitel(), gefundeneTags.size() );
     }
     
     
     /**
-     * Convience-Methode: Überladung von {@link #bildHochladen(String, byte[], List)}
+     * Convience-Methode: Überladung von {@link #bildHochladen(String, InputStream, List)}
      * mit leerer Tag-Liste.
      */
-    public BildEntity bildHochladen( String titel, byte[] byteArray ) 
-                      throws BildSchonVorhandenException, MimeTypeException {
+    public BildEntity bildHochladen( String titel, InputStream daten ) 
+                      throws BildSchonVorhandenException, MimeTypeException, IOException {
     	
-    	return bildHochladen( titel, byteArray, emptyList() );
+    	return bildHochladen( titel, daten, emptyList() );
     }
     
     
     /**
-     * MIME-Typ von hochgeladenem Bild bestimmen. Intern wird die Bibliothek "Apache Tika"
+     * MIME-Typ von hochgeladenem Bild bestimmen. Intern wird {@link BildTypErkenner}
      * verwendet.
      * 
-     * @param byteArray Byte-Array mit Binärdaten des Bildes 
+     * @param kopf Byte-Array mit den ersten Bytes des Bildes (siehe 
+     *             {@link BildTypErkenner#getKopfGroesse()}) 
      * 
      * @param titel Titel des Bilds wird für Exception benötigt
      * 
@@ -172,47 +728,343 @@ public class BildService {
      *                           der unterstützten Typen (siehe Beschreibung möglicher
      *                           {@code return}-Werte). 
      */
-    private String mimeTypeBestimmen( byte[] byteArray, String titel ) throws MimeTypeException { 
+    private String mimeTypeBestimmen( byte[] kopf, String titel ) throws MimeTypeException { 
                                                           
-        try {
-
-            final ByteArrayInputStream inputStream = new ByteArrayInputStream( byteArray );
-            
-            final String mimeType = _tika.detect( inputStream ); // throws IOException            
-            switch ( mimeType ) {
-            
-                case "image/jpeg"    :
-                case "image/png"     :
-                case "image/gif"     :
-                case "image/svg+xml" : return mimeType;
-                    
-                default: 
-                    throw new MimeTypeException( "Nicht unterstützter MIME-Type \"" + mimeType + "\"." );
-            }                        
-        }
-        catch ( IOException ex ) {
-            
-            throw new MimeTypeException( 
-                           "Ein-/Ausgabe-Fehler bei Bestimmung MIME-Type von Bild mit Titel \"" + titel + "\"", 
-                           ex );
-        }        
+        final String mimeType = _bildTypErkenner.mimeTypBestimmen( kopf );
+        switch ( mimeType ) {
+        
+            case "image/jpeg"    :
+            case "image/png"     :
+            case "image/gif"     :
+            case "image/svg+xml" : return mimeType;
+                
+            default: 
+                throw new MimeTypeException( "Nicht unterstützter MIME-Type \"" + mimeType + 
+                                             "\" für Bild mit Titel \"" + titel + "\"." );
+        }                        
     }     
     
     
     /**
-     * Liefert sortierte Liste aller Bilder zurück.
+     * Liefert eine Seite der sortierten Liste aller Bilder mit der konfigurierten
+     * Anzahl Bilder pro Seite (Konfiguration {@code bildergallerie.liste.seiten-groesse}).
+     * 
+     * @param sortierAttribut Attribut, nach dem die Liste aufsteigend sortiert werden soll.
+     * 
+     * @param cursor {@code null} für erste Seite, sonst {@link BildSeite#naechsterCursor()}
+     *               der vorherigen Seite
+     * 
+     * @return Seite mit Bildern, sortiert nach {@code sortierAttribut} und ID
+     * 
+     * @throws IllegalArgumentException Ungültiger {@code cursor}
+     */
+    public BildSeite getBildSeite( SortierAttributEnum sortierAttribut, String cursor ) {
+        
+        return getBildSeite( sortierAttribut, cursor, _seitenGroesse );
+    }
+    
+    
+    /**
+     * Liefert eine Seite der sortierten Liste aller Bilder. Es wird "Keyset Pagination"
+     * verwendet (siehe {@link BildRepository#findAllBy(ScrollPosition, Sort, Limit)}): Der
+     * Cursor enthält den Wert des Sortier-Attributs und die ID des letzten Bilds der
+     * vorherigen Seite, so dass jede Seite über den zusammengesetzten Index aus
+     * Sortier-Attribut und ID gelesen werden kann.
+     * <br><br>
+     * 
+     * Die Tags aller Bilder der Seite werden mit einer zweiten Query geladen (siehe
+     * {@link BildRepository#findTagsFuerBilder(java.util.Collection)}), so dass für eine
+     * Seite unabhängig von der Anzahl der Bilder genau zwei Queries ausgeführt werden.
      * 
      * @param sortierAttribut Attribut, nach dem die Liste aufsteigend sortiert werden soll.
      * 
-     * @return Iterator mit allen Bildern in der Datenbank, sortiert nach {@code sortierAttribut}
+     * @param cursor {@code null} für erste Seite, sonst {@link BildSeite#naechsterCursor()}
+     *               der vorherigen Seite (mit demselben {@code sortierAttribut})
+     * 
+     * @param anzahl Maximale Anzahl Bilder auf der Seite, wird auf den Bereich
+     *               1 bis {@link #MAX_SEITEN_GROESSE} begrenzt
+     * 
+     * @return Seite mit Bildern, sortiert nach {@code sortierAttribut} und ID
+     * 
+     * @throws IllegalArgumentException Ungültiger {@code cursor}
      */
-    public List<BildEntity> getBildListe( SortierAttributEnum sortierAttribut ) {
+    public BildSeite getBildSeite( SortierAttributEnum sortierAttribut, String cursor, int anzahl ) {
         
         final String techNameAttribut = sortierAttribut.getEntityAttributName();
         
-        final Sort sort = Sort.by( techNameAttribut );
+        final Sort sort = Sort.by( techNameAttribut ).and( Sort.by( "id" ) );
+        
+        final ScrollPosition position = cursor == null || cursor.isBlank() 
+                                        ? ScrollPosition.keyset() 
+                                        : cursorDekodieren( sortierAttribut, cursor );
+        
+        final Window<BildEntity> fenster = 
+                _bildRepo.findAllBy( position, sort, Limit.of( Math.clamp( anzahl, 1, MAX_SEITEN_GROESSE ) ) );
+        
+        return zuBildSeite( fenster, sortierAttribut );
+    }
+    
+    
+    /**
+     * Liefert eine Seite der Bilder, denen der Tag mit {@code tagId} zugeordnet ist,
+     * sortiert nach Zeitpunkt des Uploads (und ID); wie bei 
+     * {@link #getBildSeite(SortierAttributEnum, String, int)} wird "Keyset Pagination"
+     * verwendet. Die Menge {@code TagEntity.getBilder()} wird also nicht geladen. 
+     * <br><br>
+     * 
+     * Für die Gesamtzahl der Bilder mit diesem Tag siehe 
+     * {@link BildRepository#countByTagsId(Long)}.
+     * 
+     * @param tagId ID des Tags
+     * 
+     * @param cursor {@code null} für erste Seite, sonst {@link BildSeite#naechsterCursor()}
+     *               der vorherigen Seite
+     * 
+     * @return Seite mit Bildern, die dem Tag zugeordnet sind
+     * 
+     * @throws IllegalArgumentException Ungültiger {@code cursor}
+     */
+    public BildSeite getBildSeiteFuerTag( long tagId, String cursor ) {
+        
+        final Sort sort = Sort.by( ZEIT.getEntityAttributName() ).and( Sort.by( "id" ) );
+        
+        final ScrollPosition position = cursor == null || cursor.isBlank() 
+                                        ? ScrollPosition.keyset() 
+                                        : cursorDekodieren( ZEIT, cursor );
+        
+        final Window<BildEntity> fenster = _bildRepo.findByTagsId( tagId, position, sort, Limit.of( _seitenGroesse ) );
+        
+        return zuBildSeite( fenster, ZEIT );
+    }
+    
+    
+    /**
+     * Bilder mit einem Suchausdruck für Tags suchen, z.B. {@code (Hund OR Katze) AND NOT Zeichnung}
+     * (Syntax siehe {@link TagIndex}). Der Ausdruck wird ohne SQL mit dem {@link TagIndex}
+     * ausgewertet; nur die Metadaten der Bilder auf der angeforderten Seite werden aus der
+     * Datenbank geladen.
+     * 
+     * @param ausdruck Suchausdruck
+     * 
+     * @param cursor {@code null} für erste Seite, sonst {@link SuchErgebnis#naechsterCursor()}
+     *               der vorherigen Seite
+     * 
+     * @param anzahl Maximale Anzahl Bilder auf der Seite, wird auf den Bereich
+     *               1 bis {@link #MAX_SEITEN_GROESSE} begrenzt
+     * 
+     * @return Treffer auf der angeforderten Seite, sortiert nach ID (also nach Zeitpunkt
+     *         des Uploads), und Gesamtzahl der Treffer
+     * 
+     * @throws IllegalArgumentException Ungültiger Suchausdruck oder Cursor
+     */
+    public SuchErgebnis tagSuche( String ausdruck, String cursor, int anzahl ) {
+        
+        final RoaringBitmap treffer = _tagIndex.auswerten( ausdruck ); // throws IllegalArgumentException
+        
+        return trefferSeite( treffer, cursor, anzahl );
+    }
+    
+    
+    /**
+     * Überladung von {@link #titelSuche(String, String, int)} mit der konfigurierten
+     * Anzahl Bilder pro Seite.
+     */
+    public SuchErgebnis titelSuche( String suchText, String cursor ) {
         
-        return _bildRepo.findAll( sort );
+        return titelSuche( suchText, cursor, _seitenGroesse );
+    }
+    
+    
+    /**
+     * Bilder suchen, deren Titel Wörter mit den Anfängen aus {@code suchText} enthält,
+     * z.B. findet "röhr hir" das Bild "Röhrender Hirsch" (siehe {@link TitelIndex}).
+     * 
+     * @param suchText Suchtext, ein oder mehrere Wörter bzw. Wortanfänge
+     * 
+     * @param cursor {@code null} für erste Seite, sonst {@link SuchErgebnis#naechsterCursor()}
+     *               der vorherigen Seite
+     * 
+     * @param anzahl Maximale Anzahl Bilder auf der Seite, wird auf den Bereich
+     *               1 bis {@link #MAX_SEITEN_GROESSE} begrenzt
+     * 
+     * @return Treffer auf der angeforderten Seite, sortiert nach ID (also nach Zeitpunkt
+     *         des Uploads), und Gesamtzahl der Treffer
+     * 
+     * @throws IllegalArgumentException Ungültiger Cursor
+     */
+    public SuchErgebnis titelSuche( String suchText, String cursor, int anzahl ) {
+        
+        return trefferSeite( _titelIndex.suchen( suchText ), cursor, anzahl );
+    }
+    
+    
+    /**
+     * Eine Seite aus den Treffern einer Suche im Index laden; der Cursor ist die ID des
+     * letzten Bildes der vorherigen Seite (nicht-negative Dezimalzahl).
+     * 
+     * @param treffer IDs aller Treffer
+     * 
+     * @param cursor {@code null} für erste Seite, sonst Cursor von vorheriger Seite
+     * 
+     * @param anzahl Maximale Anzahl Bilder auf der Seite
+     * 
+     * @return Seite mit Treffern
+     * 
+     * @throws IllegalArgumentException Cursor ist keine Zahl oder negativ
+     */
+    private SuchErgebnis trefferSeite( RoaringBitmap treffer, String cursor, int anzahl ) {
+        
+        final PeekableIntIterator iterator = treffer.getIntIterator();
+        if ( cursor != null && !cursor.isBlank() ) {
+            
+            final int letzteId = Integer.parseInt( cursor ); // throws NumberFormatException
+            if ( letzteId < 0 ) {
+                
+                // RoaringBitmap behandelt int als vorzeichenlos, -1 wäre also die größte ID
+                throw new IllegalArgumentException( "Ungültiger Cursor: " + cursor );
+            }
+            if ( letzteId == Integer.MAX_VALUE ) {
+                
+                return new SuchErgebnis( treffer.getLongCardinality(), List.of(), null );
+            }
+            iterator.advanceIfNeeded( letzteId + 1 );
+        }
+        
+        final int maxAnzahl = Math.clamp( anzahl, 1, MAX_SEITEN_GROESSE );
+        
+        final List<Long> bildIds = new ArrayList<>( maxAnzahl );
+        while ( iterator.hasNext() && bildIds.size() < maxAnzahl ) {
+            
+            bildIds.add( (long) iterator.next() );
+        }
+        
+        final Map<Long, BildEntity> bilderProId = new HashMap<>( bildIds.size() * 2 );
+        for ( BildEntity bild : _bildRepo.findAllById( bildIds ) ) {
+            
+            bilderProId.put( bild.getId(), bild );
+        }
+        
+        final List<BildEntity> bilder = bildIds.stream()
+                                               .map( bilderProId::get )
+                                               .filter( bild -> bild != null )
+                                               .toList();
+        
+        final String naechsterCursor = iterator.hasNext() && !bildIds.isEmpty()
+                                       ? String.valueOf( bildIds.get( bildIds.size() - 1 ) )
+                                       : null;
+        
+        return new SuchErgebnis( treffer.getLongCardinality(), zuListenEintraegen( bilder ), naechsterCursor );
+    }
+    
+    
+    /**
+     * Ergebnis einer Keyset-Abfrage in {@link BildSeite} umwandeln.
+     * 
+     * @param fenster Ergebnis der Abfrage
+     * 
+     * @param sortierAttribut Attribut, nach dem (und nach ID) sortiert wurde
+     * 
+     * @return Seite mit Listeneinträgen und ggf. Cursor für nächste Seite
+     */
+    private BildSeite zuBildSeite( Window<BildEntity> fenster, SortierAttributEnum sortierAttribut ) {
+        
+        final List<BildEntity> bilder = fenster.getContent();
+        
+        String naechsterCursor = null;
+        if ( fenster.hasNext() && !bilder.isEmpty() ) {
+            
+            naechsterCursor = cursorKodieren( sortierAttribut, bilder.get( bilder.size() - 1 ) );
+        }
+        
+        return new BildSeite( zuListenEintraegen( bilder ), naechsterCursor );
+    }
+    
+    
+    /**
+     * Bilder in Einträge für die Bilderliste umwandeln; die Tags aller Bilder werden
+     * dabei mit einer einzigen Query geladen, {@link BildEntity#getTags()} wird nicht
+     * aufgerufen.
+     * 
+     * @param bilder Bilder, kann leer sein
+     * 
+     * @return Listeneinträge in derselben Reihenfolge wie {@code bilder}
+     */
+    private List<BildListenEintrag> zuListenEintraegen( List<BildEntity> bilder ) {
+        
+        if ( bilder.isEmpty() ) {
+            
+            return List.of();
+        }
+        
+        final List<Long> bildIds = bilder.stream().map( BildEntity::getId ).toList(); 
+        
+        final Map<Long, List<TagKurz>> tagsProBild = new HashMap<>( bilder.size() * 2 );
+        for ( BildTagZuordnung zuordnung : _bildRepo.findTagsFuerBilder( bildIds ) ) {
+            
+            tagsProBild.computeIfAbsent( zuordnung.bildId(), id -> new ArrayList<>( 4 ) )
+                       .add( new TagKurz( zuordnung.tagId(), zuordnung.tagName() ) );
+        }
+        
+        final List<BildListenEintrag> ergebnis = new ArrayList<>( bilder.size() );
+        for ( BildEntity bild : bilder ) {
+            
+            ergebnis.add( new BildListenEintrag( bild.getId(), 
+                                                 bild.getTitel(), 
+                                                 bild.getBildGroesseBytes(), 
+                                                 bild.getMimeTyp(), 
+                                                 bild.getZeitpunktErzeugung(), 
+                                                 tagsProBild.getOrDefault( bild.getId(), List.of() ) ) );
+        }
+        
+        return ergebnis;
+    }
+    
+    
+    /**
+     * Cursor für die Seite nach {@code letztesBild} erzeugen: Base64 (URL-sicher) von
+     * Wert des Sortier-Attributs und ID, getrennt durch {@code |}.
+     * 
+     * @param sortierAttribut Attribut, nach dem sortiert wird
+     * 
+     * @param letztesBild Letztes Bild der aktuellen Seite
+     * 
+     * @return Cursor, z.B. {@code MjAyNC0wNi0wMVQxMjozNDo1Ni43ODl8NDI}
+     */
+    private static String cursorKodieren( SortierAttributEnum sortierAttribut, BildEntity letztesBild ) {
+        
+        final String klartext = sortierAttribut.wertVon( letztesBild ) + "|" + letztesBild.getId();
+        
+        return Base64.getUrlEncoder().withoutPadding().encodeToString( klartext.getBytes( UTF_8 ) );
+    }
+    
+    
+    /**
+     * Cursor, der mit {@link #cursorKodieren(SortierAttributEnum, BildEntity)} erzeugt wurde,
+     * in Position für Keyset-Abfrage umwandeln.
+     * 
+     * @param sortierAttribut Attribut, nach dem sortiert wird
+     * 
+     * @param cursor Cursor von vorheriger Seite
+     * 
+     * @return Position hinter dem letzten Bild der vorherigen Seite
+     * 
+     * @throws IllegalArgumentException Ungültiger {@code cursor}
+     */
+    private static ScrollPosition cursorDekodieren( SortierAttributEnum sortierAttribut, String cursor ) {
+        
+        final String klartext = new String( Base64.getUrlDecoder().decode( cursor ), UTF_8 ); // throws IllegalArgumentException
+        
+        final int trennerPos = klartext.lastIndexOf( '|' ); // Titel kann selbst "|" enthalten, ID nicht
+        if ( trennerPos < 0 ) {
+            
+            throw new IllegalArgumentException( "Ungültiger Cursor: " + cursor );
+        }
+        
+        final Object wert = sortierAttribut.wertAusText( klartext.substring( 0, trennerPos ) );
+        final long   id   = Long.parseLong( klartext.substring( trennerPos + 1 ) ); // throws NumberFormatException
+        
+        return ScrollPosition.forward( Map.of( sortierAttribut.getEntityAttributName(), wert, 
+                                               "id"                                   , id   ) );
     }
     
     
@@ -238,7 +1090,11 @@ public class BildService {
             }
         }
         
-        return _bildRepo.save(bild);
+        final BildEntity savedEntity = _bildRepo.save( bild );
+        
+        _tagIndex.bildIndexieren( savedEntity.getId(), savedEntity.getTags() );
+        
+        return savedEntity;
     }
     
 }
@@ -0,0 +1,207 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.sql.Blob;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.BildRepository;
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
+import de.eldecker.dhbw.spring.bildergallerie.speicher.BildSpeicher;
+
+import jakarta.persistence.EntityManagerFactory;
+
+
+/**
+ * Bis zur Einführung von {@link BildSpeicher} wurden die Binärdaten der Bilder in der
+ * BLOB-Spalte {@code BILD} der Tabelle {@code BILDER} gespeichert. Diese Bean kopiert
+ * beim Start der Anwendung die Bilder aus einer evtl. noch vorhandenen BLOB-Spalte
+ * in den Bildspeicher und setzt danach den BLOB auf {@code NULL}.
+ * <br><br>
+ *
+ * Da das Attribut in {@code BildEntity} nicht mehr existiert, erfolgt der Zugriff
+ * direkt über JDBC. Jedes Bild wird in einer eigenen Transaktion migriert, weil
+ * Postgres auf LOBs nur innerhalb einer Transaktion zugreifen kann.
+ * <br><br>
+ *
+ * Außerdem wird für alle Bilder, für die noch keine Größe in der DB gespeichert ist,
+ * die Größe aus dem Bildspeicher nachgetragen.
+ * <br><br>
+ *
+ * Die Bean wird vor {@link BeispielDatenImporter} ausgeführt.
+ */
+@Component
+@Order( Ordered.HIGHEST_PRECEDENCE )
+public class BildSpeicherMigration implements ApplicationRunner {
+
+    private final static Logger LOG = LoggerFactory.getLogger( BildSpeicherMigration.class );
+
+    /** Bean für direkten Zugriff auf Datenbank mit SQL. */
+    private final JdbcTemplate _jdbcTemplate;
+
+    /** Bean für programmatische Transaktionssteuerung. */
+    private final TransactionTemplate _transactionTemplate;
+
+    /** Speicher, in den die Bilder kopiert werden. */
+    private final BildSpeicher _bildSpeicher;
+
+    /** Repo-Bean für Zugriff auf Datenbanktabelle mit Bildern. */
+    private final BildRepository _bildRepo;
+
+    /** Für Zugriff auf Second-Level-Cache, der nach Änderungen über JDBC geleert wird. */
+    private final EntityManagerFactory _entityManagerFactory;
+
+
+    /**
+     * Konstruktor für Dependency Injection.
+     */
+    @Autowired
+    public BildSpeicherMigration( JdbcTemplate jdbcTemplate,
+                                  TransactionTemplate transactionTemplate,
+                                  BildSpeicher bildSpeicher,
+                                  BildRepository bildRepo,
+                                  EntityManagerFactory entityManagerFactory ) {
+
+        _jdbcTemplate         = jdbcTemplate;
+        _transactionTemplate  = transactionTemplate;
+        _bildSpeicher         = bildSpeicher;
+        _bildRepo             = bildRepo;
+        _entityManagerFactory = entityManagerFactory;
+    }
+
+
+    /**
+     * Migration ausführen, wenn die alte BLOB-Spalte noch existiert; danach fehlende
+     * Bildgrößen nachtragen.
+     *
+     * @param args CmdLine-Argumente, werden nicht ausgewertet
+     */
+    @Override
+    public void run( ApplicationArguments args ) {
+
+        blobSpalteMigrieren();
+
+        bildGroessenNachtragen();
+    }
+
+
+    /**
+     * Bilder aus BLOB-Spalte in Bildspeicher kopieren, falls die Spalte noch existiert.
+     */
+    private void blobSpalteMigrieren() {
+
+        final Integer anzahlSpalten =
+                _jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS " +
+                                              "WHERE UPPER(TABLE_NAME) = 'BILDER' AND UPPER(COLUMN_NAME) = 'BILD'",
+                                              Integer.class );
+        if ( anzahlSpalten == null || anzahlSpalten == 0 ) {
+
+            LOG.debug( "Keine BLOB-Spalte in Tabelle BILDER, keine Migration erforderlich." );
+            return;
+        }
+
+        final List<Map<String, Object>> zeilen =
+                _jdbcTemplate.queryForList( "SELECT id, hash FROM bilder " +
+                                            "WHERE speicher_schluessel IS NULL AND bild IS NOT NULL" );
+        if ( zeilen.isEmpty() ) {
+
+            return;
+        }
+
+        LOG.info( "Migriere {} Bilder aus BLOB-Spalte in Bildspeicher.", zeilen.size() );
+
+        for ( Map<String, Object> zeile : zeilen ) {
+
+            final long   id   = ( (Number) zeile.get( "id" ) ).longValue();
+            final String hash = (String) zeile.get( "hash" );
+
+            _transactionTemplate.executeWithoutResult( status -> bildMigrieren( id, hash ) );
+        }
+
+        // Änderungen über JDBC sind an Hibernate vorbei gegangen
+        _entityManagerFactory.getCache().evict( BildEntity.class );
+
+        LOG.info( "Migration der Bilder in Bildspeicher abgeschlossen." );
+    }
+
+
+    /**
+     * Für Bilder, deren Größe noch nicht in der Tabelle {@code BILDER} steht, die
+     * Größe aus dem Bildspeicher auslesen und speichern.
+     */
+    private void bildGroessenNachtragen() {
+
+        final List<BildEntity> bilderOhneGroesse =
+                _bildRepo.findByBildGroesseBytesIsNullAndSpeicherSchluesselIsNotNull();
+        if ( bilderOhneGroesse.isEmpty() ) {
+
+            return;
+        }
+
+        LOG.info( "Trage Größe für {} Bilder nach.", bilderOhneGroesse.size() );
+
+        for ( BildEntity bild : bilderOhneGroesse ) {
+
+            try {
+
+                bild.setBildGroesseBytes( _bildSpeicher.groesse( bild.getSpeicherSchluessel() ) ); // throws IOException
+            }
+            catch ( IOException ex ) {
+
+                LOG.error( "Größe von Bild mit ID={} konnte nicht aus Bildspeicher gelesen werden.",
+                           bild.getId(), ex );
+            }
+        }
+
+        _bildRepo.saveAll( bilderOhneGroesse );
+    }
+
+
+    /**
+     * Einzelnes Bild migrieren; muss innerhalb einer Transaktion aufgerufen werden.
+     *
+     * @param id ID (Primärschlüssel) des Bildes
+     *
+     * @param hash MD5-Hash des Bildes, wird als Schlüssel für Bildspeicher verwendet
+     */
+    private void bildMigrieren( long id, String hash ) {
+
+        final long[] anzahlBytes = new long[ 1 ];
+
+        final String speicherSchluessel = _jdbcTemplate.query( "SELECT bild FROM bilder WHERE id = ?", rs -> {
+
+            rs.next();
+            final Blob blob = rs.getBlob( 1 );
+            anzahlBytes[ 0 ] = blob.length();
+            try ( InputStream inputStream = blob.getBinaryStream() ) {
+
+                return _bildSpeicher.speichern( hash, inputStream );
+            }
+            catch ( IOException ex ) {
+
+                throw new UncheckedIOException( "Bild mit ID=" + id + " konnte nicht migriert werden.", ex );
+            }
+        }, id );
+
+        // Unter Postgres bleibt das zugehörige Large Object zurück, kann mit "vacuumlo" entfernt werden
+        _jdbcTemplate.update( "UPDATE bilder SET speicher_schluessel = ?, bild_groesse_bytes = ?, bild = NULL " +
+                              "WHERE id = ?",
+                              speicherSchluessel, anzahlBytes[ 0 ], id );
+
+        LOG.info( "Bild mit ID={} in Bildspeicher migriert ({} Bytes).", id, anzahlBytes[ 0 ] );
+    }
+
+}
@@ -0,0 +1,21 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+
+/**
+ * Eigener Enum-Typ für das Ergebnis einer einzelnen Datei beim Massen-Upload, 
+ * siehe {@link MassenUploadErgebnis.DateiErgebnis}.
+ */
+public enum DateiStatusEnum {
+
+    /** Bild wurde neu gespeichert. */
+    GESPEICHERT,
+    
+    /** Bild (oder im Modus {@code ABLEHNEN} ein sehr ähnliches Bild) ist schon vorhanden. */
+    SCHON_VORHANDEN,
+    
+    /** Datei ist kein Bild mit unterstütztem MIME-Typ. */
+    NICHT_UNTERSTUETZT,
+    
+    /** Sonstiger Fehler, z.B. Datei zu groß oder Ein-/Ausgabefehler. */
+    FEHLER;
+}
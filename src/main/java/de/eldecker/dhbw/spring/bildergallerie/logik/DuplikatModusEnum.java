@@ -0,0 +1,20 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+
+/**
+ * Eigener Enum-Typ für das Verhalten beim Hochladen eines Bildes, das einem schon 
+ * vorhandenen Bild sehr ähnlich ist (z.B. verkleinerte oder neu kodierte Kopie), 
+ * Konfiguration {@code bildergallerie.duplikate.modus}. Byte-identische Bilder
+ * (gleicher MD5-Hash) werden unabhängig davon immer abgelehnt.
+ */
+public enum DuplikatModusEnum {
+
+    /** Keine Prüfung auf ähnliche Bilder; der perzeptuelle Hash-Wert wird trotzdem gespeichert. */
+    AUS,
+    
+    /** Ähnliches Bild wird gespeichert, es wird aber eine Warnung ins Log geschrieben. */
+    WARNEN,
+    
+    /** Ähnliches Bild wird nicht gespeichert, sondern wie ein schon vorhandenes Bild abgelehnt. */
+    ABLEHNEN;
+}
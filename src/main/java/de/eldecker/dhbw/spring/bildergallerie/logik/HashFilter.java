@@ -0,0 +1,416 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.BildRepository;
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
+
+
+/**
+ * Bloom-Filter im Speicher mit den Hash-Werten (MD5) aller gespeicherten Bilder, damit
+ * beim Hochladen eines neuen Bildes meistens keine Query mit
+ * {@link BildRepository#findByHash(String)} nötig ist: Liefert
+ * {@link #vielleichtVorhanden(String)} den Wert {@code false}, dann gibt es sicher kein
+ * Bild mit diesem Hash-Wert; nur bei {@code true} muss in der Datenbank nachgesehen
+ * werden (mit der konfigurierten Wahrscheinlichkeit ist das Bild trotzdem nicht
+ * vorhanden, "falsch positiv").
+ * <br><br>
+ *
+ * Der Filter ist "skalierbar": Ist eine Stufe mit der geplanten Anzahl Hash-Werte
+ * gefüllt, dann wird eine neue Stufe mit doppelter Kapazität und halber
+ * Falsch-Positiv-Rate angehängt; die erste Stufe hat die halbe konfigurierte Rate, so
+ * dass die Falsch-Positiv-Rate insgesamt nie größer als konfiguriert wird, egal wie
+ * viele Bilder gespeichert werden.
+ * Da die Hash-Werte MD5-Hashes (also gleichverteilt) sind, werden die Bit-Positionen
+ * direkt aus den beiden Hälften des Hash-Werts berechnet ("Double Hashing").
+ * <br><br>
+ *
+ * Der Filter wird beim Start der Anwendung aus der Tabelle {@code BILDER} gefüllt; bis
+ * dahin liefert {@link #vielleichtVorhanden(String)} immer {@code true}. Gelöschte Bilder
+ * bleiben im Filter (ein Bloom-Filter erlaubt kein Entfernen), das kostet nur eine
+ * überflüssige Query beim erneuten Hochladen. Bilder, die eine andere Instanz der
+ * Anwendung speichert, fehlen im Filter; doppelte Bilder verhindert dann der eindeutige
+ * Index auf der Spalte {@code hash}.
+ */
+@Component
+@RepositoryEventHandler
+public class HashFilter implements ApplicationRunner {
+
+    private final static Logger LOG = LoggerFactory.getLogger( HashFilter.class );
+
+    /** Faktor für Kapazität und Falsch-Positiv-Rate von einer Stufe zur nächsten. */
+    private static final int WACHSTUM = 2;
+
+    /** Repo-Bean für Zugriff auf Datenbanktabelle mit Bildern. */
+    private final BildRepository _bildRepo;
+
+    /** Bean für Transaktion, in der beim Füllen des Filters der Stream gelesen wird. */
+    private final TransactionTemplate _transactionTemplate;
+
+    /** Konfigurierte Falsch-Positiv-Rate des gesamten Filters (aller Stufen). */
+    private final double _falschPositivRate;
+
+    /** Stufen des Filters, neue Stufen werden unter der Sperre {@code this} angehängt. */
+    private volatile List<Stufe> _stufen;
+
+    /** {@code true}, sobald der Filter beim Start aus der Datenbank gefüllt wurde. */
+    private volatile boolean _geladen = false;
+
+    /** Anzahl Abfragen mit {@link #vielleichtVorhanden(String)}, nachdem der Filter geladen war. */
+    private final AtomicLong _anzahlAbfragen = new AtomicLong();
+
+    /** Anzahl Abfragen mit Ergebnis "sicher nicht vorhanden", also gesparte Queries. */
+    private final AtomicLong _anzahlNegativ = new AtomicLong();
+
+    /** Anzahl Abfragen mit Ergebnis "vielleicht vorhanden", bei denen das Bild nicht vorhanden war. */
+    private final AtomicLong _anzahlFalschPositiv = new AtomicLong();
+
+
+    /**
+     * Statistik des Filters für den Actuator-Endpunkt.
+     *
+     * @param geladen {@code true}, wenn der Filter aus der Datenbank gefüllt wurde
+     *
+     * @param anzahlHashWerte Anzahl der eingefügten Hash-Werte
+     *
+     * @param anzahlStufen Anzahl der Stufen
+     *
+     * @param speicherBytes Belegter Speicher der Bit-Arrays in Bytes
+     *
+     * @param geschaetzteFalschPositivRate Falsch-Positiv-Rate, berechnet aus der
+     *                                     Füllung der Stufen
+     *
+     * @param anzahlAbfragen Anzahl der Abfragen seit dem Start
+     *
+     * @param anzahlNegativ Anzahl Abfragen, für die keine Query nötig war
+     *
+     * @param anzahlFalschPositiv Anzahl Abfragen mit Query, obwohl es kein Bild mit dem
+     *                            Hash-Wert gab
+     *
+     * @param gemesseneFalschPositivRate Anteil der falsch positiven Ergebnisse an allen
+     *                                   Abfragen für nicht vorhandene Hash-Werte
+     */
+    public record Statistik( boolean geladen,
+                             long    anzahlHashWerte,
+                             int     anzahlStufen,
+                             long    speicherBytes,
+                             double  geschaetzteFalschPositivRate,
+                             long    anzahlAbfragen,
+                             long    anzahlNegativ,
+                             long    anzahlFalschPositiv,
+                             double  gemesseneFalschPositivRate ) {}
+
+
+    /**
+     * Eine Stufe des skalierbaren Filters: klassischer Bloom-Filter mit fester Kapazität.
+     * Die Bits stehen in einem {@code AtomicLongArray}, damit Abfragen ohne Sperre
+     * gleichzeitig zum Einfügen laufen können.
+     */
+    private static final class Stufe {
+
+        private final AtomicLongArray bits;
+
+        private final long anzahlBits;
+
+        private final int anzahlHashFunktionen;
+
+        private final long kapazitaet;
+
+        private final AtomicLong anzahl = new AtomicLong();
+
+        private Stufe( long kapazitaet, double falschPositivRate ) {
+
+            final double ln2 = Math.log( 2 );
+
+            this.kapazitaet      = kapazitaet;
+            anzahlBits           = Math.max( 64, (long) Math.ceil( -kapazitaet * Math.log( falschPositivRate ) / ( ln2 * ln2 ) ) );
+            anzahlHashFunktionen = Math.max( 1, (int) Math.round( (double) anzahlBits / kapazitaet * ln2 ) );
+            bits                 = new AtomicLongArray( Math.toIntExact( ( anzahlBits + 63 ) / 64 ) );
+        }
+
+        private void hinzufuegen( long h1, long h2 ) {
+
+            for ( int i = 0; i < anzahlHashFunktionen; i++ ) {
+
+                final long position = Math.floorMod( h1 + i * h2, anzahlBits );
+                final int  index    = (int) ( position >>> 6 );
+                final long maske    = 1L << position;
+
+                long alt;
+                while ( ( ( alt = bits.get( index ) ) & maske ) == 0 ) {
+
+                    if ( bits.compareAndSet( index, alt, alt | maske ) ) { break; }
+                }
+            }
+            anzahl.incrementAndGet();
+        }
+
+        private boolean vielleichtEnthalten( long h1, long h2 ) {
+
+            for ( int i = 0; i < anzahlHashFunktionen; i++ ) {
+
+                final long position = Math.floorMod( h1 + i * h2, anzahlBits );
+                if ( ( bits.get( (int) ( position >>> 6 ) ) & ( 1L << position ) ) == 0 ) {
+
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private double geschaetzteFalschPositivRate() {
+
+            final double anteilGesetzt = 1 - Math.exp( -(double) anzahlHashFunktionen * anzahl.get() / anzahlBits );
+
+            return Math.pow( anteilGesetzt, anzahlHashFunktionen );
+        }
+    }
+
+
+    /**
+     * Konstruktor für Dependency Injection.
+     */
+    @Autowired
+    public HashFilter( BildRepository bildRepo,
+                       TransactionTemplate transactionTemplate,
+                       @Value( "${bildergallerie.hashfilter.erwartete-anzahl:100000}" ) int erwarteteAnzahl,
+                       @Value( "${bildergallerie.hashfilter.falsch-positiv-rate:0.01}" ) double falschPositivRate ) {
+
+        _bildRepo            = bildRepo;
+        _transactionTemplate = transactionTemplate;
+        _falschPositivRate   = Math.clamp( falschPositivRate, 0.000_001, 0.5 );
+
+        _stufen = List.of( new Stufe( Math.max( 1_000, erwarteteAnzahl ), _falschPositivRate / WACHSTUM ) );
+    }
+
+
+    /**
+     * Filter beim Start der Anwendung mit den Hash-Werten aller Bilder füllen; Bilder,
+     * die währenddessen hochgeladen werden, werden trotzdem mit der Datenbank geprüft.
+     *
+     * @param args CmdLine-Argumente, werden nicht ausgewertet
+     */
+    @Override
+    public void run( ApplicationArguments args ) {
+
+        final long startZeit = System.nanoTime();
+
+        _transactionTemplate.executeWithoutResult( status -> {
+
+            try ( Stream<String> hashes = _bildRepo.streamAlleHashes() ) {
+
+                hashes.forEach( this::hinzufuegen );
+            }
+        });
+
+        _geladen = true;
+
+        final Statistik statistik = getStatistik();
+        LOG.info( "Bloom-Filter für Hash-Werte gefüllt: {} Hash-Werte, {} Bytes, geschätzte Falsch-Positiv-Rate {}, {} ms.",
+                  statistik.anzahlHashWerte(), statistik.speicherBytes(),
+                  String.format( "%.5f", statistik.geschaetzteFalschPositivRate() ),
+                  ( System.nanoTime() - startZeit ) / 1_000_000 );
+    }
+
+
+    /**
+     * Hash-Wert eines gespeicherten Bildes in den Filter aufnehmen.
+     *
+     * @param hash MD5-Hash als Hex-String; {@code null} wird ignoriert
+     */
+    public void hinzufuegen( String hash ) {
+
+        if ( hash == null ) {
+
+            return;
+        }
+
+        final long h1 = ersteHaelfte( hash );
+        final long h2 = zweiteHaelfte( hash );
+
+        synchronized ( this ) {
+
+            List<Stufe> stufen = _stufen;
+            Stufe letzte = stufen.get( stufen.size() - 1 );
+            if ( letzte.anzahl.get() >= letzte.kapazitaet ) {
+
+                final double rate = _falschPositivRate / Math.pow( WACHSTUM, stufen.size() + 1 );
+
+                final List<Stufe> neu = new ArrayList<>( stufen );
+                letzte = new Stufe( letzte.kapazitaet * WACHSTUM, rate );
+                neu.add( letzte );
+                _stufen = List.copyOf( neu );
+
+                LOG.info( "Bloom-Filter für Hash-Werte um Stufe {} mit Kapazität {} erweitert.",
+                          neu.size(), letzte.kapazitaet );
+            }
+            letzte.hinzufuegen( h1, h2 );
+        }
+    }
+
+
+    /**
+     * Überprüfen, ob es ein Bild mit dem Hash-Wert geben könnte.
+     *
+     * @param hash MD5-Hash als Hex-String
+     *
+     * @return {@code false}, wenn es sicher kein Bild mit {@code hash} gibt;
+     *         {@code true}, wenn in der Datenbank nachgesehen werden muss
+     */
+    public boolean vielleichtVorhanden( String hash ) {
+
+        if ( !_geladen ) {
+
+            return true;
+        }
+
+        _anzahlAbfragen.incrementAndGet();
+
+        final long h1 = ersteHaelfte( hash );
+        final long h2 = zweiteHaelfte( hash );
+
+        for ( Stufe stufe : _stufen ) {
+
+            if ( stufe.vielleichtEnthalten( h1, h2 ) ) {
+
+                return true;
+            }
+        }
+
+        _anzahlNegativ.incrementAndGet();
+
+        return false;
+    }
+
+
+    /**
+     * Melden, dass {@link #vielleichtVorhanden(String)} für einen Hash-Wert {@code true}
+     * geliefert hat, es in der Datenbank aber kein Bild damit gibt (für Statistik).
+     */
+    public void falschPositivMelden() {
+
+        if ( _geladen ) {
+
+            _anzahlFalschPositiv.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * Hash-Wert eines über Spring Data REST angelegten oder geänderten Bildes aufnehmen.
+     *
+     * @param bild Gespeichertes Bild
+     */
+    @HandleAfterCreate
+    @HandleAfterSave
+    public void bildGespeichert( BildEntity bild ) {
+
+        hinzufuegen( bild.getHash() );
+    }
+
+
+    /**
+     * Aktuelle Statistik des Filters.
+     *
+     * @return Statistik für Actuator-Endpunkt
+     */
+    public Statistik getStatistik() {
+
+        final List<Stufe> stufen = _stufen;
+
+        long   anzahl         = 0;
+        long   bytes          = 0;
+        double keinFehlerRate = 1;
+        for ( Stufe stufe : stufen ) {
+
+            anzahl         += stufe.anzahl.get();
+            bytes          += stufe.bits.length() * 8L;
+            keinFehlerRate *= 1 - stufe.geschaetzteFalschPositivRate();
+        }
+
+        final long abfragen      = _anzahlAbfragen.get();
+        final long negativ       = _anzahlNegativ.get();
+        final long falschPositiv = _anzahlFalschPositiv.get();
+
+        final long nichtVorhanden = negativ + falschPositiv;
+
+        return new Statistik( _geladen, anzahl, stufen.size(), bytes, 1 - keinFehlerRate,
+                              abfragen, negativ, falschPositiv,
+                              nichtVorhanden == 0 ? 0 : (double) falschPositiv / nichtVorhanden );
+    }
+
+
+    /**
+     * Erste 64 Bit des Hash-Werts; für Hash-Werte, die kein MD5-Hex-String sind
+     * (Datensätze aus Fremdquellen), wird der String gemischt.
+     */
+    private static long ersteHaelfte( String hash ) {
+
+        return istMd5Hex( hash ) ? Long.parseUnsignedLong( hash.substring( 0, 16 ), 16 )
+                                 : mischen( hash.hashCode() );
+    }
+
+
+    /**
+     * Zweite 64 Bit des Hash-Werts, ungerade gemacht, damit beim Double Hashing alle
+     * Positionen erreicht werden.
+     */
+    private static long zweiteHaelfte( String hash ) {
+
+        final long wert = istMd5Hex( hash ) ? Long.parseUnsignedLong( hash.substring( 16, 32 ), 16 )
+                                            : mischen( hash.hashCode() * 31L + hash.length() );
+        return wert | 1;
+    }
+
+
+    /**
+     * Überprüfen, ob {@code hash} ein MD5-Hash als Hex-String (32 Zeichen) ist.
+     */
+    private static boolean istMd5Hex( String hash ) {
+
+        if ( hash.length() != 32 ) {
+
+            return false;
+        }
+
+        for ( int i = 0; i < hash.length(); i++ ) {
+
+            if ( Character.digit( hash.charAt( i ), 16 ) < 0 ) {
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Bits eines Werts durchmischen (Finalizer von "SplitMix64").
+     */
+    private static long mischen( long wert ) {
+
+        wert = ( wert ^ ( wert >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+        wert = ( wert ^ ( wert >>> 27 ) ) * 0x94D049BB133111EBL;
+
+        return wert ^ ( wert >>> 31 );
+    }
+
+}
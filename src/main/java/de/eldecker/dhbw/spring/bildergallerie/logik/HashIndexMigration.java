@@ -0,0 +1,133 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+
+
+/**
+ * Der eindeutige Index {@code INDEX_HASH_EINDEUTIG} auf Spalte {@code HASH} der Tabelle
+ * {@code BILDER} (siehe {@link BildEntity}) verhindert, dass parallele Uploads desselben
+ * Bildes zwei Zeilen erzeugen. Hibernate legt ihn mit {@code ddl-auto=update} als
+ * {@code UNIQUE}-Constraint an (bei jedem Start wird er gelöscht und neu angelegt), aber
+ * in einer älteren Datenbank scheitert das, wenn dort Bilder ohne Hash-Wert mit
+ * {@code ""} (statt {@code NULL}) gespeichert wurden oder doppelte Hash-Werte vorhanden
+ * sind; Hibernate protokolliert dann nur eine Warnung, und der Schutz fehlt.
+ * <br><br>
+ *
+ * Diese Bean bereinigt deshalb beim Start die Daten und legt den Constraint bei Bedarf
+ * selbst an: {@code ""} wird durch {@code NULL} ersetzt, und bei doppelten Hash-Werten behält
+ * nur das älteste Bild (kleinste ID) den Hash-Wert; die Bilder selbst werden nicht
+ * gelöscht. Kann der Constraint danach nicht angelegt werden, dann bricht der Start der
+ * Anwendung ab.
+ * <br><br>
+ *
+ * Die Migration läuft während der Initialisierung der Beans (nach dem Schema-Update von
+ * Hibernate), also bevor der Web-Server Requests annimmt.
+ */
+@Component
+public class HashIndexMigration {
+
+    private final static Logger LOG = LoggerFactory.getLogger( HashIndexMigration.class );
+
+    /** Name des Constraints, siehe Annotation {@code @Table} in {@link BildEntity}. */
+    private static final String INDEX_NAME = "index_hash_eindeutig";
+
+    /** Bean für direkten Zugriff auf Datenbank mit SQL. */
+    private final JdbcTemplate _jdbcTemplate;
+
+    /** Bean für programmatische Transaktionssteuerung (Auto-Commit ist ggf. abgeschaltet). */
+    private final TransactionTemplate _transactionTemplate;
+
+    /** Für Zugriff auf Second-Level-Cache, der nach Änderungen über JDBC geleert wird. */
+    private final EntityManagerFactory _entityManagerFactory;
+
+
+    /**
+     * Konstruktor für Dependency Injection; die Abhängigkeit von
+     * {@code EntityManagerFactory} stellt sicher, dass das Schema-Update schon gelaufen ist.
+     */
+    @Autowired
+    public HashIndexMigration( JdbcTemplate jdbcTemplate,
+                               TransactionTemplate transactionTemplate,
+                               EntityManagerFactory entityManagerFactory ) {
+
+        _jdbcTemplate         = jdbcTemplate;
+        _transactionTemplate  = transactionTemplate;
+        _entityManagerFactory = entityManagerFactory;
+    }
+
+
+    /**
+     * Hash-Werte bereinigen und sicherstellen, dass der {@code UNIQUE}-Constraint existiert.
+     *
+     * @throws IllegalStateException Constraint fehlt und kann nicht angelegt werden
+     */
+    @PostConstruct
+    public void migrieren() {
+
+        if ( constraintVorhanden() ) {
+
+            LOG.debug( "UNIQUE-Constraint {} ist vorhanden, keine Migration erforderlich.", INDEX_NAME );
+            return;
+        }
+
+        LOG.warn( "UNIQUE-Constraint {} fehlt, bereinige Hash-Werte in Tabelle BILDER.", INDEX_NAME );
+
+        _transactionTemplate.executeWithoutResult( status -> {
+
+            final int anzahlLeer = _jdbcTemplate.update( "UPDATE bilder SET hash = NULL WHERE hash = ''" );
+
+            final int anzahlDoppelt =
+                    _jdbcTemplate.update( "UPDATE bilder SET hash = NULL WHERE hash IS NOT NULL AND EXISTS " +
+                                          "( SELECT 1 FROM bilder b2 WHERE b2.hash = bilder.hash AND b2.id < bilder.id )" );
+
+            LOG.info( "Hash-Werte bereinigt: {} leere und {} doppelte Hash-Werte durch NULL ersetzt.",
+                      anzahlLeer, anzahlDoppelt );
+        });
+
+        try {
+
+            _transactionTemplate.executeWithoutResult( status ->
+                _jdbcTemplate.execute( "ALTER TABLE bilder ADD CONSTRAINT " + INDEX_NAME + " UNIQUE ( hash )" ) );
+        }
+        catch ( DataAccessException ex ) {
+
+            throw new IllegalStateException( "UNIQUE-Constraint " + INDEX_NAME + " konnte nicht angelegt werden.", ex );
+        }
+
+        // Änderungen über JDBC sind an Hibernate vorbei gegangen
+        _entityManagerFactory.getCache().evict( BildEntity.class );
+
+        LOG.info( "UNIQUE-Constraint {} angelegt.", INDEX_NAME );
+    }
+
+
+    /**
+     * Überprüfen, ob der {@code UNIQUE}-Constraint existiert; mit
+     * {@code INFORMATION_SCHEMA}, damit es mit H2 und PostgreSQL funktioniert.
+     *
+     * @return {@code true}, wenn es auf Tabelle {@code BILDER} einen {@code UNIQUE}-Constraint
+     *         mit Name {@link #INDEX_NAME} gibt
+     */
+    private boolean constraintVorhanden() {
+
+        final Integer anzahl =
+                _jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLE_CONSTRAINTS " +
+                                              "WHERE UPPER(TABLE_NAME) = 'BILDER' AND UPPER(CONSTRAINT_NAME) = ? " +
+                                              "AND CONSTRAINT_TYPE = 'UNIQUE'",
+                                              Integer.class, INDEX_NAME.toUpperCase() );
+
+        return anzahl != null && anzahl > 0;
+    }
+
+}
@@ -0,0 +1,172 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
+import de.eldecker.dhbw.spring.bildergallerie.logik.exceptions.BildSchonVorhandenException;
+
+
+/**
+ * Tabelle der Hash-Werte von Bildern, die gerade hochgeladen werden, damit gleichzeitige
+ * Uploads derselben Datei (z.B. durch Clients, die nach einem Timeout sofort erneut
+ * senden) nicht beide die Prüfung auf ein vorhandenes Bild bestehen und doppelt
+ * gespeichert werden.
+ * <br><br>
+ *
+ * Der erste Upload reserviert den Hash-Wert; jeder weitere Upload mit demselben Hash-Wert
+ * wartet, bis der erste fertig ist, und bekommt dann eine
+ * {@link BildSchonVorhandenException} mit dem gespeicherten Bild, ohne selbst auf die
+ * Datenbank oder den Bildspeicher zuzugreifen. Scheitert der erste Upload, dann versucht
+ * der nächste wartende Upload, den Hash-Wert zu reservieren.
+ * <br><br>
+ *
+ * Die Tabelle ist eine {@code ConcurrentHashMap}, die intern in Segmente aufgeteilt ist
+ * ("Lock Striping"); Uploads mit verschiedenen Hash-Werten blockieren sich also nicht.
+ * Die Reservierung wirkt nur innerhalb einer Instanz der Anwendung, gegenüber anderen
+ * Instanzen schützt der eindeutige Index auf der Spalte {@code hash} der Tabelle
+ * {@code BILDER}.
+ */
+@Component
+public class HashReservierungen {
+
+    private final static Logger LOG = LoggerFactory.getLogger( HashReservierungen.class );
+
+    /** Maximale Wartezeit auf einen anderen Upload mit demselben Hash-Wert. */
+    private static final long MAX_WARTEZEIT_SEKUNDEN = 60;
+
+    /**
+     * Für jeden reservierten Hash-Wert ein Future, das mit dem gespeicherten Bild bzw.
+     * mit {@code null} (Upload gescheitert) abgeschlossen wird.
+     */
+    private final ConcurrentMap<String, CompletableFuture<BildEntity>> _reservierungen = new ConcurrentHashMap<>();
+
+
+    /**
+     * Reservierung eines Hash-Werts; muss mit {@code try-with-resources} verwendet werden,
+     * damit sie auch dann freigegeben wird, wenn der Upload scheitert.
+     */
+    public final class Reservierung implements AutoCloseable {
+
+        /** Reservierter Hash-Wert. */
+        private final String _hash;
+
+        /** Future, auf das andere Uploads mit demselben Hash-Wert warten. */
+        private final CompletableFuture<BildEntity> _future;
+
+
+        private Reservierung( String hash, CompletableFuture<BildEntity> future ) {
+
+            _hash   = hash;
+            _future = future;
+        }
+
+
+        /**
+         * Upload erfolgreich abgeschlossen; wartende Uploads bekommen {@code bild} als
+         * schon vorhandenes Bild.
+         *
+         * @param bild Gespeichertes Bild
+         */
+        public void erledigt( BildEntity bild ) {
+
+            _future.complete( bild );
+        }
+
+
+        /**
+         * Reservierung freigeben; wurde {@link #erledigt(BildEntity)} nicht aufgerufen,
+         * dann darf der nächste wartende Upload den Hash-Wert reservieren.
+         */
+        @Override
+        public void close() {
+
+            _reservierungen.remove( _hash, _future );
+            _future.complete( null );
+        }
+    }
+
+
+    /**
+     * Hash-Wert für einen Upload reservieren. Ist der Hash-Wert schon von einem anderen
+     * Upload reserviert, dann wird gewartet, bis dieser fertig ist.
+     *
+     * @param hash MD5-Hash des hochgeladenen Bildes
+     *
+     * @return Reservierung, muss geschlossen werden
+     *
+     * @throws BildSchonVorhandenException Ein gleichzeitiger Upload mit demselben Hash-Wert
+     *                                     hat das Bild gespeichert
+     *
+     * @throws IOException Zeitüberschreitung oder Unterbrechung beim Warten auf den
+     *                     anderen Upload
+     */
+    public Reservierung reservieren( String hash ) throws BildSchonVorhandenException, IOException {
+
+        while ( true ) {
+
+            final CompletableFuture<BildEntity> neu = new CompletableFuture<>();
+            final CompletableFuture<BildEntity> vorhanden = _reservierungen.putIfAbsent( hash, neu );
+            if ( vorhanden == null ) {
+
+                return new Reservierung( hash, neu );
+            }
+
+            LOG.info( "Bild mit Hash-Wert {} wird gerade von anderem Upload gespeichert, warte.", hash );
+
+            final BildEntity gewinner;
+            try {
+
+                gewinner = vorhanden.get( MAX_WARTEZEIT_SEKUNDEN, TimeUnit.SECONDS );
+            }
+            catch ( InterruptedException ex ) {
+
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException( "Warten auf Upload mit Hash-Wert " + hash + " unterbrochen." );
+            }
+            catch ( TimeoutException | ExecutionException ex ) {
+
+                throw new IOException( "Zeitüberschreitung beim Warten auf Upload mit Hash-Wert " + hash, ex );
+            }
+
+            if ( gewinner != null ) {
+
+                throw new BildSchonVorhandenException( gewinner );
+            }
+            // anderer Upload gescheitert: erneut versuchen zu reservieren
+        }
+    }
+
+
+    /**
+     * Hash-Wert reservieren, ohne zu warten (für das Speichern eines Blocks beim
+     * Massen-Upload, der dieselbe Datei mehrfach enthalten kann).
+     *
+     * @param hash MD5-Hash des hochgeladenen Bildes
+     *
+     * @return Reservierung, muss geschlossen werden; leeres Optional, wenn der Hash-Wert
+     *         schon von einem anderen Upload reserviert ist
+     */
+    public Optional<Reservierung> versuchen( String hash ) {
+
+        final CompletableFuture<BildEntity> neu = new CompletableFuture<>();
+        if ( _reservierungen.putIfAbsent( hash, neu ) != null ) {
+
+            return Optional.empty();
+        }
+
+        return Optional.of( new Reservierung( hash, neu ) );
+    }
+
+}
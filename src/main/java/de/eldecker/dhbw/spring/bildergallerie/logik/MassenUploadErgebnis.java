@@ -0,0 +1,52 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import java.util.List;
+
+
+/**
+ * Bericht über einen Massen-Upload mit einem Eintrag pro Datei, siehe
+ * {@link MassenUploadService}.
+ * 
+ * @param anzahlGespeichert Anzahl der neu gespeicherten Bilder
+ * 
+ * @param anzahlNichtGespeichert Anzahl der Dateien, die nicht gespeichert wurden
+ *                               (schon vorhanden, nicht unterstützt oder Fehler)
+ * 
+ * @param dateien Ergebnis für jede Datei, in der Reihenfolge des Uploads
+ */
+public record MassenUploadErgebnis( int anzahlGespeichert, 
+                                    int anzahlNichtGespeichert, 
+                                    List<DateiErgebnis> dateien ) {
+
+    /**
+     * Ergebnis für eine Datei.
+     * 
+     * @param dateiName Name der Datei (bei ZIP-Archiven mit Pfad im Archiv)
+     * 
+     * @param status Ergebnis
+     * 
+     * @param bildId ID des neuen bzw. schon vorhandenen Bildes; {@code null}, wenn
+     *               kein Bild gespeichert wurde und auch keines vorhanden ist
+     * 
+     * @param meldung Fehlermeldung, {@code null} bei Status {@code GESPEICHERT}
+     */
+    public record DateiErgebnis( String dateiName, DateiStatusEnum status, Long bildId, String meldung ) {
+    }
+    
+    
+    /**
+     * Ergebnis aus den Ergebnissen der einzelnen Dateien erzeugen.
+     * 
+     * @param dateien Ergebnis für jede Datei
+     * 
+     * @return Bericht mit Anzahl gespeicherter und nicht gespeicherter Dateien
+     */
+    public static MassenUploadErgebnis aus( List<DateiErgebnis> dateien ) {
+        
+        final int anzahlGespeichert = (int) dateien.stream()
+                                                   .filter( datei -> datei.status() == DateiStatusEnum.GESPEICHERT )
+                                                   .count();
+        
+        return new MassenUploadErgebnis( anzahlGespeichert, dateien.size() - anzahlGespeichert, dateien );
+    }
+}
@@ -0,0 +1,630 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import static de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity.ID_BLOCK_GROESSE;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
+import de.eldecker.dhbw.spring.bildergallerie.logik.MassenUploadErgebnis.DateiErgebnis;
+import de.eldecker.dhbw.spring.bildergallerie.logik.exceptions.BildSchonVorhandenException;
+import de.eldecker.dhbw.spring.bildergallerie.logik.exceptions.MimeTypeException;
+
+import jakarta.annotation.PreDestroy;
+
+
+/**
+ * Service für den Massen-Upload vieler Bilder auf einmal, als einzelne Dateien oder
+ * als ZIP-Archiv.
+ * <br><br>
+ *
+ * Die Dateien werden vom Request-Thread nacheinander aus dem Request gelesen (ein
+ * ZIP-Archiv wird dabei als Stream entpackt, also nicht komplett zwischengespeichert)
+ * und jeweils in eine temporäre Datei kopiert. Die aufwändigen Schritte pro Datei
+ * (MIME-Typ, MD5-Hash, perzeptueller Hash, Ablegen im Bildspeicher, siehe
+ * {@link BildService#bildVorbereiten(String, java.nio.file.Path)}) laufen parallel in
+ * einem Thread-Pool mit fester Größe und begrenzter Warteschlange. Ist die Warteschlange
+ * voll, dann bearbeitet der Request-Thread die Datei selbst, so dass nicht mehr Dateien
+ * gelesen werden, als verarbeitet werden können, und die Anzahl der temporären Dateien
+ * begrenzt bleibt.
+ * <br><br>
+ *
+ * Die Metadaten werden in Blöcken von {@link BildEntity#ID_BLOCK_GROESSE} Bildern mit
+ * je einer Transaktion gespeichert ({@link BildService#bilderSpeichern(List, List)}),
+ * so dass Hibernate die {@code INSERT}s als JDBC-Batch sendet.
+ * <br><br>
+ *
+ * Ein Upload ist begrenzt auf {@code bildergallerie.massen-upload.max-dateien} Dateien
+ * und insgesamt {@code bildergallerie.massen-upload.max-gesamt-groesse} Bytes (nach dem
+ * Entpacken, damit ein kleines ZIP-Archiv nicht beliebig viel Platz belegen kann). Wird
+ * eine Grenze erreicht, dann wird nicht weiter gelesen; die bis dahin gelesenen Dateien
+ * werden gespeichert, und der Bericht enthält einen einzigen Eintrag zur Grenze.
+ * <br><br>
+ *
+ * Der Titel eines Bildes ist der Dateiname ohne Pfad und Endung. Alle Bilder eines
+ * Uploads bekommen dieselben Tags.
+ */
+@Service
+public class MassenUploadService {
+
+    private final static Logger LOG = LoggerFactory.getLogger( MassenUploadService.class );
+
+    /** Bean mit Geschäftslogik für einzelne Bilder. */
+    private final BildService _bildService;
+
+    /** Thread-Pool für die Vorbereitung der Bilder. */
+    private final ThreadPoolExecutor _executor;
+
+    /** Maximale Größe einer Datei in Bytes. */
+    private final long _maxDateiGroesse;
+
+    /** Maximale Anzahl Dateien pro Upload. */
+    private final int _maxDateien;
+
+    /** Maximale Summe der Größe aller Dateien eines Uploads in Bytes (nach dem Entpacken). */
+    private final long _maxGesamtGroesse;
+
+
+    /**
+     * Konstruktor für Dependency Injection.
+     *
+     * @param anzahlThreads Größe des Thread-Pools aus Konfiguration
+     *                      {@code bildergallerie.massen-upload.threads}
+     *
+     * @param warteschlangenGroesse Maximale Anzahl wartender Dateien aus Konfiguration
+     *                              {@code bildergallerie.massen-upload.warteschlange}
+     *
+     * @param maxDateiGroesse Maximale Größe einer Datei aus Konfiguration
+     *                        {@code bildergallerie.massen-upload.max-datei-groesse}
+     *
+     * @param maxDateien Maximale Anzahl Dateien pro Upload aus Konfiguration
+     *                   {@code bildergallerie.massen-upload.max-dateien}
+     *
+     * @param maxGesamtGroesse Maximale Summe der Dateigrößen pro Upload aus Konfiguration
+     *                         {@code bildergallerie.massen-upload.max-gesamt-groesse}
+     */
+    @Autowired
+    public MassenUploadService( BildService bildService,
+                                @Value( "${bildergallerie.massen-upload.threads}"           ) int      anzahlThreads,
+                                @Value( "${bildergallerie.massen-upload.warteschlange}"     ) int      warteschlangenGroesse,
+                                @Value( "${bildergallerie.massen-upload.max-datei-groesse}" ) DataSize maxDateiGroesse,
+                                @Value( "${bildergallerie.massen-upload.max-dateien}"       ) int      maxDateien,
+                                @Value( "${bildergallerie.massen-upload.max-gesamt-groesse}") DataSize maxGesamtGroesse ) {
+
+        _bildService      = bildService;
+        _maxDateiGroesse  = maxDateiGroesse.toBytes();
+        _maxDateien       = maxDateien;
+        _maxGesamtGroesse = maxGesamtGroesse.toBytes();
+
+        final AtomicInteger threadZaehler = new AtomicInteger();
+        _executor = new ThreadPoolExecutor( anzahlThreads, anzahlThreads,
+                                            0, TimeUnit.SECONDS,
+                                            new ArrayBlockingQueue<>( warteschlangenGroesse ),
+                                            runnable -> {
+                                                final Thread thread = new Thread( runnable, "massen-upload-" + threadZaehler.incrementAndGet() );
+                                                thread.setDaemon( true );
+                                                return thread;
+                                            },
+                                            new CallerRunsPolicy() );
+
+        LOG.info( "Massen-Upload mit {} Threads, max. {} Dateien mit je max. {}, insgesamt max. {}.",
+                  anzahlThreads, maxDateien, maxDateiGroesse, maxGesamtGroesse );
+    }
+
+
+    /**
+     * Thread-Pool beim Herunterfahren der Anwendung beenden.
+     */
+    @PreDestroy
+    public void herunterfahren() {
+
+        _executor.shutdownNow();
+    }
+
+
+    /**
+     * Neuen Massen-Upload beginnen.
+     *
+     * @param tagListe Namen der Tags für alle Bilder, darf {@code null} oder leer sein
+     *
+     * @return Auftrag, muss mit {@code try-with-resources} verwendet werden
+     */
+    public Auftrag neuerAuftrag( List<String> tagListe ) {
+
+        return new Auftrag( tagListe );
+    }
+
+
+    /**
+     * Ergebnis der Vorbereitung einer Datei im Thread-Pool: entweder ein vorbereitetes
+     * Bild oder ein Fehler.
+     *
+     * @param dateiName Name der Datei
+     *
+     * @param bild Vorbereitetes Bild, {@code null} bei Fehler
+     *
+     * @param fehler Ergebnis bei Fehler, sonst {@code null}
+     */
+    private record Vorbereitung( String dateiName, BildEntity bild, DateiErgebnis fehler ) {}
+
+
+    /**
+     * Ein Massen-Upload: Dateien werden mit {@link #dateiHinzufuegen(String, InputStream)}
+     * bzw. {@link #zipHinzufuegen(String, InputStream)} hinzugefügt und mit
+     * {@link #abschliessen()} gespeichert. Ein Auftrag darf nur von einem Thread
+     * verwendet werden.
+     */
+    public final class Auftrag implements AutoCloseable {
+
+        /** Namen der Tags für alle Bilder. */
+        private final List<String> _tagListe;
+
+        /** Vorbereitung der Dateien im Thread-Pool, in der Reihenfolge des Uploads. */
+        private final List<Future<Vorbereitung>> _vorbereitungen = new ArrayList<>();
+
+        /** Wurde {@link #abschliessen()} schon aufgerufen? */
+        private boolean _abgeschlossen = false;
+
+        /** Summe der Größe aller bisher gelesenen Dateien in Bytes. */
+        private long _anzahlBytesGesamt = 0;
+
+        /** Wurde eine Grenze erreicht? Dann werden keine weiteren Dateien gelesen. */
+        private boolean _grenzeErreicht = false;
+
+
+        private Auftrag( List<String> tagListe ) {
+
+            _tagListe = tagListe;
+        }
+
+
+        /**
+         * Eine Datei hinzufügen; sie wird in eine temporäre Datei kopiert und dann im
+         * Thread-Pool vorbereitet. Ist schon eine Grenze des Uploads erreicht, dann wird
+         * die Datei ignoriert.
+         *
+         * @param dateiName Name der Datei, ggf. mit Pfad
+         *
+         * @param daten Inhalt der Datei, wird von dieser Methode nicht geschlossen
+         *
+         * @throws IOException Fehler beim Lesen von {@code daten}
+         */
+        public void dateiHinzufuegen( String dateiName, InputStream daten ) throws IOException {
+
+            if ( anzahlErreicht( dateiName ) ) {
+
+                return;
+            }
+
+            final long restGesamt = _maxGesamtGroesse - _anzahlBytesGesamt;
+            final long maxBytes   = Math.min( _maxDateiGroesse, restGesamt );
+
+            final Path tmpDatei = Files.createTempFile( "massen-upload-", ".tmp" );
+            try {
+
+                final long anzahlBytes = kopieren( daten, tmpDatei, maxBytes ); // throws IOException
+                if ( anzahlBytes < 0 ) {
+
+                    Files.delete( tmpDatei );
+                    if ( maxBytes < _maxDateiGroesse ) {
+
+                        grenzeMelden( dateiName, "Maximale Gesamtgröße von " + DataSize.ofBytes( _maxGesamtGroesse ).toMegabytes() +
+                                                 " MB pro Upload überschritten, weitere Dateien wurden nicht gelesen." );
+                    } else {
+
+                        fehlerHinzufuegen( dateiName, DateiStatusEnum.FEHLER,
+                                           "Datei größer als " + DataSize.ofBytes( _maxDateiGroesse ).toMegabytes() + " MB." );
+                    }
+                    return;
+                }
+                _anzahlBytesGesamt += anzahlBytes;
+            }
+            catch ( IOException ex ) {
+
+                Files.deleteIfExists( tmpDatei );
+                throw ex;
+            }
+
+            _vorbereitungen.add( _executor.submit( () -> vorbereiten( dateiName, tmpDatei ) ) );
+        }
+
+
+        /**
+         * Alle Dateien aus einem ZIP-Archiv hinzufügen. Verzeichnisse, versteckte Dateien
+         * (Name fängt mit Punkt an) und Metadaten von macOS ({@code __MACOSX}) werden
+         * übersprungen. Ist das Archiv beschädigt, dann werden die bis dahin gelesenen
+         * Dateien trotzdem gespeichert und für das Archiv ein Fehler gemeldet. Wird eine
+         * Grenze des Uploads erreicht, dann wird der Rest des Archivs nicht mehr gelesen.
+         *
+         * @param archivName Name des ZIP-Archivs für Fehlermeldung
+         *
+         * @param daten Inhalt des ZIP-Archivs als Stream
+         *
+         * @throws IOException Fehler beim Lesen von {@code daten}
+         */
+        public void zipHinzufuegen( String archivName, InputStream daten ) throws IOException {
+
+            final ZipInputStream zipInputStream = new ZipInputStream( daten );
+            try {
+
+                ZipEntry eintrag;
+                while ( !_grenzeErreicht && ( eintrag = zipInputStream.getNextEntry() ) != null ) {
+
+                    if ( eintrag.isDirectory() || istUebersprungen( eintrag.getName() ) ) {
+
+                        continue;
+                    }
+
+                    dateiHinzufuegen( eintrag.getName(), zipInputStream );
+                }
+            }
+            catch ( ZipException ex ) {
+
+                LOG.warn( "Beschädigtes ZIP-Archiv \"{}\": {}", archivName, ex.getMessage() );
+                fehlerHinzufuegen( archivName, DateiStatusEnum.FEHLER, "Beschädigtes ZIP-Archiv: " + ex.getMessage() );
+            }
+        }
+
+
+        /**
+         * Auf die Vorbereitung aller Dateien warten und die Bilder in Blöcken speichern.
+         *
+         * @return Bericht mit Ergebnis für jede Datei
+         */
+        public MassenUploadErgebnis abschliessen() {
+
+            _abgeschlossen = true;
+
+            final DateiErgebnis[] ergebnisse = new DateiErgebnis[ _vorbereitungen.size() ];
+
+            final List<Integer>    blockIndizes = new ArrayList<>( ID_BLOCK_GROESSE );
+            final List<BildEntity> block        = new ArrayList<>( ID_BLOCK_GROESSE );
+            for ( int i = 0; i < ergebnisse.length; i++ ) {
+
+                final Vorbereitung vorbereitung = warten( _vorbereitungen.get( i ) );
+                if ( vorbereitung.fehler() != null ) {
+
+                    ergebnisse[ i ] = vorbereitung.fehler();
+                    continue;
+                }
+
+                blockIndizes.add( i );
+                block.add( vorbereitung.bild() );
+                if ( block.size() == ID_BLOCK_GROESSE ) {
+
+                    blockSpeichern( block, blockIndizes, ergebnisse );
+                }
+            }
+            if ( !block.isEmpty() ) {
+
+                blockSpeichern( block, blockIndizes, ergebnisse );
+            }
+
+            final MassenUploadErgebnis ergebnis = MassenUploadErgebnis.aus( List.of( ergebnisse ) );
+
+            LOG.info( "Massen-Upload abgeschlossen: {} Bilder gespeichert, {} Dateien nicht gespeichert.",
+                      ergebnis.anzahlGespeichert(), ergebnis.anzahlNichtGespeichert() );
+
+            return ergebnis;
+        }
+
+
+        /**
+         * Wurde {@link #abschliessen()} nicht aufgerufen (z.B. Abbruch des Requests), dann
+         * werden keine Bilder gespeichert; noch laufende Vorbereitungen löschen ihre
+         * temporären Dateien selbst.
+         */
+        @Override
+        public void close() {
+
+            if ( !_abgeschlossen ) {
+
+                LOG.warn( "Massen-Upload mit {} Dateien abgebrochen.", _vorbereitungen.size() );
+            }
+        }
+
+
+        /**
+         * Überprüfen, ob die maximale Anzahl Dateien erreicht ist; beim ersten Mal wird
+         * dafür ein Eintrag in den Bericht geschrieben.
+         *
+         * @param dateiName Name der ersten Datei, die nicht mehr gelesen wird
+         *
+         * @return {@code true}, wenn eine Grenze erreicht ist und die Datei ignoriert
+         *         werden muss
+         */
+        private boolean anzahlErreicht( String dateiName ) {
+
+            if ( !_grenzeErreicht && _vorbereitungen.size() >= _maxDateien ) {
+
+                grenzeMelden( dateiName, "Maximale Anzahl von " + _maxDateien +
+                                         " Dateien pro Upload erreicht, weitere Dateien wurden nicht gelesen." );
+            }
+
+            return _grenzeErreicht;
+        }
+
+
+        /**
+         * Erreichen einer Grenze melden (ein einziger Eintrag im Bericht); danach werden
+         * keine Dateien mehr gelesen.
+         */
+        private void grenzeMelden( String dateiName, String meldung ) {
+
+            LOG.warn( "Massen-Upload: {}", meldung );
+            fehlerHinzufuegen( dateiName, DateiStatusEnum.FEHLER, meldung );
+            _grenzeErreicht = true;
+        }
+
+
+        /**
+         * Ergebnis für eine Datei hinzufügen, die nicht vorbereitet werden muss.
+         */
+        private void fehlerHinzufuegen( String dateiName, DateiStatusEnum status, String meldung ) {
+
+            final DateiErgebnis fehler = new DateiErgebnis( dateiName, status, null, meldung );
+
+            _vorbereitungen.add( CompletableFuture.completedFuture( new Vorbereitung( dateiName, null, fehler ) ) );
+        }
+
+
+        /**
+         * Einen Block vorbereiteter Bilder mit einer Transaktion speichern; scheitert das
+         * (Bild wurde gleichzeitig von einem anderen Upload gespeichert oder ist doppelt im
+         * Block), dann werden die Bilder des Blocks einzeln gespeichert. Danach werden
+         * {@code block} und {@code blockIndizes} geleert.
+         */
+        private void blockSpeichern( List<BildEntity> block,
+                                     List<Integer>    blockIndizes,
+                                     DateiErgebnis[]  ergebnisse ) {
+            try {
+
+                final List<BildEntity> savedEntities = _bildService.bilderSpeichern( block, _tagListe );
+                for ( int i = 0; i < block.size(); i++ ) {
+
+                    final int index = blockIndizes.get( i );
+                    ergebnisse[ index ] = new DateiErgebnis( dateiName( index ), DateiStatusEnum.GESPEICHERT,
+                                                             savedEntities.get( i ).getId(), null );
+                }
+            }
+            catch ( DataIntegrityViolationException ex ) {
+
+                LOG.warn( "Speichern von {} Bildern mit einer Transaktion gescheitert, speichere einzeln.", block.size() );
+
+                for ( int i = 0; i < block.size(); i++ ) {
+
+                    final int index = blockIndizes.get( i );
+                    ergebnisse[ index ] = einzelnSpeichern( block.get( i ), dateiName( index ) );
+                }
+            }
+            catch ( RuntimeException ex ) {
+
+                LOG.error( "Fehler beim Speichern von {} Bildern aus Massen-Upload.", block.size(), ex );
+
+                for ( int index : blockIndizes ) {
+
+                    ergebnisse[ index ] = new DateiErgebnis( dateiName( index ), DateiStatusEnum.FEHLER, null, ex.getMessage() );
+                }
+            }
+            finally {
+
+                block.clear();
+                blockIndizes.clear();
+            }
+        }
+
+
+        /**
+         * Ein vorbereitetes Bild einzeln speichern.
+         */
+        private DateiErgebnis einzelnSpeichern( BildEntity vorbereitet, String dateiName ) {
+
+            try {
+
+                final BildEntity savedEntity = _bildService.bildSpeichern( vorbereitet, _tagListe );
+
+                return new DateiErgebnis( dateiName, DateiStatusEnum.GESPEICHERT, savedEntity.getId(), null );
+            }
+            catch ( BildSchonVorhandenException ex ) {
+
+                return new DateiErgebnis( dateiName, DateiStatusEnum.SCHON_VORHANDEN,
+                                          ex.getBildEntity().getId(), ex.getMessage() );
+            }
+            catch ( RuntimeException ex ) {
+
+                LOG.error( "Fehler beim Speichern von Datei \"{}\" aus Massen-Upload.", dateiName, ex );
+                return new DateiErgebnis( dateiName, DateiStatusEnum.FEHLER, null, ex.getMessage() );
+            }
+        }
+
+
+        /**
+         * Name der Datei mit Index {@code index}; die Vorbereitung ist schon abgeschlossen.
+         */
+        private String dateiName( int index ) {
+
+            return warten( _vorbereitungen.get( index ) ).dateiName();
+        }
+
+    }
+
+
+    /**
+     * Eine Datei im Thread-Pool vorbereiten; die temporäre Datei wird danach gelöscht.
+     *
+     * @param dateiName Name der Datei, ggf. mit Pfad
+     *
+     * @param tmpDatei Temporäre Datei mit dem Inhalt
+     *
+     * @return Vorbereitetes Bild oder Fehler
+     */
+    private Vorbereitung vorbereiten( String dateiName, Path tmpDatei ) {
+
+        try {
+
+            final BildEntity bild = _bildService.bildVorbereiten( titelAusDateiName( dateiName ), tmpDatei );
+
+            return new Vorbereitung( dateiName, bild, null );
+        }
+        catch ( BildSchonVorhandenException ex ) {
+
+            final Long bildId = ex.getBildEntity() == null ? null : ex.getBildEntity().getId();
+            final DateiErgebnis fehler = new DateiErgebnis( dateiName, DateiStatusEnum.SCHON_VORHANDEN, bildId, ex.getMessage() );
+
+            return new Vorbereitung( dateiName, null, fehler );
+        }
+        catch ( MimeTypeException ex ) {
+
+            final DateiErgebnis fehler = new DateiErgebnis( dateiName, DateiStatusEnum.NICHT_UNTERSTUETZT, null, ex.getMessage() );
+
+            return new Vorbereitung( dateiName, null, fehler );
+        }
+        catch ( IOException | RuntimeException ex ) {
+
+            LOG.error( "Fehler bei Vorbereitung von Datei \"{}\" aus Massen-Upload.", dateiName, ex );
+            final DateiErgebnis fehler = new DateiErgebnis( dateiName, DateiStatusEnum.FEHLER, null, ex.getMessage() );
+
+            return new Vorbereitung( dateiName, null, fehler );
+        }
+        finally {
+
+            try {
+
+                Files.deleteIfExists( tmpDatei );
+            }
+            catch ( IOException ex ) {
+
+                LOG.warn( "Temporäre Datei {} konnte nicht gelöscht werden.", tmpDatei, ex );
+            }
+        }
+    }
+
+
+    /**
+     * Auf die Vorbereitung einer Datei warten.
+     *
+     * @param future Future aus dem Thread-Pool
+     *
+     * @return Ergebnis der Vorbereitung; wurde der Thread unterbrochen, dann ein Fehler
+     */
+    private static Vorbereitung warten( Future<Vorbereitung> future ) {
+
+        try {
+
+            return future.get();
+        }
+        catch ( InterruptedException ex ) {
+
+            Thread.currentThread().interrupt();
+            return new Vorbereitung( "?", null, new DateiErgebnis( "?", DateiStatusEnum.FEHLER, null, "Unterbrochen" ) );
+        }
+        catch ( ExecutionException ex ) { // vorbereiten() fängt alle Exceptions, sollte also nicht vorkommen
+
+            return new Vorbereitung( "?", null, new DateiErgebnis( "?", DateiStatusEnum.FEHLER, null, ex.getMessage() ) );
+        }
+    }
+
+
+    /**
+     * Inhalt von {@code daten} in eine Datei kopieren, höchstens {@code maxBytes} Bytes.
+     *
+     * @param daten Inhalt, wird nicht geschlossen
+     *
+     * @param datei Zieldatei
+     *
+     * @param maxBytes Maximale Anzahl Bytes
+     *
+     * @return Anzahl kopierter Bytes; {@code -1}, wenn die Datei zu groß ist (der Rest von
+     *         {@code daten} wird dann nicht gelesen)
+     *
+     * @throws IOException Fehler beim Lesen oder Schreiben
+     */
+    private static long kopieren( InputStream daten, Path datei, long maxBytes ) throws IOException {
+
+        final byte[] puffer = new byte[ 64 * 1024 ];
+        long anzahlBytes = 0;
+        try ( OutputStream outputStream = Files.newOutputStream( datei ) ) {
+
+            int gelesen;
+            while ( ( gelesen = daten.read( puffer ) ) != -1 ) {
+
+                anzahlBytes += gelesen;
+                if ( anzahlBytes > maxBytes ) {
+
+                    return -1;
+                }
+                outputStream.write( puffer, 0, gelesen );
+            }
+        }
+
+        return anzahlBytes;
+    }
+
+
+    /**
+     * Dateien, die beim Entpacken eines ZIP-Archivs übersprungen werden: versteckte
+     * Dateien und Metadaten von macOS.
+     *
+     * @param pfad Pfad im ZIP-Archiv
+     *
+     * @return {@code true}, wenn die Datei übersprungen werden soll
+     */
+    private static boolean istUebersprungen( String pfad ) {
+
+        for ( String teil : pfad.split( "[/\\\\]" ) ) {
+
+            if ( teil.startsWith( "." ) || teil.equals( "__MACOSX" ) ) {
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Titel für ein Bild aus dem Dateinamen: ohne Pfad und ohne Endung.
+     *
+     * @param dateiName Name der Datei, ggf. mit Pfad
+     *
+     * @return Titel; Dateiname, wenn ohne Pfad und Endung nichts übrig bleibt
+     */
+    static String titelAusDateiName( String dateiName ) {
+
+        String titel = dateiName.substring( Math.max( dateiName.lastIndexOf( '/' ), dateiName.lastIndexOf( '\\' ) ) + 1 );
+
+        final int punkt = titel.lastIndexOf( '.' );
+        if ( punkt > 0 ) {
+
+            titel = titel.substring( 0, punkt );
+        }
+
+        return titel.isBlank() ? dateiName : titel.trim();
+    }
+
+}
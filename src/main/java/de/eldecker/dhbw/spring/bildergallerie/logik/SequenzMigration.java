@@ -0,0 +1,153 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import static de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity.ID_BLOCK_GROESSE;
+
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.TagEntity;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+
+
+/**
+ * Bis zur Einführung des Massen-Uploads wurden die IDs von {@link BildEntity} und
+ * {@link TagEntity} von einer Identity-Spalte vergeben, jetzt kommen sie aus den
+ * Sequenzen {@code BILDER_SEQ} und {@code TAGS_SEQ}. Die Sequenzen werden von Hibernate
+ * (mit {@code ddl-auto=update}) mit Startwert 1 angelegt; in einer schon vorhandenen
+ * Datenbank würden die neuen IDs also mit den alten kollidieren.
+ * <br><br>
+ *
+ * Diese Bean liest deshalb beim Start der Anwendung den nächsten Wert jeder Sequenz und
+ * setzt die Sequenz hinter die größte vorhandene ID, wenn der nächste ID-Block
+ * (siehe {@link BildEntity#ID_BLOCK_GROESSE}) sonst vorhandene IDs enthalten würde.
+ * Läuft die Sequenz schon vor den vorhandenen IDs her (Normalfall nach der ersten
+ * Migration), dann wird sie nicht geändert. Für H2 und PostgreSQL wird der nächste Wert
+ * aus dem Katalog gelesen, ohne ihn zu verbrauchen; nur für andere Datenbanken wird
+ * dafür ein Wert der Sequenz abgeholt.
+ * <br><br>
+ *
+ * Die Migration läuft während der Initialisierung der Beans (nach dem Schema-Update von
+ * Hibernate), also bevor der Web-Server Requests annimmt und bevor
+ * {@link BeispielDatenImporter} ein Bild oder Tag speichert.
+ */
+@Component
+public class SequenzMigration {
+
+    private final static Logger LOG = LoggerFactory.getLogger( SequenzMigration.class );
+
+    /** Bean für direkten Zugriff auf Datenbank mit SQL. */
+    private final JdbcTemplate _jdbcTemplate;
+
+    /** Bean für programmatische Transaktionssteuerung (Auto-Commit ist ggf. abgeschaltet). */
+    private final TransactionTemplate _transactionTemplate;
+
+    /** Für SQL-Dialekt der Datenbank (Syntax für nächsten Wert einer Sequenz). */
+    private final EntityManagerFactory _entityManagerFactory;
+
+
+    /**
+     * Konstruktor für Dependency Injection; die Abhängigkeit von
+     * {@code EntityManagerFactory} stellt sicher, dass das Schema-Update schon gelaufen ist.
+     */
+    @Autowired
+    public SequenzMigration( JdbcTemplate jdbcTemplate,
+                             TransactionTemplate transactionTemplate,
+                             EntityManagerFactory entityManagerFactory ) {
+
+        _jdbcTemplate         = jdbcTemplate;
+        _transactionTemplate  = transactionTemplate;
+        _entityManagerFactory = entityManagerFactory;
+    }
+
+
+    /**
+     * Sequenzen für Bilder und Tags bei Bedarf hinter die größte vorhandene ID setzen.
+     */
+    @PostConstruct
+    public void migrieren() {
+
+        final Dialect dialect = _entityManagerFactory.unwrap( SessionFactoryImplementor.class )
+                                                     .getJdbcServices()
+                                                     .getDialect();
+
+        sequenzAnpassen( dialect, "bilder_seq", "bilder" );
+        sequenzAnpassen( dialect, "tags_seq"  , "tags"   );
+    }
+
+
+    /**
+     * Eine Sequenz bei Bedarf hinter die größte ID der Tabelle setzen.
+     *
+     * @param dialect SQL-Dialekt der Datenbank
+     *
+     * @param sequenz Name der Sequenz
+     *
+     * @param tabelle Name der Tabelle mit Spalte {@code id}
+     */
+    private void sequenzAnpassen( Dialect dialect, String sequenz, String tabelle ) {
+
+        final long naechsterWert = naechsterWert( dialect, sequenz );
+        final Long maxId         = _jdbcTemplate.queryForObject( "SELECT COALESCE( MAX(id), 0 ) FROM " + tabelle, Long.class );
+
+        // Optimizer "pooled": der Wert der Sequenz ist die größte ID des Blocks
+        final long kleinsteIdImBlock = naechsterWert - ID_BLOCK_GROESSE + 1;
+        if ( kleinsteIdImBlock > maxId ) {
+
+            return;
+        }
+
+        final long neuerStartwert = maxId + ID_BLOCK_GROESSE;
+
+        _transactionTemplate.executeWithoutResult( status ->
+            _jdbcTemplate.execute( "ALTER SEQUENCE " + sequenz + " RESTART WITH " + neuerStartwert ) );
+
+        LOG.info( "Sequenz {} auf {} gesetzt, größte ID in Tabelle {} ist {}.",
+                  sequenz, neuerStartwert, tabelle.toUpperCase(), maxId );
+    }
+
+
+    /**
+     * Wert, den die Sequenz beim nächsten Aufruf liefert; bei H2 und PostgreSQL aus dem
+     * Katalog gelesen, ohne einen Wert zu verbrauchen.
+     *
+     * @param dialect SQL-Dialekt der Datenbank
+     *
+     * @param sequenz Name der Sequenz
+     *
+     * @return Nächster Wert der Sequenz
+     */
+    private long naechsterWert( Dialect dialect, String sequenz ) {
+
+        final Long naechsterWert;
+        if ( dialect instanceof H2Dialect ) {
+
+            naechsterWert = _jdbcTemplate.queryForObject( "SELECT BASE_VALUE FROM INFORMATION_SCHEMA.SEQUENCES " +
+                                                          "WHERE UPPER(SEQUENCE_NAME) = ?",
+                                                          Long.class, sequenz.toUpperCase() );
+        } else if ( dialect instanceof PostgreSQLDialect ) {
+
+            // last_value ist NULL, solange noch kein Wert abgeholt wurde
+            naechsterWert = _jdbcTemplate.queryForObject( "SELECT COALESCE( last_value + increment_by, start_value ) " +
+                                                          "FROM pg_sequences WHERE sequencename = ?",
+                                                          Long.class, sequenz );
+        } else {
+
+            final String sqlNaechsterWert = dialect.getSequenceSupport().getSequenceNextValString( sequenz );
+            naechsterWert = _jdbcTemplate.queryForObject( sqlNaechsterWert, Long.class );
+        }
+
+        return naechsterWert;
+    }
+
+}
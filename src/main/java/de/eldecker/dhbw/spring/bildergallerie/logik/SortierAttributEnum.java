@@ -1,27 +1,43 @@
 package de.eldecker.dhbw.spring.bildergallerie.logik;
 
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
+
 
 /**
  * Eigener Enum-Typ für Spezifikation des Attributs von {@code BildEntity},
  * nach dem eine Liste von Bildern sortiert werden soll.
+ * <br><br>
+ * 
+ * Für die seitenweise Anzeige ("Keyset Pagination", siehe {@link BildService#getBildSeite(SortierAttributEnum, String)})
+ * wird bei gleichem Wert des Attributs zusätzlich nach der ID sortiert; für jedes
+ * Attribut gibt es einen zusammengesetzten Index aus Attribut und ID.
  */
 public enum SortierAttributEnum {
 
-    ZEIT( "zeitpunktErzeugung" ),
-    MIME_TYP( "mimeTyp" ),
-    TITEL( "titel" );
+    ZEIT( "zeitpunktErzeugung", "zeit" ),
+    MIME_TYP( "mimeTyp", "typ" ),
+    TITEL( "titel", "titel" );
     
     /** Technischer Name Attribut von {@code BildEntity}. */
     private final String entityAttributName; 
     
+    /** Wert für URL-Parameter {@code sortiertNach}, z.B. "zeit". */
+    private final String urlParameterWert;
+    
     /**
      * Konstruktor 
      * 
      * @param entityAttributName Technischer Name Attribut
+     * 
+     * @param urlParameterWert Wert für URL-Parameter {@code sortiertNach}
      */
-    private SortierAttributEnum( String entityAttributName ) {
+    private SortierAttributEnum( String entityAttributName, String urlParameterWert ) {
         
         this.entityAttributName = entityAttributName;
+        this.urlParameterWert   = urlParameterWert;
     }
     
     
@@ -36,4 +52,86 @@ public enum SortierAttributEnum {
         return entityAttributName;
     }
     
+    
+    /**
+     * Wert für URL-Parameter {@code sortiertNach}.
+     * 
+     * @return z.B. {@code zeit}
+     */
+    public String getUrlParameterWert() {
+        
+        return urlParameterWert;
+    }
+    
+    
+    /**
+     * Enum-Wert für Wert von URL-Parameter {@code sortiertNach} bestimmen.
+     * 
+     * @param urlParameterWert Wert von URL-Parameter, Groß-/Kleinschreibung und
+     *                         Leerzeichen am Anfang/Ende werden ignoriert
+     * 
+     * @return Optional mit Enum-Wert, leer bei ungültigem Wert
+     */
+    public static Optional<SortierAttributEnum> fuerUrlParameter( String urlParameterWert ) {
+        
+        final String wert = urlParameterWert.trim().toLowerCase();
+        
+        for ( SortierAttributEnum sortierAttribut : values() ) {
+            
+            if ( sortierAttribut.urlParameterWert.equals( wert ) ) {
+                
+                return Optional.of( sortierAttribut );
+            }
+        }
+        
+        return Optional.empty();
+    }
+    
+    
+    /**
+     * Wert des Sortier-Attributs von {@code bild} auslesen, z.B. für den Cursor
+     * auf die nächste Seite.
+     * 
+     * @param bild Bild, von dem der Wert ausgelesen werden soll
+     * 
+     * @return Wert des Attributs
+     */
+    public Object wertVon( BildEntity bild ) {
+        
+        return switch ( this ) {
+            
+            case ZEIT     -> bild.getZeitpunktErzeugung();
+            case MIME_TYP -> bild.getMimeTyp();
+            case TITEL    -> bild.getTitel();
+        };
+    }
+    
+    
+    /**
+     * Wert des Sortier-Attributs aus der Text-Darstellung (siehe {@code toString()}
+     * des von {@link #wertVon(BildEntity)} zurückgegebenen Objekts) wiederherstellen.
+     * 
+     * @param text Text-Darstellung des Werts
+     * 
+     * @return Wert mit dem Typ des Attributs, z.B. {@code LocalDateTime} für {@link #ZEIT}
+     * 
+     * @throws IllegalArgumentException {@code text} kann nicht umgewandelt werden
+     */
+    public Object wertAusText( String text ) {
+        
+        if ( this == ZEIT ) {
+            
+            try {
+                
+                return LocalDateTime.parse( text );
+            }
+            catch ( RuntimeException ex ) {
+                
+                throw new IllegalArgumentException( "Ungültiger Zeitpunkt in Cursor: " + text, ex );
+            }
+        }
+        
+        return text;
+    }
+    
 }
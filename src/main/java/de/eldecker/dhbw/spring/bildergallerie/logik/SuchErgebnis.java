@@ -0,0 +1,19 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import java.util.List;
+
+
+/**
+ * Eine Seite mit dem Ergebnis einer Suche nach Tags oder nach Titel, siehe 
+ * {@link BildService#tagSuche(String, String, int)} und 
+ * {@link BildService#titelSuche(String, String, int)}.
+ * 
+ * @param anzahlTreffer Anzahl aller Bilder, auf die die Suche zutrifft
+ * 
+ * @param bilder Bilder (mit Tags) auf dieser Seite, sortiert nach ID; kann leer sein
+ * 
+ * @param naechsterCursor Cursor für die nächste Seite, {@code null} wenn dies die 
+ *                        letzte Seite ist
+ */
+public record SuchErgebnis( long anzahlTreffer, List<BildListenEintrag> bilder, String naechsterCursor ) {
+}
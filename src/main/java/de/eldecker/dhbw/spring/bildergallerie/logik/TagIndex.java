@@ -0,0 +1,567 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.BildRepository;
+import de.eldecker.dhbw.spring.bildergallerie.db.BildTagZuordnung;
+import de.eldecker.dhbw.spring.bildergallerie.db.TagRepository;
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.TagEntity;
+
+
+/**
+ * Invertierter Index im Speicher: Für jeden Tag die Menge der IDs der Bilder, denen
+ * der Tag zugeordnet ist, als komprimierte Bitmap ("Roaring Bitmap"). Damit können
+ * Suchausdrücke mit mehreren Tags (z.B. {@code Katze AND NOT Zeichnung}) ohne SQL mit
+ * Bit-Operationen ausgewertet werden.
+ * <br><br>
+ *
+ * Der Index wird beim Start der Anwendung aus der Tabelle {@code TAG_ZU_BILD} aufgebaut
+ * und danach von {@link BildService} bei jedem Hochladen bzw. Zuordnen von Tags
+ * aktualisiert. Wird ein Bild über Spring Data REST gelöscht, dann wird es auch aus dem
+ * Index entfernt; Tags, die über Spring Data REST angelegt, umbenannt oder gelöscht
+ * werden, werden ebenfalls sofort im Index nachgeführt. Andere Änderungen über Spring
+ * Data REST (z.B. an der Tag-Zuordnung) werden erst beim nächsten Neustart
+ * berücksichtigt. Bei der Auswertung wird also nie auf die Datenbank zugegriffen.
+ * <br><br>
+ *
+ * Syntax der Suchausdrücke: Tag-Namen (Groß-/Kleinschreibung egal, mit Leerzeichen in
+ * Anführungszeichen; gibt es in der Datenbank mehrere Tags, die sich nur in der
+ * Groß-/Kleinschreibung unterscheiden, dann stehen sie für die Vereinigung ihrer
+ * Bilder), Operatoren {@code NOT}/{@code !}, {@code AND}/{@code &} und {@code OR}/{@code |}
+ * (in dieser Rangfolge) sowie Klammern. Zwischen zwei Tags ohne Operator wird
+ * {@code AND} angenommen, z.B. {@code Hund Katze} = {@code Hund AND Katze}.
+ */
+@Component
+@RepositoryEventHandler
+public class TagIndex implements ApplicationRunner {
+
+    private final static Logger LOG = LoggerFactory.getLogger( TagIndex.class );
+
+    /** Maximale Länge eines Suchausdrucks in Zeichen. */
+    private static final int MAX_AUSDRUCK_LAENGE = 1000;
+
+    /** Maximale Schachtelungstiefe (Klammern, {@code NOT}) eines Suchausdrucks. */
+    private static final int MAX_TIEFE = 50;
+
+    /** Repo-Bean für Zugriff auf Datenbanktabelle mit Bildern. */
+    private final BildRepository _bildRepo;
+
+    /** Repo-Bean für Zugriff auf Datenbanktabelle mit Tags. */
+    private final TagRepository _tagRepo;
+
+    /** Bean für Transaktion, in der beim Aufbau des Index die Streams gelesen werden. */
+    private final TransactionTemplate _transactionTemplate;
+
+    /** Sperre: Suchen mit Lese-Sperre, Aktualisieren und Neuaufbau mit Schreib-Sperre. */
+    private final ReadWriteLock _sperre = new ReentrantReadWriteLock();
+
+    /** IDs aller Bilder, wird für {@code NOT} benötigt. */
+    private RoaringBitmap _alleBilder = new RoaringBitmap();
+
+    /** Für jede Tag-ID die IDs der Bilder mit diesem Tag. */
+    private Map<Long, RoaringBitmap> _bilderProTag = new HashMap<>();
+
+    /**
+     * Für jeden Tag-Namen (in Kleinbuchstaben) die IDs der Tags; mehrere IDs, wenn sich
+     * Tag-Namen nur in der Groß-/Kleinschreibung unterscheiden.
+     */
+    private Map<String, Set<Long>> _tagIdsProName = new HashMap<>();
+
+
+    /**
+     * Konstruktor für Dependency Injection.
+     */
+    @Autowired
+    public TagIndex( BildRepository bildRepo,
+                     TagRepository tagRepo,
+                     TransactionTemplate transactionTemplate ) {
+
+        _bildRepo            = bildRepo;
+        _tagRepo             = tagRepo;
+        _transactionTemplate = transactionTemplate;
+    }
+
+
+    /**
+     * Index beim Start der Anwendung aufbauen.
+     *
+     * @param args CmdLine-Argumente, werden nicht ausgewertet
+     */
+    @Override
+    public void run( ApplicationArguments args ) {
+
+        neuAufbauen();
+    }
+
+
+    /**
+     * Index komplett neu aus der Datenbank aufbauen. Während des Aufbaus wird die
+     * Schreib-Sperre gehalten, damit keine gleichzeitige Aktualisierung verloren geht.
+     */
+    public void neuAufbauen() {
+
+        final long startZeit = System.nanoTime();
+
+        final RoaringBitmap            alleBilder   = new RoaringBitmap();
+        final Map<Long, RoaringBitmap> bilderProTag = new HashMap<>();
+        final Map<String, Set<Long>>   tagIdsProName = new HashMap<>();
+
+        _sperre.writeLock().lock();
+        try {
+
+            _transactionTemplate.executeWithoutResult( status -> {
+
+                try ( Stream<Long> ids = _bildRepo.streamAlleIds() ) {
+
+                    ids.forEach( id -> alleBilder.add( Math.toIntExact( id ) ) );
+                }
+
+                try ( Stream<BildTagZuordnung> zuordnungen = _bildRepo.streamAlleTagZuordnungen() ) {
+
+                    zuordnungen.forEach( zuordnung ->
+                        bilderProTag.computeIfAbsent( zuordnung.tagId(), tagId -> new RoaringBitmap() )
+                                    .add( Math.toIntExact( zuordnung.bildId() ) ) );
+                }
+
+                for ( TagEntity tag : _tagRepo.findAll() ) {
+
+                    tagIdsProName.computeIfAbsent( normalisieren( tag.getName() ), name -> new HashSet<>() )
+                                 .add( tag.getId() );
+                }
+            });
+
+            alleBilder.runOptimize();
+            bilderProTag.values().forEach( RoaringBitmap::runOptimize );
+
+            _alleBilder   = alleBilder;
+            _bilderProTag = bilderProTag;
+            _tagIdsProName = tagIdsProName;
+        }
+        finally {
+
+            _sperre.writeLock().unlock();
+        }
+
+        final long bytes = alleBilder.getLongSizeInBytes() +
+                           bilderProTag.values().stream().mapToLong( RoaringBitmap::getLongSizeInBytes ).sum();
+
+        LOG.info( "Tag-Index aufgebaut: {} Bilder, {} Tags, {} Bytes, {} ms.",
+                  alleBilder.getLongCardinality(), tagIdsProName.size(), bytes,
+                  ( System.nanoTime() - startZeit ) / 1_000_000 );
+    }
+
+
+    /**
+     * Bild mit seinen Tags in den Index aufnehmen; Tags, die schon im Index stehen,
+     * bleiben erhalten.
+     *
+     * @param bildId ID des (gespeicherten) Bildes
+     *
+     * @param tags Tags des Bildes, darf {@code null} oder leer sein
+     */
+    public void bildIndexieren( long bildId, Collection<TagEntity> tags ) {
+
+        final int id = Math.toIntExact( bildId );
+
+        _sperre.writeLock().lock();
+        try {
+
+            _alleBilder.add( id );
+
+            if ( tags != null ) {
+
+                for ( TagEntity tag : tags ) {
+
+                    _bilderProTag.computeIfAbsent( tag.getId(), tagId -> new RoaringBitmap() ).add( id );
+                    _tagIdsProName.computeIfAbsent( normalisieren( tag.getName() ), name -> new HashSet<>() )
+                                  .add( tag.getId() );
+                }
+            }
+        }
+        finally {
+
+            _sperre.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Wird von Spring Data REST aufgerufen, nachdem ein Bild gelöscht wurde; das Bild
+     * wird aus dem Index entfernt.
+     *
+     * @param bild Gelöschtes Bild
+     */
+    @HandleAfterDelete
+    public void bildGeloescht( BildEntity bild ) {
+
+        final int id = Math.toIntExact( bild.getId() );
+
+        _sperre.writeLock().lock();
+        try {
+
+            _alleBilder.remove( id );
+            _bilderProTag.values().forEach( bitmap -> bitmap.remove( id ) );
+        }
+        finally {
+
+            _sperre.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Wird von Spring Data REST nach dem Anlegen oder Ändern (z.B. Umbenennen) eines
+     * Tags aufgerufen; der Name wird im Index (neu) eingetragen.
+     *
+     * @param tag Angelegter oder geänderter Tag
+     */
+    @HandleAfterCreate
+    @HandleAfterSave
+    public void tagGespeichert( TagEntity tag ) {
+
+        _sperre.writeLock().lock();
+        try {
+
+            nameEntfernen( tag.getId() );
+            _tagIdsProName.computeIfAbsent( normalisieren( tag.getName() ), name -> new HashSet<>() )
+                          .add( tag.getId() );
+        }
+        finally {
+
+            _sperre.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Wird von Spring Data REST nach dem Löschen eines Tags aufgerufen; Name und Bitmap
+     * des Tags werden aus dem Index entfernt.
+     *
+     * @param tag Gelöschter Tag
+     */
+    @HandleAfterDelete
+    public void tagGeloescht( TagEntity tag ) {
+
+        _sperre.writeLock().lock();
+        try {
+
+            nameEntfernen( tag.getId() );
+            _bilderProTag.remove( tag.getId() );
+        }
+        finally {
+
+            _sperre.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Tag-ID aus der Zuordnung Name zu IDs entfernen, unabhängig vom (evtl. alten) Namen;
+     * muss mit Schreib-Sperre aufgerufen werden.
+     *
+     * @param tagId ID des Tags
+     */
+    private void nameEntfernen( long tagId ) {
+
+        _tagIdsProName.values().removeIf( tagIds -> tagIds.remove( tagId ) && tagIds.isEmpty() );
+    }
+
+
+    /**
+     * Tag-Namen für Zuordnung Name zu IDs normalisieren.
+     *
+     * @param tagName Name des Tags
+     *
+     * @return Name in Kleinbuchstaben
+     */
+    private static String normalisieren( String tagName ) {
+
+        return tagName.toLowerCase( Locale.GERMAN );
+    }
+
+
+    /**
+     * Suchausdruck auswerten (Syntax siehe Klassenbeschreibung). Unbekannte Tag-Namen
+     * ergeben die leere Menge.
+     *
+     * @param ausdruck Suchausdruck, z.B. {@code (Hund OR Katze) AND NOT Zeichnung}
+     *
+     * @return IDs der Bilder, auf die der Ausdruck zutrifft (neues Objekt, darf vom
+     *         Aufrufer verändert werden)
+     *
+     * @throws IllegalArgumentException Syntaxfehler im Ausdruck, Ausdruck leer oder zu lang
+     */
+    public RoaringBitmap auswerten( String ausdruck ) {
+
+        if ( ausdruck == null || ausdruck.isBlank() ) {
+
+            throw new IllegalArgumentException( "Suchausdruck ist leer." );
+        }
+        if ( ausdruck.length() > MAX_AUSDRUCK_LAENGE ) {
+
+            throw new IllegalArgumentException( "Suchausdruck ist länger als " + MAX_AUSDRUCK_LAENGE + " Zeichen." );
+        }
+
+        final List<Token> tokens = zerlegen( ausdruck );
+
+        _sperre.readLock().lock();
+        try {
+
+            final Auswerter auswerter = new Auswerter( tokens );
+
+            return auswerter.ausdruckAuswerten().clone();
+        }
+        finally {
+
+            _sperre.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Bitmap für Tag-Namen liefern; es wird nur im Index nachgesehen, nicht in der
+     * Datenbank (die Methode wird mit Lese-Sperre aufgerufen).
+     *
+     * @param tagName Name des Tags, Groß-/Kleinschreibung egal
+     *
+     * @return Bitmap mit IDs der Bilder (darf nicht verändert werden), leere Bitmap für
+     *         unbekannten Tag
+     */
+    private RoaringBitmap bitmapFuerTag( String tagName ) {
+
+        final Set<Long> tagIds = _tagIdsProName.get( normalisieren( tagName ) );
+        if ( tagIds == null ) {
+
+            LOG.debug( "Unbekannter Tag \"{}\" in Suchausdruck.", tagName );
+            return new RoaringBitmap();
+        }
+
+        RoaringBitmap ergebnis = new RoaringBitmap();
+        for ( Long tagId : tagIds ) {
+
+            final RoaringBitmap bitmap = _bilderProTag.get( tagId );
+            if ( bitmap != null ) {
+
+                ergebnis = tagIds.size() == 1 ? bitmap : RoaringBitmap.or( ergebnis, bitmap );
+            }
+        }
+
+        return ergebnis;
+    }
+
+
+    /** Typen der Token in einem Suchausdruck. */
+    private enum TokenTyp { KLAMMER_AUF, KLAMMER_ZU, UND, ODER, NICHT, NAME }
+
+    /** Token in einem Suchausdruck; {@code text} ist nur für {@link TokenTyp#NAME} gesetzt. */
+    private record Token( TokenTyp typ, String text ) {}
+
+
+    /**
+     * Suchausdruck in Token zerlegen.
+     *
+     * @throws IllegalArgumentException Anführungszeichen nicht geschlossen
+     */
+    private static List<Token> zerlegen( String ausdruck ) {
+
+        final List<Token> tokens = new ArrayList<>();
+
+        int pos = 0;
+        while ( pos < ausdruck.length() ) {
+
+            final char zeichen = ausdruck.charAt( pos );
+
+            if ( Character.isWhitespace( zeichen ) ) {
+
+                pos++;
+
+            } else if ( zeichen == '(' || zeichen == ')' || zeichen == '&' || zeichen == '|' || zeichen == '!' ) {
+
+                tokens.add( new Token( switch ( zeichen ) {
+                                           case '(' -> TokenTyp.KLAMMER_AUF;
+                                           case ')' -> TokenTyp.KLAMMER_ZU;
+                                           case '&' -> TokenTyp.UND;
+                                           case '|' -> TokenTyp.ODER;
+                                           default  -> TokenTyp.NICHT;
+                                       }, null ) );
+                pos++;
+
+            } else if ( zeichen == '"' ) {
+
+                final int ende = ausdruck.indexOf( '"', pos + 1 );
+                if ( ende < 0 ) {
+
+                    throw new IllegalArgumentException( "Anführungszeichen an Position " + pos + " nicht geschlossen." );
+                }
+                tokens.add( new Token( TokenTyp.NAME, ausdruck.substring( pos + 1, ende ) ) );
+                pos = ende + 1;
+
+            } else {
+
+                final int start = pos;
+                while ( pos < ausdruck.length() && !Character.isWhitespace( ausdruck.charAt( pos ) ) &&
+                        "()&|!\"".indexOf( ausdruck.charAt( pos ) ) < 0 ) {
+
+                    pos++;
+                }
+                final String wort = ausdruck.substring( start, pos );
+
+                switch ( wort.toUpperCase( Locale.ROOT ) ) {
+
+                    case "AND" -> tokens.add( new Token( TokenTyp.UND  , null ) );
+                    case "OR"  -> tokens.add( new Token( TokenTyp.ODER , null ) );
+                    case "NOT" -> tokens.add( new Token( TokenTyp.NICHT, null ) );
+                    default    -> tokens.add( new Token( TokenTyp.NAME , wort ) );
+                }
+            }
+        }
+
+        return tokens;
+    }
+
+
+    /**
+     * Rekursiver Abstieg über die Token, wertet den Ausdruck direkt mit Bitmap-Operationen
+     * aus; muss mit Lese-Sperre verwendet werden. Die Bitmaps des Index werden nicht
+     * verändert, da {@code and}, {@code or} und {@code andNot} neue Bitmaps erzeugen.
+     */
+    private class Auswerter {
+
+        private final List<Token> _tokens;
+
+        private int _pos = 0;
+
+        private int _tiefe = 0;
+
+        Auswerter( List<Token> tokens ) {
+
+            _tokens = tokens;
+        }
+
+        /** Ganzen Ausdruck auswerten, es dürfen keine Token übrig bleiben. */
+        RoaringBitmap ausdruckAuswerten() {
+
+            final RoaringBitmap ergebnis = oderAuswerten();
+            if ( _pos < _tokens.size() ) {
+
+                throw new IllegalArgumentException( "Unerwartetes Token " + _tokens.get( _pos ).typ() + " im Suchausdruck." );
+            }
+
+            return ergebnis;
+        }
+
+        /** {@code oder := und ( ODER und )*} */
+        private RoaringBitmap oderAuswerten() {
+
+            RoaringBitmap ergebnis = undAuswerten();
+            while ( naechstesIst( TokenTyp.ODER ) ) {
+
+                _pos++;
+                ergebnis = RoaringBitmap.or( ergebnis, undAuswerten() );
+            }
+
+            return ergebnis;
+        }
+
+        /** {@code und := nicht ( UND? nicht )*} */
+        private RoaringBitmap undAuswerten() {
+
+            RoaringBitmap ergebnis = nichtAuswerten();
+            while ( naechstesIst( TokenTyp.UND ) || naechstesIst( TokenTyp.NICHT ) ||
+                    naechstesIst( TokenTyp.NAME ) || naechstesIst( TokenTyp.KLAMMER_AUF ) ) {
+
+                if ( naechstesIst( TokenTyp.UND ) ) {
+
+                    _pos++;
+                }
+                ergebnis = RoaringBitmap.and( ergebnis, nichtAuswerten() );
+            }
+
+            return ergebnis;
+        }
+
+        /** {@code nicht := NICHT nicht | faktor} */
+        private RoaringBitmap nichtAuswerten() {
+
+            if ( naechstesIst( TokenTyp.NICHT ) ) {
+
+                _pos++;
+                tiefeErhoehen();
+                final RoaringBitmap ergebnis = RoaringBitmap.andNot( _alleBilder, nichtAuswerten() );
+                _tiefe--;
+
+                return ergebnis;
+            }
+
+            return faktorAuswerten();
+        }
+
+        /** {@code faktor := ( oder ) | NAME} */
+        private RoaringBitmap faktorAuswerten() {
+
+            if ( _pos >= _tokens.size() ) {
+
+                throw new IllegalArgumentException( "Unerwartetes Ende des Suchausdrucks." );
+            }
+
+            final Token token = _tokens.get( _pos++ );
+            switch ( token.typ() ) {
+
+                case NAME:
+                    return bitmapFuerTag( token.text() );
+
+                case KLAMMER_AUF:
+                    tiefeErhoehen();
+                    final RoaringBitmap ergebnis = oderAuswerten();
+                    if ( !naechstesIst( TokenTyp.KLAMMER_ZU ) ) {
+
+                        throw new IllegalArgumentException( "Schließende Klammer fehlt im Suchausdruck." );
+                    }
+                    _pos++;
+                    _tiefe--;
+                    return ergebnis;
+
+                default:
+                    throw new IllegalArgumentException( "Unerwartetes Token " + token.typ() + " im Suchausdruck." );
+            }
+        }
+
+        private boolean naechstesIst( TokenTyp typ ) {
+
+            return _pos < _tokens.size() && _tokens.get( _pos ).typ() == typ;
+        }
+
+        private void tiefeErhoehen() {
+
+            if ( ++_tiefe > MAX_TIEFE ) {
+
+                throw new IllegalArgumentException( "Suchausdruck ist tiefer als " + MAX_TIEFE + " geschachtelt." );
+            }
+        }
+    }
+
+}
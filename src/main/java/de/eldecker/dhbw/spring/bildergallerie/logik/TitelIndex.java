@@ -0,0 +1,469 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import static java.text.Normalizer.Form.NFD;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.BildRepository;
+import de.eldecker.dhbw.spring.bildergallerie.db.BildTitel;
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
+
+
+/**
+ * Invertierter Index im Speicher für die Suche nach Wörtern im Titel der Bilder,
+ * auch nach Wortanfängen (z.B. "hir" findet "Röhrender Hirsch").
+ * <br><br>
+ *
+ * Die Titel werden in Wörter zerlegt und normalisiert: Kleinbuchstaben, Umlaute
+ * werden ersetzt ("ö" wird zu "oe", "ß" zu "ss"), andere Akzente werden entfernt.
+ * Wörter mit Umlauten werden zusätzlich ohne Punkte indexiert ("ö" wird zu "o"), damit
+ * z.B. sowohl "roehr" als auch "rohr" den Titel "Röhrender Hirsch" finden.
+ * Für jedes Wort werden alle Anfänge ("Edge N-Gramme") bis zur Länge
+ * {@link #MAX_NGRAMM_LAENGE} in den Index aufgenommen, jeweils mit einer
+ * komprimierten Bitmap der IDs der Bilder. Eine Suche ist damit ein Zugriff auf
+ * eine Hash-Map pro Suchwort und eine {@code AND}-Verknüpfung der Bitmaps; in der
+ * Datenbank muss nicht mit {@code LIKE '%...%'} die ganze Tabelle durchsucht werden.
+ * <br><br>
+ *
+ * Der Index wird beim Start der Anwendung aufgebaut und danach von {@link BildService}
+ * beim Hochladen aktualisiert; Änderungen über Spring Data REST (Anlegen, Ändern
+ * des Titels, Löschen) werden ebenfalls übernommen.
+ */
+@Component
+@RepositoryEventHandler
+public class TitelIndex implements ApplicationRunner {
+
+    private final static Logger LOG = LoggerFactory.getLogger( TitelIndex.class );
+
+    /** Maximale Länge der Wortanfänge im Index; längere Suchwörter werden nachgeprüft. */
+    static final int MAX_NGRAMM_LAENGE = 12;
+
+    /** Wie viele Kandidaten werden höchstens für die Sortierung der Vorschläge betrachtet? */
+    private static final int MAX_KANDIDATEN_VORSCHLAEGE = 500;
+
+    /** Trennzeichen zwischen Wörtern: alles außer Buchstaben und Ziffern. */
+    private static final Pattern WORT_TRENNER = Pattern.compile( "[^\\p{L}\\p{N}]+" );
+
+    /** Kombinierende Zeichen (Akzente) nach Zerlegung mit {@code NFD}. */
+    private static final Pattern AKZENTE = Pattern.compile( "\\p{M}+" );
+
+    /**
+     * Vorschlag für Autovervollständigung.
+     *
+     * @param id ID des Bildes
+     *
+     * @param titel Titel des Bildes (nicht normalisiert)
+     */
+    public record Vorschlag( long id, String titel ) {}
+
+    /** Repo-Bean für Zugriff auf Datenbanktabelle mit Bildern. */
+    private final BildRepository _bildRepo;
+
+    /** Bean für Transaktion, in der beim Aufbau des Index der Stream gelesen wird. */
+    private final TransactionTemplate _transactionTemplate;
+
+    /** Sperre: Suchen mit Lese-Sperre, Aktualisieren und Neuaufbau mit Schreib-Sperre. */
+    private final ReadWriteLock _sperre = new ReentrantReadWriteLock();
+
+    /** Für jeden Wortanfang die IDs der Bilder, deren Titel ein Wort mit diesem Anfang enthält. */
+    private Map<String, RoaringBitmap> _bilderProNgramm = new HashMap<>();
+
+    /** Titel (nicht normalisiert) für jede Bild-ID, für Vorschläge und Aktualisierung. */
+    private Map<Integer, String> _titelProId = new HashMap<>();
+
+
+    /**
+     * Konstruktor für Dependency Injection.
+     */
+    @Autowired
+    public TitelIndex( BildRepository bildRepo,
+                       TransactionTemplate transactionTemplate ) {
+
+        _bildRepo            = bildRepo;
+        _transactionTemplate = transactionTemplate;
+    }
+
+
+    /**
+     * Index beim Start der Anwendung aufbauen.
+     *
+     * @param args CmdLine-Argumente, werden nicht ausgewertet
+     */
+    @Override
+    public void run( ApplicationArguments args ) {
+
+        neuAufbauen();
+    }
+
+
+    /**
+     * Index komplett neu aus der Datenbank aufbauen; während des Aufbaus wird die
+     * Schreib-Sperre gehalten, damit keine gleichzeitige Aktualisierung verloren geht.
+     */
+    public void neuAufbauen() {
+
+        final long startZeit = System.nanoTime();
+
+        _sperre.writeLock().lock();
+        try {
+
+            _bilderProNgramm = new HashMap<>();
+            _titelProId      = new HashMap<>();
+
+            _transactionTemplate.executeWithoutResult( status -> {
+
+                try ( Stream<BildTitel> titelStream = _bildRepo.streamAlleTitel() ) {
+
+                    titelStream.forEach( bildTitel -> hinzufuegen( Math.toIntExact( bildTitel.id() ), bildTitel.titel() ) );
+                }
+            });
+
+            _bilderProNgramm.values().forEach( RoaringBitmap::runOptimize );
+
+            LOG.info( "Titel-Index aufgebaut: {} Bilder, {} Wortanfänge, {} ms.",
+                      _titelProId.size(), _bilderProNgramm.size(), ( System.nanoTime() - startZeit ) / 1_000_000 );
+        }
+        finally {
+
+            _sperre.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Titel eines Bildes in den Index aufnehmen bzw. aktualisieren, wenn das Bild schon
+     * mit einem anderen Titel im Index steht.
+     *
+     * @param bildId ID des (gespeicherten) Bildes
+     *
+     * @param titel Titel des Bildes
+     */
+    public void bildIndexieren( long bildId, String titel ) {
+
+        final int id = Math.toIntExact( bildId );
+
+        _sperre.writeLock().lock();
+        try {
+
+            entfernen( id );
+            hinzufuegen( id, titel );
+        }
+        finally {
+
+            _sperre.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Wird von Spring Data REST nach dem Anlegen oder Ändern eines Bildes aufgerufen.
+     *
+     * @param bild Angelegtes oder geändertes Bild
+     */
+    @HandleAfterCreate
+    @HandleAfterSave
+    public void bildGespeichert( BildEntity bild ) {
+
+        bildIndexieren( bild.getId(), bild.getTitel() );
+    }
+
+
+    /**
+     * Wird von Spring Data REST nach dem Löschen eines Bildes aufgerufen.
+     *
+     * @param bild Gelöschtes Bild
+     */
+    @HandleAfterDelete
+    public void bildGeloescht( BildEntity bild ) {
+
+        _sperre.writeLock().lock();
+        try {
+
+            entfernen( Math.toIntExact( bild.getId() ) );
+        }
+        finally {
+
+            _sperre.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Bilder suchen, deren Titel für jedes Wort in {@code suchText} ein Wort mit diesem
+     * Anfang enthält; Groß-/Kleinschreibung und Umlaute werden wie beim Aufbau des Index
+     * normalisiert.
+     *
+     * @param suchText Suchtext, z.B. "röhr hir"
+     *
+     * @return IDs der gefundenen Bilder (neues Objekt); leer, wenn {@code suchText}
+     *         kein Wort enthält
+     */
+    public RoaringBitmap suchen( String suchText ) {
+
+        final Set<String> suchWoerter = new LinkedHashSet<>( woerter( suchText ) );
+        if ( suchWoerter.isEmpty() ) {
+
+            return new RoaringBitmap();
+        }
+
+        _sperre.readLock().lock();
+        try {
+
+            RoaringBitmap ergebnis = null;
+            for ( String suchWort : suchWoerter ) {
+
+                final RoaringBitmap bitmap = _bilderProNgramm.get( ngramm( suchWort ) );
+                if ( bitmap == null ) {
+
+                    return new RoaringBitmap();
+                }
+                ergebnis = ergebnis == null ? bitmap.clone() : RoaringBitmap.and( ergebnis, bitmap );
+            }
+
+            // Suchwörter länger als die Wortanfänge im Index: Treffer mit Titel nachprüfen
+            final List<String> langeWoerter = suchWoerter.stream()
+                                                         .filter( wort -> wort.length() > MAX_NGRAMM_LAENGE )
+                                                         .toList();
+            if ( !langeWoerter.isEmpty() ) {
+
+                final RoaringBitmap geprueft = new RoaringBitmap();
+                ergebnis.forEach( (int id) -> {
+
+                    final Set<String> titelWoerter = indexWoerter( _titelProId.get( id ) );
+                    if ( langeWoerter.stream().allMatch( wort -> titelWoerter.stream().anyMatch( t -> t.startsWith( wort ) ) ) ) {
+
+                        geprueft.add( id );
+                    }
+                });
+                ergebnis = geprueft;
+            }
+
+            return ergebnis;
+        }
+        finally {
+
+            _sperre.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Vorschläge für Autovervollständigung: Titel, die zu {@code suchText} passen (siehe
+     * {@link #suchen(String)}). Titel, die mit dem ersten Suchwort beginnen, kommen zuerst,
+     * danach wird alphabetisch sortiert. Es werden nur die ersten
+     * {@link #MAX_KANDIDATEN_VORSCHLAEGE} Treffer betrachtet, damit die Antwortzeit auch
+     * bei sehr kurzem Suchtext begrenzt ist.
+     *
+     * @param suchText Bisher eingegebener Suchtext
+     *
+     * @param anzahl Maximale Anzahl Vorschläge
+     *
+     * @return Vorschläge, kann leer sein
+     */
+    public List<Vorschlag> vorschlaege( String suchText, int anzahl ) {
+
+        final RoaringBitmap treffer = suchen( suchText );
+        if ( treffer.isEmpty() ) {
+
+            return List.of();
+        }
+
+        final List<String> suchWoerter = woerter( suchText );
+        final String       erstesWort  = suchWoerter.get( 0 );
+
+        final List<Vorschlag> kandidaten = new ArrayList<>();
+
+        _sperre.readLock().lock();
+        try {
+
+            final IntIterator iterator = treffer.getReverseIntIterator(); // neueste Bilder zuerst
+            while ( iterator.hasNext() && kandidaten.size() < MAX_KANDIDATEN_VORSCHLAEGE ) {
+
+                final int    id    = iterator.next();
+                final String titel = _titelProId.get( id );
+                if ( titel != null ) {
+
+                    kandidaten.add( new Vorschlag( id, titel ) );
+                }
+            }
+        }
+        finally {
+
+            _sperre.readLock().unlock();
+        }
+
+        final Comparator<Vorschlag> reihenfolge =
+                Comparator.comparing( ( Vorschlag vorschlag ) -> !normalisieren( vorschlag.titel() ).startsWith( erstesWort ) )
+                          .thenComparing( Vorschlag::titel, String.CASE_INSENSITIVE_ORDER );
+
+        return kandidaten.stream()
+                         .sorted( reihenfolge )
+                         .limit( anzahl )
+                         .toList();
+    }
+
+
+    /**
+     * Titel mit allen Wortanfängen in den Index aufnehmen; Schreib-Sperre muss gehalten werden.
+     */
+    private void hinzufuegen( int id, String titel ) {
+
+        _titelProId.put( id, titel );
+
+        for ( String wort : indexWoerter( titel ) ) {
+
+            for ( int laenge = 1; laenge <= Math.min( wort.length(), MAX_NGRAMM_LAENGE ); laenge++ ) {
+
+                _bilderProNgramm.computeIfAbsent( wort.substring( 0, laenge ), ngramm -> new RoaringBitmap() )
+                                .add( id );
+            }
+        }
+    }
+
+
+    /**
+     * Bild mit seinem bisherigen Titel aus dem Index entfernen; Schreib-Sperre muss
+     * gehalten werden.
+     */
+    private void entfernen( int id ) {
+
+        final String alterTitel = _titelProId.remove( id );
+        if ( alterTitel == null ) {
+
+            return;
+        }
+
+        for ( String wort : indexWoerter( alterTitel ) ) {
+
+            for ( int laenge = 1; laenge <= Math.min( wort.length(), MAX_NGRAMM_LAENGE ); laenge++ ) {
+
+                final String        ngramm = wort.substring( 0, laenge );
+                final RoaringBitmap bitmap = _bilderProNgramm.get( ngramm );
+                if ( bitmap != null ) {
+
+                    bitmap.remove( id );
+                    if ( bitmap.isEmpty() ) {
+
+                        _bilderProNgramm.remove( ngramm );
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Wortanfang, unter dem ein Suchwort im Index nachgeschlagen wird.
+     */
+    private static String ngramm( String wort ) {
+
+        return wort.length() <= MAX_NGRAMM_LAENGE ? wort : wort.substring( 0, MAX_NGRAMM_LAENGE );
+    }
+
+
+    /**
+     * Wörter eines Titels für den Index: normalisierte Wörter (siehe {@link #woerter(String)})
+     * und zusätzlich die Wörter, bei denen Umlaute nur durch den Grundbuchstaben ersetzt 
+     * wurden ("ö" wird zu "o").
+     * 
+     * @param titel Titel eines Bildes
+     * 
+     * @return Menge der Wörter, z.B. {@code [roehrender, hirsch, rohrender]}
+     */
+    private static Set<String> indexWoerter( String titel ) {
+        
+        final Set<String> ergebnis = new LinkedHashSet<>( woerter( titel ) );
+        
+        if ( titel != null ) {
+            
+            for ( String wort : WORT_TRENNER.split( ohneAkzente( titel.toLowerCase( Locale.GERMAN ) ) ) ) {
+                
+                if ( !wort.isEmpty() ) {
+                    
+                    ergebnis.add( wort.replace( "ß", "ss" ) );
+                }
+            }
+        }
+        
+        return ergebnis;
+    }
+    
+    
+    /**
+     * Text normalisieren und in Wörter zerlegen.
+     *
+     * @param text Titel oder Suchtext, darf {@code null} sein
+     *
+     * @return Normalisierte Wörter, z.B. {@code [roehrender, hirsch]} für "Röhrender Hirsch!"
+     */
+    static List<String> woerter( String text ) {
+
+        if ( text == null ) {
+
+            return List.of();
+        }
+
+        final List<String> ergebnis = new ArrayList<>();
+        for ( String wort : WORT_TRENNER.split( normalisieren( text ) ) ) {
+
+            if ( !wort.isEmpty() ) {
+
+                ergebnis.add( wort );
+            }
+        }
+
+        return ergebnis;
+    }
+
+
+    /**
+     * Kleinbuchstaben, Umlaute ersetzen ("ä" wird "ae", "ß" wird "ss"), andere Akzente
+     * entfernen ("é" wird "e").
+     */
+    static String normalisieren( String text ) {
+
+        final String klein = text.toLowerCase( Locale.GERMAN )
+                                 .replace( "ä", "ae" )
+                                 .replace( "ö", "oe" )
+                                 .replace( "ü", "ue" )
+                                 .replace( "ß", "ss" );
+
+        return ohneAkzente( klein );
+    }
+    
+    
+    /**
+     * Akzente und Umlaut-Punkte entfernen, z.B. "é" wird "e" und "ö" wird "o".
+     */
+    private static String ohneAkzente( String text ) {
+        
+        return AKZENTE.matcher( Normalizer.normalize( text, NFD ) ).replaceAll( "" );
+    }
+
+}
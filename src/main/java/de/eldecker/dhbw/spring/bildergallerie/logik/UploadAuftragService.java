@@ -0,0 +1,447 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import static de.eldecker.dhbw.spring.bildergallerie.db.entities.UploadAuftragStatusEnum.FEHLER;
+import static de.eldecker.dhbw.spring.bildergallerie.db.entities.UploadAuftragStatusEnum.GESPEICHERT;
+import static de.eldecker.dhbw.spring.bildergallerie.db.entities.UploadAuftragStatusEnum.IN_ARBEIT;
+import static de.eldecker.dhbw.spring.bildergallerie.db.entities.UploadAuftragStatusEnum.NICHT_UNTERSTUETZT;
+import static de.eldecker.dhbw.spring.bildergallerie.db.entities.UploadAuftragStatusEnum.SCHON_VORHANDEN;
+import static de.eldecker.dhbw.spring.bildergallerie.db.entities.UploadAuftragStatusEnum.WARTEND;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.time.LocalDateTime.now;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.UploadAuftragRepository;
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.UploadAuftragEntity;
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.UploadAuftragStatusEnum;
+import de.eldecker.dhbw.spring.bildergallerie.logik.exceptions.BildSchonVorhandenException;
+import de.eldecker.dhbw.spring.bildergallerie.logik.exceptions.MimeTypeException;
+
+import jakarta.annotation.PreDestroy;
+
+
+/**
+ * Service für asynchrone Uploads: Die hochgeladene Datei wird nur ins Staging-Verzeichnis
+ * geschrieben und ein Auftrag ({@link UploadAuftragEntity}) in der Datenbank angelegt,
+ * der Request ist damit sofort fertig. Das eigentliche Speichern mit
+ * {@link BildService#bildHochladen(String, InputStream, List)} (Hash-Werte, MIME-Typ,
+ * Datenbank, Tags) läuft im Hintergrund; der Client fragt den Status des Auftrags ab.
+ * <br><br>
+ *
+ * Die Aufträge werden auf virtuellen Threads bearbeitet, höchstens
+ * {@code bildergallerie.upload-auftraege.max-parallel} gleichzeitig (die Anzahl der
+ * DB-Verbindungen ist begrenzt). Ein neuer Auftrag wird sofort gestartet, wenn noch
+ * ein Platz frei ist; sonst (und nach einem Neustart) holt ihn die regelmäßige Abfrage
+ * der wartenden Aufträge ab. Damit ein Auftrag nicht zweimal gestartet wird, wird sein
+ * Status mit einem bedingten {@code UPDATE} von {@code WARTEND} auf {@code IN_ARBEIT}
+ * gesetzt.
+ * <br><br>
+ *
+ * Beim Start der Anwendung werden Aufträge, die beim Beenden noch in Arbeit waren,
+ * wieder auf {@code WARTEND} gesetzt. Ein Auftrag kann deshalb in seltenen Fällen
+ * zweimal bearbeitet werden; das Bild wird dann aber wegen des gleichen Hash-Werts nur
+ * einmal gespeichert. Ist die Bearbeitung wegen eines unerwarteten Fehlers (z.B.
+ * Datenbank nicht erreichbar) gescheitert, dann wird sie bis zu {@link #MAX_VERSUCHE}
+ * mal wiederholt, jeweils nach einer Wartezeit, die sich bei jedem Versuch verdoppelt
+ * (beginnend mit {@link #ERSTE_WARTEZEIT}). Kann das Ergebnis nicht gespeichert werden,
+ * dann wird der Auftrag wieder auf {@code WARTEND} gesetzt, damit er nicht bis zum
+ * nächsten Neustart {@code IN_ARBEIT} bleibt.
+ */
+@Service
+public class UploadAuftragService implements ApplicationRunner {
+
+    private final static Logger LOG = LoggerFactory.getLogger( UploadAuftragService.class );
+
+    /** Maximale Anzahl Versuche für einen Auftrag. */
+    private static final int MAX_VERSUCHE = 3;
+
+    /** Wartezeit nach dem ersten gescheiterten Versuch, verdoppelt sich mit jedem weiteren. */
+    private static final Duration ERSTE_WARTEZEIT = Duration.ofSeconds( 10 );
+
+    /** Mindestalter für das Löschen von Dateien ohne Auftrag im Staging-Verzeichnis. */
+    private static final Duration MIN_ALTER_VERWAIST = Duration.ofMinutes( 1 );
+
+    /** Endzustände, Aufträge damit werden nach Ablauf der Aufbewahrungsdauer gelöscht. */
+    private static final List<UploadAuftragStatusEnum> ENDZUSTAENDE =
+            List.of( GESPEICHERT, SCHON_VORHANDEN, NICHT_UNTERSTUETZT, FEHLER );
+
+    /** Bean mit Geschäftslogik für Bilder. */
+    private final BildService _bildService;
+
+    /** Repository für die Aufträge. */
+    private final UploadAuftragRepository _auftragRepo;
+
+    /** Verzeichnis für hochgeladene Dateien, die noch nicht bearbeitet wurden. */
+    private final Path _stagingVerzeichnis;
+
+    /** Dauer, für die abgeschlossene Aufträge abgefragt werden können. */
+    private final Duration _aufbewahrung;
+
+    /** Begrenzt die Anzahl gleichzeitig bearbeiteter Aufträge. */
+    private final Semaphore _plaetze;
+
+    /** Ein virtueller Thread pro Auftrag. */
+    private final ExecutorService _executor =
+            Executors.newThreadPerTaskExecutor( Thread.ofVirtual().name( "upload-auftrag-", 1 ).factory() );
+
+
+    /**
+     * Konstruktor für Dependency Injection, legt bei Bedarf das Staging-Verzeichnis an.
+     *
+     * @param verzeichnis Staging-Verzeichnis aus Konfiguration
+     *                    {@code bildergallerie.upload-auftraege.verzeichnis}
+     *
+     * @param maxParallel Maximale Anzahl gleichzeitig bearbeiteter Aufträge aus
+     *                    Konfiguration {@code bildergallerie.upload-auftraege.max-parallel}
+     *
+     * @param aufbewahrung Aufbewahrungsdauer für abgeschlossene Aufträge aus Konfiguration
+     *                     {@code bildergallerie.upload-auftraege.aufbewahrung}
+     *
+     * @throws IOException Staging-Verzeichnis konnte nicht angelegt werden
+     */
+    @Autowired
+    public UploadAuftragService( BildService             bildService,
+                                 UploadAuftragRepository auftragRepo,
+                                 @Value( "${bildergallerie.upload-auftraege.verzeichnis}"  ) String   verzeichnis,
+                                 @Value( "${bildergallerie.upload-auftraege.max-parallel}" ) int      maxParallel,
+                                 @Value( "${bildergallerie.upload-auftraege.aufbewahrung}" ) Duration aufbewahrung )
+            throws IOException {
+
+        _bildService        = bildService;
+        _auftragRepo        = auftragRepo;
+        _stagingVerzeichnis = Path.of( verzeichnis ).toAbsolutePath().normalize();
+        _aufbewahrung       = aufbewahrung;
+        _plaetze            = new Semaphore( maxParallel );
+
+        Files.createDirectories( _stagingVerzeichnis );
+
+        LOG.info( "Asynchrone Uploads im Verzeichnis \"{}\", max. {} gleichzeitig.", _stagingVerzeichnis, maxParallel );
+    }
+
+
+    /**
+     * Virtuelle Threads beim Herunterfahren der Anwendung unterbrechen; unterbrochene
+     * Aufträge werden beim nächsten Start wiederholt.
+     */
+    @PreDestroy
+    public void herunterfahren() {
+
+        _executor.shutdownNow();
+    }
+
+
+    /**
+     * Beim Start der Anwendung unterbrochene Aufträge wieder auf {@code WARTEND} setzen
+     * und wartende Aufträge starten.
+     *
+     * @param args CmdLine-Argumente, werden nicht ausgewertet
+     */
+    @Override
+    public void run( ApplicationArguments args ) {
+
+        final int anzahl = _auftragRepo.alleStatusAendern( IN_ARBEIT, WARTEND, now() );
+        if ( anzahl > 0 ) {
+
+            LOG.warn( "{} unterbrochene Upload-Aufträge werden wiederholt.", anzahl );
+        }
+
+        verwaisteDateienLoeschen();
+
+        wartendeStarten();
+    }
+
+
+    /**
+     * Dateien im Staging-Verzeichnis löschen, zu denen es keinen wartenden Auftrag gibt,
+     * z.B. weil die Anwendung zwischen dem Schreiben der Datei und dem Speichern des
+     * Auftrags beendet wurde. Es werden nur Dateien gelöscht, die älter als
+     * {@link #MIN_ALTER_VERWAIST} sind, damit gerade laufende Uploads nicht stören.
+     */
+    private void verwaisteDateienLoeschen() {
+
+        final Instant grenze = Instant.now().minus( MIN_ALTER_VERWAIST );
+
+        try ( Stream<Path> dateien = Files.list( _stagingVerzeichnis ) ) {
+
+            for ( Path datei : dateien.toList() ) {
+
+                final String id = datei.getFileName().toString().replace( ".tmp", "" );
+                if ( Files.getLastModifiedTime( datei ).toInstant().isBefore( grenze ) &&
+                     _auftragRepo.findById( id ).map( auftrag -> auftrag.getStatus().istEndzustand() ).orElse( true ) ) {
+
+                    LOG.warn( "Verwaiste Datei {} im Staging-Verzeichnis wird gelöscht.", datei.getFileName() );
+                    Files.deleteIfExists( datei );
+                }
+            }
+        }
+        catch ( IOException ex ) {
+
+            LOG.error( "Fehler beim Aufräumen des Staging-Verzeichnisses.", ex );
+        }
+    }
+
+
+    /**
+     * Hochgeladene Datei ins Staging-Verzeichnis schreiben und Auftrag anlegen.
+     *
+     * @param titel Titel des Bildes
+     *
+     * @param dateiName Name der hochgeladenen Datei laut Client
+     *
+     * @param daten Inhalt der Datei, wird von dieser Methode nicht geschlossen
+     *
+     * @param tagListe Namen der Tags für das Bild, darf {@code null} sein
+     *
+     * @return ID des neuen Auftrags für Abfrage des Status
+     *
+     * @throws IOException Fehler beim Lesen von {@code daten} oder beim Schreiben der Datei
+     */
+    public String auftragAnnehmen( String titel, String dateiName, InputStream daten, List<String> tagListe )
+            throws IOException {
+
+        final String id    = UUID.randomUUID().toString();
+        final Path   datei = stagingDatei( id );
+
+        // erst vollständig schreiben, dann umbenennen, damit ein Auftrag nie eine halbe Datei sieht
+        final Path tmpDatei = _stagingVerzeichnis.resolve( id + ".tmp" );
+        try {
+
+            Files.copy( daten, tmpDatei );
+            Files.move( tmpDatei, datei, ATOMIC_MOVE );
+        }
+        finally {
+
+            Files.deleteIfExists( tmpDatei );
+        }
+
+        final UploadAuftragEntity auftrag = _auftragRepo.save( new UploadAuftragEntity( id, titel, dateiName, tagListe ) );
+
+        LOG.info( "Upload-Auftrag {} für Datei \"{}\" angenommen.", id, dateiName );
+
+        starten( auftrag );
+
+        return id;
+    }
+
+
+    /**
+     * Auftrag suchen, z.B. für Abfrage des Status.
+     *
+     * @param id ID des Auftrags
+     *
+     * @return Optional mit Auftrag, leer wenn es keinen Auftrag mit {@code id} gibt
+     *         (auch wenn er nach Ablauf der Aufbewahrungsdauer gelöscht wurde)
+     */
+    public Optional<UploadAuftragEntity> getAuftrag( String id ) {
+
+        return _auftragRepo.findById( id );
+    }
+
+
+    /**
+     * Wartende Aufträge (z.B. nach Neustart, oder weil beim Upload kein Platz frei war)
+     * starten, solange Plätze frei sind.
+     */
+    @Scheduled( fixedDelayString = "${bildergallerie.upload-auftraege.abfrage-intervall}",
+                initialDelayString = "${bildergallerie.upload-auftraege.abfrage-intervall}" )
+    public void wartendeStarten() {
+
+        final int freiePlaetze = _plaetze.availablePermits();
+        if ( freiePlaetze == 0 ) {
+
+            return;
+        }
+
+        final List<UploadAuftragEntity> wartend =
+                _auftragRepo.findeFaellige( WARTEND, now(), Limit.of( freiePlaetze ) );
+
+        for ( UploadAuftragEntity auftrag : wartend ) {
+
+            if ( !starten( auftrag ) ) {
+
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Abgeschlossene Aufträge nach Ablauf der Aufbewahrungsdauer löschen.
+     */
+    @Scheduled( fixedDelayString = "PT1H" )
+    public void alteLoeschen() {
+
+        final int anzahl = _auftragRepo.alteLoeschen( ENDZUSTAENDE, now().minus( _aufbewahrung ) );
+        if ( anzahl > 0 ) {
+
+            LOG.info( "{} abgeschlossene Upload-Aufträge gelöscht.", anzahl );
+        }
+    }
+
+
+    /**
+     * Auftrag auf einem virtuellen Thread starten, wenn ein Platz frei ist und kein
+     * anderer Thread den Auftrag schon übernommen hat.
+     *
+     * @param auftrag Auftrag mit Status {@code WARTEND}
+     *
+     * @return {@code false}, wenn kein Platz frei war
+     */
+    private boolean starten( UploadAuftragEntity auftrag ) {
+
+        if ( !_plaetze.tryAcquire() ) {
+
+            return false;
+        }
+
+        if ( _auftragRepo.statusAendern( auftrag.getId(), WARTEND, IN_ARBEIT, now() ) == 0 ) {
+
+            _plaetze.release(); // schon von anderem Thread übernommen
+            return true;
+        }
+
+        _executor.execute( () -> {
+
+            try {
+
+                bearbeiten( auftrag );
+            }
+            finally {
+
+                _plaetze.release();
+            }
+        });
+
+        return true;
+    }
+
+
+    /**
+     * Auftrag bearbeiten: Bild aus dem Staging-Verzeichnis speichern und Ergebnis im
+     * Auftrag vermerken. Bei einem Endzustand wird die Datei gelöscht.
+     *
+     * @param auftrag Auftrag, der schon auf {@code IN_ARBEIT} gesetzt ist
+     */
+    private void bearbeiten( UploadAuftragEntity auftrag ) {
+
+        final Path datei = stagingDatei( auftrag.getId() );
+
+        try ( InputStream inputStream = Files.newInputStream( datei ) ) {
+
+            final BildEntity bild = _bildService.bildHochladen( auftrag.getTitel(), inputStream, auftrag.getTagListe() );
+
+            auftrag.setBildId( bild.getId() );
+            auftrag.setStatus( GESPEICHERT );
+        }
+        catch ( BildSchonVorhandenException ex ) {
+
+            auftrag.setBildId( ex.getBildEntity().getId() );
+            auftrag.setMeldung( ex.getMessage() );
+            auftrag.setStatus( SCHON_VORHANDEN );
+        }
+        catch ( MimeTypeException ex ) {
+
+            auftrag.setMeldung( ex.getMessage() );
+            auftrag.setStatus( NICHT_UNTERSTUETZT );
+        }
+        catch ( NoSuchFileException ex ) {
+
+            auftrag.setMeldung( "Hochgeladene Datei nicht mehr im Staging-Verzeichnis vorhanden." );
+            auftrag.setStatus( FEHLER );
+        }
+        catch ( IOException | RuntimeException ex ) {
+
+            LOG.error( "Fehler bei Bearbeitung von Upload-Auftrag {}.", auftrag.getId(), ex );
+
+            final Duration wartezeit = ERSTE_WARTEZEIT.multipliedBy( 1L << auftrag.getAnzahlVersuche() );
+            auftrag.versuchGescheitert( now().plus( wartezeit ) );
+            auftrag.setMeldung( ex.getMessage() );
+            auftrag.setStatus( auftrag.getAnzahlVersuche() < MAX_VERSUCHE ? WARTEND : FEHLER );
+        }
+
+        try {
+
+            _auftragRepo.save( auftrag );
+        }
+        catch ( RuntimeException ex ) {
+
+            // Datei bleibt liegen; wurde das Bild schon gespeichert, dann ergibt der nächste Versuch SCHON_VORHANDEN
+            LOG.error( "Ergebnis von Upload-Auftrag {} konnte nicht gespeichert werden, Auftrag wird wiederholt.",
+                       auftrag.getId(), ex );
+            statusZuruecksetzen( auftrag.getId() );
+            return;
+        }
+
+        LOG.info( "{}", auftrag );
+
+        if ( auftrag.getStatus().istEndzustand() ) {
+
+            try {
+
+                Files.deleteIfExists( datei );
+            }
+            catch ( IOException ex ) {
+
+                LOG.warn( "Datei {} im Staging-Verzeichnis konnte nicht gelöscht werden.", datei, ex );
+            }
+        }
+    }
+
+
+    /**
+     * Auftrag von {@code IN_ARBEIT} wieder auf {@code WARTEND} setzen, nachdem das
+     * Ergebnis nicht gespeichert werden konnte. Scheitert auch das, dann wird der Auftrag
+     * beim nächsten Start der Anwendung zurückgesetzt.
+     *
+     * @param id ID des Auftrags
+     */
+    private void statusZuruecksetzen( String id ) {
+
+        try {
+
+            _auftragRepo.statusAendern( id, IN_ARBEIT, WARTEND, now() );
+        }
+        catch ( RuntimeException ex ) {
+
+            LOG.error( "Upload-Auftrag {} konnte nicht auf WARTEND zurückgesetzt werden.", id, ex );
+        }
+    }
+
+
+    /**
+     * Pfad der Datei eines Auftrags im Staging-Verzeichnis.
+     *
+     * @param id ID des Auftrags
+     *
+     * @return Pfad der Datei
+     */
+    private Path stagingDatei( String id ) {
+
+        return _stagingVerzeichnis.resolve( id );
+    }
+
+}
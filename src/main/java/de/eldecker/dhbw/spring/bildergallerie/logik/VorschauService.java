@@ -0,0 +1,549 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import static java.awt.RenderingHints.KEY_INTERPOLATION;
+import static java.awt.RenderingHints.KEY_RENDERING;
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+import static java.awt.RenderingHints.VALUE_RENDER_QUALITY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
+import de.eldecker.dhbw.spring.bildergallerie.speicher.BildSpeicher;
+
+import jakarta.annotation.PreDestroy;
+
+
+/**
+ * Service für Vorschaubilder ("Thumbnails") in mehreren Breiten und für Standbilder
+ * ("Poster") von animierten GIFs.
+ * <br><br>
+ *
+ * Die Vorschaubilder werden nach dem Upload eines Bildes im Hintergrund erzeugt und
+ * im {@link BildSpeicher} unter dem Schlüssel des Originals mit Suffix abgelegt,
+ * z.B. {@code 158ef3b2b0d2392bd7552cd773323c27_t320} für Breite 320 Pixel.
+ * Fehlt ein Vorschaubild bei einer Anfrage (z.B. für Bilder, die vor Einführung der
+ * Vorschaubilder hochgeladen wurden, oder weil die Warteschlange voll war), dann
+ * wird es sofort erzeugt.
+ * <br><br>
+ *
+ * Für die Erzeugung im Hintergrund wird ein Thread-Pool mit fester Größe und
+ * begrenzter Warteschlange verwendet; Aufträge, die nicht mehr in die Warteschlange
+ * passen, werden verworfen. Es wird bewusst keine {@code Executor}-Bean definiert,
+ * weil Spring Boot sonst seinen eigenen Executor (wird u.a. für
+ * {@code StreamingResponseBody} verwendet) nicht mehr anlegt.
+ * <br><br>
+ *
+ * Für SVG-Bilder werden keine Vorschaubilder erzeugt, da Vektorgrafiken ohnehin
+ * beliebig skaliert werden können; es wird stattdessen das Original ausgeliefert.
+ * <br><br>
+ *
+ * Für GIF-Bilder wird zusätzlich ein Poster in Originalgröße unter dem Schlüssel mit
+ * Suffix {@code _poster} abgelegt: Das ist das erste Frame als PNG, damit in Listen
+ * und Vorschauen nicht die (oft mehrere MB große) Animation geladen werden muss.
+ * Auch die Vorschaubilder von GIFs zeigen nur das erste Frame.
+ * <br><br>
+ *
+ * Damit Bilder mit (angeblich) riesigen Abmessungen nicht den Heap sprengen, wird vor
+ * dem Dekodieren geprüft, wie viele Pixel nach dem Subsampling im Speicher gehalten
+ * werden müssten; liegt das über {@code bildergallerie.vorschau.max-pixel}, dann wird
+ * keine Variante erzeugt, sondern das Original ausgeliefert. Das betrifft vor allem
+ * Poster, die in Originalgröße (also ohne Subsampling) dekodiert werden.
+ */
+@Service
+public class VorschauService {
+
+    private final static Logger LOG = LoggerFactory.getLogger( VorschauService.class );
+
+    /** MIME-Typ von SVG-Bildern, für die keine Vorschaubilder erzeugt werden. */
+    private static final String MIME_TYP_SVG = "image/svg+xml";
+
+    /** MIME-Typ von GIF-Bildern, für die ein Poster erzeugt wird. */
+    private static final String MIME_TYP_GIF = "image/gif";
+
+    /** Suffix für Speicherschlüssel des Posters. */
+    private static final String SUFFIX_POSTER = "_poster";
+
+    /** Qualität (0 bis 1) für Vorschaubilder im JPEG-Format. */
+    private static final float JPEG_QUALITAET = 0.8f;
+
+
+    /**
+     * Vorschaubild bzw. Original, das anstelle des Vorschaubilds ausgeliefert wird.
+     *
+     * @param speicherSchluessel Schlüssel der Binärdaten im {@link BildSpeicher}
+     *
+     * @param mimeTyp MIME-Typ der Binärdaten, z.B. {@code image/jpeg}
+     *
+     * @param ersatz {@code true}, wenn die Variante nicht erzeugt werden konnte und
+     *               deshalb das Original geliefert wird; bei einem späteren Aufruf kann
+     *               das Ergebnis anders sein (z.B. nach Änderung der Konfiguration)
+     */
+    public record Vorschau( String speicherSchluessel, String mimeTyp, boolean ersatz ) {}
+
+
+    /** Speicher für die Binärdaten der Bilder und Vorschaubilder. */
+    private final BildSpeicher _bildSpeicher;
+
+    /** Erlaubte Breiten der Vorschaubilder in Pixel, aufsteigend sortiert. */
+    private final List<Integer> _breiten;
+
+    /** Maximale Anzahl Pixel eines dekodierten Bildes (nach Subsampling). */
+    private final long _maxPixel;
+
+    /** Thread-Pool für die Erzeugung der Vorschaubilder im Hintergrund. */
+    private final ThreadPoolExecutor _executor;
+
+    /**
+     * Sperrobjekte pro Speicherschlüssel, damit ein Vorschaubild nicht gleichzeitig
+     * im Hintergrund und für eine Anfrage erzeugt wird.
+     */
+    private final Map<String, Object> _sperren = new ConcurrentHashMap<>();
+
+
+    /**
+     * Konstruktor für Dependency Injection.
+     *
+     * @param breiten Breiten der Vorschaubilder aus Konfiguration
+     *                {@code bildergallerie.vorschau.breiten}
+     *
+     * @param anzahlThreads Größe des Thread-Pools aus Konfiguration
+     *                      {@code bildergallerie.vorschau.threads}
+     *
+     * @param warteschlangenGroesse Maximale Anzahl wartender Aufträge aus Konfiguration
+     *                              {@code bildergallerie.vorschau.warteschlange}
+     *
+     * @param maxPixel Maximale Anzahl Pixel eines dekodierten Bildes aus Konfiguration
+     *                 {@code bildergallerie.vorschau.max-pixel}
+     */
+    @Autowired
+    public VorschauService( BildSpeicher bildSpeicher,
+                            @Value( "${bildergallerie.vorschau.breiten}"       ) List<Integer> breiten,
+                            @Value( "${bildergallerie.vorschau.threads}"       ) int           anzahlThreads,
+                            @Value( "${bildergallerie.vorschau.warteschlange}" ) int           warteschlangenGroesse,
+                            @Value( "${bildergallerie.vorschau.max-pixel}"     ) long          maxPixel ) {
+
+        _bildSpeicher = bildSpeicher;
+        _breiten      = breiten.stream().sorted().distinct().toList();
+        _maxPixel     = maxPixel;
+
+        final AtomicInteger threadZaehler = new AtomicInteger();
+        _executor = new ThreadPoolExecutor( anzahlThreads, anzahlThreads,
+                                            0, TimeUnit.SECONDS,
+                                            new ArrayBlockingQueue<>( warteschlangenGroesse ),
+                                            runnable -> {
+                                                final Thread thread = new Thread( runnable, "vorschau-" + threadZaehler.incrementAndGet() );
+                                                thread.setDaemon( true );
+                                                return thread;
+                                            },
+                                            ( runnable, executor ) ->
+                                                LOG.warn( "Warteschlange für Vorschaubilder ist voll, Auftrag wird verworfen." ) );
+
+        LOG.info( "Vorschaubilder mit Breiten {} werden mit {} Threads erzeugt.", _breiten, anzahlThreads );
+    }
+
+
+    /**
+     * Thread-Pool beim Herunterfahren der Anwendung beenden; noch wartende Aufträge
+     * werden verworfen.
+     */
+    @PreDestroy
+    public void herunterfahren() {
+
+        _executor.shutdownNow();
+    }
+
+
+    /**
+     * Erlaubte Breiten der Vorschaubilder, z.B. für Attribut {@code srcset} von
+     * {@code <img>}-Elementen.
+     *
+     * @return Unveränderliche Liste der Breiten in Pixel, aufsteigend sortiert
+     */
+    public List<Integer> getBreiten() {
+
+        return _breiten;
+    }
+
+
+    /**
+     * Überprüfen, ob für {@code breite} Vorschaubilder erzeugt werden; nur für die
+     * konfigurierten Breiten, damit nicht beliebig viele Varianten angefordert
+     * werden können.
+     *
+     * @param breite Angefragte Breite in Pixel
+     *
+     * @return {@code true} gdw. {@code breite} konfiguriert ist
+     */
+    public boolean istErlaubteBreite( int breite ) {
+
+        return _breiten.contains( breite );
+    }
+
+
+    /**
+     * Erzeugung aller Vorschaubilder (und ggf. des Posters) für {@code bild} im
+     * Hintergrund beauftragen; die Methode kehrt sofort zurück.
+     *
+     * @param bild Gerade hochgeladenes Bild
+     */
+    public void vorschauenErzeugenAsync( BildEntity bild ) {
+
+        if ( MIME_TYP_SVG.equals( bild.getMimeTyp() ) ) {
+
+            return;
+        }
+
+        _executor.execute( () -> {
+
+            if ( MIME_TYP_GIF.equals( bild.getMimeTyp() ) ) {
+
+                try {
+
+                    posterHolen( bild );
+                }
+                catch ( IOException | RuntimeException ex ) {
+
+                    LOG.error( "Poster für Bild mit ID={} konnte nicht erzeugt werden.", bild.getId(), ex );
+                }
+            }
+
+            for ( int breite : _breiten ) {
+
+                try {
+
+                    vorschauHolen( bild, breite );
+                }
+                catch ( IOException | RuntimeException ex ) {
+
+                    LOG.error( "Vorschaubild mit Breite {} für Bild mit ID={} konnte nicht erzeugt werden.",
+                               breite, bild.getId(), ex );
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Vorschaubild für Auslieferung bestimmen; wenn es noch nicht existiert, dann wird
+     * es sofort erzeugt. Für SVG-Bilder und für Bilder, die nicht dekodiert werden
+     * können, wird stattdessen das Original zurückgegeben.
+     *
+     * @param bild Bild, für das das Vorschaubild benötigt wird
+     *
+     * @param breite Breite des Vorschaubilds, muss eine der konfigurierten Breiten sein
+     *               (siehe {@link #istErlaubteBreite(int)})
+     *
+     * @return Schlüssel und MIME-Typ des auszuliefernden Vorschaubilds
+     *
+     * @throws IOException Fehler beim Zugriff auf den Bildspeicher
+     */
+    public Vorschau vorschauHolen( BildEntity bild, int breite ) throws IOException {
+
+        if ( MIME_TYP_SVG.equals( bild.getMimeTyp() ) ) {
+
+            return new Vorschau( bild.getSpeicherSchluessel(), bild.getMimeTyp(), false );
+        }
+
+        return varianteHolen( bild, "_t" + breite, breite, mimeTypFuerVorschau( bild ) );
+    }
+
+
+    /**
+     * Poster (erstes Frame als PNG in Originalgröße) eines GIF-Bildes für Auslieferung
+     * bestimmen; wenn es noch nicht existiert, dann wird es sofort erzeugt. Für Bilder,
+     * die keine GIFs sind oder nicht dekodiert werden können, wird das Original
+     * zurückgegeben.
+     *
+     * @param bild Bild, für das das Poster benötigt wird
+     *
+     * @return Schlüssel und MIME-Typ des auszuliefernden Posters
+     *
+     * @throws IOException Fehler beim Zugriff auf den Bildspeicher
+     */
+    public Vorschau posterHolen( BildEntity bild ) throws IOException {
+
+        if ( !MIME_TYP_GIF.equals( bild.getMimeTyp() ) ) {
+
+            return new Vorschau( bild.getSpeicherSchluessel(), bild.getMimeTyp(), false );
+        }
+
+        return varianteHolen( bild, SUFFIX_POSTER, 0, "image/png" );
+    }
+
+
+    /**
+     * Variante (Vorschaubild oder Poster) aus Bildspeicher holen bzw. erzeugen, wenn
+     * sie noch nicht existiert.
+     *
+     * @param bild Original
+     *
+     * @param suffix Suffix, das an den Speicherschlüssel des Originals angehängt wird
+     *
+     * @param breite Zielbreite in Pixel; {@code 0} für Originalgröße
+     *
+     * @param mimeTyp Format der Variante ("image/jpeg" oder "image/png")
+     *
+     * @return Schlüssel und MIME-Typ der Variante; Original (als Ersatz markiert), wenn
+     *         es nicht dekodiert werden kann
+     *
+     * @throws IOException Fehler beim Zugriff auf den Bildspeicher
+     */
+    private Vorschau varianteHolen( BildEntity bild, String suffix, int breite, String mimeTyp ) throws IOException {
+
+        final String   originalSchluessel = bild.getSpeicherSchluessel();
+        final Vorschau original           = new Vorschau( originalSchluessel, bild.getMimeTyp(), true );
+
+        final String   schluessel = originalSchluessel + suffix;
+        final Vorschau vorschau   = new Vorschau( schluessel, mimeTyp, false );
+
+        if ( _bildSpeicher.existiert( schluessel ) ) {
+
+            return vorschau;
+        }
+
+        final Object sperre = _sperren.computeIfAbsent( schluessel, s -> new Object() );
+        try {
+
+            synchronized ( sperre ) {
+
+                if ( _bildSpeicher.existiert( schluessel ) ) { // wurde parallel erzeugt
+
+                    return vorschau;
+                }
+
+                final Optional<byte[]> bytesOptional = erzeugen( originalSchluessel, breite, vorschau.mimeTyp() );
+                if ( bytesOptional.isEmpty() ) {
+
+                    LOG.warn( "Bild mit ID={} konnte nicht dekodiert werden, liefere Original statt Variante {} aus.",
+                              bild.getId(), suffix );
+                    return original;
+                }
+
+                _bildSpeicher.speichern( schluessel, new ByteArrayInputStream( bytesOptional.get() ) );
+
+                LOG.info( "Variante {} für Bild mit ID={} erzeugt ({} Bytes).",
+                          suffix, bild.getId(), bytesOptional.get().length );
+
+                return vorschau;
+            }
+        }
+        finally {
+
+            _sperren.remove( schluessel );
+        }
+    }
+
+
+    /**
+     * Vorschaubild bzw. Poster aus Original erzeugen. Große Bilder werden schon beim
+     * Dekodieren mit Subsampling verkleinert, so dass nicht das ganze Bild in voller
+     * Auflösung im Speicher gehalten werden muss. Bilder werden nicht vergrößert.
+     * <br><br>
+     *
+     * Es wird immer nur das erste Frame dekodiert; da der {@code ImageReader} den
+     * Stream nur vorwärts liest ("seekForwardOnly"), werden bei animierten GIFs die
+     * weiteren Frames weder gelesen noch gepuffert.
+     *
+     * @param originalSchluessel Schlüssel des Originals im Bildspeicher
+     *
+     * @param breite Zielbreite in Pixel; {@code 0} für Originalgröße (Poster)
+     *
+     * @param mimeTyp Format des Vorschaubilds ("image/jpeg" oder "image/png")
+     *
+     * @return Binärdaten des Vorschaubilds; leeres Optional, wenn für das Original
+     *         kein {@code ImageReader} vorhanden ist, es nicht dekodiert werden kann
+     *         oder dekodiert mehr als {@code bildergallerie.vorschau.max-pixel} Pixel
+     *         hätte
+     *
+     * @throws IOException Fehler beim Lesen des Originals aus dem Bildspeicher
+     */
+    private Optional<byte[]> erzeugen( String originalSchluessel, int breite, String mimeTyp ) throws IOException {
+
+        final BufferedImage dekodiert;
+        try ( InputStream      inputStream      = _bildSpeicher.oeffnen( originalSchluessel );
+              ImageInputStream imageInputStream = ImageIO.createImageInputStream( inputStream ) ) {
+
+            final Iterator<ImageReader> readerIterator = ImageIO.getImageReaders( imageInputStream );
+            if ( !readerIterator.hasNext() ) {
+
+                return Optional.empty();
+            }
+
+            final ImageReader reader = readerIterator.next();
+            try {
+
+                reader.setInput( imageInputStream, true, true );
+
+                final int originalBreite = reader.getWidth( 0 );
+                final int originalHoehe  = reader.getHeight( 0 );
+
+                final ImageReadParam param = reader.getDefaultReadParam();
+                // Subsampling nur bis doppelte Zielbreite, Rest wird beim Skalieren geglättet
+                final int faktor = Math.max( 1, breite > 0 ? originalBreite / ( 2 * breite ) : 1 );
+                if ( faktor > 1 ) {
+
+                    param.setSourceSubsampling( faktor, faktor, 0, 0 );
+                }
+
+                final long anzahlPixel = (long) ( ( originalBreite + faktor - 1 ) / faktor )
+                                              * ( ( originalHoehe  + faktor - 1 ) / faktor );
+                if ( anzahlPixel > _maxPixel ) {
+
+                    LOG.warn( "Bild mit Schlüssel {} hat {}x{} Pixel, zu groß für Dekodieren mit Faktor {}.",
+                              originalSchluessel, originalBreite, originalHoehe, faktor );
+                    return Optional.empty();
+                }
+
+                dekodiert = reader.read( 0, param );
+            }
+            catch ( IIOException | RuntimeException ex ) {
+
+                // RuntimeException: manche Decoder werfen z.B. IllegalArgumentException bei defekten Dateien
+                LOG.warn( "Fehler beim Dekodieren von Bild mit Schlüssel {}: {}", originalSchluessel, ex.getMessage() );
+                return Optional.empty();
+            }
+            finally {
+
+                reader.dispose();
+            }
+        }
+
+        final boolean istJpeg = "image/jpeg".equals( mimeTyp );
+
+        // Poster unverändert (bei GIF mit Farbpalette, ergibt kompaktes PNG)
+        final BufferedImage skaliert = breite > 0
+                                       ? skalieren( dekodiert, breite, istJpeg ? TYPE_INT_RGB : TYPE_INT_ARGB )
+                                       : dekodiert;
+
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        if ( istJpeg ) {
+
+            jpegSchreiben( skaliert, byteArrayOutputStream );
+
+        } else {
+
+            ImageIO.write( skaliert, "png", byteArrayOutputStream );
+        }
+
+        return Optional.of( byteArrayOutputStream.toByteArray() );
+    }
+
+
+    /**
+     * Bild auf Zielbreite verkleinern; bei großen Faktoren wird in mehreren Schritten
+     * halbiert, weil bilineare Interpolation in einem Schritt zu Treppeneffekten führt.
+     *
+     * @param bild Dekodiertes Bild
+     *
+     * @param breite Zielbreite in Pixel; ist das Bild schmaler, dann wird es nicht
+     *               vergrößert
+     *
+     * @param bildTyp Typ des Ergebnisbilds, {@code TYPE_INT_RGB} oder {@code TYPE_INT_ARGB}
+     *
+     * @return Verkleinertes Bild
+     */
+    private static BufferedImage skalieren( BufferedImage bild, int breite, int bildTyp ) {
+
+        final int zielBreite = Math.min( breite, bild.getWidth() );
+        final int zielHoehe  = Math.max( 1, (int) Math.round( (double) bild.getHeight() * zielBreite / bild.getWidth() ) );
+
+        BufferedImage aktuell = bild;
+        do {
+
+            final int schrittBreite = Math.max( zielBreite, aktuell.getWidth()  / 2 );
+            final int schrittHoehe  = Math.max( zielHoehe , aktuell.getHeight() / 2 );
+
+            final BufferedImage schritt = new BufferedImage( schrittBreite, schrittHoehe, bildTyp );
+            final Graphics2D    g2d     = schritt.createGraphics();
+            try {
+
+                g2d.setRenderingHint( KEY_INTERPOLATION, VALUE_INTERPOLATION_BILINEAR );
+                g2d.setRenderingHint( KEY_RENDERING    , VALUE_RENDER_QUALITY         );
+                if ( bildTyp == TYPE_INT_RGB ) {
+
+                    g2d.setColor( Color.WHITE ); // für JPEG ohne Transparenz
+                    g2d.fillRect( 0, 0, schrittBreite, schrittHoehe );
+                }
+                g2d.drawImage( aktuell, 0, 0, schrittBreite, schrittHoehe, null );
+            }
+            finally {
+
+                g2d.dispose();
+            }
+            aktuell = schritt;
+
+        } while ( aktuell.getWidth() != zielBreite || aktuell.getHeight() != zielHoehe );
+
+        return aktuell;
+    }
+
+
+    /**
+     * Bild im JPEG-Format mit Qualität {@link #JPEG_QUALITAET} schreiben.
+     */
+    private static void jpegSchreiben( BufferedImage bild, ByteArrayOutputStream ziel ) throws IOException {
+
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName( "jpeg" ).next();
+        try ( ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream( ziel ) ) {
+
+            final ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode( ImageWriteParam.MODE_EXPLICIT );
+            param.setCompressionQuality( JPEG_QUALITAET );
+
+            writer.setOutput( imageOutputStream );
+            writer.write( null, new IIOImage( bild, null, null ), param );
+        }
+        finally {
+
+            writer.dispose();
+        }
+    }
+
+
+    /**
+     * Format der Vorschaubilder: JPEG bleibt JPEG, alle anderen Bilder (PNG und
+     * erstes Frame von GIF) werden wegen möglicher Transparenz als PNG gespeichert.
+     *
+     * @param bild Original
+     *
+     * @return MIME-Typ der Vorschaubilder
+     */
+    private static String mimeTypFuerVorschau( BildEntity bild ) {
+
+        return "image/jpeg".equals( bild.getMimeTyp() ) ? "image/jpeg" : "image/png";
+    }
+
+}
@@ -49,7 +49,8 @@ public class BildSchonVorhandenException extends Exception {
      * Getter für das bereits vorhandene Bild. 
      * 
      * @return Bild mit selbem Hash-Wert, das schon in DB gespeichert
-     *         ist
+     *         ist; {@code null}, wenn das Bild beim Massen-Upload gerade
+     *         von einem anderen Upload gespeichert wird
      */
     public BildEntity getBildEntity() {
         
@@ -0,0 +1,598 @@
+package de.eldecker.dhbw.spring.bildergallerie.speicher;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+
+/**
+ * Cache für die Binärdaten häufig angeforderter Bilder (und Vorschaubilder) im
+ * Hauptspeicher, aber außerhalb des vom Garbage Collector verwalteten Heaps.
+ * <br><br>
+ *
+ * Die Daten liegen in "Direct Buffers", die in großen Blöcken ("Slabs") angelegt und
+ * in Seiten fester Größe aufgeteilt werden; ein Eintrag belegt so viele Seiten wie
+ * nötig. Es gibt deshalb keine Fragmentierung, und der Speicher wird nie an das
+ * Betriebssystem zurückgegeben, sondern nur zwischen Einträgen weitergereicht.
+ * <br><br>
+ *
+ * Als Schlüssel dienen die Speicherschlüssel aus {@link BildSpeicher}; da diese aus dem
+ * Hash-Wert der Bilddaten abgeleitet sind und die Daten unter einem Schlüssel sich nie
+ * ändern, müssen Einträge nie invalidiert werden.
+ * <br><br>
+ *
+ * Verdrängt wird der am längsten nicht mehr gelesene Eintrag (LRU). Ein neuer Eintrag
+ * wird aber nur dann aufgenommen, wenn er laut Häufigkeitsschätzung öfter angefragt
+ * wurde als alle Einträge, die für ihn verdrängt werden müssten ("TinyLFU"-Admission);
+ * so verdrängt ein einmal angefordertes großes GIF nicht die beliebten Bilder.
+ * <br><br>
+ *
+ * Einträge, die gerade gelesen werden, sind "gepinnt": sie können zwar aus dem Cache
+ * entfernt werden, ihre Seiten werden aber erst nach dem Lesen wieder freigegeben.
+ * <br><br>
+ *
+ * Mit {@code bildergallerie.cache.groesse=0} wird der Cache abgeschaltet.
+ */
+@Component
+public class BildCache {
+
+    private final static Logger LOG = LoggerFactory.getLogger( BildCache.class );
+
+    /** Anzahl Seiten, die auf einmal als ein Direct Buffer angelegt werden. */
+    private static final int SEITEN_PRO_SLAB = 64;
+
+    /** Größe des Puffers auf dem Heap beim Kopieren in einen {@code OutputStream}. */
+    private static final int KOPIER_PUFFER_GROESSE = 8 * 1024;
+
+
+    /**
+     * Statistik für Actuator-Endpunkt, wird nach JSON serialisiert.
+     */
+    public record Statistik( long treffer,
+                             long fehlschlaege,
+                             long verdraengt,
+                             long abgelehnt,
+                             int  anzahlEintraege,
+                             long bytesBelegt,
+                             long bytesAngelegt,
+                             long bytesBudget ) {}
+
+
+    /**
+     * Eintrag im Cache; alle Felder außer {@link #seiten} und {@link #laenge} dürfen
+     * nur mit Sperre auf den Cache gelesen oder geschrieben werden.
+     */
+    private static final class Eintrag {
+
+        final List<ByteBuffer> seiten;
+        final long             laenge;
+
+        /** Anzahl der Leser, die den Eintrag gerade verwenden. */
+        int pins = 0;
+
+        /** Eintrag wurde verdrängt, Seiten werden nach dem letzten Leser freigegeben. */
+        boolean entfernt = false;
+
+        Eintrag( List<ByteBuffer> seiten, long laenge ) {
+
+            this.seiten = seiten;
+            this.laenge = laenge;
+        }
+    }
+
+
+    /** Größe einer Seite in Bytes. */
+    private final int _seitenGroesse;
+
+    /** Maximale Anzahl Seiten ({@code bildergallerie.cache.groesse} / Seitengröße). */
+    private final int _maxSeiten;
+
+    /** Maximale Größe eines einzelnen Eintrags in Bytes. */
+    private final long _maxEintragGroesse;
+
+    /** Bisher angelegte Seiten (in Slabs). */
+    private int _seitenAngelegt = 0;
+
+    /** Angelegte, aber gerade nicht verwendete Seiten. */
+    private final ArrayDeque<ByteBuffer> _freieSeiten = new ArrayDeque<>();
+
+    /** Einträge in LRU-Reihenfolge (zuletzt gelesener Eintrag am Ende). */
+    private final LinkedHashMap<String, Eintrag> _eintraege = new LinkedHashMap<>( 16, 0.75f, true );
+
+    /** Schlüssel, für die gerade ein Eintrag befüllt wird. */
+    private final Set<String> _inBefuellung = new HashSet<>();
+
+    /** Schätzung der Zugriffshäufigkeit aller angefragten Schlüssel. */
+    private final HaeufigkeitsSkizze _skizze;
+
+    private long _treffer       = 0;
+    private long _fehlschlaege  = 0;
+    private long _verdraengt    = 0;
+    private long _abgelehnt     = 0;
+    private long _seitenBelegt  = 0;
+
+
+    /**
+     * Konstruktor mit Konfigurationswerten.
+     *
+     * @param groesse Budget für den ganzen Cache aus {@code bildergallerie.cache.groesse};
+     *                wird erst bei Bedarf angelegt
+     *
+     * @param seitenGroesse Größe einer Seite aus {@code bildergallerie.cache.seiten-groesse}
+     *
+     * @param maxEintragGroesse Größere Bilder werden nicht gecacht, aus
+     *                          {@code bildergallerie.cache.max-eintrag-groesse}
+     */
+    public BildCache( @Value( "${bildergallerie.cache.groesse}"             ) DataSize groesse,
+                      @Value( "${bildergallerie.cache.seiten-groesse}"      ) DataSize seitenGroesse,
+                      @Value( "${bildergallerie.cache.max-eintrag-groesse}" ) DataSize maxEintragGroesse ) {
+
+        _seitenGroesse     = (int) seitenGroesse.toBytes();
+        _maxSeiten         = (int) ( groesse.toBytes() / _seitenGroesse );
+        _maxEintragGroesse = Math.min( maxEintragGroesse.toBytes(), (long) _maxSeiten * _seitenGroesse );
+        _skizze            = new HaeufigkeitsSkizze( Math.max( 1024, _maxSeiten * 4 ) );
+
+        if ( _maxSeiten == 0 ) {
+
+            LOG.info( "Cache für Bilddaten ist abgeschaltet." );
+
+        } else {
+
+            LOG.info( "Cache für Bilddaten: {} Seiten zu {} Bytes, Einträge bis {} Bytes.",
+                      _maxSeiten, _seitenGroesse, _maxEintragGroesse );
+        }
+    }
+
+
+    /**
+     * Eintrag für Lesen holen und Zugriff für Häufigkeitsschätzung zählen. Der
+     * zurückgegebene Treffer muss mit {@link Treffer#close()} freigegeben werden.
+     *
+     * @param schluessel Speicherschlüssel
+     *
+     * @return Treffer oder leeres Optional, wenn der Schlüssel nicht im Cache ist
+     */
+    public synchronized Optional<Treffer> holen( String schluessel ) {
+
+        if ( _maxSeiten == 0 ) {
+
+            return Optional.empty();
+        }
+
+        _skizze.zaehlen( schluessel );
+
+        final Eintrag eintrag = _eintraege.get( schluessel ); // verschiebt Eintrag ans Ende der LRU-Liste
+        if ( eintrag == null ) {
+
+            _fehlschlaege++;
+            return Optional.empty();
+        }
+
+        _treffer++;
+        eintrag.pins++;
+
+        return Optional.of( new Treffer( eintrag ) );
+    }
+
+
+    /**
+     * Überprüfen, ob ein Eintrag im Cache ist; zählt nicht als Zugriff und ändert
+     * die LRU-Reihenfolge nicht.
+     *
+     * @param schluessel Speicherschlüssel
+     *
+     * @return {@code true} gdw. Eintrag für {@code schluessel} vorhanden ist
+     */
+    public synchronized boolean enthaelt( String schluessel ) {
+
+        return _eintraege.containsKey( schluessel );
+    }
+
+
+    /**
+     * Platz für einen neuen Eintrag reservieren, der dann beim Lesen aus dem
+     * {@link BildSpeicher} befüllt wird. Dafür werden ggf. andere Einträge verdrängt,
+     * aber nur wenn {@code schluessel} häufiger angefragt wurde als jeder von ihnen.
+     *
+     * @param schluessel Speicherschlüssel
+     *
+     * @param laenge Größe der Bilddaten in Bytes
+     *
+     * @return Objekt zum Befüllen oder leeres Optional, wenn der Eintrag nicht
+     *         aufgenommen wird
+     */
+    public synchronized Optional<Befuellung> befuellungStarten( String schluessel, long laenge ) {
+
+        if ( laenge <= 0 || laenge > _maxEintragGroesse ||
+             _eintraege.containsKey( schluessel ) || _inBefuellung.contains( schluessel ) ) {
+
+            return Optional.empty();
+        }
+
+        final int benoetigt = (int) ( ( laenge + _seitenGroesse - 1 ) / _seitenGroesse );
+
+        int verfuegbar = _freieSeiten.size() + ( _maxSeiten - _seitenAngelegt );
+        if ( verfuegbar < benoetigt ) {
+
+            // Opfer in LRU-Reihenfolge bestimmen, aber erst nach Admission-Entscheidung verdrängen
+            // (nicht mit get() zugreifen, das würde die LRU-Reihenfolge während der Iteration ändern)
+            final int                               haeufigkeit = _skizze.schaetzen( schluessel );
+            final List<String>                      opfer       = new ArrayList<>();
+            final Iterator<Map.Entry<String, Eintrag>> iterator = _eintraege.entrySet().iterator();
+            while ( verfuegbar < benoetigt && iterator.hasNext() ) {
+
+                final Map.Entry<String, Eintrag> opferEntry = iterator.next();
+                final String  opferSchluessel = opferEntry.getKey();
+                final Eintrag opferEintrag    = opferEntry.getValue();
+                if ( opferEintrag.pins > 0 ) {
+
+                    continue; // Seiten würden nicht sofort frei
+                }
+                if ( _skizze.schaetzen( opferSchluessel ) >= haeufigkeit ) {
+
+                    _abgelehnt++;
+                    return Optional.empty();
+                }
+                opfer.add( opferSchluessel );
+                verfuegbar += opferEintrag.seiten.size();
+            }
+
+            if ( verfuegbar < benoetigt ) {
+
+                _abgelehnt++;
+                return Optional.empty();
+            }
+
+            for ( String opferSchluessel : opfer ) {
+
+                entfernen( _eintraege.remove( opferSchluessel ) );
+                _verdraengt++;
+            }
+        }
+
+        final List<ByteBuffer> seiten = new ArrayList<>( benoetigt );
+        for ( int i = 0; i < benoetigt; i++ ) {
+
+            seiten.add( seiteHolen() );
+        }
+        _seitenBelegt += benoetigt;
+        _inBefuellung.add( schluessel );
+
+        return Optional.of( new Befuellung( schluessel, laenge, seiten ) );
+    }
+
+
+    /**
+     * Statistik für Monitoring.
+     *
+     * @return Aktuelle Werte
+     */
+    public synchronized Statistik getStatistik() {
+
+        return new Statistik( _treffer, _fehlschlaege, _verdraengt, _abgelehnt,
+                              _eintraege.size(),
+                              _seitenBelegt            * _seitenGroesse,
+                              (long) _seitenAngelegt   * _seitenGroesse,
+                              (long) _maxSeiten        * _seitenGroesse );
+    }
+
+
+    /**
+     * Freie Seite holen, bei Bedarf neuen Slab anlegen; Aufrufer muss vorher
+     * sichergestellt haben, dass noch Seiten verfügbar sind.
+     */
+    private ByteBuffer seiteHolen() {
+
+        if ( _freieSeiten.isEmpty() ) {
+
+            final int anzahl = Math.min( SEITEN_PRO_SLAB, _maxSeiten - _seitenAngelegt );
+            final ByteBuffer slab = ByteBuffer.allocateDirect( anzahl * _seitenGroesse );
+            for ( int i = 0; i < anzahl; i++ ) {
+
+                _freieSeiten.push( slab.slice( i * _seitenGroesse, _seitenGroesse ) );
+            }
+            _seitenAngelegt += anzahl;
+        }
+
+        return _freieSeiten.pop();
+    }
+
+
+    /**
+     * Eintrag als entfernt markieren und Seiten freigeben, wenn er nicht gepinnt ist;
+     * muss mit Sperre aufgerufen werden.
+     */
+    private void entfernen( Eintrag eintrag ) {
+
+        eintrag.entfernt = true;
+        if ( eintrag.pins == 0 ) {
+
+            seitenFreigeben( eintrag.seiten );
+        }
+    }
+
+
+    /**
+     * Seiten in Liste der freien Seiten zurückgeben; muss mit Sperre aufgerufen werden.
+     */
+    private void seitenFreigeben( List<ByteBuffer> seiten ) {
+
+        for ( ByteBuffer seite : seiten ) {
+
+            _freieSeiten.push( seite.clear() );
+        }
+        _seitenBelegt -= seiten.size();
+    }
+
+
+    /**
+     * Ergebnis von {@link BildCache#holen(String)}; der Eintrag bleibt gepinnt, bis
+     * {@link #close()} aufgerufen wird. Darf nur von einem Thread verwendet werden.
+     */
+    public final class Treffer implements AutoCloseable {
+
+        private final Eintrag _eintrag;
+
+        private boolean _geschlossen = false;
+
+        private Treffer( Eintrag eintrag ) {
+
+            _eintrag = eintrag;
+        }
+
+        /**
+         * Größe der Bilddaten.
+         *
+         * @return Anzahl Bytes
+         */
+        public long getLaenge() {
+
+            return _eintrag.laenge;
+        }
+
+        /**
+         * Bereich der Bilddaten in {@code outputStream} schreiben.
+         *
+         * @param outputStream Ziel, z.B. Stream der HTTP-Response
+         *
+         * @param start Index des ersten Bytes
+         *
+         * @param laenge Anzahl der Bytes
+         *
+         * @throws IOException Fehler beim Schreiben
+         */
+        public void schreiben( OutputStream outputStream, long start, long laenge ) throws IOException {
+
+            final byte[] puffer = new byte[ (int) Math.min( KOPIER_PUFFER_GROESSE, Math.max( laenge, 1 ) ) ];
+
+            long position      = start;
+            long nochZuKopieren = laenge;
+            while ( nochZuKopieren > 0 ) {
+
+                final int seitenIndex   = (int) ( position / _seitenGroesse );
+                final int seitenOffset  = (int) ( position % _seitenGroesse );
+                final int anzahl        = (int) Math.min( Math.min( puffer.length, nochZuKopieren ),
+                                                          _seitenGroesse - seitenOffset );
+
+                // absolute get() ändert die Position der Seite nicht, parallele Leser sind also möglich
+                _eintrag.seiten.get( seitenIndex ).get( seitenOffset, puffer, 0, anzahl );
+                outputStream.write( puffer, 0, anzahl );
+
+                position       += anzahl;
+                nochZuKopieren -= anzahl;
+            }
+        }
+
+        /**
+         * Eintrag wieder freigeben ("unpin").
+         */
+        @Override
+        public void close() {
+
+            if ( _geschlossen ) {
+
+                return;
+            }
+            _geschlossen = true;
+
+            synchronized ( BildCache.this ) {
+
+                _eintrag.pins--;
+                if ( _eintrag.pins == 0 && _eintrag.entfernt ) {
+
+                    seitenFreigeben( _eintrag.seiten );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Ergebnis von {@link BildCache#befuellungStarten(String, long)}: Die Bilddaten
+     * werden nacheinander mit {@link #schreiben(byte[], int, int)} übergeben und der
+     * Eintrag dann mit {@link #abschliessen()} veröffentlicht. Bei einem Fehler muss
+     * {@link #abbrechen()} aufgerufen werden. Darf nur von einem Thread verwendet werden.
+     */
+    public final class Befuellung {
+
+        private final String           _schluessel;
+        private final long             _laenge;
+        private final List<ByteBuffer> _seiten;
+
+        private long    _geschrieben = 0;
+        private boolean _beendet     = false;
+
+        private Befuellung( String schluessel, long laenge, List<ByteBuffer> seiten ) {
+
+            _schluessel = schluessel;
+            _laenge     = laenge;
+            _seiten     = seiten;
+        }
+
+        /**
+         * Nächsten Teil der Bilddaten übergeben.
+         *
+         * @param daten Puffer
+         *
+         * @param offset Index des ersten Bytes in {@code daten}
+         *
+         * @param anzahl Anzahl Bytes
+         */
+        public void schreiben( byte[] daten, int offset, int anzahl ) {
+
+            if ( _beendet || _geschrieben + anzahl > _laenge ) {
+
+                abbrechen(); // Bilddaten länger als angekündigt
+                return;
+            }
+
+            while ( anzahl > 0 ) {
+
+                final int seitenIndex  = (int) ( _geschrieben / _seitenGroesse );
+                final int seitenOffset = (int) ( _geschrieben % _seitenGroesse );
+                final int teil         = Math.min( anzahl, _seitenGroesse - seitenOffset );
+
+                _seiten.get( seitenIndex ).put( seitenOffset, daten, offset, teil );
+
+                offset       += teil;
+                anzahl       -= teil;
+                _geschrieben += teil;
+            }
+        }
+
+        /**
+         * Eintrag im Cache veröffentlichen, wenn alle Bytes übergeben wurden;
+         * andernfalls wird die Befüllung abgebrochen.
+         */
+        public void abschliessen() {
+
+            if ( _beendet ) {
+
+                return;
+            }
+            if ( _geschrieben != _laenge ) {
+
+                abbrechen();
+                return;
+            }
+            _beendet = true;
+
+            synchronized ( BildCache.this ) {
+
+                _inBefuellung.remove( _schluessel );
+                _eintraege.put( _schluessel, new Eintrag( _seiten, _laenge ) );
+            }
+        }
+
+        /**
+         * Befüllung abbrechen und reservierte Seiten freigeben.
+         */
+        public void abbrechen() {
+
+            if ( _beendet ) {
+
+                return;
+            }
+            _beendet = true;
+
+            synchronized ( BildCache.this ) {
+
+                _inBefuellung.remove( _schluessel );
+                seitenFreigeben( _seiten );
+            }
+        }
+    }
+
+
+    /**
+     * Count-Min-Sketch mit vier Zeilen und 4-Bit-Zählern (gespeichert als Bytes), mit
+     * dem die Zugriffshäufigkeit aller Schlüssel mit wenig Speicher geschätzt wird.
+     * Nach einer festen Anzahl Zugriffe werden alle Zähler halbiert ("Aging"), damit
+     * früher beliebte Bilder nicht für immer bevorzugt werden.
+     * <br><br>
+     *
+     * Nicht thread-safe, wird nur mit Sperre auf den Cache verwendet.
+     */
+    private static final class HaeufigkeitsSkizze {
+
+        private static final int ZEILEN      = 4;
+        private static final int MAX_ZAEHLER = 15;
+
+        private static final int[] SAATEN = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+
+        private final byte[][] _zaehler;
+        private final int      _maske;
+        private final int      _zugriffeBisAging;
+
+        private int _zugriffe = 0;
+
+        HaeufigkeitsSkizze( int mindestBreite ) {
+
+            final int breite = Integer.highestOneBit( mindestBreite - 1 ) << 1; // nächste Zweierpotenz
+            _zaehler          = new byte[ ZEILEN ][ breite ];
+            _maske            = breite - 1;
+            _zugriffeBisAging = 10 * breite;
+        }
+
+        void zaehlen( String schluessel ) {
+
+            final int hash = schluessel.hashCode();
+            for ( int zeile = 0; zeile < ZEILEN; zeile++ ) {
+
+                final int index = index( hash, zeile );
+                if ( _zaehler[ zeile ][ index ] < MAX_ZAEHLER ) {
+
+                    _zaehler[ zeile ][ index ]++;
+                }
+            }
+
+            if ( ++_zugriffe >= _zugriffeBisAging ) {
+
+                for ( byte[] zeile : _zaehler ) {
+
+                    for ( int i = 0; i < zeile.length; i++ ) {
+
+                        zeile[ i ] >>= 1;
+                    }
+                }
+                _zugriffe /= 2;
+            }
+        }
+
+        int schaetzen( String schluessel ) {
+
+            final int hash = schluessel.hashCode();
+            int minimum = MAX_ZAEHLER;
+            for ( int zeile = 0; zeile < ZEILEN; zeile++ ) {
+
+                minimum = Math.min( minimum, _zaehler[ zeile ][ index( hash, zeile ) ] );
+            }
+
+            return minimum;
+        }
+
+        private int index( int hash, int zeile ) {
+
+            int h = hash * SAATEN[ zeile ];
+            h ^= h >>> 16;
+
+            return h & _maske;
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+package de.eldecker.dhbw.spring.bildergallerie.speicher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+
+/**
+ * Abstraktion für einen Speicher, in dem die Binärdaten der Bilder abgelegt werden.
+ * <br><br>
+ *
+ * Der Speicher ist inhaltsadressiert: Der Schlüssel, unter dem ein Bild abgelegt wird,
+ * wird aus dem Hash-Wert (MD5) des Bildes abgeleitet. Ein und dasselbe Bild wird also
+ * nie zweimal abgespeichert. Der von {@link #speichern(String, InputStream)} zurückgegebene
+ * Schlüssel wird in der Entity {@code BildEntity} persistiert.
+ */
+public interface BildSpeicher {
+
+    /**
+     * Bilddaten im Speicher ablegen. Wenn unter dem aus {@code hash} abgeleiteten
+     * Schlüssel schon Daten abgelegt sind, dann werden diese nicht überschrieben.
+     *
+     * @param hash Hash-Wert (MD5) der Bilddaten als Hex-String
+     *
+     * @param daten Stream mit den Binärdaten des Bildes; wird von dieser Methode
+     *              nicht geschlossen
+     *
+     * @return Schlüssel, unter dem die Bilddaten abgelegt wurden
+     *
+     * @throws IOException Fehler beim Schreiben der Bilddaten
+     */
+    String speichern( String hash, InputStream daten ) throws IOException;
+
+
+    /**
+     * Bilddaten aus einer (temporären) Datei im Speicher ablegen. Die Datei darf von
+     * der Implementierung verschoben werden, der Aufrufer muss sie also danach ggf.
+     * mit {@code Files.deleteIfExists()} löschen.
+     * <br><br>
+     *
+     * Die Default-Implementierung liest die Datei als Stream und ruft
+     * {@link #speichern(String, InputStream)} auf.
+     *
+     * @param hash Hash-Wert (MD5) der Bilddaten als Hex-String
+     *
+     * @param datei Datei mit den Binärdaten des Bildes
+     *
+     * @return Schlüssel, unter dem die Bilddaten abgelegt wurden
+     *
+     * @throws IOException Fehler beim Lesen der Datei oder beim Schreiben der Bilddaten
+     */
+    default String speichern( String hash, Path datei ) throws IOException {
+
+        try ( InputStream inputStream = Files.newInputStream( datei ) ) {
+
+            return speichern( hash, inputStream );
+        }
+    }
+
+
+    /**
+     * Stream zum Lesen der Bilddaten öffnen; der Aufrufer muss den Stream schließen.
+     *
+     * @param schluessel Schlüssel, der von {@link #speichern(String, InputStream)}
+     *                   zurückgegeben wurde
+     *
+     * @return Stream mit den Binärdaten des Bildes
+     *
+     * @throws IOException Keine Bilddaten unter {@code schluessel} vorhanden oder
+     *                     Fehler beim Öffnen
+     */
+    InputStream oeffnen( String schluessel ) throws IOException;
+
+
+    /**
+     * Stream zum Lesen der Bilddaten ab Byte-Position {@code position} öffnen; wird für
+     * HTTP-Range-Requests benötigt. Der Aufrufer muss den Stream schließen.
+     * <br><br>
+     *
+     * Die Default-Implementierung überspringt die Bytes vor {@code position};
+     * Implementierungen, die direkt an eine Position springen können, sollten
+     * diese Methode überschreiben.
+     *
+     * @param schluessel Schlüssel der Bilddaten
+     *
+     * @param position Index des ersten zu lesenden Bytes (0-basiert)
+     *
+     * @return Stream mit den Binärdaten des Bildes ab {@code position}
+     *
+     * @throws IOException Keine Bilddaten unter {@code schluessel} vorhanden oder
+     *                     Fehler beim Öffnen
+     */
+    default InputStream oeffnen( String schluessel, long position ) throws IOException {
+
+        final InputStream inputStream = oeffnen( schluessel );
+        try {
+
+            inputStream.skipNBytes( position );
+            return inputStream;
+        }
+        catch ( IOException ex ) {
+
+            inputStream.close();
+            throw ex;
+        }
+    }
+
+
+    /**
+     * Größe der unter {@code schluessel} abgelegten Bilddaten abfragen.
+     *
+     * @param schluessel Schlüssel der Bilddaten
+     *
+     * @return Anzahl Bytes
+     *
+     * @throws IOException Keine Bilddaten unter {@code schluessel} vorhanden
+     */
+    long groesse( String schluessel ) throws IOException;
+
+
+    /**
+     * Prüfen, ob unter {@code schluessel} Bilddaten abgelegt sind.
+     *
+     * @param schluessel Schlüssel der Bilddaten
+     *
+     * @return {@code true} gdw. Bilddaten vorhanden sind
+     */
+    boolean existiert( String schluessel );
+
+}
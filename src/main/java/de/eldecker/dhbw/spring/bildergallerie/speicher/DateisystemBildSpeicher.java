@@ -0,0 +1,233 @@
+package de.eldecker.dhbw.spring.bildergallerie.speicher;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * Implementierung von {@link BildSpeicher}, die die Bilddaten als Dateien im
+ * Dateisystem ablegt.
+ * <br><br>
+ *
+ * Damit nicht alle Dateien in einem einzigen Verzeichnis landen, werden die ersten
+ * beiden Zeichenpaare des Schlüssels als Verzeichnisnamen verwendet ("Sharding").
+ * Beispiel: Der Schlüssel {@code 158ef3b2b0d2392bd7552cd773323c27} wird unter
+ * {@code <basisverzeichnis>/15/8e/158ef3b2b0d2392bd7552cd773323c27} abgelegt.
+ * <br><br>
+ *
+ * Neue Dateien werden zunächst in das Unterverzeichnis {@code tmp} geschrieben und erst
+ * nach vollständigem Schreiben an ihren endgültigen Ort verschoben, damit nie eine
+ * halb geschriebene Datei unter einem Schlüssel zu finden ist.
+ * <br><br>
+ *
+ * Diese Implementierung wird verwendet, wenn {@code bildergallerie.speicher.typ} nicht
+ * gesetzt ist oder den Wert {@code dateisystem} hat.
+ */
+@Component
+@ConditionalOnProperty( name = "bildergallerie.speicher.typ", havingValue = "dateisystem", matchIfMissing = true )
+public class DateisystemBildSpeicher implements BildSpeicher {
+
+    private final static Logger LOG = LoggerFactory.getLogger( DateisystemBildSpeicher.class );
+
+    /**
+     * Erlaubte Zeichen für Schlüssel; verhindert insbesondere, dass mit einem
+     * Schlüssel wie {@code ../../etc} aus dem Basisverzeichnis ausgebrochen wird.
+     */
+    private static final Pattern SCHLUESSEL_REGEXP = Pattern.compile( "[0-9a-zA-Z_-]{4,}" );
+
+    /** Wurzelverzeichnis des Speichers. */
+    private final Path _basisVerzeichnis;
+
+    /** Verzeichnis für noch nicht vollständig geschriebene Dateien. */
+    private final Path _tmpVerzeichnis;
+
+
+    /**
+     * Konstruktor, legt bei Bedarf das Basisverzeichnis an.
+     *
+     * @param verzeichnis Pfad des Basisverzeichnisses aus Konfiguration
+     *                    {@code bildergallerie.speicher.verzeichnis}
+     *
+     * @throws IOException Verzeichnis konnte nicht angelegt werden
+     */
+    public DateisystemBildSpeicher( @Value( "${bildergallerie.speicher.verzeichnis}" ) String verzeichnis )
+            throws IOException {
+
+        _basisVerzeichnis = Path.of( verzeichnis ).toAbsolutePath().normalize();
+        _tmpVerzeichnis   = _basisVerzeichnis.resolve( "tmp" );
+
+        Files.createDirectories( _tmpVerzeichnis );
+
+        LOG.info( "Bilddaten werden im Verzeichnis \"{}\" abgelegt.", _basisVerzeichnis );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String speichern( String hash, InputStream daten ) throws IOException {
+
+        final String schluessel = hash.toLowerCase();
+        final Path   zielPfad   = pfadFuerSchluessel( schluessel );
+
+        if ( Files.exists( zielPfad ) ) {
+
+            LOG.debug( "Bilddaten mit Schlüssel {} schon vorhanden.", schluessel );
+            return schluessel;
+        }
+
+        final Path tmpDatei = Files.createTempFile( _tmpVerzeichnis, schluessel, ".tmp" );
+        try {
+
+            Files.copy( daten, tmpDatei, REPLACE_EXISTING );
+
+            Files.createDirectories( zielPfad.getParent() );
+            Files.move( tmpDatei, zielPfad, ATOMIC_MOVE );
+        }
+        catch ( FileAlreadyExistsException ex ) {
+
+            LOG.debug( "Bilddaten mit Schlüssel {} wurden parallel abgelegt.", schluessel );
+        }
+        finally {
+
+            Files.deleteIfExists( tmpDatei );
+        }
+
+        return schluessel;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br><br>
+     *
+     * Die Datei wird nicht kopiert, sondern verschoben; liegt sie auf demselben
+     * Dateisystem wie der Speicher, dann werden die Bilddaten also nicht noch
+     * einmal geschrieben.
+     */
+    @Override
+    public String speichern( String hash, Path datei ) throws IOException {
+
+        final String schluessel = hash.toLowerCase();
+        final Path   zielPfad   = pfadFuerSchluessel( schluessel );
+
+        if ( Files.exists( zielPfad ) ) {
+
+            LOG.debug( "Bilddaten mit Schlüssel {} schon vorhanden.", schluessel );
+            return schluessel;
+        }
+
+        // erst ins tmp-Verzeichnis (ggf. Kopie über Dateisystemgrenze), dann atomar an Zielort
+        final Path tmpDatei = Files.createTempFile( _tmpVerzeichnis, schluessel, ".tmp" );
+        try {
+
+            Files.move( datei, tmpDatei, REPLACE_EXISTING );
+
+            Files.createDirectories( zielPfad.getParent() );
+            Files.move( tmpDatei, zielPfad, ATOMIC_MOVE );
+        }
+        catch ( FileAlreadyExistsException ex ) {
+
+            LOG.debug( "Bilddaten mit Schlüssel {} wurden parallel abgelegt.", schluessel );
+        }
+        finally {
+
+            Files.deleteIfExists( tmpDatei );
+        }
+
+        return schluessel;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream oeffnen( String schluessel ) throws IOException {
+
+        return Files.newInputStream( pfadFuerSchluessel( schluessel ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br><br>
+     *
+     * Es wird direkt an die Position in der Datei gesprungen, die Bytes davor
+     * werden also nicht gelesen.
+     */
+    @Override
+    public InputStream oeffnen( String schluessel, long position ) throws IOException {
+
+        final SeekableByteChannel kanal = Files.newByteChannel( pfadFuerSchluessel( schluessel ) );
+        try {
+
+            kanal.position( position );
+            return Channels.newInputStream( kanal );
+        }
+        catch ( IOException ex ) {
+
+            kanal.close();
+            throw ex;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long groesse( String schluessel ) throws IOException {
+
+        return Files.size( pfadFuerSchluessel( schluessel ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean existiert( String schluessel ) {
+
+        return Files.isRegularFile( pfadFuerSchluessel( schluessel ) );
+    }
+
+
+    /**
+     * Pfad der Datei für {@code schluessel} bestimmen.
+     *
+     * @param schluessel Schlüssel der Bilddaten
+     *
+     * @return Pfad der Datei (muss nicht existieren)
+     *
+     * @throws IllegalArgumentException Schlüssel enthält unerlaubte Zeichen oder ist zu kurz
+     */
+    private Path pfadFuerSchluessel( String schluessel ) {
+
+        if ( schluessel == null || !SCHLUESSEL_REGEXP.matcher( schluessel ).matches() ) {
+
+            throw new IllegalArgumentException( "Ungültiger Schlüssel für Bildspeicher: " + schluessel );
+        }
+
+        return _basisVerzeichnis.resolve( schluessel.substring( 0, 2 ) )
+                                .resolve( schluessel.substring( 2, 4 ) )
+                                .resolve( schluessel );
+    }
+
+}
@@ -0,0 +1,278 @@
+package de.eldecker.dhbw.spring.bildergallerie.speicher;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Blob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.hibernate.engine.jdbc.BlobProxy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.BildDatenRepository;
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildDatenEntity;
+
+
+/**
+ * Implementierung von {@link BildSpeicher}, die die Bilddaten als BLOB in der eigenen
+ * Tabelle {@code BILD_DATEN} ablegt (siehe {@link BildDatenEntity}).
+ * <br><br>
+ *
+ * Diese Implementierung wird mit {@code bildergallerie.speicher.typ=datenbank}
+ * ausgewählt; so kann die Anwendung auch ohne beschreibbares Dateisystem betrieben
+ * werden (z.B. auf Heroku mit Postgres).
+ * <br><br>
+ *
+ * Geschrieben wird über JPA; gelesen wird direkt über JDBC, weil der zurückgegebene
+ * Stream außerhalb einer von Spring verwalteten Transaktion gelesen wird (z.B. beim
+ * Streamen der HTTP-Response). Der Stream hält deshalb eine eigene DB-Verbindung,
+ * die erst beim Schließen des Streams freigegeben wird.
+ */
+@Component
+@ConditionalOnProperty( name = "bildergallerie.speicher.typ", havingValue = "datenbank" )
+public class DatenbankBildSpeicher implements BildSpeicher {
+
+    private final static Logger LOG = LoggerFactory.getLogger( DatenbankBildSpeicher.class );
+
+    /** SQL-Query zum Lesen der Binärdaten. */
+    private static final String SQL_SELECT_DATEN = "SELECT daten FROM bild_daten WHERE schluessel = ?";
+
+    /** Repo-Bean für Tabelle mit Binärdaten. */
+    private final BildDatenRepository _bildDatenRepo;
+
+    /** Bean für programmatische Transaktionssteuerung beim Schreiben. */
+    private final TransactionTemplate _transactionTemplate;
+
+    /** Connection-Pool für das Lesen der Binärdaten. */
+    private final DataSource _dataSource;
+
+
+    /**
+     * Konstruktor für Dependency Injection.
+     */
+    @Autowired
+    public DatenbankBildSpeicher( BildDatenRepository bildDatenRepo,
+                                  TransactionTemplate transactionTemplate,
+                                  DataSource dataSource ) {
+
+        _bildDatenRepo       = bildDatenRepo;
+        _transactionTemplate = transactionTemplate;
+        _dataSource          = dataSource;
+
+        LOG.info( "Bilddaten werden in Datenbanktabelle BILD_DATEN abgelegt." );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br><br>
+     *
+     * Da für {@code BlobProxy} die Länge der Daten bekannt sein muss, werden die Daten
+     * zunächst in eine temporäre Datei geschrieben (siehe {@link #speichern(String, Path)});
+     * so wird das Bild nicht als Ganzes in den Heap geladen.
+     */
+    @Override
+    public String speichern( String hash, InputStream daten ) throws IOException {
+
+        final String schluessel = hash.toLowerCase();
+
+        if ( _bildDatenRepo.existsById( schluessel ) ) {
+
+            LOG.debug( "Bilddaten mit Schlüssel {} schon vorhanden.", schluessel );
+            return schluessel;
+        }
+
+        final Path tmpDatei = Files.createTempFile( "bilddaten-", ".tmp" );
+        try {
+
+            Files.copy( daten, tmpDatei, REPLACE_EXISTING );
+
+            return speichern( schluessel, tmpDatei );
+        }
+        finally {
+
+            Files.deleteIfExists( tmpDatei );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br><br>
+     *
+     * Die Datei wird direkt als Quelle für den BLOB verwendet.
+     */
+    @Override
+    public String speichern( String hash, Path datei ) throws IOException {
+
+        final String schluessel = hash.toLowerCase();
+
+        if ( _bildDatenRepo.existsById( schluessel ) ) {
+
+            LOG.debug( "Bilddaten mit Schlüssel {} schon vorhanden.", schluessel );
+            return schluessel;
+        }
+
+        final long anzahlBytes = Files.size( datei );
+
+        try ( InputStream dateiStream = Files.newInputStream( datei ) ) {
+
+            final Blob blob = BlobProxy.generateProxy( dateiStream, anzahlBytes );
+
+            _transactionTemplate.executeWithoutResult(
+                    status -> _bildDatenRepo.save( new BildDatenEntity( schluessel, anzahlBytes, blob ) ) );
+        }
+
+        return schluessel;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream oeffnen( String schluessel ) throws IOException {
+
+        return oeffnen( schluessel, 0 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br><br>
+     *
+     * Es wird mit {@link Blob#getBinaryStream(long, long)} nur der angeforderte
+     * Teil des BLOBs gelesen.
+     */
+    @Override
+    public InputStream oeffnen( String schluessel, long position ) throws IOException {
+
+        Connection        connection = null;
+        PreparedStatement statement  = null;
+        ResultSet         resultSet  = null;
+        try {
+
+            connection = _dataSource.getConnection();
+            connection.setAutoCommit( false ); // für LOB-Zugriff unter Postgres erforderlich
+            connection.setReadOnly( true );
+
+            statement = connection.prepareStatement( SQL_SELECT_DATEN );
+            statement.setString( 1, schluessel );
+            resultSet = statement.executeQuery();
+            if ( !resultSet.next() ) {
+
+                throw new FileNotFoundException( "Keine Bilddaten mit Schlüssel " + schluessel );
+            }
+
+            final Blob blob   = resultSet.getBlob( 1 );
+            final long laenge = blob.length();
+            final InputStream blobStream = position < laenge
+                                           ? blob.getBinaryStream( position + 1, laenge - position )
+                                           : InputStream.nullInputStream();
+
+            return new JdbcInputStream( blobStream, connection, statement, resultSet );
+        }
+        catch ( SQLException | IOException | RuntimeException ex ) {
+
+            schliessen( connection, statement, resultSet );
+            if ( ex instanceof IOException ioEx ) {
+
+                throw ioEx;
+            }
+            throw new IOException( "Fehler beim Lesen von Bilddaten mit Schlüssel " + schluessel, ex );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long groesse( String schluessel ) throws IOException {
+
+        return _bildDatenRepo.findGroesseBytes( schluessel )
+                             .orElseThrow( () -> new FileNotFoundException( "Keine Bilddaten mit Schlüssel " + schluessel ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean existiert( String schluessel ) {
+
+        return _bildDatenRepo.existsById( schluessel );
+    }
+
+
+    /**
+     * JDBC-Ressourcen schließen, Fehler werden nur geloggt.
+     */
+    private static void schliessen( Connection connection, PreparedStatement statement, ResultSet resultSet ) {
+
+        try {
+
+            if ( resultSet  != null ) { resultSet.close();  }
+            if ( statement  != null ) { statement.close();  }
+            if ( connection != null ) {
+
+                connection.rollback(); // es wurde nur gelesen
+                connection.setReadOnly( false );
+                connection.close();
+            }
+        }
+        catch ( SQLException ex ) {
+
+            LOG.warn( "Fehler beim Schließen der DB-Ressourcen für Bilddaten.", ex );
+        }
+    }
+
+
+    /**
+     * Stream auf BLOB, der beim Schließen auch die zugehörigen JDBC-Ressourcen freigibt.
+     */
+    private static class JdbcInputStream extends FilterInputStream {
+
+        private final Connection        _connection;
+        private final PreparedStatement _statement;
+        private final ResultSet         _resultSet;
+
+        JdbcInputStream( InputStream blobStream, Connection connection,
+                         PreparedStatement statement, ResultSet resultSet ) {
+
+            super( blobStream );
+            _connection = connection;
+            _statement  = statement;
+            _resultSet  = resultSet;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            try {
+
+                super.close();
+            }
+            finally {
+
+                schliessen( _connection, _statement, _resultSet );
+            }
+        }
+    }
+
+}
@@ -0,0 +1,6 @@
+/**
+ * Dieses Paket enthält die Abstraktion für das Abspeichern der eigentlichen Bilddaten
+ * (Binärdaten) und deren Implementierungen. In der Datenbank werden nur die Metadaten
+ * der Bilder und der Schlüssel für den Zugriff auf den Bildspeicher abgelegt.
+ */
+package de.eldecker.dhbw.spring.bildergallerie.speicher;
@@ -0,0 +1,49 @@
+package de.eldecker.dhbw.spring.bildergallerie.web;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import de.eldecker.dhbw.spring.bildergallerie.speicher.BildCache;
+
+
+/**
+ * Eigener Actuator-Endpunkt für Statistik des Caches für Bilddaten (Treffer,
+ * Fehlschläge, Verdrängungen, belegter Speicher).
+ * <br><br>
+ *
+ * Der Endpunkt ist unter der folgenden URL über HTTP-GET erreichbar, wenn "bildcache"
+ * in {@code management.endpoints.web.exposure.include} eingetragen ist:
+ * {@code http://localhost:8080/actuator/bildcache }
+ */
+@Component
+@Endpoint(id = "bildcache")
+public class BildCacheActuatorEndpunkt {
+
+    /** Cache, dessen Statistik ausgegeben wird. */
+    private final BildCache _bildCache;
+
+
+    /**
+     * Konstruktor für Dependency Injection.
+     */
+    @Autowired
+    public BildCacheActuatorEndpunkt( BildCache bildCache ) {
+
+        _bildCache = bildCache;
+    }
+
+
+    /**
+     * Actuator-Endpunkt, liefert die aktuelle Statistik des Caches.
+     *
+     * @return Statistik, wird nach JSON serialisiert.
+     */
+    @ReadOperation
+    public BildCache.Statistik statistik() {
+
+        return _bildCache.getStatistik();
+    }
+
+}
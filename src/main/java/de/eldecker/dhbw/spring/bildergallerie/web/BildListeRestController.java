@@ -0,0 +1,192 @@
+package de.eldecker.dhbw.spring.bildergallerie.web;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import de.eldecker.dhbw.spring.bildergallerie.logik.AehnlichesBild;
+import de.eldecker.dhbw.spring.bildergallerie.logik.AehnlichkeitsIndex;
+import de.eldecker.dhbw.spring.bildergallerie.logik.BildSeite;
+import de.eldecker.dhbw.spring.bildergallerie.logik.BildService;
+import de.eldecker.dhbw.spring.bildergallerie.logik.SortierAttributEnum;
+import de.eldecker.dhbw.spring.bildergallerie.logik.SuchErgebnis;
+import de.eldecker.dhbw.spring.bildergallerie.logik.TitelIndex;
+import de.eldecker.dhbw.spring.bildergallerie.logik.TitelIndex.Vorschlag;
+
+
+/**
+ * RestController, der die sortierte Bilderliste seitenweise als JSON liefert,
+ * z.B. für "endloses Scrollen" in einem JavaScript-Client.
+ * <br><br>
+ *
+ * Beispiel: {@code GET /app/bilder?sortiertNach=titel&anzahl=50}; die nächste Seite
+ * wird mit dem Wert von {@code naechsterCursor} aus der Antwort im URL-Parameter
+ * {@code nach} angefordert.
+ * <br><br>
+ *
+ * Suche nach Tags: {@code GET /app/suche/tags?ausdruck=(Hund OR Katze) AND NOT Zeichnung}
+ * <br><br>
+ *
+ * Vorschläge für Autovervollständigung der Suche nach Titel: {@code GET /app/suche/vorschlaege?q=hir}
+ * <br><br>
+ *
+ * Ähnliche Bilder (z.B. verkleinerte Kopien) zu einem Bild: {@code GET /app/bild/42/aehnliche?abstand=10}
+ */
+@RestController
+@RequestMapping( "/app/" )
+public class BildListeRestController {
+
+    private static final Logger LOG = LoggerFactory.getLogger( BildListeRestController.class );
+
+
+    /** Maximale Anzahl Vorschläge für Autovervollständigung. */
+    private static final int MAX_VORSCHLAEGE = 20;
+
+    /** Service-Bean mit Geschäftslogik für Bilder. */
+    private final BildService _bildService;
+
+    /** Suchindex für Titel, für Vorschläge. */
+    private final TitelIndex _titelIndex;
+
+
+    /**
+     * Konstruktor für Dependency Injection.
+     */
+    @Autowired
+    public BildListeRestController( BildService bildService,
+                                    TitelIndex titelIndex ) {
+
+        _bildService = bildService;
+        _titelIndex  = titelIndex;
+    }
+
+
+    /**
+     * Eine Seite der sortierten Bilderliste als JSON liefern.
+     *
+     * @param sortiertNach Attribut für Sortierung: {@code zeit} (Default-Wert), {@code typ}
+     *                     oder {@code titel}
+     *
+     * @param nach Cursor aus vorheriger Antwort; fehlt der Parameter, dann wird die erste
+     *             Seite geliefert
+     *
+     * @param anzahl Optionale Anzahl Bilder pro Seite, höchstens {@link BildService#MAX_SEITEN_GROESSE};
+     *               Default-Wert aus Konfiguration {@code bildergallerie.liste.seiten-groesse}
+     *
+     * @return HTTP-Status-Code 200 mit Seite (Metadaten und Tags der Bilder, Cursor für
+     *         nächste Seite); HTTP-Status-Code 400 bei ungültigem
+     *         Wert für {@code sortiertNach} oder {@code nach}
+     */
+    @GetMapping( "/bilder" )
+    public ResponseEntity<BildSeite> getBildSeite( @RequestParam(defaultValue = "zeit") String sortiertNach,
+                                                   @RequestParam(required = false) String nach,
+                                                   @RequestParam(required = false) Integer anzahl ) {
+
+        final Optional<SortierAttributEnum> sortierAttributOptional = SortierAttributEnum.fuerUrlParameter( sortiertNach );
+        if ( sortierAttributOptional.isEmpty() ) {
+
+            LOG.warn( "Ungültiger Wert \"{}\" für URL-Parameter \"sortiertNach\".", sortiertNach );
+            return ResponseEntity.badRequest().build();
+        }
+
+        final BildSeite bildSeite;
+        try {
+
+            bildSeite = anzahl == null
+                        ? _bildService.getBildSeite( sortierAttributOptional.get(), nach )
+                        : _bildService.getBildSeite( sortierAttributOptional.get(), nach, anzahl );
+        }
+        catch ( IllegalArgumentException ex ) {
+
+            LOG.warn( "Ungültiger Wert \"{}\" für URL-Parameter \"nach\".", nach );
+            return ResponseEntity.badRequest().build();
+        }
+
+        return ResponseEntity.ok( bildSeite );
+    }
+
+
+
+    /**
+     * Bilder mit einem Suchausdruck für Tags suchen, das Ergebnis wird seitenweise
+     * (sortiert nach Zeitpunkt des Uploads) als JSON geliefert.
+     *
+     * @param ausdruck Suchausdruck mit Tag-Namen und {@code AND}, {@code OR}, {@code NOT}
+     *                 und Klammern, z.B. {@code (Hund OR Katze) AND NOT Zeichnung}
+     *
+     * @param nach Cursor aus vorheriger Antwort; fehlt der Parameter, dann wird die erste
+     *             Seite geliefert
+     *
+     * @param anzahl Optionale Anzahl Bilder pro Seite, höchstens {@link BildService#MAX_SEITEN_GROESSE}
+     *
+     * @return HTTP-Status-Code 200 mit Anzahl der Treffer und Seite; HTTP-Status-Code 400
+     *         bei ungültigem Suchausdruck oder Cursor
+     */
+    @GetMapping( "/suche/tags" )
+    public ResponseEntity<SuchErgebnis> tagSuche( @RequestParam String ausdruck,
+                                                     @RequestParam(required = false) String nach,
+                                                     @RequestParam(defaultValue = "20") int anzahl ) {
+
+        try {
+
+            return ResponseEntity.ok( _bildService.tagSuche( ausdruck, nach, anzahl ) );
+        }
+        catch ( IllegalArgumentException ex ) {
+
+            LOG.warn( "Ungültige Suche nach Tags mit Ausdruck \"{}\" und Cursor \"{}\": {}",
+                      ausdruck, nach, ex.getMessage() );
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+
+
+    /**
+     * Vorschläge für Autovervollständigung bei der Suche nach Titel; die Vorschläge
+     * kommen aus dem {@link TitelIndex} im Speicher, es wird keine Datenbank-Query
+     * ausgeführt.
+     *
+     * @param q Bisher eingegebener Suchtext, z.B. {@code röhr hi}
+     *
+     * @param anzahl Maximale Anzahl Vorschläge (höchstens 20)
+     *
+     * @return HTTP-Status-Code 200 mit Liste der Vorschläge (ID und Titel), kann leer sein
+     */
+    @GetMapping( "/suche/vorschlaege" )
+    public ResponseEntity<List<Vorschlag>> vorschlaege( @RequestParam String q,
+                                                        @RequestParam(defaultValue = "10") int anzahl ) {
+
+        return ResponseEntity.ok( _titelIndex.vorschlaege( q, Math.clamp( anzahl, 1, MAX_VORSCHLAEGE ) ) );
+    }
+
+
+
+    /**
+     * Bilder suchen, die dem Bild mit {@code id} ähnlich sehen; die Suche läuft über den
+     * {@link AehnlichkeitsIndex} im Speicher.
+     *
+     * @param id ID des Bildes
+     *
+     * @param abstand Optionaler maximaler Abstand der perzeptuellen Hash-Werte (0 bis
+     *                {@link AehnlichkeitsIndex#MAX_ABSTAND}); Default-Wert 6
+     *
+     * @return HTTP-Status-Code 200 mit Liste der ähnlichen Bilder (ID, Titel und Abstand),
+     *         kann leer sein; HTTP-Status-Code 404, wenn es kein Bild mit {@code id} gibt
+     */
+    @GetMapping( "/bild/{id}/aehnliche" )
+    public ResponseEntity<List<AehnlichesBild>> aehnlicheBilder( @PathVariable long id,
+                                                                 @RequestParam(defaultValue = "6") int abstand ) {
+
+        return ResponseEntity.of( _bildService.aehnlicheBilder( id, abstand ) );
+    }
+
+}
@@ -1,23 +1,70 @@
 package de.eldecker.dhbw.spring.bildergallerie.web;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
+import static org.springframework.http.HttpHeaders.IF_RANGE;
+import static org.springframework.http.HttpHeaders.RANGE;
+import static org.springframework.http.HttpStatus.NOT_MODIFIED;
+import static org.springframework.http.HttpStatus.PARTIAL_CONTENT;
+import static org.springframework.http.HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import de.eldecker.dhbw.spring.bildergallerie.db.BildRepository;
 import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
+import de.eldecker.dhbw.spring.bildergallerie.logik.VorschauService;
+import de.eldecker.dhbw.spring.bildergallerie.logik.VorschauService.Vorschau;
+import de.eldecker.dhbw.spring.bildergallerie.speicher.BildCache;
+import de.eldecker.dhbw.spring.bildergallerie.speicher.BildSpeicher;
+
+import jakarta.servlet.http.HttpServletResponse;
 
 
 /**
  * RestController zu Bereitstellung der Bilder (Binärdaten!).
+ * <br><br>
+ *
+ * Es werden auch HTTP-Range-Requests (Header {@code Range} und {@code If-Range})
+ * unterstützt, so dass z.B. abgebrochene Downloads fortgesetzt werden können.
+ * <br><br>
+ *
+ * Da sich die Binärdaten eines Bildes nach dem Upload nie mehr ändern, dürfen Browser
+ * und Proxies die Bilder unbegrenzt cachen ({@code Cache-Control: immutable}); bei
+ * bedingten Requests ({@code If-None-Match}, {@code If-Modified-Since}) wird nur
+ * anhand der Metadaten in der DB entschieden und ggf. mit HTTP-Status-Code 304
+ * geantwortet, ohne auf den Bildspeicher zuzugreifen.
+ * <br><br>
+ *
+ * Häufig angeforderte Bilder werden aus dem {@link BildCache} ausgeliefert.
  */
 @RestController
 @RequestMapping( "/app/" )
@@ -25,31 +72,132 @@ public class BildRestController {
 
     private static final Logger LOG = LoggerFactory.getLogger( BildRestController.class );
 
+    /**
+     * Größe des Puffers, mit dem die Bilddaten in die HTTP-Response kopiert werden;
+     * unabhängig von der Größe des Bildes wird pro Request nur so viel Heap belegt.
+     */
+    private static final int PUFFER_GROESSE = 8 * 1024;
+
+    /** Zeilenumbruch in HTTP-Nachrichten. */
+    private static final String CRLF = "\r\n";
+
+    /**
+     * Wert für HTTP-Header {@code Cache-Control}, wenn anstelle einer Variante das
+     * Original ausgeliefert wird: Der Client muss bei jeder Verwendung nachfragen, damit
+     * er die Variante bekommt, sobald es sie gibt.
+     */
+    private static final CacheControl CACHE_CONTROL_ERSATZ = CacheControl.noCache();
+
+
+    /**
+     * Ein angeforderter Byte-Bereich eines Bildes.
+     *
+     * @param start Index des ersten Bytes (0-basiert)
+     *
+     * @param ende Index des letzten Bytes (inklusive)
+     */
+    private record Bereich( long start, long ende ) {
+
+        /**
+         * Anzahl Bytes im Bereich.
+         *
+         * @return Länge des Bereichs
+         */
+        long laenge() {
+
+            return ende - start + 1;
+        }
+
+        /**
+         * Wert für HTTP-Header {@code Content-Range}.
+         *
+         * @param gesamtLaenge Gesamtgröße des Bildes
+         *
+         * @return z.B. {@code bytes 0-499/1234}
+         */
+        String contentRange( long gesamtLaenge ) {
+
+            return "bytes " + start + "-" + ende + "/" + gesamtLaenge;
+        }
+    }
+
+
     /** Repo-Bean für Zugriff auf Datenbanktabelle mit Bildern. */
     private final BildRepository _bildRepo;
 
+    /** Speicher mit den Binärdaten der Bilder. */
+    private final BildSpeicher _bildSpeicher;
+
+    /** Service-Bean für Vorschaubilder. */
+    private final VorschauService _vorschauService;
+
+    /** Cache für häufig angeforderte Bilddaten. */
+    private final BildCache _bildCache;
+
+    /** Wert für HTTP-Header {@code Cache-Control} bei Auslieferung von Bildern. */
+    private final CacheControl _cacheControl;
+
 
     /**
      * Konstruktor für Dependency Injection.
+     *
+     * @param cacheDauer Wert von Konfiguration {@code bildergallerie.bild.cache-dauer},
+     *                   z.B. {@code 365d}
      */
     @Autowired
-    public BildRestController( BildRepository bildRepo ) {
+    public BildRestController( BildRepository bildRepo,
+                               BildSpeicher bildSpeicher,
+                               VorschauService vorschauService,
+                               BildCache bildCache,
+                               @Value( "${bildergallerie.bild.cache-dauer}" ) Duration cacheDauer ) {
 
-        _bildRepo = bildRepo;
+        _bildRepo        = bildRepo;
+        _bildSpeicher    = bildSpeicher;
+        _vorschauService = vorschauService;
+        _bildCache       = bildCache;
+        _cacheControl    = CacheControl.maxAge( cacheDauer ).cachePublic().immutable();
     }
 
 
     /**
      * Einzelnes Bild als Binärdatei bereitstellen.
+     * <br><br>
+     *
+     * Die Bilddaten werden nicht als Ganzes in den Speicher geladen, sondern stückweise
+     * aus dem {@link BildSpeicher} in die HTTP-Response kopiert. Der Header
+     * {@code Content-Length} wird aus der in der DB gespeicherten Bildgröße gesetzt.
+     * <br><br>
+     *
+     * Wenn der Header {@code Range} gesetzt ist, dann werden nur die angeforderten
+     * Bereiche ausgeliefert (bei mehreren Bereichen als {@code multipart/byteranges}).
+     * Mit dem Header {@code If-Range} kann der Client verlangen, dass die Bereiche nur
+     * dann ausgeliefert werden, wenn sich das Bild seit dem angegebenen ETag oder
+     * Zeitpunkt nicht verändert hat; andernfalls wird das ganze Bild ausgeliefert.
      *
      * @param id Primärschlüssel von Bild, das zurückgeliefert werden soll.
      *
-     * @return HTTP-Status-Code 200 und Bild als Binärdatei; HTTP-Status-Code 404 wenn
-     *         Bild nicht gefunden, HTTP-Status-Code 500 wenn DB-Fehler beim Zugriff
-     *         auf Bild.
+     * @param rangeHeader Optionaler Wert von HTTP-Header {@code Range},
+     *                    z.B. {@code bytes=0-499}
+     *
+     * @param ifRangeHeader Optionaler Wert von HTTP-Header {@code If-Range}
+     *                      (ETag oder HTTP-Datum)
+     *
+     * @param webRequest Request-Objekt für Auswertung von {@code If-None-Match} und
+     *                   {@code If-Modified-Since}
+     *
+     * @return HTTP-Status-Code 200 und Bild als Binärdatei; HTTP-Status-Code 304 wenn
+     *         Client das Bild schon hat; HTTP-Status-Code 206 wenn
+     *         nur Bereiche angefordert wurden, HTTP-Status-Code 416 wenn keiner der
+     *         angeforderten Bereiche erfüllbar ist; HTTP-Status-Code 404 wenn
+     *         Bild nicht gefunden, HTTP-Status-Code 500 wenn Bild keine Binärdaten
+     *         im Bildspeicher hat.
      */
     @GetMapping(value = "/bild/{id}")
-    public ResponseEntity<byte[]> getBild( @PathVariable Long id ) {
+    public ResponseEntity<StreamingResponseBody> getBild(
+                        @PathVariable Long id,
+                        @RequestHeader(value = RANGE   , required = false) String rangeHeader,
+                        @RequestHeader(value = IF_RANGE, required = false) String ifRangeHeader,
+                        WebRequest webRequest ) {
 
         final Optional<BildEntity> bildOptional = _bildRepo.findById( id );
         if ( bildOptional.isEmpty() ) {
@@ -60,20 +208,552 @@ public class BildRestController {
 
         final BildEntity bildEntity = bildOptional.get();
 
-        final int anzahlBytes = bildEntity.getBildGroesseBytes();
-        if ( anzahlBytes <= 0 ) {
+        final String etag             = etagFuerBild( bildEntity );
+        final long   zuletztGeaendert = zuletztGeaendert( bildEntity ).toInstant().toEpochMilli();
+        // checkNotModified() setzt auch die Header ETag und Last-Modified für die Response
+        if ( webRequest.checkNotModified( etag, zuletztGeaendert ) ) {
+
+            return ResponseEntity.status( NOT_MODIFIED )
+                                 .cacheControl( _cacheControl )
+                                 .build();
+        }
 
-            LOG.error( "Bild mit ID={} als Binärdatei angefordert, aber AnzBytes={}.", id, anzahlBytes );
+        final String speicherSchluessel = bildEntity.getSpeicherSchluessel();
+        if ( speicherSchluessel == null ||
+             ( !_bildCache.enthaelt( speicherSchluessel ) && !_bildSpeicher.existiert( speicherSchluessel ) ) ) {
+
+            LOG.error( "Bild mit ID={} als Binärdatei angefordert, hat aber keine Daten im Bildspeicher.", id );
             return ResponseEntity.internalServerError().build();
         }
 
-        final byte[] blobAsBytes = bildEntity.getBildBytes();
+        long anzahlBytes = bildEntity.getBildGroesseBytes();
+        if ( anzahlBytes <= 0 ) {
+
+            try {
+
+                anzahlBytes = _bildSpeicher.groesse( speicherSchluessel ); // throws IOException
+            }
+            catch ( IOException ex ) {
+
+                LOG.error( "Größe von Bild mit ID={} konnte nicht bestimmt werden.", id, ex );
+                return ResponseEntity.internalServerError().build();
+            }
+        }
 
         final MediaType mediaType = MediaType.valueOf( bildEntity.getMimeTyp() );
 
+        if ( rangeHeader != null && ifRangeErfuellt( ifRangeHeader, etag, bildEntity ) ) {
+
+            final Optional<List<Bereich>> bereicheOptional = bereicheBestimmen( rangeHeader, anzahlBytes );
+            if ( bereicheOptional.isPresent() ) {
+
+                return bereicheAusliefern( bildEntity, bereicheOptional.get(), anzahlBytes, mediaType );
+            }
+        }
+
+        final long gesamtLaenge = anzahlBytes;
+        final StreamingResponseBody body =
+                outputStream -> kopieren( id, speicherSchluessel, 0, gesamtLaenge, gesamtLaenge, outputStream );
+
         return ResponseEntity.ok()
                              .contentType( mediaType )
-                             .body( blobAsBytes );
+                             .contentLength( anzahlBytes )
+                             .header( HttpHeaders.ACCEPT_RANGES, "bytes" )
+                             .cacheControl( _cacheControl )
+                             .body( body );
+    }
+
+
+    /**
+     * Vorschaubild ("Thumbnail") eines Bildes bereitstellen. Falls das Vorschaubild noch
+     * nicht existiert, dann wird es sofort erzeugt. Für SVG-Bilder wird das Original
+     * ausgeliefert.
+     * <br><br>
+     *
+     * Range-Requests werden für Vorschaubilder nicht unterstützt, Caching-Header und
+     * bedingte Requests werden wie beim Original behandelt.
+     *
+     * @param id Primärschlüssel des Bildes
+     *
+     * @param breite Breite des Vorschaubilds in Pixel, muss in Konfiguration
+     *               {@code bildergallerie.vorschau.breiten} enthalten sein
+     *
+     * @param webRequest Request-Objekt für Auswertung von {@code If-None-Match} und
+     *                   {@code If-Modified-Since}
+     *
+     * @param response Response, deren ETag ersetzt wird, wenn das Original ausgeliefert wird
+     *
+     * @return HTTP-Status-Code 200 und Vorschaubild; HTTP-Status-Code 304 wenn Client
+     *         das Vorschaubild schon hat; HTTP-Status-Code 404 wenn Bild nicht gefunden
+     *         oder Breite nicht erlaubt; HTTP-Status-Code 500 bei Fehler im Bildspeicher.
+     */
+    @GetMapping(value = "/bild/{id}/thumb/{breite}")
+    public ResponseEntity<StreamingResponseBody> getVorschau( @PathVariable Long id,
+                                                              @PathVariable int  breite,
+                                                              WebRequest webRequest,
+                                                              HttpServletResponse response ) {
+
+        if ( !_vorschauService.istErlaubteBreite( breite ) ) {
+
+            LOG.warn( "Vorschaubild mit nicht erlaubter Breite {} für Bild mit ID={} angefordert.", breite, id );
+            return ResponseEntity.notFound().build();
+        }
+
+        return varianteAusliefern( id, "-t" + breite, bild -> _vorschauService.vorschauHolen( bild, breite ),
+                                   webRequest, response );
+    }
+
+
+    /**
+     * Poster (Standbild mit erstem Frame) eines animierten GIF bereitstellen, damit
+     * Listen und Vorschauen nicht die ganze Animation laden müssen. Falls das Poster
+     * noch nicht existiert, dann wird es sofort erzeugt. Für andere Bildtypen wird
+     * das Original ausgeliefert.
+     * <br><br>
+     *
+     * Kann das Poster nicht erzeugt werden (GIF nicht dekodierbar oder größer als
+     * {@code bildergallerie.vorschau.max-pixel}), dann wird das Original mit dessen ETag
+     * und {@code Cache-Control: no-cache} ausgeliefert, also nicht als {@code immutable}
+     * unter dem ETag des Posters.
+     *
+     * @param id Primärschlüssel des Bildes
+     *
+     * @param webRequest Request-Objekt für Auswertung von {@code If-None-Match} und
+     *                   {@code If-Modified-Since}
+     *
+     * @param response Response, deren ETag ersetzt wird, wenn das Original ausgeliefert wird
+     *
+     * @return HTTP-Status-Code 200 und Poster als PNG; HTTP-Status-Code 304 wenn Client
+     *         das Poster schon hat; HTTP-Status-Code 404 wenn Bild nicht gefunden;
+     *         HTTP-Status-Code 500 bei Fehler im Bildspeicher.
+     */
+    @GetMapping(value = "/bild/{id}/poster")
+    public ResponseEntity<StreamingResponseBody> getPoster( @PathVariable Long id,
+                                                            WebRequest webRequest,
+                                                            HttpServletResponse response ) {
+
+        return varianteAusliefern( id, "-poster", _vorschauService::posterHolen, webRequest, response );
+    }
+
+
+    /**
+     * Liefert für ein Bild die Variante (Vorschaubild oder Poster), die ausgeliefert
+     * werden soll; wird nur aufgerufen, wenn der Client die Variante noch nicht hat.
+     */
+    @FunctionalInterface
+    private interface VariantenQuelle {
+
+        Vorschau holen( BildEntity bild ) throws IOException;
+    }
+
+
+    /**
+     * Gemeinsame Implementierung für die Auslieferung von Vorschaubildern und Postern.
+     * <br><br>
+     *
+     * Kann die Variante nicht erzeugt werden und wird deshalb das Original ausgeliefert,
+     * dann bekommt die Response den ETag des Originals und {@code Cache-Control: no-cache}
+     * statt {@code immutable}; sonst würde der Client das Original unter dem ETag der
+     * Variante für die ganze Cache-Dauer behalten.
+     *
+     * @param id Primärschlüssel des Bildes
+     *
+     * @param etagSuffix Wird im ETag an den Hash-Wert des Originals angehängt
+     *
+     * @param quelle Bestimmt (bzw. erzeugt) die auszuliefernde Variante
+     *
+     * @param webRequest Request-Objekt für Auswertung von bedingten Requests
+     *
+     * @param response Response, in der {@code checkNotModified()} schon den ETag der
+     *                 Variante gesetzt hat
+     *
+     * @return Response mit Variante als Body oder mit Status-Code 304, 404 bzw. 500
+     */
+    private ResponseEntity<StreamingResponseBody> varianteAusliefern( Long id,
+                                                                      String etagSuffix,
+                                                                      VariantenQuelle quelle,
+                                                                      WebRequest webRequest,
+                                                                      HttpServletResponse response ) {
+
+        final Optional<BildEntity> bildOptional = _bildRepo.findById( id );
+        if ( bildOptional.isEmpty() ) {
+
+            LOG.error( "Variante {} für Bild mit ID={} angefordert, Bild wurde aber nicht gefunden.", etagSuffix, id );
+            return ResponseEntity.notFound().build();
+        }
+
+        final BildEntity bildEntity = bildOptional.get();
+        if ( bildEntity.getSpeicherSchluessel() == null ) {
+
+            LOG.error( "Variante {} für Bild mit ID={} angefordert, Bild hat aber keine Daten im Bildspeicher.",
+                       etagSuffix, id );
+            return ResponseEntity.internalServerError().build();
+        }
+
+        final String etag             = "\"" + bildEntity.getHash() + etagSuffix + "\"";
+        final long   zuletztGeaendert = zuletztGeaendert( bildEntity ).toInstant().toEpochMilli();
+        if ( webRequest.checkNotModified( etag, zuletztGeaendert ) ) {
+
+            return ResponseEntity.status( NOT_MODIFIED )
+                                 .cacheControl( _cacheControl )
+                                 .build();
+        }
+
+        final Vorschau vorschau;
+        final long     anzahlBytes;
+        try {
+
+            vorschau    = quelle.holen( bildEntity ); // throws IOException
+            anzahlBytes = _bildSpeicher.groesse( vorschau.speicherSchluessel() ); // throws IOException
+        }
+        catch ( IOException ex ) {
+
+            LOG.error( "Variante {} für Bild mit ID={} konnte nicht bereitgestellt werden.", etagSuffix, id, ex );
+            return ResponseEntity.internalServerError().build();
+        }
+
+        final StreamingResponseBody body =
+                outputStream -> kopieren( id, vorschau.speicherSchluessel(), 0, anzahlBytes, anzahlBytes, outputStream );
+
+        if ( vorschau.ersatz() ) {
+
+            // checkNotModified() hat den ETag der Variante schon in die Response geschrieben
+            response.setHeader( HttpHeaders.ETAG, etagFuerBild( bildEntity ) );
+
+            return ResponseEntity.ok()
+                                 .contentType( MediaType.valueOf( vorschau.mimeTyp() ) )
+                                 .contentLength( anzahlBytes )
+                                 .cacheControl( CACHE_CONTROL_ERSATZ )
+                                 .body( body );
+        }
+
+        return ResponseEntity.ok()
+                             .contentType( MediaType.valueOf( vorschau.mimeTyp() ) )
+                             .contentLength( anzahlBytes )
+                             .cacheControl( _cacheControl )
+                             .body( body );
+    }
+
+
+    /**
+     * Starken ETag für Bild bestimmen; da der Speicher inhaltsadressiert ist, ist der
+     * Hash-Wert des Bildes ein idealer Validator.
+     *
+     * @param bildEntity Bild
+     *
+     * @return ETag inkl. Anführungszeichen, z.B. {@code "158ef3b2b0d2392bd7552cd773323c27"}
+     */
+    private static String etagFuerBild( BildEntity bildEntity ) {
+
+        return "\"" + bildEntity.getHash() + "\"";
+    }
+
+
+    /**
+     * Zeitpunkt der letzten Änderung des Bildes für HTTP-Header {@code Last-Modified};
+     * da Bilder nicht geändert werden können, ist das der Zeitpunkt des Uploads.
+     *
+     * @param bildEntity Bild
+     *
+     * @return Upload-Zeitpunkt, auf Sekunden abgeschnitten (Genauigkeit von HTTP-Datum)
+     */
+    private static ZonedDateTime zuletztGeaendert( BildEntity bildEntity ) {
+
+        return bildEntity.getZeitpunktErzeugung()
+                         .atZone( ZoneId.systemDefault() )
+                         .truncatedTo( ChronoUnit.SECONDS );
+    }
+
+
+    /**
+     * Prüft die Bedingung im HTTP-Header {@code If-Range}.
+     *
+     * @param ifRangeHeader Wert des Headers; kann {@code null} sein
+     *
+     * @param etag Aktueller ETag des Bildes
+     *
+     * @param bildEntity Bild, dessen Upload-Zeitpunkt mit einem Datum im Header
+     *                   verglichen wird
+     *
+     * @return {@code true} wenn Header nicht gesetzt ist oder die Bedingung erfüllt ist,
+     *         die Bereiche also ausgeliefert werden dürfen
+     */
+    private static boolean ifRangeErfuellt( String ifRangeHeader, String etag, BildEntity bildEntity ) {
+
+        if ( ifRangeHeader == null ) {
+
+            return true;
+        }
+
+        final String ifRange = ifRangeHeader.trim();
+        if ( ifRange.startsWith( "\"" ) || ifRange.startsWith( "W/" ) ) {
+
+            return ifRange.equals( etag ); // schwache ETags sind für If-Range nie gültig
+        }
+
+        try {
+
+            final ZonedDateTime datum = ZonedDateTime.parse( ifRange, RFC_1123_DATE_TIME );
+
+            return datum.toInstant().equals( zuletztGeaendert( bildEntity ).toInstant() );
+        }
+        catch ( DateTimeParseException ex ) {
+
+            LOG.warn( "Ungültiger Wert für Header If-Range: {}", ifRange );
+            return false;
+        }
+    }
+
+
+    /**
+     * Wert von HTTP-Header {@code Range} auswerten. Überlappende oder direkt
+     * aneinander grenzende Bereiche werden zusammengefasst (nach Anfang sortiert).
+     * Sind die angeforderten Bereiche zusammen größer als das Bild (z.B.
+     * {@code bytes=0-,0-,0-}), dann wird der Header ignoriert und das ganze Bild
+     * ausgeliefert, damit ein Request nicht ein Vielfaches des Bildes anfordern kann.
+     *
+     * @param rangeHeader Wert des Headers, z.B. {@code bytes=0-499,1000-}
+     *
+     * @param gesamtLaenge Größe des Bildes in Bytes
+     *
+     * @return Leeres Optional wenn Header syntaktisch ungültig ist oder die Bereiche
+     *         zusammen größer als das Bild sind und der Header deshalb ignoriert werden
+     *         muss; sonst die erfüllbaren Bereiche (Liste kann leer sein, wenn kein
+     *         Bereich erfüllbar ist)
+     */
+    private static Optional<List<Bereich>> bereicheBestimmen( String rangeHeader, long gesamtLaenge ) {
+
+        final List<HttpRange> httpRanges;
+        try {
+
+            httpRanges = HttpRange.parseRanges( rangeHeader );
+        }
+        catch ( IllegalArgumentException ex ) {
+
+            LOG.warn( "Ungültiger Wert für Header Range wird ignoriert: {}", rangeHeader );
+            return Optional.empty();
+        }
+
+        final List<Bereich> bereiche = new ArrayList<>( httpRanges.size() );
+        for ( HttpRange httpRange : httpRanges ) {
+
+            try {
+
+                final long start = httpRange.getRangeStart( gesamtLaenge );
+                final long ende  = httpRange.getRangeEnd( gesamtLaenge );
+                if ( start < gesamtLaenge && start <= ende ) {
+
+                    bereiche.add( new Bereich( start, ende ) );
+                    continue;
+                }
+            }
+            catch ( IllegalArgumentException ex ) {
+
+                // wird unten wie ein nicht erfüllbarer Bereich behandelt
+            }
+            LOG.debug( "Nicht erfüllbarer Bereich {} bei Gesamtlänge {}.", httpRange, gesamtLaenge );
+        }
+
+        final long summeLaengen = bereiche.stream().mapToLong( Bereich::laenge ).sum();
+        if ( summeLaengen > gesamtLaenge ) {
+
+            LOG.warn( "Bereiche im Header Range umfassen {} Bytes bei Gesamtlänge {}, liefere ganzes Bild aus.",
+                      summeLaengen, gesamtLaenge );
+            return Optional.empty();
+        }
+
+        return Optional.of( zusammenfassen( bereiche ) );
+    }
+
+
+    /**
+     * Überlappende oder direkt aneinander grenzende Bereiche zusammenfassen.
+     *
+     * @param bereiche Erfüllbare Bereiche in beliebiger Reihenfolge
+     *
+     * @return Bereiche nach Anfang sortiert, ohne Überlappungen
+     */
+    private static List<Bereich> zusammenfassen( List<Bereich> bereiche ) {
+
+        final List<Bereich> sortiert = new ArrayList<>( bereiche );
+        sortiert.sort( Comparator.comparingLong( Bereich::start ) );
+
+        final List<Bereich> ergebnis = new ArrayList<>( sortiert.size() );
+        for ( Bereich bereich : sortiert ) {
+
+            final int letzterIndex = ergebnis.size() - 1;
+            if ( letzterIndex >= 0 && bereich.start() <= ergebnis.get( letzterIndex ).ende() + 1 ) {
+
+                final Bereich letzter = ergebnis.get( letzterIndex );
+                ergebnis.set( letzterIndex, new Bereich( letzter.start(), Math.max( letzter.ende(), bereich.ende() ) ) );
+            } else {
+
+                ergebnis.add( bereich );
+            }
+        }
+
+        return ergebnis;
+    }
+
+
+    /**
+     * Response mit HTTP-Status-Code 206 (bzw. 416) für angeforderte Bereiche erzeugen.
+     *
+     * @param bildEntity Angefordertes Bild
+     *
+     * @param bereiche Erfüllbare Bereiche
+     *
+     * @param gesamtLaenge Größe des Bildes in Bytes
+     *
+     * @param mediaType MIME-Typ des Bildes
+     *
+     * @return Response mit einem Bereich als Body oder mit {@code multipart/byteranges}
+     *         wenn mehrere Bereiche angefordert wurden
+     */
+    private ResponseEntity<StreamingResponseBody> bereicheAusliefern( BildEntity bildEntity,
+                                                                      List<Bereich> bereiche,
+                                                                      long gesamtLaenge,
+                                                                      MediaType mediaType ) {
+
+        final Long   id                 = bildEntity.getId();
+        final String speicherSchluessel = bildEntity.getSpeicherSchluessel();
+
+        if ( bereiche.isEmpty() ) {
+
+            return ResponseEntity.status( REQUESTED_RANGE_NOT_SATISFIABLE )
+                                 .header( HttpHeaders.CONTENT_RANGE, "bytes */" + gesamtLaenge )
+                                 .header( HttpHeaders.ACCEPT_RANGES, "bytes" )
+                                 .build();
+        }
+
+        if ( bereiche.size() == 1 ) {
+
+            final Bereich bereich = bereiche.get( 0 );
+
+            final StreamingResponseBody body =
+                    outputStream -> kopieren( id, speicherSchluessel, bereich.start(), bereich.laenge(),
+                                              gesamtLaenge, outputStream );
+
+            return ResponseEntity.status( PARTIAL_CONTENT )
+                                 .contentType( mediaType )
+                                 .contentLength( bereich.laenge() )
+                                 .header( HttpHeaders.CONTENT_RANGE, bereich.contentRange( gesamtLaenge ) )
+                                 .header( HttpHeaders.ACCEPT_RANGES, "bytes" )
+                                 .cacheControl( _cacheControl )
+                                 .body( body );
+        }
+
+        final String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+
+        final List<byte[]> teilKoepfe = new ArrayList<>( bereiche.size() );
+        long contentLength = 0;
+        for ( Bereich bereich : bereiche ) {
+
+            final String teilKopf = CRLF + "--" + boundary + CRLF +
+                                    HttpHeaders.CONTENT_TYPE  + ": " + mediaType + CRLF +
+                                    HttpHeaders.CONTENT_RANGE + ": " + bereich.contentRange( gesamtLaenge ) + CRLF +
+                                    CRLF;
+            final byte[] teilKopfBytes = teilKopf.getBytes( US_ASCII );
+            teilKoepfe.add( teilKopfBytes );
+            contentLength += teilKopfBytes.length + bereich.laenge();
+        }
+        final byte[] abschluss = ( CRLF + "--" + boundary + "--" + CRLF ).getBytes( US_ASCII );
+        contentLength += abschluss.length;
+
+        final StreamingResponseBody body = outputStream -> {
+
+            for ( int i = 0; i < bereiche.size(); i++ ) {
+
+                final Bereich bereich = bereiche.get( i );
+                outputStream.write( teilKoepfe.get( i ) );
+                kopieren( id, speicherSchluessel, bereich.start(), bereich.laenge(), gesamtLaenge, outputStream );
+            }
+            outputStream.write( abschluss );
+        };
+
+        return ResponseEntity.status( PARTIAL_CONTENT )
+                             .contentType( MediaType.parseMediaType( "multipart/byteranges; boundary=" + boundary ) )
+                             .contentLength( contentLength )
+                             .header( HttpHeaders.ACCEPT_RANGES, "bytes" )
+                             .cacheControl( _cacheControl )
+                             .body( body );
+    }
+
+
+    /**
+     * Bereich der Bilddaten in {@code outputStream} kopieren: Aus dem {@link BildCache},
+     * wenn die Daten dort vorhanden sind, sonst mit Puffer fester Größe aus dem
+     * Bildspeicher. Im zweiten Fall werden nur die Bytes des Bereichs gelesen; wird das
+     * ganze Bild gelesen, dann wird es dabei (wenn der Cache es aufnimmt) in den Cache
+     * kopiert.
+     *
+     * @param id ID des Bildes (nur für Log-Ausgaben)
+     *
+     * @param speicherSchluessel Schlüssel des Bildes im Bildspeicher
+     *
+     * @param start Index des ersten zu kopierenden Bytes
+     *
+     * @param laenge Anzahl der zu kopierenden Bytes
+     *
+     * @param gesamtLaenge Größe des ganzen Bildes in Bytes
+     *
+     * @param outputStream Stream der HTTP-Response
+     *
+     * @throws IOException Fehler beim Lesen aus dem Bildspeicher oder beim Schreiben
+     *                     der Response (z.B. Client hat Verbindung abgebrochen)
+     */
+    private void kopieren( Long id, String speicherSchluessel, long start, long laenge, long gesamtLaenge,
+                           OutputStream outputStream ) throws IOException {
+
+        final Optional<BildCache.Treffer> trefferOptional = _bildCache.holen( speicherSchluessel );
+        if ( trefferOptional.isPresent() ) {
+
+            try ( BildCache.Treffer treffer = trefferOptional.get() ) {
+
+                treffer.schreiben( outputStream, start, laenge ); // throws IOException
+                return;
+            }
+            catch ( IOException ex ) {
+
+                LOG.warn( "Fehler beim Ausliefern von Bild mit ID={} aus Cache: {}", id, ex.getMessage() );
+                throw ex;
+            }
+        }
+
+        final Optional<BildCache.Befuellung> befuellung =
+                start == 0 && laenge == gesamtLaenge ? _bildCache.befuellungStarten( speicherSchluessel, gesamtLaenge )
+                                                     : Optional.empty();
+
+        final byte[] puffer = new byte[ (int) Math.min( PUFFER_GROESSE, Math.max( laenge, 1 ) ) ];
+
+        try ( InputStream inputStream = _bildSpeicher.oeffnen( speicherSchluessel, start ) ) { // throws IOException
+
+            long nochZuKopieren = laenge;
+            while ( nochZuKopieren > 0 ) {
+
+                final int anzahlGelesen =
+                        inputStream.read( puffer, 0, (int) Math.min( puffer.length, nochZuKopieren ) );
+                if ( anzahlGelesen == -1 ) {
+
+                    throw new IOException( "Bilddaten von Bild mit ID=" + id + " kürzer als erwartet." );
+                }
+
+                befuellung.ifPresent( b -> b.schreiben( puffer, 0, anzahlGelesen ) );
+                outputStream.write( puffer, 0, anzahlGelesen );
+                nochZuKopieren -= anzahlGelesen;
+            }
+
+            befuellung.ifPresent( BildCache.Befuellung::abschliessen );
+        }
+        catch ( IOException ex ) {
+
+            LOG.warn( "Fehler beim Ausliefern von Bild mit ID={}: {}", id, ex.getMessage() );
+            throw ex;
+        }
+        finally {
+
+            befuellung.ifPresent( BildCache.Befuellung::abbrechen ); // nach abschliessen() wirkungslos
+        }
     }
 
 }
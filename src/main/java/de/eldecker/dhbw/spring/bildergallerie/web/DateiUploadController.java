@@ -1,6 +1,7 @@
 package de.eldecker.dhbw.spring.bildergallerie.web;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -90,14 +91,12 @@ public class DateiUploadController {
             titelNormal = dateiName;
         }
 
-        try {
-
-            final byte[] byteArray = bild.getBytes(); // throws IOException
+        try ( InputStream inputStream = bild.getInputStream() ) { // throws IOException
 
             try {
 
                 final BildEntity bildEntity = 
-                		_bildService.bildHochladen( titelNormal, byteArray, tagWerte ); // throws BildSchonVorhandenException
+                		_bildService.bildHochladen( titelNormal, inputStream, tagWerte ); // throws BildSchonVorhandenException
 
                 LOG.info( "Bild mit Titel \"{}\" unter ID {} in DB gespeichert.", dateiName, bildEntity.getId() );
 
@@ -147,12 +146,13 @@ public class DateiUploadController {
 
         final BildEntity altesBild = ex.getBildEntity();
 
-        LOG.warn( "Versuch ein Bild hochzuladen, aber es gibt schon ein Bild mit demselben Haswert unter der ID={}.",
-                  altesBild.getId() );
+        LOG.warn( "Versuch ein Bild hochzuladen, aber es gibt schon ein Bild mit ID={}: {}",
+                  altesBild.getId(), ex.getMessage() );
 
         final String        altesBildTitel     = altesBild.getTitel();
         final LocalDateTime altesBildDatumZeit = altesBild.getZeitpunktErzeugung();
 
+        attributeWeiterleitung.addFlashAttribute( "fehler_grund"        , ex.getMessage()    );
         attributeWeiterleitung.addFlashAttribute( "altes_bild_titel"    , altesBildTitel     );
         attributeWeiterleitung.addFlashAttribute( "altes_bild_datumzeit", altesBildDatumZeit );
 
@@ -0,0 +1,50 @@
+package de.eldecker.dhbw.spring.bildergallerie.web;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import de.eldecker.dhbw.spring.bildergallerie.logik.HashFilter;
+
+
+/**
+ * Eigener Actuator-Endpunkt für Statistik des Bloom-Filters mit den Hash-Werten der
+ * Bilder (Anzahl Hash-Werte, belegter Speicher, geschätzte und gemessene
+ * Falsch-Positiv-Rate, gesparte Queries).
+ * <br><br>
+ *
+ * Der Endpunkt ist unter der folgenden URL über HTTP-GET erreichbar, wenn "hashfilter"
+ * in {@code management.endpoints.web.exposure.include} eingetragen ist:
+ * {@code http://localhost:8080/actuator/hashfilter }
+ */
+@Component
+@Endpoint(id = "hashfilter")
+public class HashFilterActuatorEndpunkt {
+
+    /** Filter, dessen Statistik ausgegeben wird. */
+    private final HashFilter _hashFilter;
+
+
+    /**
+     * Konstruktor für Dependency Injection.
+     */
+    @Autowired
+    public HashFilterActuatorEndpunkt( HashFilter hashFilter ) {
+
+        _hashFilter = hashFilter;
+    }
+
+
+    /**
+     * Actuator-Endpunkt, liefert die aktuelle Statistik des Filters.
+     *
+     * @return Statistik, wird nach JSON serialisiert.
+     */
+    @ReadOperation
+    public HashFilter.Statistik statistik() {
+
+        return _hashFilter.getStatistik();
+    }
+
+}
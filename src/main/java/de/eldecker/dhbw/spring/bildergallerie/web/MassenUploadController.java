@@ -0,0 +1,147 @@
+package de.eldecker.dhbw.spring.bildergallerie.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import de.eldecker.dhbw.spring.bildergallerie.logik.MassenUploadErgebnis;
+import de.eldecker.dhbw.spring.bildergallerie.logik.MassenUploadService;
+import de.eldecker.dhbw.spring.bildergallerie.logik.MassenUploadService.Auftrag;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+
+/**
+ * RestController für den Massen-Upload vieler Bilder auf einmal; die Antwort ist ein
+ * Bericht mit dem Ergebnis für jede Datei als JSON (siehe {@link MassenUploadErgebnis}).
+ * <br><br>
+ *
+ * Mehrere Dateien als Multipart-Request, ZIP-Archive werden dabei entpackt:
+ * {@code curl -F bilder=@a.jpg -F bilder=@b.png -F bilder=@urlaub.zip -F tagWerte=Hund localhost:8080/app/bilder/import}
+ * <br><br>
+ *
+ * ZIP-Archiv direkt als Request-Body (wird nicht durch die Multipart-Konfiguration
+ * {@code spring.servlet.multipart.max-request-size} begrenzt, sondern nur durch die
+ * Grenzen des Massen-Uploads für Anzahl Dateien und Gesamtgröße nach dem Entpacken):
+ * {@code curl -H "Content-Type: application/zip" --data-binary @urlaub.zip "localhost:8080/app/bilder/import?tagWerte=Hund"}
+ */
+@RestController
+@RequestMapping( "/app/" )
+public class MassenUploadController {
+
+    private static final Logger LOG = LoggerFactory.getLogger( MassenUploadController.class );
+
+    /** MIME-Typ von ZIP-Archiven. */
+    private static final String MIME_TYP_ZIP = "application/zip";
+
+
+    /** Service-Bean für Massen-Upload. */
+    private final MassenUploadService _massenUploadService;
+
+
+    /**
+     * Konstruktor für Dependency Injection.
+     */
+    @Autowired
+    public MassenUploadController( MassenUploadService massenUploadService ) {
+
+        _massenUploadService = massenUploadService;
+    }
+
+
+    /**
+     * Mehrere hochgeladene Dateien speichern; Dateien mit Endung {@code .zip} bzw.
+     * Content-Type {@code application/zip} werden entpackt.
+     *
+     * @param bilder Hochgeladene Dateien
+     *
+     * @param tagWerte Namen der Tags für alle Bilder, optional
+     *
+     * @return Bericht mit Ergebnis für jede Datei
+     *
+     * @throws IOException Fehler beim Lesen des Requests
+     */
+    @PostMapping( value = "/bilder/import", consumes = "multipart/form-data" )
+    public MassenUploadErgebnis dateienImportieren( @RequestParam( value = "bilder"  , required = true  ) List<MultipartFile> bilder,
+                                                    @RequestParam( value = "tagWerte", required = false ) List<String>        tagWerte )
+                                                  throws IOException {
+
+        LOG.info( "Massen-Upload mit {} Dateien, Tags: {}", bilder.size(), tagWerte );
+
+        try ( Auftrag auftrag = _massenUploadService.neuerAuftrag( tagWerte ) ) {
+
+            for ( MultipartFile datei : bilder ) {
+
+                final String dateiName = datei.getOriginalFilename() == null ? datei.getName() : datei.getOriginalFilename();
+
+                try ( InputStream inputStream = datei.getInputStream() ) {
+
+                    if ( istZip( dateiName, datei.getContentType() ) ) {
+
+                        auftrag.zipHinzufuegen( dateiName, inputStream );
+
+                    } else {
+
+                        auftrag.dateiHinzufuegen( dateiName, inputStream );
+                    }
+                }
+            }
+
+            return auftrag.abschliessen();
+        }
+    }
+
+
+    /**
+     * ZIP-Archiv aus dem Request-Body entpacken und die Bilder speichern.
+     *
+     * @param tagWerte Namen der Tags für alle Bilder, optional
+     *
+     * @param request Request, aus dem das ZIP-Archiv als Stream gelesen wird
+     *
+     * @return Bericht mit Ergebnis für jede Datei
+     *
+     * @throws IOException Fehler beim Lesen des Requests
+     */
+    @PostMapping( value = "/bilder/import", consumes = MIME_TYP_ZIP )
+    public MassenUploadErgebnis zipImportieren( @RequestParam( value = "tagWerte", required = false ) List<String> tagWerte,
+                                                HttpServletRequest request ) throws IOException {
+
+        LOG.info( "Massen-Upload mit ZIP-Archiv ({} Bytes), Tags: {}", request.getContentLengthLong(), tagWerte );
+
+        try ( Auftrag auftrag = _massenUploadService.neuerAuftrag( tagWerte );
+              InputStream inputStream = request.getInputStream() ) {
+
+            auftrag.zipHinzufuegen( "Request-Body", inputStream );
+
+            return auftrag.abschliessen();
+        }
+    }
+
+
+    /**
+     * Ist eine hochgeladene Datei ein ZIP-Archiv?
+     *
+     * @param dateiName Name der Datei
+     *
+     * @param contentType Content-Type laut Client, kann {@code null} sein
+     *
+     * @return {@code true}, wenn Endung {@code .zip} oder Content-Type eines ZIP-Archivs
+     */
+    private static boolean istZip( String dateiName, String contentType ) {
+
+        return dateiName.toLowerCase().endsWith( ".zip" )
+               || MIME_TYP_ZIP.equals( contentType )
+               || "application/x-zip-compressed".equals( contentType );
+    }
+
+}
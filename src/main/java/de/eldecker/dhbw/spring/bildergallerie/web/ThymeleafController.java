@@ -1,10 +1,7 @@
 package de.eldecker.dhbw.spring.bildergallerie.web;
 
-import static de.eldecker.dhbw.spring.bildergallerie.logik.SortierAttributEnum.MIME_TYP;
-import static de.eldecker.dhbw.spring.bildergallerie.logik.SortierAttributEnum.TITEL;
-import static de.eldecker.dhbw.spring.bildergallerie.logik.SortierAttributEnum.ZEIT;
-
 import static java.lang.String.format;
+import static java.util.stream.Collectors.joining;
 
 import java.util.List;
 import java.util.Optional;
@@ -23,8 +20,11 @@ import de.eldecker.dhbw.spring.bildergallerie.db.BildRepository;
 import de.eldecker.dhbw.spring.bildergallerie.db.TagRepository;
 import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
 import de.eldecker.dhbw.spring.bildergallerie.db.entities.TagEntity;
+import de.eldecker.dhbw.spring.bildergallerie.logik.BildSeite;
 import de.eldecker.dhbw.spring.bildergallerie.logik.BildService;
 import de.eldecker.dhbw.spring.bildergallerie.logik.SortierAttributEnum;
+import de.eldecker.dhbw.spring.bildergallerie.logik.SuchErgebnis;
+import de.eldecker.dhbw.spring.bildergallerie.logik.VorschauService;
 
 
 /**
@@ -51,6 +51,9 @@ public class ThymeleafController {
     /** Repo-Bean für Zugriff auf Datenbanktabelle mit Tags. */
     private final TagRepository _tagRepo;
 
+    /** Service-Bean für Vorschaubilder. */
+    private final VorschauService _vorschauService;
+
 
     /**
      * Konstruktor für Dependency Injection.
@@ -58,11 +61,13 @@ public class ThymeleafController {
     @Autowired
     public ThymeleafController( BildRepository bildRepo,
                                 BildService bildService,
-                                TagRepository tagRepo ) {
+                                TagRepository tagRepo,
+                                VorschauService vorschauService ) {
 
-        _tagRepo     = tagRepo;
-        _bildRepo    = bildRepo;
-        _bildService = bildService;
+        _tagRepo         = tagRepo;
+        _bildRepo        = bildRepo;
+        _bildService     = bildService;
+        _vorschauService = vorschauService;
     }
 
 
@@ -104,6 +109,11 @@ public class ThymeleafController {
             model.addAttribute( "bild_id"       , id                           );
             model.addAttribute( "bild_tags"     , bild.getTags()               );
 
+            final List<Integer> breiten = _vorschauService.getBreiten();
+            model.addAttribute( "vorschau_breite", breiten.get( breiten.size() - 1 ) );
+            model.addAttribute( "vorschau_srcset", srcsetFuerBild( id )             );
+            model.addAttribute( "bild_ist_gif"   , "image/gif".equals( bild.getMimeTyp() ) );
+
             LOG.info( "Bild für Einzelanzeige gefunden: {}", bild );
 
             return "anzeige-einzelbild";
@@ -112,7 +122,7 @@ public class ThymeleafController {
 
 
     /**
-     * Liste von Bildern in Tabelle anzeigen.
+     * Liste von Bildern seitenweise in Tabelle anzeigen.
      *
      * @param model Objekt, in das die Werte für die Platzhalter in der Template-Datei
      *              geschrieben werden.
@@ -122,36 +132,114 @@ public class ThymeleafController {
      *                     {@code zeit} (Default-Wert), {@code typ}, {@code titel}.
      *                     Für ungültigen Wert wird eine Fehlerseite angezeigt.
      *
+     * @param nach URL-Parameter mit Cursor für die anzuzeigende Seite (Link "Nächste Seite");
+     *             fehlt der Parameter, dann wird die erste Seite angezeigt
+     *
      * @return Template-Datei "bilder-liste" oder "bilder-liste-fehler"
      */
     @GetMapping( "/liste" )
     public String bildListeAnzeigen( Model model,
-                                     @RequestParam(defaultValue = "zeit") String sortiertNach ) {
+                                     @RequestParam(defaultValue = "zeit") String sortiertNach,
+                                     @RequestParam(required = false) String nach ) {
+
+       final Optional<SortierAttributEnum> sortierAttributOptional = SortierAttributEnum.fuerUrlParameter( sortiertNach );
+       if ( sortierAttributOptional.isEmpty() ) {
 
-       sortiertNach = sortiertNach.trim().toLowerCase();
+           final String fehlerText =
+               format( "Ungültiger Wert \"%s\" für URL-Parameter \"sortiertNach\".", sortiertNach );
+           LOG.error( fehlerText );
+           model.addAttribute( "fehlertext", fehlerText );
+           return "bilder-liste-fehler";
+       }
+       final SortierAttributEnum sortierAttribut = sortierAttributOptional.get();
 
-       SortierAttributEnum sortierAttribut = ZEIT;
+       final BildSeite bildSeite;
+       try {
 
-       switch ( sortiertNach ) {
+           bildSeite = _bildService.getBildSeite( sortierAttribut, nach );
+       }
+       catch ( IllegalArgumentException ex ) {
 
-           case "zeit" : sortierAttribut = ZEIT    ; break;
-           case "typ"  : sortierAttribut = MIME_TYP; break;
-           case "titel": sortierAttribut = TITEL   ; break;
-           default:
-               final String fehlerText =
-                   format( "Ungültiger Wert \"%s\" für URL-Parameter \"sortiertNach\".", sortiertNach );
-               LOG.error( fehlerText );
-               model.addAttribute( "fehlertext", fehlerText );
-               return "bilder-liste-fehler";
+           final String fehlerText = format( "Ungültiger Wert \"%s\" für URL-Parameter \"nach\".", nach );
+           LOG.error( fehlerText, ex );
+           model.addAttribute( "fehlertext", fehlerText );
+           return "bilder-liste-fehler";
        }
 
-       final List<BildEntity> bilderIterator = _bildService.getBildListe( sortierAttribut );
-       model.addAttribute( "bilder_liste", bilderIterator );
+       model.addAttribute( "bilder_liste"    , bildSeite.bilder()                  );
+       model.addAttribute( "bilder_anzahl"   , _bildRepo.count()                   );
+       model.addAttribute( "sortiert_nach"   , sortierAttribut.getUrlParameterWert() );
+       model.addAttribute( "ist_erste_seite" , nach == null || nach.isBlank()       );
+       model.addAttribute( "naechster_cursor", bildSeite.naechsterCursor()         );
+
+       model.addAttribute( "vorschau_breite", _vorschauService.getBreiten().get( 0 ) );
+       model.addAttribute( "vorschau_srcset", srcsetFuerBild( "{id}" )              );
 
        return "bilder-liste";
     }
 
 
+    /**
+     * Bilder nach Wörtern bzw. Wortanfängen im Titel suchen (Suchindex im Speicher,
+     * siehe {@code TitelIndex}); ohne Suchtext wird nur das Suchformular angezeigt.
+     *
+     * @param model Objekt, in das die Werte für die Platzhalter in der Template-Datei
+     *              geschrieben werden.
+     *
+     * @param q URL-Parameter mit Suchtext, z.B. "röhr hirsch"
+     *
+     * @param nach URL-Parameter mit Cursor für die anzuzeigende Seite (Link "Nächste Seite")
+     *
+     * @return Template-Datei "suche"
+     */
+    @GetMapping( "/suche" )
+    public String suche( Model model,
+                         @RequestParam(defaultValue = "") String q,
+                         @RequestParam(required = false) String nach ) {
+
+        model.addAttribute( "suchtext", q );
+
+        if ( !q.isBlank() ) {
+
+            SuchErgebnis ergebnis;
+            try {
+
+                ergebnis = _bildService.titelSuche( q, nach );
+            }
+            catch ( IllegalArgumentException ex ) {
+
+                LOG.warn( "Ungültiger Cursor \"{}\" für Suche nach \"{}\".", nach, q );
+                ergebnis = _bildService.titelSuche( q, null );
+            }
+
+            model.addAttribute( "anzahl_treffer"  , ergebnis.anzahlTreffer()   );
+            model.addAttribute( "bilder_liste"    , ergebnis.bilder()          );
+            model.addAttribute( "naechster_cursor", ergebnis.naechsterCursor() );
+        }
+
+        model.addAttribute( "vorschau_breite", _vorschauService.getBreiten().get( 0 ) );
+
+        return "suche";
+    }
+
+
+    /**
+     * Wert für Attribut {@code srcset} eines {@code <img>}-Elements erzeugen, damit der
+     * Browser das Vorschaubild mit der passenden Breite auswählen kann.
+     *
+     * @param id ID des Bildes oder Platzhalter, der im Template ersetzt wird
+     *
+     * @return z.B. {@code /app/bild/1/thumb/160 160w, /app/bild/1/thumb/320 320w}
+     */
+    private String srcsetFuerBild( Object id ) {
+
+        return _vorschauService.getBreiten()
+                               .stream()
+                               .map( breite -> "/app/bild/" + id + "/thumb/" + breite + " " + breite + "w" )
+                               .collect( joining( ", " ) );
+    }
+
+
     /**
      * Liste aller Tags anzeigen.
      *
@@ -172,7 +260,9 @@ public class ThymeleafController {
 
 
     /**
-     * Details für einzelnen Tag anzeigen (insb. Liste aller Bilder, die diesem Tag zugeordnet sind).
+     * Details für einzelnen Tag anzeigen (insb. Liste der Bilder, die diesem Tag zugeordnet sind).
+     * Die Bilder werden seitenweise angezeigt, die Anzahl wird mit einer {@code COUNT}-Query
+     * bestimmt.
      *
      * @param model Objekt, in das die Werte für die Platzhalter in der Template-Datei
      *              geschrieben werden.
@@ -180,11 +270,15 @@ public class ThymeleafController {
      * @param id URL-Parameter mit ID des Tags; wenn kein Tag mit dieser ID gefunden wird, dann wird
      *           auf eine Fehlerseite weitergeleitet.
      *
+     * @param nach URL-Parameter mit Cursor für die anzuzeigende Seite (Link "Nächste Seite");
+     *             fehlt der Parameter, dann wird die erste Seite angezeigt
+     *
      * @return Template-Datei "tag-details" oder "tag-details-fehler"
      */
     @GetMapping( "/tag/{id}")
     public String tagAnzeigen( Model model,
-                               @PathVariable("id") long id ) {
+                               @PathVariable("id") long id,
+                               @RequestParam(required = false) String nach ) {
 
         final Optional<TagEntity> tagOptional = _tagRepo.findById( id );
         if ( tagOptional.isEmpty() ) {
@@ -194,13 +288,29 @@ public class ThymeleafController {
             model.addAttribute( "fehlermeldung", fehlerText );
 
             return "tag-details-fehler";
+        }
 
-        } else {
+        final BildSeite bildSeite;
+        try {
 
-            final TagEntity tag = tagOptional.get();
-            model.addAttribute( "tag", tag );
-            return "tag-details";
+            bildSeite = _bildService.getBildSeiteFuerTag( id, nach );
         }
+        catch ( IllegalArgumentException ex ) {
+
+            final String fehlerText = format( "Ungültiger Wert \"%s\" für URL-Parameter \"nach\".", nach );
+            LOG.error( fehlerText, ex );
+            model.addAttribute( "fehlermeldung", fehlerText );
+
+            return "tag-details-fehler";
+        }
+
+        model.addAttribute( "tag"             , tagOptional.get()              );
+        model.addAttribute( "bilder_anzahl"   , _bildRepo.countByTagsId( id )  );
+        model.addAttribute( "bilder_liste"    , bildSeite.bilder()             );
+        model.addAttribute( "ist_erste_seite" , nach == null || nach.isBlank() );
+        model.addAttribute( "naechster_cursor", bildSeite.naechsterCursor()    );
+
+        return "tag-details";
     }
 
 
@@ -0,0 +1,166 @@
+package de.eldecker.dhbw.spring.bildergallerie.web;
+
+import static org.springframework.http.HttpStatus.ACCEPTED;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.SEE_OTHER;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.UploadAuftragEntity;
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.UploadAuftragStatusEnum;
+import de.eldecker.dhbw.spring.bildergallerie.logik.UploadAuftragService;
+
+
+/**
+ * RestController für asynchrone Uploads: Der Upload wird sofort mit Status-Code
+ * {@code 202 Accepted} beantwortet, das Bild wird im Hintergrund gespeichert (siehe
+ * {@link UploadAuftragService}).
+ * <br><br>
+ *
+ * Upload: {@code curl -i -F bild=@hund.jpg -F titel=Hund -F tagWerte=Hund localhost:8080/app/upload-auftrag};
+ * der Header {@code Location} der Antwort enthält die URL für die Abfrage des Status,
+ * z.B. {@code GET /app/upload-auftrag/3f0c...}. Mit URL-Parameter {@code weiterleiten=true}
+ * wird nach Abschluss des Auftrags auf die Seite des Bildes weitergeleitet.
+ */
+@RestController
+@RequestMapping( "/app/" )
+public class UploadAuftragController {
+
+    private static final Logger LOG = LoggerFactory.getLogger( UploadAuftragController.class );
+
+    /** Vorschlag für Client, nach wie vielen Sekunden der Status erneut abgefragt werden soll. */
+    private static final String SEKUNDEN_BIS_ABFRAGE = "1";
+
+
+    /**
+     * Status eines Auftrags als JSON.
+     *
+     * @param id ID des Auftrags
+     *
+     * @param status Status des Auftrags
+     *
+     * @param dateiName Name der hochgeladenen Datei
+     *
+     * @param bildId ID des gespeicherten bzw. schon vorhandenen Bildes, sonst {@code null}
+     *
+     * @param meldung Fehlermeldung, sonst {@code null}
+     */
+    public record AuftragStatus( String id, UploadAuftragStatusEnum status, String dateiName, Long bildId, String meldung ) {}
+
+
+    /** Service-Bean für asynchrone Uploads. */
+    private final UploadAuftragService _uploadAuftragService;
+
+
+    /**
+     * Konstruktor für Dependency Injection.
+     */
+    @Autowired
+    public UploadAuftragController( UploadAuftragService uploadAuftragService ) {
+
+        _uploadAuftragService = uploadAuftragService;
+    }
+
+
+    /**
+     * Hochgeladenes Bild als Auftrag annehmen.
+     *
+     * @param bild Hochgeladenes Bild
+     *
+     * @param titel Titel für das Bild; wenn leer, dann wird der Dateiname verwendet
+     *
+     * @param tagWerte Namen der Tags für das Bild, optional
+     *
+     * @return Status-Code 202 mit Status des Auftrags und URL für Abfrage des Status im
+     *         Header {@code Location}; Status-Code 400 bei leerer Datei
+     *
+     * @throws IOException Fehler beim Lesen des Uploads oder beim Schreiben ins
+     *                     Staging-Verzeichnis
+     */
+    @PostMapping( "/upload-auftrag" )
+    public ResponseEntity<AuftragStatus> auftragAnnehmen( @RequestParam( value = "bild"    , required = true  ) MultipartFile bild,
+                                                          @RequestParam( value = "titel"   , required = false ) String        titel,
+                                                          @RequestParam( value = "tagWerte", required = false ) List<String>  tagWerte )
+                                                        throws IOException {
+        if ( bild.isEmpty() ) {
+
+            LOG.warn( "Asynchroner Upload mit leerem Bild." );
+            return ResponseEntity.status( BAD_REQUEST ).build();
+        }
+
+        final String dateiName   = bild.getOriginalFilename();
+        final String titelNormal = titel == null || titel.isBlank() ? dateiName : titel.trim();
+
+        final String id;
+        try ( InputStream inputStream = bild.getInputStream() ) {
+
+            id = _uploadAuftragService.auftragAnnehmen( titelNormal, dateiName, inputStream, tagWerte );
+        }
+
+        return ResponseEntity.status( ACCEPTED )
+                             .location( URI.create( "/app/upload-auftrag/" + id ) )
+                             .header( HttpHeaders.RETRY_AFTER, SEKUNDEN_BIS_ABFRAGE )
+                             .body( new AuftragStatus( id, UploadAuftragStatusEnum.WARTEND, dateiName, null, null ) );
+    }
+
+
+    /**
+     * Status eines Auftrags abfragen.
+     *
+     * @param id ID des Auftrags
+     *
+     * @param weiterleiten Wenn {@code true} und der Auftrag ein Bild gespeichert (oder ein
+     *                     vorhandenes Bild gefunden) hat, dann Weiterleitung auf die
+     *                     Seite des Bildes
+     *
+     * @return Status des Auftrags (solange er nicht abgeschlossen ist mit Header
+     *         {@code Retry-After}), Weiterleitung mit Status-Code 303, oder Status-Code
+     *         404 wenn es keinen Auftrag mit {@code id} gibt
+     */
+    @GetMapping( "/upload-auftrag/{id}" )
+    public ResponseEntity<AuftragStatus> statusAbfragen( @PathVariable( "id" ) String id,
+                                                         @RequestParam( value = "weiterleiten", defaultValue = "false" ) boolean weiterleiten ) {
+
+        final Optional<UploadAuftragEntity> auftragOptional = _uploadAuftragService.getAuftrag( id );
+        if ( auftragOptional.isEmpty() ) {
+
+            return ResponseEntity.notFound().build();
+        }
+
+        final UploadAuftragEntity auftrag = auftragOptional.get();
+        final AuftragStatus       status  = new AuftragStatus( auftrag.getId(), auftrag.getStatus(), auftrag.getDateiName(),
+                                                               auftrag.getBildId(), auftrag.getMeldung() );
+
+        if ( !auftrag.getStatus().istEndzustand() ) {
+
+            return ResponseEntity.ok().header( HttpHeaders.RETRY_AFTER, SEKUNDEN_BIS_ABFRAGE ).body( status );
+        }
+
+        if ( weiterleiten && auftrag.getBildId() != null ) {
+
+            return ResponseEntity.status( SEE_OTHER )
+                                 .location( URI.create( "/app/einzelbild/" + auftrag.getBildId() ) )
+                                 .build();
+        }
+
+        return ResponseEntity.ok( status );
+    }
+
+}
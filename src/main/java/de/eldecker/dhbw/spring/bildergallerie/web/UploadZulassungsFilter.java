@@ -0,0 +1,234 @@
+package de.eldecker.dhbw.spring.bildergallerie.web;
+
+import static jakarta.servlet.http.HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+
+/**
+ * Zulassungskontrolle für Uploads, damit viele gleichzeitige Uploads nicht den Heap
+ * (z.B. 512 MB auf einem kleinen Heroku-Dyno) oder das temporäre Verzeichnis
+ * überlasten. Begrenzt wird nicht die Anzahl der Requests, sondern die Summe der
+ * Bytes aller gerade laufenden Uploads (laut Header {@code Content-Length}); ein
+ * großer Upload belegt also mehr vom Budget als viele kleine.
+ * <br><br>
+ *
+ * Ist das Budget ausgeschöpft, dann wartet der Upload bis zu
+ * {@code bildergallerie.upload.zulassung.max-wartezeit} auf freie Bytes (die Warteschlange
+ * ist fair, große Uploads werden also nicht von kleinen überholt); danach wird er mit
+ * Status-Code {@code 503 Service Unavailable} und Header {@code Retry-After} abgelehnt,
+ * ohne dass der Request-Body gelesen wird. Ein Upload, der größer als das ganze Budget
+ * ist, belegt das ganze Budget, läuft also allein.
+ * <br><br>
+ *
+ * Der Filter wirkt nur auf {@code POST}-Requests an die Upload-Endpunkte. Bei
+ * asynchronen Uploads ({@link UploadAuftragController}) wird nur das Schreiben ins
+ * Staging-Verzeichnis gezählt.
+ * <br><br>
+ *
+ * Metriken unter {@code /actuator/metrics}: {@code bildergallerie.upload.bytes.belegt},
+ * {@code bildergallerie.upload.wartend}, {@code bildergallerie.upload.wartezeit} und
+ * {@code bildergallerie.upload.abgelehnt}.
+ */
+@Component
+public class UploadZulassungsFilter extends OncePerRequestFilter {
+
+    private static final Logger LOG = LoggerFactory.getLogger( UploadZulassungsFilter.class );
+
+    /** Pfade der Upload-Endpunkte, für die der Filter wirkt. */
+    private static final List<String> UPLOAD_PFADE = List.of( "/app/bild", "/app/bilder/import", "/app/upload-auftrag" );
+
+    /** Einheit für die Permits des Semaphors, damit auch ein großes Budget in {@code int} passt. */
+    private static final long BYTES_PRO_PERMIT = 1024;
+
+
+    /** Ein Permit pro KB des Budgets. */
+    private final Semaphore _budget;
+
+    /** Budget in Permits (KB). */
+    private final int _budgetPermits;
+
+    /** Angenommene Größe von Uploads ohne {@code Content-Length}. */
+    private final long _unbekannteGroesse;
+
+    /** Maximale Wartezeit auf freies Budget. */
+    private final Duration _maxWartezeit;
+
+    /** Wert für Header {@code Retry-After} in Sekunden. */
+    private final String _retryAfterSekunden;
+
+    /** Anzahl der Uploads, die gerade auf freies Budget warten. */
+    private final AtomicInteger _anzahlWartend = new AtomicInteger();
+
+    /** Zähler für abgelehnte Uploads. */
+    private final Counter _abgelehntZaehler;
+
+    /** Wartezeit der zugelassenen Uploads. */
+    private final Timer _wartezeitTimer;
+
+
+    /**
+     * Konstruktor für Dependency Injection.
+     *
+     * @param maxBytes Budget für alle gleichzeitigen Uploads aus Konfiguration
+     *                 {@code bildergallerie.upload.zulassung.max-bytes}
+     *
+     * @param maxWartezeit Maximale Wartezeit aus Konfiguration
+     *                     {@code bildergallerie.upload.zulassung.max-wartezeit}
+     *
+     * @param retryAfter Wert für Header {@code Retry-After} aus Konfiguration
+     *                   {@code bildergallerie.upload.zulassung.retry-after}
+     *
+     * @param unbekannteGroesse Angenommene Größe von Uploads ohne {@code Content-Length},
+     *                          Konfiguration {@code spring.servlet.multipart.max-request-size}
+     */
+    @Autowired
+    public UploadZulassungsFilter( MeterRegistry meterRegistry,
+                                   @Value( "${bildergallerie.upload.zulassung.max-bytes}"     ) DataSize maxBytes,
+                                   @Value( "${bildergallerie.upload.zulassung.max-wartezeit}" ) Duration maxWartezeit,
+                                   @Value( "${bildergallerie.upload.zulassung.retry-after}"   ) Duration retryAfter,
+                                   @Value( "${spring.servlet.multipart.max-request-size}"     ) DataSize unbekannteGroesse ) {
+
+        _budgetPermits      = (int) Math.max( 1, maxBytes.toBytes() / BYTES_PRO_PERMIT );
+        _budget             = new Semaphore( _budgetPermits, true );
+        _unbekannteGroesse  = unbekannteGroesse.toBytes();
+        _maxWartezeit       = maxWartezeit;
+        _retryAfterSekunden = String.valueOf( Math.max( 1, retryAfter.toSeconds() ) );
+
+        Gauge.builder( "bildergallerie.upload.bytes.belegt", _budget,
+                       budget -> ( _budgetPermits - budget.availablePermits() ) * BYTES_PRO_PERMIT )
+             .description( "Summe der Bytes aller gerade laufenden Uploads" )
+             .baseUnit( "bytes" )
+             .register( meterRegistry );
+
+        Gauge.builder( "bildergallerie.upload.wartend", _anzahlWartend, AtomicInteger::get )
+             .description( "Anzahl Uploads, die auf freies Budget warten" )
+             .register( meterRegistry );
+
+        _abgelehntZaehler = Counter.builder( "bildergallerie.upload.abgelehnt" )
+                                   .description( "Anzahl Uploads, die wegen ausgeschöpftem Budget mit 503 abgelehnt wurden" )
+                                   .register( meterRegistry );
+
+        _wartezeitTimer = Timer.builder( "bildergallerie.upload.wartezeit" )
+                               .description( "Wartezeit zugelassener Uploads auf freies Budget" )
+                               .register( meterRegistry );
+
+        LOG.info( "Zulassungskontrolle für Uploads: max. {} gleichzeitig, max. Wartezeit {}.", maxBytes, maxWartezeit );
+    }
+
+
+    /**
+     * Filter nur für {@code POST}-Requests an die Upload-Endpunkte anwenden.
+     *
+     * @param request HTTP-Request
+     *
+     * @return {@code true}, wenn der Filter nicht angewendet werden soll
+     */
+    @Override
+    protected boolean shouldNotFilter( HttpServletRequest request ) {
+
+        return !"POST".equals( request.getMethod() ) ||
+               !UPLOAD_PFADE.contains( request.getRequestURI().substring( request.getContextPath().length() ) );
+    }
+
+
+    /**
+     * Budget für den Upload belegen (ggf. warten), Request bearbeiten und Budget wieder
+     * freigeben; bei Zeitüberschreitung Status-Code 503.
+     */
+    @Override
+    protected void doFilterInternal( HttpServletRequest request, HttpServletResponse response, FilterChain filterChain )
+            throws ServletException, IOException {
+
+        final long bytes   = request.getContentLengthLong() >= 0 ? request.getContentLengthLong() : _unbekannteGroesse;
+        final int  permits = (int) Math.min( _budgetPermits, Math.max( 1, ( bytes + BYTES_PRO_PERMIT - 1 ) / BYTES_PRO_PERMIT ) );
+
+        if ( !belegen( permits ) ) {
+
+            _abgelehntZaehler.increment();
+            LOG.warn( "Upload mit {} Bytes abgelehnt, Budget für gleichzeitige Uploads ausgeschöpft.", bytes );
+
+            response.setStatus( SC_SERVICE_UNAVAILABLE );
+            response.setHeader( HttpHeaders.RETRY_AFTER, _retryAfterSekunden );
+            response.setContentType( "text/plain;charset=UTF-8" );
+            response.getWriter().write( "Server ausgelastet, bitte Upload in " + _retryAfterSekunden + " Sekunden wiederholen." );
+            return;
+        }
+
+        try {
+
+            filterChain.doFilter( request, response );
+        }
+        finally {
+
+            _budget.release( permits );
+        }
+    }
+
+
+    /**
+     * Budget belegen, ggf. bis zur maximalen Wartezeit warten.
+     *
+     * @param permits Anzahl Permits (KB)
+     *
+     * @return {@code true}, wenn das Budget belegt wurde
+     */
+    private boolean belegen( int permits ) {
+
+        final long startZeit = System.nanoTime();
+        try {
+
+            // tryAcquire() ohne Timeout würde wartende Uploads überholen, auch bei fairem Semaphor
+            if ( _budget.tryAcquire( permits, 0, MILLISECONDS ) ) {
+
+                _wartezeitTimer.record( Duration.ZERO );
+                return true;
+            }
+
+            _anzahlWartend.incrementAndGet();
+            try {
+
+                final boolean belegt = _budget.tryAcquire( permits, _maxWartezeit.toMillis(), MILLISECONDS );
+                if ( belegt ) {
+
+                    _wartezeitTimer.record( Duration.ofNanos( System.nanoTime() - startZeit ) );
+                }
+                return belegt;
+            }
+            finally {
+
+                _anzahlWartend.decrementAndGet();
+            }
+        }
+        catch ( InterruptedException ex ) {
+
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import static de.eldecker.dhbw.spring.bildergallerie.helferlein.PerzeptuellerHasher.abstand;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
+import de.eldecker.dhbw.spring.bildergallerie.logik.AehnlichkeitsIndex.Treffer;
+
+
+/**
+ * Test für die Suche im BK-Baum von {@link AehnlichkeitsIndex}: Die Treffer müssen
+ * genau denen einer vollständigen Suche über alle Hash-Werte entsprechen.
+ * <br><br>
+ *
+ * Der Index wird ohne Spring-Kontext angelegt; Repository, Bildspeicher usw. werden
+ * nur für den Aufbau aus der Datenbank benötigt.
+ */
+class AehnlichkeitsIndexTest {
+
+    /** Fester Startwert, damit Fehler reproduzierbar sind. */
+    private static final long SAAT = 4711L;
+
+    private final AehnlichkeitsIndex _index = new AehnlichkeitsIndex( null, null, null, null );
+
+
+    @Test
+    void sucheEntsprichtVollstaendigerSuche() {
+
+        final Random random = new Random( SAAT );
+
+        // Gruppen von ähnlichen Hash-Werten, damit es bei kleinen Abständen Treffer gibt
+        final List<Long> hashes = new ArrayList<>();
+        for ( int gruppe = 0; gruppe < 100; gruppe++ ) {
+
+            final long basis = random.nextLong();
+            for ( int i = 0; i < 20; i++ ) {
+
+                hashes.add( bitsKippen( basis, random.nextInt( 12 ), random ) );
+            }
+        }
+        for ( int i = 0; i < hashes.size(); i++ ) {
+
+            _index.bildIndexieren( i + 1, hashes.get( i ) );
+        }
+
+        for ( int i = 0; i < 200; i++ ) {
+
+            final long gesucht    = bitsKippen( hashes.get( random.nextInt( hashes.size() ) ), random.nextInt( 6 ), random );
+            final int  maxAbstand = random.nextInt( AehnlichkeitsIndex.MAX_ABSTAND + 1 );
+
+            assertEquals( vollstaendigeSuche( hashes, gesucht, maxAbstand ), _index.suchen( gesucht, maxAbstand ),
+                          "Hash " + Long.toHexString( gesucht ) + ", Abstand " + maxAbstand );
+        }
+    }
+
+
+    @Test
+    void gleicherHashFuerMehrereBilderUndLoeschen() {
+
+        _index.bildIndexieren( 1, 0x0FL );
+        _index.bildIndexieren( 2, 0x0FL );
+        _index.bildIndexieren( 3, 0x0EL );
+
+        assertEquals( List.of( new Treffer( 1, 0 ), new Treffer( 2, 0 ), new Treffer( 3, 1 ) ), _index.suchen( 0x0FL, 1 ) );
+
+        _index.bildGeloescht( bild( 1, 0x0FL ) );
+        _index.bildGeloescht( bild( 3, 0x0EL ) );
+
+        assertEquals( List.of( new Treffer( 2, 0 ) ), _index.suchen( 0x0FL, 1 ) );
+    }
+
+
+    @Test
+    void abstandWirdBegrenzt() {
+
+        _index.bildIndexieren( 1, 0L  );
+        _index.bildIndexieren( 2, -1L ); // alle 64 Bits gesetzt
+
+        assertEquals( List.of( new Treffer( 1, 0 ) ), _index.suchen( 0L, 64 ) );
+        assertEquals( List.of( new Treffer( 1, 0 ) ), _index.suchen( 0L, -5 ) );
+        assertTrue( _index.suchen( 1L, -5 ).isEmpty() );
+    }
+
+
+    @Test
+    void leererIndex() {
+
+        assertTrue( _index.suchen( 42L, AehnlichkeitsIndex.MAX_ABSTAND ).isEmpty() );
+    }
+
+
+    /**
+     * Erwartetes Ergebnis durch Vergleich mit allen Hash-Werten bestimmen.
+     */
+    private static List<Treffer> vollstaendigeSuche( List<Long> hashes, long gesucht, int maxAbstand ) {
+
+        final List<Treffer> ergebnis = new ArrayList<>();
+        for ( int i = 0; i < hashes.size(); i++ ) {
+
+            final int d = abstand( hashes.get( i ), gesucht );
+            if ( d <= maxAbstand ) {
+
+                ergebnis.add( new Treffer( i + 1, d ) );
+            }
+        }
+        ergebnis.sort( Comparator.comparingInt( Treffer::abstand ).thenComparingLong( Treffer::bildId ) );
+
+        return ergebnis;
+    }
+
+
+    /**
+     * Zufällig gewählte Bits kippen (eine Position kann mehrfach gewählt werden).
+     */
+    private static long bitsKippen( long hash, int anzahl, Random random ) {
+
+        for ( int i = 0; i < anzahl; i++ ) {
+
+            hash ^= 1L << random.nextInt( 64 );
+        }
+
+        return hash;
+    }
+
+
+    /**
+     * Gelöschtes Bild mit ID und Hash-Wert für {@link AehnlichkeitsIndex#bildGeloescht(BildEntity)}.
+     */
+    private static BildEntity bild( long id, long hash ) {
+
+        final BildEntity bild = new BildEntity();
+        ReflectionTestUtils.setField( bild, "id", id );
+        bild.setPerzeptuellerHash( hash );
+
+        return bild;
+    }
+
+}
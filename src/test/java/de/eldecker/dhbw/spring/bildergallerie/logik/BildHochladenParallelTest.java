@@ -0,0 +1,128 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import de.eldecker.dhbw.spring.bildergallerie.logik.exceptions.BildSchonVorhandenException;
+
+
+/**
+ * Test für {@link BildService#bildHochladen(String, java.io.InputStream, List)}: Wird
+ * dasselbe Bild von mehreren Threads gleichzeitig hochgeladen, dann darf es nur einmal
+ * gespeichert werden, alle anderen Uploads werden mit {@link BildSchonVorhandenException}
+ * abgelehnt.
+ * <br><br>
+ *
+ * Es wird eine eigene In-Memory-Datenbank verwendet.
+ */
+@SpringBootTest( properties = { "spring.datasource.url=jdbc:h2:mem:hochladenparallel;DB_CLOSE_DELAY=-1",
+                                "bildergallerie.speicher.verzeichnis=target/test-bilder" } )
+class BildHochladenParallelTest {
+
+    /** Anzahl der Threads, die gleichzeitig dasselbe Bild hochladen. */
+    private static final int ANZAHL_THREADS = 8;
+
+    @Autowired
+    private BildService _bildService;
+
+    @Autowired
+    private JdbcTemplate _jdbcTemplate;
+
+
+    @Test
+    void gleichesBildParallelNurEinmalGespeichert() throws Exception {
+
+        final byte[] bytes = testBild();
+
+        final CountDownLatch startSignal = new CountDownLatch( 1 );
+        final List<Future<Long>> ergebnisse = new ArrayList<>( ANZAHL_THREADS );
+
+        final ExecutorService executor = Executors.newFixedThreadPool( ANZAHL_THREADS );
+        try {
+
+            for ( int i = 0; i < ANZAHL_THREADS; i++ ) {
+
+                final String titel = "Parallel " + i;
+                ergebnisse.add( executor.submit( () -> {
+
+                    startSignal.await();
+                    return _bildService.bildHochladen( titel, new ByteArrayInputStream( bytes ), List.of() ).getId();
+                }));
+            }
+
+            startSignal.countDown();
+
+            int anzahlGespeichert    = 0;
+            int anzahlSchonVorhanden = 0;
+            for ( Future<Long> ergebnis : ergebnisse ) {
+
+                try {
+
+                    ergebnis.get();
+                    anzahlGespeichert++;
+                }
+                catch ( ExecutionException ex ) {
+
+                    assertTrue( ex.getCause() instanceof BildSchonVorhandenException,
+                                "Unerwartete Exception: " + ex.getCause() );
+                    anzahlSchonVorhanden++;
+                }
+            }
+
+            assertEquals( 1                 , anzahlGespeichert    );
+            assertEquals( ANZAHL_THREADS - 1, anzahlSchonVorhanden );
+        }
+        finally {
+
+            executor.shutdownNow();
+        }
+
+        final Integer anzahlZeilen =
+                _jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM bilder WHERE titel LIKE 'Parallel %'", Integer.class );
+
+        assertEquals( 1, anzahlZeilen );
+    }
+
+
+    /**
+     * PNG mit zufälligen Pixeln erzeugen, damit es keinem anderen (Demo-)Bild ähnlich ist.
+     */
+    private static byte[] testBild() throws IOException {
+
+        final Random        random = new Random();
+        final BufferedImage bild   = new BufferedImage( 64, 48, BufferedImage.TYPE_INT_RGB );
+        for ( int y = 0; y < bild.getHeight(); y++ ) {
+
+            for ( int x = 0; x < bild.getWidth(); x++ ) {
+
+                bild.setRGB( x, y, random.nextInt( 0x1000000 ) );
+            }
+        }
+
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        ImageIO.write( bild, "png", byteArrayOutputStream );
+
+        return byteArrayOutputStream.toByteArray();
+    }
+
+}
@@ -0,0 +1,117 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import static de.eldecker.dhbw.spring.bildergallerie.logik.SortierAttributEnum.ZEIT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.BildRepository;
+import de.eldecker.dhbw.spring.bildergallerie.db.TagRepository;
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.BildEntity;
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.TagEntity;
+
+import jakarta.persistence.EntityManagerFactory;
+
+
+/**
+ * Test für {@link BildService#getBildSeite(SortierAttributEnum, String, int)}: Die Anzahl
+ * der SQL-Statements für eine Seite der Bilderliste darf nicht von der Anzahl der Bilder
+ * abhängen (kein "N+1-Problem" beim Laden der Tags).
+ * <br><br>
+ *
+ * Es wird eine eigene In-Memory-Datenbank verwendet; die Statements werden mit der
+ * Statistik von Hibernate gezählt.
+ */
+@SpringBootTest( properties = { "spring.datasource.url=jdbc:h2:mem:statementanzahl;DB_CLOSE_DELAY=-1",
+                                "bildergallerie.speicher.verzeichnis=target/test-bilder" } )
+class BildSeiteStatementAnzahlTest {
+
+    @Autowired
+    private BildService _bildService;
+
+    @Autowired
+    private BildRepository _bildRepo;
+
+    @Autowired
+    private TagRepository _tagRepo;
+
+    @Autowired
+    private EntityManagerFactory _entityManagerFactory;
+
+    /** Zähler für eindeutige Hash-Werte der Testbilder. */
+    private int _bildZaehler = 0;
+
+
+    @Test
+    void anzahlStatementsUnabhaengigVonAnzahlBilder() {
+
+        final TagEntity tag1 = _tagRepo.save( new TagEntity( "Statement-Test-1" ) );
+        final TagEntity tag2 = _tagRepo.save( new TagEntity( "Statement-Test-2" ) );
+
+        bilderAnlegen( 5, tag1, tag2 );
+        final long statementsWenigeBilder = statementsFuerErsteSeite();
+
+        bilderAnlegen( 40, tag1, tag2 );
+        final long statementsVieleBilder = statementsFuerErsteSeite();
+
+        assertEquals( statementsWenigeBilder, statementsVieleBilder );
+        assertTrue( statementsVieleBilder <= 2, "Statements für eine Seite: " + statementsVieleBilder );
+    }
+
+
+    /**
+     * Testbilder mit zwei Tags anlegen (nur Metadaten, keine Binärdaten im Bildspeicher).
+     */
+    private void bilderAnlegen( int anzahl, TagEntity tag1, TagEntity tag2 ) {
+
+        final List<BildEntity> bilder = new ArrayList<>( anzahl );
+        for ( int i = 0; i < anzahl; i++ ) {
+
+            _bildZaehler++;
+
+            final BildEntity bild = new BildEntity( "Testbild " + _bildZaehler, "schluessel" + _bildZaehler,
+                                                    1000, "statementtest" + _bildZaehler, "image/png" );
+            bild.addTag( tag1 );
+            bild.addTag( tag2 );
+            bilder.add( bild );
+        }
+
+        _bildRepo.saveAll( bilder );
+    }
+
+
+    /**
+     * Erste Seite (mit allen Bildern) laden und dabei die SQL-Statements zählen; vorher
+     * wird der Second-Level-Cache geleert, damit keine Zugriffe eingespart werden.
+     *
+     * @return Anzahl der ausgeführten SQL-Statements
+     */
+    private long statementsFuerErsteSeite() {
+
+        _entityManagerFactory.getCache().evictAll();
+
+        final Statistics statistik = _entityManagerFactory.unwrap( SessionFactory.class ).getStatistics();
+        statistik.clear();
+
+        final BildSeite seite = _bildService.getBildSeite( ZEIT, null, BildService.MAX_SEITEN_GROESSE );
+
+        final long anzahlStatements = statistik.getPrepareStatementCount();
+
+        assertEquals( _bildRepo.count(), seite.bilder().size() );
+        assertTrue( seite.bilder()
+                         .stream()
+                         .filter( eintrag -> eintrag.titel().startsWith( "Testbild " ) )
+                         .allMatch( eintrag -> eintrag.tags().size() == 2 ) );
+
+        return anzahlStatements;
+    }
+
+}
@@ -0,0 +1,139 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+
+/**
+ * Test für den Bloom-Filter {@link HashFilter}: Für eingefügte Hash-Werte darf er nie
+ * "sicher nicht vorhanden" melden (keine falsch negativen Ergebnisse), auch nicht nach
+ * dem Anhängen weiterer Stufen; die Falsch-Positiv-Rate muss ungefähr der
+ * konfigurierten Rate entsprechen.
+ * <br><br>
+ *
+ * Der Filter wird ohne Spring-Kontext angelegt und direkt mit
+ * {@link HashFilter#hinzufuegen(String)} gefüllt statt aus der Datenbank.
+ */
+class HashFilterTest {
+
+    /** Fester Startwert, damit Fehler reproduzierbar sind. */
+    private static final long SAAT = 4711L;
+
+    /** Konfigurierte Falsch-Positiv-Rate. */
+    private static final double RATE = 0.01;
+
+    /** Kapazität der ersten Stufe (kleinster erlaubter Wert). */
+    private static final int ERWARTETE_ANZAHL = 1_000;
+
+
+    @Test
+    void keineFalschNegativenUeberAlleStufen() {
+
+        final Random     random = new Random( SAAT );
+        final HashFilter filter = geladenerFilter();
+
+        final List<String> hashes = new ArrayList<>();
+        for ( int i = 0; i < 20_000; i++ ) {
+
+            final String hash = md5Hex( random );
+            hashes.add( hash );
+            filter.hinzufuegen( hash );
+        }
+
+        for ( String hash : hashes ) {
+
+            assertTrue( filter.vielleichtVorhanden( hash ), "Falsch negativ: " + hash );
+        }
+
+        final HashFilter.Statistik statistik = filter.getStatistik();
+        assertEquals( 20_000, statistik.anzahlHashWerte() );
+        assertEquals( 5     , statistik.anzahlStufen()    ); // Kapazität 1000 + 2000 + 4000 + 8000 + 16000
+        assertEquals( 0     , statistik.anzahlNegativ()   );
+    }
+
+
+    @Test
+    void keineFalschNegativenFuerAndereHashWerte() {
+
+        final HashFilter filter = geladenerFilter();
+
+        // keine MD5-Hex-Strings, z.B. aus Fremdquellen; Großbuchstaben sind gültiges Hex
+        final List<String> hashes = List.of( "", "abc", "nicht-hex-nicht-hex-nicht-hex-xx",
+                                             "D41D8CD98F00B204E9800998ECF8427E" );
+        hashes.forEach( filter::hinzufuegen );
+        filter.hinzufuegen( null );
+
+        for ( String hash : hashes ) {
+
+            assertTrue( filter.vielleichtVorhanden( hash ), "Falsch negativ: " + hash );
+        }
+        assertTrue( filter.vielleichtVorhanden( "d41d8cd98f00b204e9800998ecf8427e" ) );
+    }
+
+
+    @Test
+    void falschPositivRateEingehalten() {
+
+        final Random     random = new Random( SAAT );
+        final HashFilter filter = geladenerFilter();
+
+        for ( int i = 0; i < 20_000; i++ ) {
+
+            filter.hinzufuegen( md5Hex( random ) );
+        }
+
+        final int anzahlAbfragen = 100_000;
+        int anzahlPositiv = 0;
+        for ( int i = 0; i < anzahlAbfragen; i++ ) {
+
+            if ( filter.vielleichtVorhanden( md5Hex( random ) ) ) {
+
+                anzahlPositiv++;
+            }
+        }
+
+        final double rate = (double) anzahlPositiv / anzahlAbfragen;
+        assertTrue( rate <= RATE, "Falsch-Positiv-Rate " + rate );
+        assertTrue( filter.getStatistik().geschaetzteFalschPositivRate() <= RATE );
+    }
+
+
+    @Test
+    void vorDemLadenImmerVielleichtVorhanden() {
+
+        final HashFilter filter = new HashFilter( null, null, ERWARTETE_ANZAHL, RATE );
+
+        assertTrue( filter.vielleichtVorhanden( md5Hex( new Random( SAAT ) ) ) );
+        assertEquals( 0, filter.getStatistik().anzahlAbfragen() );
+    }
+
+
+    /**
+     * Filter anlegen und als geladen markieren, als wäre er beim Start aus der (leeren)
+     * Datenbank gefüllt worden.
+     */
+    private static HashFilter geladenerFilter() {
+
+        final HashFilter filter = new HashFilter( null, null, ERWARTETE_ANZAHL, RATE );
+        ReflectionTestUtils.setField( filter, "_geladen", true );
+
+        return filter;
+    }
+
+
+    /**
+     * Zufälligen MD5-Hash als Hex-String erzeugen.
+     */
+    private static String md5Hex( Random random ) {
+
+        return String.format( "%016x%016x", random.nextLong(), random.nextLong() );
+    }
+
+}
@@ -0,0 +1,168 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import de.eldecker.dhbw.spring.bildergallerie.logik.MassenUploadErgebnis.DateiErgebnis;
+import de.eldecker.dhbw.spring.bildergallerie.logik.MassenUploadService.Auftrag;
+
+
+/**
+ * Test für {@link MassenUploadService} mit ZIP-Archiven: Ergebnis für jede Datei
+ * (gespeichert, nicht unterstützt, doppelt) und Grenzen für Anzahl Dateien und
+ * Gesamtgröße eines Uploads.
+ * <br><br>
+ *
+ * Es wird eine eigene In-Memory-Datenbank mit kleinen Grenzen verwendet.
+ */
+@SpringBootTest( properties = { "spring.datasource.url=jdbc:h2:mem:massenupload;DB_CLOSE_DELAY=-1",
+                                "bildergallerie.speicher.verzeichnis=target/test-bilder",
+                                "bildergallerie.massen-upload.max-dateien=5",
+                                "bildergallerie.massen-upload.max-gesamt-groesse=2MB" } )
+class MassenUploadServiceTest {
+
+    @Autowired
+    private MassenUploadService _massenUploadService;
+
+
+    @Test
+    void ergebnisFuerJedeDatei() throws IOException {
+
+        final byte[] bildA = testBild();
+
+        final Map<String, byte[]> dateien = new LinkedHashMap<>();
+        dateien.put( "urlaub/a.png", bildA );
+        dateien.put( "urlaub/b.txt", "Kein Bild".getBytes() );
+        dateien.put( "urlaub/c.png", bildA );
+        dateien.put( "urlaub/d.png", testBild() );
+
+        final MassenUploadErgebnis ergebnis = zipHochladen( dateien );
+        final List<DateiErgebnis>  ergebnisse = ergebnis.dateien();
+
+        assertEquals( 4, ergebnisse.size() );
+        assertEquals( 2, ergebnis.anzahlGespeichert() );
+        assertEquals( 2, ergebnis.anzahlNichtGespeichert() );
+
+        assertEquals( "urlaub/a.png"                    , ergebnisse.get( 0 ).dateiName() );
+        assertEquals( DateiStatusEnum.GESPEICHERT       , ergebnisse.get( 0 ).status()    );
+        assertNotNull( ergebnisse.get( 0 ).bildId() );
+
+        assertEquals( "urlaub/b.txt"                    , ergebnisse.get( 1 ).dateiName() );
+        assertEquals( DateiStatusEnum.NICHT_UNTERSTUETZT, ergebnisse.get( 1 ).status()    );
+
+        assertEquals( "urlaub/c.png"                    , ergebnisse.get( 2 ).dateiName() );
+        assertEquals( DateiStatusEnum.SCHON_VORHANDEN   , ergebnisse.get( 2 ).status()    );
+        assertEquals( ergebnisse.get( 0 ).bildId()      , ergebnisse.get( 2 ).bildId()    );
+
+        assertEquals( "urlaub/d.png"                    , ergebnisse.get( 3 ).dateiName() );
+        assertEquals( DateiStatusEnum.GESPEICHERT       , ergebnisse.get( 3 ).status()    );
+    }
+
+
+    @Test
+    void maximaleAnzahlDateienEinEintrag() throws IOException {
+
+        final Map<String, byte[]> dateien = new LinkedHashMap<>();
+        for ( int i = 1; i <= 8; i++ ) {
+
+            dateien.put( "anzahl-" + i + ".png", testBild() );
+        }
+
+        final List<DateiErgebnis> ergebnisse = zipHochladen( dateien ).dateien();
+
+        assertEquals( 6, ergebnisse.size() );
+        for ( int i = 0; i < 5; i++ ) {
+
+            assertEquals( DateiStatusEnum.GESPEICHERT, ergebnisse.get( i ).status() );
+        }
+        assertEquals( DateiStatusEnum.FEHLER, ergebnisse.get( 5 ).status() );
+        assertTrue( ergebnisse.get( 5 ).meldung().startsWith( "Maximale Anzahl" ), ergebnisse.get( 5 ).meldung() );
+    }
+
+
+    @Test
+    void maximaleGesamtgroesseNachEntpacken() throws IOException {
+
+        // lässt sich gut komprimieren, das ZIP-Archiv selbst ist also klein
+        final byte[] nullen = new byte[ 1024 * 1024 * 3 / 2 ];
+
+        final Map<String, byte[]> dateien = new LinkedHashMap<>();
+        dateien.put( "nullen-1.bin", nullen );
+        dateien.put( "nullen-2.bin", nullen );
+        dateien.put( "nullen-3.bin", nullen );
+
+        final List<DateiErgebnis> ergebnisse = zipHochladen( dateien ).dateien();
+
+        assertEquals( 2, ergebnisse.size() );
+        assertEquals( DateiStatusEnum.NICHT_UNTERSTUETZT, ergebnisse.get( 0 ).status() );
+        assertEquals( "nullen-2.bin"                    , ergebnisse.get( 1 ).dateiName() );
+        assertEquals( DateiStatusEnum.FEHLER            , ergebnisse.get( 1 ).status() );
+        assertTrue( ergebnisse.get( 1 ).meldung().startsWith( "Maximale Gesamtgröße" ), ergebnisse.get( 1 ).meldung() );
+    }
+
+
+    /**
+     * ZIP-Archiv mit den Dateien erzeugen und als Massen-Upload speichern.
+     */
+    private MassenUploadErgebnis zipHochladen( Map<String, byte[]> dateien ) throws IOException {
+
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try ( ZipOutputStream zipOutputStream = new ZipOutputStream( byteArrayOutputStream ) ) {
+
+            for ( Map.Entry<String, byte[]> datei : dateien.entrySet() ) {
+
+                zipOutputStream.putNextEntry( new ZipEntry( datei.getKey() ) );
+                zipOutputStream.write( datei.getValue() );
+                zipOutputStream.closeEntry();
+            }
+        }
+
+        try ( Auftrag auftrag = _massenUploadService.neuerAuftrag( List.of() ) ) {
+
+            auftrag.zipHinzufuegen( "test.zip", new ByteArrayInputStream( byteArrayOutputStream.toByteArray() ) );
+
+            return auftrag.abschliessen();
+        }
+    }
+
+
+    /**
+     * PNG mit zufälligen Pixeln erzeugen, damit es keinem anderen Bild ähnlich ist.
+     */
+    private static byte[] testBild() throws IOException {
+
+        final Random        random = new Random();
+        final BufferedImage bild   = new BufferedImage( 64, 48, BufferedImage.TYPE_INT_RGB );
+        for ( int y = 0; y < bild.getHeight(); y++ ) {
+
+            for ( int x = 0; x < bild.getWidth(); x++ ) {
+
+                bild.setRGB( x, y, random.nextInt( 0x1000000 ) );
+            }
+        }
+
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        ImageIO.write( bild, "png", byteArrayOutputStream );
+
+        return byteArrayOutputStream.toByteArray();
+    }
+
+}
@@ -0,0 +1,206 @@
+package de.eldecker.dhbw.spring.bildergallerie.logik;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import de.eldecker.dhbw.spring.bildergallerie.db.TagRepository;
+import de.eldecker.dhbw.spring.bildergallerie.db.entities.TagEntity;
+
+
+/**
+ * Test für die Auswertung von Suchausdrücken mit {@link TagIndex#auswerten(String)}:
+ * Rangfolge der Operatoren, Klammern, unbekannte Tags, fehlerhafte Ausdrücke und
+ * ungültige Cursor bei der Suche.
+ * <br><br>
+ *
+ * Die Bilder werden nur im Index angelegt (IDs ab {@link #ERSTE_ID}, damit sie nicht mit
+ * den Demo-Daten kollidieren); die Ergebnisse werden auf diese IDs eingeschränkt, weil
+ * {@code NOT} sich auf alle Bilder im Index bezieht.
+ */
+@SpringBootTest( properties = { "spring.datasource.url=jdbc:h2:mem:tagindex;DB_CLOSE_DELAY=-1",
+                                "bildergallerie.speicher.verzeichnis=target/test-bilder" } )
+class TagIndexTest {
+
+    /** ID des ersten Testbildes. */
+    private static final int ERSTE_ID = 1_000_001;
+
+    @Autowired
+    private TagIndex _tagIndex;
+
+    @Autowired
+    private TagRepository _tagRepo;
+
+    @Autowired
+    private BildService _bildService;
+
+    /** IDs aller Testbilder. */
+    private final RoaringBitmap _testBilder = RoaringBitmap.bitmapOf( ERSTE_ID, ERSTE_ID + 1, ERSTE_ID + 2,
+                                                                     ERSTE_ID + 3, ERSTE_ID + 4 );
+
+
+    /**
+     * Testbilder mit Tags im Index anlegen; Tags werden nur angelegt, wenn es sie noch
+     * nicht gibt (Spring-Kontext und Datenbank werden zwischen den Tests wiederverwendet).
+     */
+    @BeforeEach
+    void bilderIndexieren() {
+
+        final TagEntity hund      = tag( "Test-Hund"       );
+        final TagEntity katze     = tag( "Test-Katze"      );
+        final TagEntity tier      = tag( "Test-Tier"       );
+        final TagEntity zeichnung = tag( "Test-Zeichnung"  );
+        final TagEntity roterHund = tag( "Test Roter Hund" );
+
+        _tagIndex.bildIndexieren( ERSTE_ID    , List.of( hund, tier )            );
+        _tagIndex.bildIndexieren( ERSTE_ID + 1, List.of( katze, tier )           );
+        _tagIndex.bildIndexieren( ERSTE_ID + 2, List.of( katze, zeichnung )      );
+        _tagIndex.bildIndexieren( ERSTE_ID + 3, List.of( zeichnung, roterHund )  );
+        _tagIndex.bildIndexieren( ERSTE_ID + 4, List.of()                        );
+    }
+
+
+    @Test
+    void undBindetStaerkerAlsOder() {
+
+        assertErgebnis( "Test-Hund OR Test-Katze AND Test-Zeichnung", 0, 2 );
+        assertErgebnis( "Test-Hund | Test-Katze & Test-Zeichnung"   , 0, 2 );
+    }
+
+
+    @Test
+    void klammernAendernRangfolge() {
+
+        assertErgebnis( "(Test-Hund OR Test-Katze) AND Test-Zeichnung", 2 );
+        assertErgebnis( "((Test-Hund) OR (Test-Katze AND (Test-Tier)))", 0, 1 );
+    }
+
+
+    @Test
+    void nichtBindetAmStaerksten() {
+
+        assertErgebnis( "NOT Test-Zeichnung AND Test-Tier", 0, 1 );
+        assertErgebnis( "!Test-Katze | Test-Hund"         , 0, 3, 4 );
+        assertErgebnis( "NOT NOT Test-Hund"               , 0 );
+        assertErgebnis( "NOT (Test-Katze OR Test-Hund)"   , 3, 4 );
+    }
+
+
+    @Test
+    void undOhneOperator() {
+
+        assertErgebnis( "Test-Katze Test-Tier"    , 1 );
+        assertErgebnis( "Test-Katze !Test-Tier"   , 2 );
+        assertErgebnis( "Test-Katze (Test-Tier)"  , 1 );
+    }
+
+
+    @Test
+    void namenOhneGrossKleinschreibungUndInAnfuehrungszeichen() {
+
+        assertErgebnis( "test-KATZE"               , 1, 2 );
+        assertErgebnis( "\"test roter hund\""      , 3 );
+        assertErgebnis( "\"Test-Tier\"&!Test-Katze", 0 ); // Operatoren ohne Leerzeichen
+    }
+
+
+    @Test
+    void unbekannterTagErgibtLeereMenge() {
+
+        assertErgebnis( "Einhorn" );
+        assertErgebnis( "Einhorn OR Test-Hund", 0 );
+        assertErgebnis( "NOT Einhorn"         , 0, 1, 2, 3, 4 );
+    }
+
+
+    @Test
+    void tagAnlegenUmbenennenLoeschen() {
+
+        final TagEntity tag = _tagRepo.save( new TagEntity( "Test-Neu" ) );
+        _tagIndex.tagGespeichert( tag );
+        _tagIndex.bildIndexieren( ERSTE_ID + 4, List.of( tag ) );
+        assertErgebnis( "Test-Neu", 4 );
+
+        tag.setName( "Test-Umbenannt" );
+        _tagIndex.tagGespeichert( _tagRepo.save( tag ) );
+        assertErgebnis( "Test-Neu" );
+        assertErgebnis( "Test-Umbenannt", 4 );
+
+        _tagIndex.tagGeloescht( tag );
+        assertErgebnis( "Test-Umbenannt" );
+    }
+
+
+    @Test
+    void fehlerhafteAusdruecke() {
+
+        final List<String> ausdruecke = List.of( "", "   ", "(Test-Hund", "Test-Hund)", "Test-Hund AND",
+                                                 "OR Test-Hund", "Test-Hund OR OR Test-Katze", "NOT",
+                                                 "()", "\"Test-Hund", "(".repeat( 60 ) + "Test-Hund" + ")".repeat( 60 ),
+                                                 "Test-Hund OR ".repeat( 100 ) + "Test-Katze" );
+        for ( String ausdruck : ausdruecke ) {
+
+            assertThrows( IllegalArgumentException.class, () -> _tagIndex.auswerten( ausdruck ),
+                          "Keine Exception für Ausdruck: " + ausdruck );
+        }
+
+        assertThrows( IllegalArgumentException.class, () -> _tagIndex.auswerten( null ) );
+    }
+
+
+    @Test
+    void ungueltigerCursorBeiSuche() {
+
+        for ( String cursor : List.of( "-1", "-2147483648", "abc", "1.5", "4294967296" ) ) {
+
+            assertThrows( IllegalArgumentException.class, () -> _bildService.tagSuche( "Test-Tier", cursor, 20 ),
+                          "Keine Exception für Cursor: " + cursor );
+        }
+    }
+
+
+    @Test
+    void ergebnisDarfVeraendertWerden() {
+
+        final RoaringBitmap ergebnis = _tagIndex.auswerten( "Test-Hund" );
+        ergebnis.clear();
+
+        assertTrue( _tagIndex.auswerten( "Test-Hund" ).contains( ERSTE_ID ) );
+    }
+
+
+    /**
+     * Tag holen bzw. anlegen.
+     */
+    private TagEntity tag( String name ) {
+
+        return _tagRepo.findByName( name ).orElseGet( () -> _tagRepo.save( new TagEntity( name ) ) );
+    }
+
+
+    /**
+     * Überprüfen, dass der Ausdruck genau die Testbilder mit den angegebenen Nummern
+     * (0 für {@link #ERSTE_ID}, 1 für das nächste usw.) liefert.
+     */
+    private void assertErgebnis( String ausdruck, int... nummern ) {
+
+        final int[] erwartet = new int[ nummern.length ];
+        for ( int i = 0; i < nummern.length; i++ ) {
+
+            erwartet[ i ] = ERSTE_ID + nummern[ i ];
+        }
+
+        final RoaringBitmap ergebnis = RoaringBitmap.and( _tagIndex.auswerten( ausdruck ), _testBilder );
+
+        assertArrayEquals( erwartet, ergebnis.toArray(), "Ausdruck: " + ausdruck );
+    }
+
+}
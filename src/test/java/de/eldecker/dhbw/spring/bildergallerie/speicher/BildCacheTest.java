@@ -0,0 +1,187 @@
+package de.eldecker.dhbw.spring.bildergallerie.speicher;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import de.eldecker.dhbw.spring.bildergallerie.speicher.BildCache.Befuellung;
+import de.eldecker.dhbw.spring.bildergallerie.speicher.BildCache.Treffer;
+
+
+/**
+ * Test für {@link BildCache}: Lesen über Seitengrenzen, Admission nach
+ * Zugriffshäufigkeit, Verdrängung in LRU-Reihenfolge und gepinnte Einträge.
+ * <br><br>
+ *
+ * Der Cache wird ohne Spring-Kontext mit vier Seiten zu je 1 KB angelegt.
+ */
+class BildCacheTest {
+
+    /** Größe einer Seite im Test. */
+    private static final int SEITE = 1024;
+
+    private final BildCache _cache = new BildCache( DataSize.ofBytes( 4 * SEITE ),
+                                                    DataSize.ofBytes( SEITE ),
+                                                    DataSize.ofBytes( 4 * SEITE ) );
+
+
+    @Test
+    void bereichUeberSeitengrenzeLesen() throws IOException {
+
+        final byte[] daten = daten( 2 * SEITE + 500, 1 );
+        befuellen( "a", daten );
+
+        try ( Treffer treffer = _cache.holen( "a" ).orElseThrow() ) {
+
+            assertEquals( daten.length, treffer.getLaenge() );
+
+            final ByteArrayOutputStream ausgabe = new ByteArrayOutputStream();
+            treffer.schreiben( ausgabe, SEITE - 10, SEITE + 20 );
+
+            assertArrayEquals( Arrays.copyOfRange( daten, SEITE - 10, 2 * SEITE + 10 ), ausgabe.toByteArray() );
+        }
+
+        assertEquals( 1, _cache.getStatistik().treffer() );
+    }
+
+
+    @Test
+    void seltenerEintragVerdraengtKeineHaeufigen() {
+
+        befuellen( "a", daten( 2 * SEITE, 1 ) );
+        befuellen( "b", daten( 2 * SEITE, 2 ) );
+        lesen( "a", 2 );
+        lesen( "b", 2 );
+
+        lesen( "c", 1 );
+        assertTrue( _cache.befuellungStarten( "c", 2 * SEITE ).isEmpty() );
+        assertEquals( 1, _cache.getStatistik().abgelehnt() );
+
+        // jetzt häufiger angefragt als "a", das am längsten nicht gelesen wurde
+        lesen( "c", 2 );
+        befuellen( "c", daten( 2 * SEITE, 3 ) );
+
+        assertFalse( _cache.enthaelt( "a" ) );
+        assertTrue(  _cache.enthaelt( "b" ) );
+        assertTrue(  _cache.enthaelt( "c" ) );
+        assertEquals( 1, _cache.getStatistik().verdraengt() );
+    }
+
+
+    @Test
+    void verdraengungInLruReihenfolge() {
+
+        befuellen( "a", daten( 2 * SEITE, 1 ) );
+        befuellen( "b", daten( 2 * SEITE, 2 ) );
+        lesen( "b", 1 );
+        lesen( "a", 1 ); // "b" ist jetzt am längsten nicht gelesen
+
+        lesen( "c", 3 );
+        befuellen( "c", daten( SEITE, 3 ) );
+
+        assertTrue(  _cache.enthaelt( "a" ) );
+        assertFalse( _cache.enthaelt( "b" ) );
+        assertTrue(  _cache.enthaelt( "c" ) );
+    }
+
+
+    @Test
+    void gepinnterEintragWirdNichtVerdraengt() throws IOException {
+
+        final byte[] daten = daten( 4 * SEITE, 1 );
+        befuellen( "a", daten );
+
+        final Treffer treffer = _cache.holen( "a" ).orElseThrow();
+
+        lesen( "b", 5 );
+        assertTrue( _cache.befuellungStarten( "b", SEITE ).isEmpty() );
+        assertTrue( _cache.enthaelt( "a" ) );
+
+        final ByteArrayOutputStream ausgabe = new ByteArrayOutputStream();
+        treffer.schreiben( ausgabe, 0, daten.length );
+        assertArrayEquals( daten, ausgabe.toByteArray() );
+
+        treffer.close();
+        treffer.close(); // zweites close() darf nichts ändern
+
+        befuellen( "b", daten( SEITE, 2 ) );
+        assertFalse( _cache.enthaelt( "a" ) );
+        assertEquals( SEITE, _cache.getStatistik().bytesBelegt() );
+    }
+
+
+    @Test
+    void zuGrossUndAbgebrochen() {
+
+        assertTrue( _cache.befuellungStarten( "gross", 4 * SEITE + 1 ).isEmpty() );
+        assertTrue( _cache.befuellungStarten( "leer" , 0             ).isEmpty() );
+
+        // Bilddaten kürzer als angekündigt: Seiten werden wieder freigegeben
+        final Befuellung befuellung = _cache.befuellungStarten( "kurz", 2 * SEITE ).orElseThrow();
+        befuellung.schreiben( new byte[ SEITE ], 0, SEITE );
+        befuellung.abschliessen();
+
+        assertFalse( _cache.enthaelt( "kurz" ) );
+        assertEquals( 0, _cache.getStatistik().bytesBelegt() );
+    }
+
+
+    @Test
+    void abgeschaltet() {
+
+        final BildCache cache = new BildCache( DataSize.ofBytes( 0 ), DataSize.ofBytes( SEITE ), DataSize.ofBytes( SEITE ) );
+
+        assertTrue( cache.befuellungStarten( "a", 10 ).isEmpty() );
+        assertEquals( Optional.empty(), cache.holen( "a" ) );
+    }
+
+
+    /**
+     * Eintrag anlegen; die Admission muss ihn annehmen.
+     */
+    private void befuellen( String schluessel, byte[] daten ) {
+
+        final Befuellung befuellung = _cache.befuellungStarten( schluessel, daten.length ).orElseThrow();
+        befuellung.schreiben( daten, 0, daten.length );
+        befuellung.abschliessen();
+
+        assertTrue( _cache.enthaelt( schluessel ) );
+    }
+
+
+    /**
+     * Schlüssel {@code anzahl} mal anfragen (zählt für Häufigkeitsschätzung und LRU).
+     */
+    private void lesen( String schluessel, int anzahl ) {
+
+        for ( int i = 0; i < anzahl; i++ ) {
+
+            _cache.holen( schluessel ).ifPresent( Treffer::close );
+        }
+    }
+
+
+    /**
+     * Testdaten erzeugen, die sich je nach {@code saat} unterscheiden.
+     */
+    private static byte[] daten( int laenge, int saat ) {
+
+        final byte[] daten = new byte[ laenge ];
+        for ( int i = 0; i < laenge; i++ ) {
+
+            daten[ i ] = (byte) ( i * 31 + saat );
+        }
+
+        return daten;
+    }
+
+}
@@ -0,0 +1,216 @@
+package de.eldecker.dhbw.spring.bildergallerie.web;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import de.eldecker.dhbw.spring.bildergallerie.logik.BildService;
+
+
+/**
+ * Test für Range-Requests an {@link BildRestController#getBild}: einzelne und mehrere
+ * Bereiche, Zusammenfassen überlappender Bereiche, Begrenzung der Gesamtgröße,
+ * nicht erfüllbare Bereiche und Header {@code If-Range}.
+ * <br><br>
+ *
+ * Es wird eine eigene In-Memory-Datenbank verwendet; das Testbild wird einmal
+ * hochgeladen und danach über HTTP abgerufen. Der Second-Level-Cache von Hibernate
+ * ist abgeschaltet, weil sich alle Test-Kontexte in derselben JVM einen Cache-Manager
+ * teilen und sonst unter derselben ID das Bild eines anderen Kontexts finden würden.
+ */
+@SpringBootTest( webEnvironment = RANDOM_PORT,
+                 properties = { "spring.datasource.url=jdbc:h2:mem:bildrange;DB_CLOSE_DELAY=-1",
+                                "bildergallerie.speicher.verzeichnis=target/test-bilder",
+                                "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+                                "spring.jpa.properties.hibernate.cache.use_query_cache=false" } )
+class BildRestControllerRangeTest {
+
+    /** Binärdaten des Testbildes, für alle Tests gleich. */
+    private static byte[] _bytes;
+
+    /** ID des Testbildes. */
+    private static Long _bildId;
+
+    @Autowired
+    private BildService _bildService;
+
+    @Autowired
+    private TestRestTemplate _restTemplate;
+
+
+    /**
+     * Testbild beim ersten Test hochladen.
+     */
+    @BeforeEach
+    void bildHochladen() throws Exception {
+
+        if ( _bildId == null ) {
+
+            _bytes  = testBild();
+            _bildId = _bildService.bildHochladen( "Range-Test", new ByteArrayInputStream( _bytes ), List.of() ).getId();
+        }
+    }
+
+
+    @Test
+    void einzelnerBereich() {
+
+        final ResponseEntity<byte[]> response = holen( "bytes=0-99", null );
+
+        assertEquals( HttpStatus.PARTIAL_CONTENT, response.getStatusCode() );
+        assertEquals( "bytes 0-99/" + _bytes.length, response.getHeaders().getFirst( HttpHeaders.CONTENT_RANGE ) );
+        assertArrayEquals( Arrays.copyOfRange( _bytes, 0, 100 ), response.getBody() );
+    }
+
+
+    @Test
+    void letzteBytes() {
+
+        final ResponseEntity<byte[]> response = holen( "bytes=-10", null );
+
+        assertEquals( HttpStatus.PARTIAL_CONTENT, response.getStatusCode() );
+        assertArrayEquals( Arrays.copyOfRange( _bytes, _bytes.length - 10, _bytes.length ), response.getBody() );
+    }
+
+
+    @Test
+    void ueberlappendeBereicheWerdenZusammengefasst() {
+
+        final ResponseEntity<byte[]> response = holen( "bytes=200-299,0-99,50-199", null );
+
+        assertEquals( HttpStatus.PARTIAL_CONTENT, response.getStatusCode() );
+        assertEquals( "bytes 0-299/" + _bytes.length, response.getHeaders().getFirst( HttpHeaders.CONTENT_RANGE ) );
+        assertArrayEquals( Arrays.copyOfRange( _bytes, 0, 300 ), response.getBody() );
+    }
+
+
+    @Test
+    void mehrereBereicheAlsMultipart() {
+
+        final ResponseEntity<byte[]> response = holen( "bytes=0-9,100-109", null );
+
+        assertEquals( HttpStatus.PARTIAL_CONTENT, response.getStatusCode() );
+        assertNotNull( response.getHeaders().getContentType() );
+        assertEquals( "multipart/byteranges", response.getHeaders().getContentType().toString().split( ";" )[ 0 ] );
+
+        final String body = new String( response.getBody(), StandardCharsets.ISO_8859_1 );
+        assertTrue( body.contains( "Content-Range: bytes 0-9/" + _bytes.length ) );
+        assertTrue( body.contains( "Content-Range: bytes 100-109/" + _bytes.length ) );
+        assertEquals( response.getHeaders().getContentLength(), response.getBody().length );
+    }
+
+
+    @Test
+    void bereicheGroesserAlsBildErgebenGanzesBild() {
+
+        final ResponseEntity<byte[]> response = holen( "bytes=0-,0-,0-,0-", null );
+
+        assertEquals( HttpStatus.OK, response.getStatusCode() );
+        assertArrayEquals( _bytes, response.getBody() );
+    }
+
+
+    @Test
+    void nichtErfuellbarerBereich() {
+
+        final ResponseEntity<byte[]> response = holen( "bytes=" + _bytes.length + "-", null );
+
+        assertEquals( HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatusCode() );
+        assertEquals( "bytes */" + _bytes.length, response.getHeaders().getFirst( HttpHeaders.CONTENT_RANGE ) );
+    }
+
+
+    @Test
+    void ifRangeMitEtag() {
+
+        final String etag = holen( null, null ).getHeaders().getETag();
+        assertNotNull( etag );
+
+        assertEquals( HttpStatus.PARTIAL_CONTENT, holen( "bytes=0-9", etag ).getStatusCode() );
+
+        final ResponseEntity<byte[]> veraltet = holen( "bytes=0-9", "\"00000000000000000000000000000000\"" );
+        assertEquals( HttpStatus.OK, veraltet.getStatusCode() );
+        assertArrayEquals( _bytes, veraltet.getBody() );
+
+        // schwache ETags sind für If-Range nie gültig
+        assertEquals( HttpStatus.OK, holen( "bytes=0-9", "W/" + etag ).getStatusCode() );
+    }
+
+
+    @Test
+    void ifRangeMitDatum() {
+
+        final String zuletztGeaendert = holen( null, null ).getHeaders().getFirst( HttpHeaders.LAST_MODIFIED );
+        assertNotNull( zuletztGeaendert );
+
+        assertEquals( HttpStatus.PARTIAL_CONTENT, holen( "bytes=0-9", zuletztGeaendert ).getStatusCode() );
+        assertEquals( HttpStatus.OK, holen( "bytes=0-9", "Thu, 01 Jan 1970 00:00:00 GMT" ).getStatusCode() );
+    }
+
+
+    /**
+     * Testbild mit optionalen Headern {@code Range} und {@code If-Range} abrufen.
+     */
+    private ResponseEntity<byte[]> holen( String range, String ifRange ) {
+
+        final HttpHeaders headers = new HttpHeaders();
+        if ( range != null ) {
+
+            headers.set( HttpHeaders.RANGE, range );
+        }
+        if ( ifRange != null ) {
+
+            headers.set( HttpHeaders.IF_RANGE, ifRange );
+        }
+
+        return _restTemplate.exchange( "/app/bild/" + _bildId, HttpMethod.GET, new HttpEntity<>( headers ), byte[].class );
+    }
+
+
+    /**
+     * PNG mit zufälligen Pixeln erzeugen (lässt sich kaum komprimieren, ist also
+     * einige KB groß).
+     */
+    private static byte[] testBild() throws IOException {
+
+        final Random        random = new Random();
+        final BufferedImage bild   = new BufferedImage( 64, 48, BufferedImage.TYPE_INT_RGB );
+        for ( int y = 0; y < bild.getHeight(); y++ ) {
+
+            for ( int x = 0; x < bild.getWidth(); x++ ) {
+
+                bild.setRGB( x, y, random.nextInt( 0x1000000 ) );
+            }
+        }
+
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        ImageIO.write( bild, "png", byteArrayOutputStream );
+
+        return byteArrayOutputStream.toByteArray();
+    }
+
+}
@@ -0,0 +1,213 @@
+package de.eldecker.dhbw.spring.bildergallerie.web;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import jakarta.servlet.FilterChain;
+
+
+/**
+ * Test für {@link UploadZulassungsFilter}: Uploads werden zugelassen, solange das Budget
+ * reicht; ist es ausgeschöpft, dann wird nach der maximalen Wartezeit mit Status-Code
+ * 503 und Header {@code Retry-After} abgelehnt, ohne dass der Request bearbeitet wird.
+ * <br><br>
+ *
+ * Der Filter wird ohne Spring-Kontext mit einem Budget von 10 KB angelegt; ein Upload,
+ * der das Budget belegen soll, blockiert in der {@link FilterChain}, bis er freigegeben
+ * wird.
+ */
+class UploadZulassungsFilterTest {
+
+    /** Budget für alle gleichzeitigen Uploads. */
+    private static final int BUDGET = 10 * 1024;
+
+    private final SimpleMeterRegistry _meterRegistry = new SimpleMeterRegistry();
+
+    private final ExecutorService _executor = Executors.newCachedThreadPool();
+
+    /** Anzahl der Requests, die bis zur {@link FilterChain} durchgekommen sind. */
+    private final AtomicInteger _anzahlBearbeitet = new AtomicInteger();
+
+
+    @AfterEach
+    void aufraeumen() {
+
+        _executor.shutdownNow();
+    }
+
+
+    @Test
+    void zugelassenWennBudgetFrei() throws Exception {
+
+        final UploadZulassungsFilter filter = filter( Duration.ofMillis( 100 ) );
+
+        final MockHttpServletResponse response = upload( filter, BUDGET / 2 );
+
+        assertEquals( 200, response.getStatus() );
+        assertEquals( 1  , _anzahlBearbeitet.get() );
+    }
+
+
+    @Test
+    void abgelehntMit503UndRetryAfter() throws Exception {
+
+        final UploadZulassungsFilter filter = filter( Duration.ofMillis( 100 ) );
+
+        final CountDownLatch freigeben = new CountDownLatch( 1 );
+        final Future<MockHttpServletResponse> grosserUpload = blockierenderUpload( filter, BUDGET, freigeben );
+
+        final MockHttpServletResponse abgelehnt = upload( filter, 1 );
+
+        assertEquals( 503, abgelehnt.getStatus() );
+        assertEquals( "7", abgelehnt.getHeader( HttpHeaders.RETRY_AFTER ) );
+        assertTrue( abgelehnt.getContentAsString().contains( "7 Sekunden" ) );
+        assertEquals( 1  , _anzahlBearbeitet.get() ); // nur der große Upload
+        assertEquals( 1.0, _meterRegistry.get( "bildergallerie.upload.abgelehnt" ).counter().count() );
+        assertEquals( BUDGET, _meterRegistry.get( "bildergallerie.upload.bytes.belegt" ).gauge().value() );
+
+        // nach dem großen Upload ist das Budget wieder frei
+        freigeben.countDown();
+        assertEquals( 200, grosserUpload.get( 5, SECONDS ).getStatus() );
+        assertEquals( 200, upload( filter, BUDGET ).getStatus() );
+        assertEquals( 0.0, _meterRegistry.get( "bildergallerie.upload.bytes.belegt" ).gauge().value() );
+    }
+
+
+    @Test
+    void wartenderUploadWirdZugelassen() throws Exception {
+
+        final UploadZulassungsFilter filter = filter( Duration.ofSeconds( 10 ) );
+
+        final CountDownLatch freigeben = new CountDownLatch( 1 );
+        final Future<MockHttpServletResponse> ersterUpload = blockierenderUpload( filter, BUDGET, freigeben );
+
+        final Future<MockHttpServletResponse> zweiterUpload = _executor.submit( () -> upload( filter, 1024 ) );
+        while ( _meterRegistry.get( "bildergallerie.upload.wartend" ).gauge().value() < 1 ) {
+
+            Thread.sleep( 10 );
+        }
+        assertEquals( 1, _anzahlBearbeitet.get() );
+
+        freigeben.countDown();
+
+        assertEquals( 200, ersterUpload.get( 5, SECONDS ).getStatus() );
+        assertEquals( 200, zweiterUpload.get( 5, SECONDS ).getStatus() );
+        assertEquals( 2  , _anzahlBearbeitet.get() );
+    }
+
+
+    @Test
+    void andereRequestsWerdenNichtGefiltert() throws Exception {
+
+        final UploadZulassungsFilter filter = filter( Duration.ofMillis( 100 ) );
+
+        final CountDownLatch freigeben = new CountDownLatch( 1 );
+        blockierenderUpload( filter, BUDGET, freigeben );
+
+        final MockHttpServletRequest  request  = new MockHttpServletRequest( "GET", "/app/bild/42" );
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter( request, response, zaehlendeFilterChain() );
+
+        final MockHttpServletRequest  andererPfad         = new MockHttpServletRequest( "POST", "/app/bild/42/tags" );
+        final MockHttpServletResponse andererPfadResponse = new MockHttpServletResponse();
+        andererPfad.setContent( new byte[ 1024 ] );
+        filter.doFilter( andererPfad, andererPfadResponse, zaehlendeFilterChain() );
+
+        assertEquals( 200, response.getStatus() );
+        assertEquals( 200, andererPfadResponse.getStatus() );
+        assertEquals( 3  , _anzahlBearbeitet.get() );
+
+        freigeben.countDown();
+    }
+
+
+    /**
+     * Filter mit Budget {@link #BUDGET} und {@code Retry-After} von 7 Sekunden anlegen.
+     */
+    private UploadZulassungsFilter filter( Duration maxWartezeit ) {
+
+        return new UploadZulassungsFilter( _meterRegistry, DataSize.ofBytes( BUDGET ), maxWartezeit,
+                                           Duration.ofSeconds( 7 ), DataSize.ofMegabytes( 1 ) );
+    }
+
+
+    /**
+     * Upload mit {@code bytes} Bytes an {@code POST /app/bild} durch den Filter schicken.
+     */
+    private MockHttpServletResponse upload( UploadZulassungsFilter filter, int bytes ) throws Exception {
+
+        return upload( filter, bytes, zaehlendeFilterChain() );
+    }
+
+
+    /**
+     * Upload mit {@code bytes} Bytes an {@code POST /app/bild} mit eigener Filter-Chain.
+     */
+    private MockHttpServletResponse upload( UploadZulassungsFilter filter, int bytes, FilterChain filterChain )
+            throws Exception {
+
+        final MockHttpServletRequest  request  = new MockHttpServletRequest( "POST", "/app/bild" );
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        request.setContent( new byte[ bytes ] );
+
+        filter.doFilter( request, response, filterChain );
+
+        return response;
+    }
+
+
+    /**
+     * Upload in eigenem Thread starten, der in der {@link FilterChain} bis zur Freigabe
+     * blockiert; kehrt erst zurück, wenn der Upload sein Budget belegt hat.
+     */
+    private Future<MockHttpServletResponse> blockierenderUpload( UploadZulassungsFilter filter, int bytes,
+                                                                 CountDownLatch freigeben ) throws InterruptedException {
+
+        final CountDownLatch belegt = new CountDownLatch( 1 );
+
+        final Future<MockHttpServletResponse> ergebnis = _executor.submit( () -> upload( filter, bytes, ( request, response ) -> {
+
+            _anzahlBearbeitet.incrementAndGet();
+            belegt.countDown();
+            try {
+
+                freigeben.await();
+            }
+            catch ( InterruptedException ex ) {
+
+                Thread.currentThread().interrupt();
+            }
+        }));
+
+        assertTrue( belegt.await( 5, SECONDS ) );
+
+        return ergebnis;
+    }
+
+
+    /**
+     * Filter-Chain, die nur mitzählt.
+     */
+    private FilterChain zaehlendeFilterChain() {
+
+        return ( request, response ) -> _anzahlBearbeitet.incrementAndGet();
+    }
+
+}